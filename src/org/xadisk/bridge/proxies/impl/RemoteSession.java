@@ -20,6 +20,9 @@ package org.xadisk.bridge.proxies.impl;
 import org.xadisk.bridge.proxies.facilitators.RemoteMethodInvoker;
 import org.xadisk.bridge.proxies.facilitators.RemoteObjectProxy;
 import java.io.File;
+import org.xadisk.bridge.proxies.interfaces.AsynchronousCommit;
+import org.xadisk.bridge.proxies.interfaces.CommitListener;
+import org.xadisk.filesystem.AsynchronousCommitTracker;
 import org.xadisk.filesystem.SessionCommonness;
 import org.xadisk.filesystem.exceptions.DirectoryNotEmptyException;
 import org.xadisk.filesystem.exceptions.FileAlreadyExistsException;
@@ -379,6 +382,21 @@ public class RemoteSession extends RemoteObjectProxy implements SessionCommonnes
         }
     }
 
+    public AsynchronousCommit commitAsync() throws NoTransactionAssociatedException {
+        return commitAsync(null);
+    }
+
+    /*
+     * The listener cannot be notified across the remote invocation, so the commit is done
+     * synchronously and the returned commit has already been applied.
+     */
+    public AsynchronousCommit commitAsync(CommitListener listener) throws NoTransactionAssociatedException {
+        AsynchronousCommitTracker commitTracker = new AsynchronousCommitTracker(listener);
+        commit(true);
+        commitTracker.commitApplied();
+        return commitTracker;
+    }
+
     public void rollback() throws NoTransactionAssociatedException {
         try {
             invokeRemoteMethod("rollback");
@@ -0,0 +1,63 @@
+/*
+ * Engineering Ingegneria Informatica S.p.A.
+ *
+ * Copyright (C) 2023 Regione Emilia-Romagna
+ * <p/>
+ * This program is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU Affero General Public License as published by the Free Software Foundation,
+ * either version 3 of the License, or (at your option) any later version.
+ * <p/>
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU Affero General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.xadisk.bridge.proxies.interfaces;
+
+import org.xadisk.filesystem.exceptions.NoTransactionAssociatedException;
+import org.xadisk.filesystem.exceptions.XASystemException;
+
+/**
+ * Represents a commit started through {@link Session#commitAsync(CommitListener) commitAsync}.
+ * <p> The commit goes through two stages. It becomes <i>durable</i> once the commit decision has
+ * been forced to the transaction log; from then on, the changes made by the transaction survive
+ * a crash and can no more be rolled back. It becomes <i>applied</i> once the changes have also been
+ * made to the real files and directories, and so are visible to other transactions.
+ *
+ * @since 1.2.3
+ */
+
+public interface AsynchronousCommit {
+
+    /**
+     * Tells whether the commit has become durable.
+     * @return true, if the commit has become durable.
+     */
+    public boolean isDurable();
+
+    /**
+     * Tells whether the changes of the transaction have been applied to the real files.
+     * @return true, if the changes have been applied.
+     */
+    public boolean isApplied();
+
+    /**
+     * Waits till the commit becomes durable.
+     * @throws NoTransactionAssociatedException if the transaction could not be committed.
+     * @throws InterruptedException
+     * @throws XASystemException if the XADisk instance failed before the commit became durable.
+     */
+    public void waitUntilDurable() throws NoTransactionAssociatedException, InterruptedException;
+
+    /**
+     * Waits till the changes of the transaction are applied to the real files.
+     * @throws NoTransactionAssociatedException if the transaction could not be committed.
+     * @throws InterruptedException
+     * @throws XASystemException if the changes could not be applied; if the commit had already
+     * become durable, its changes are applied during the recovery of XADisk.
+     */
+    public void waitUntilApplied() throws NoTransactionAssociatedException, InterruptedException;
+}
@@ -0,0 +1,51 @@
+/*
+ * Engineering Ingegneria Informatica S.p.A.
+ *
+ * Copyright (C) 2023 Regione Emilia-Romagna
+ * <p/>
+ * This program is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU Affero General Public License as published by the Free Software Foundation,
+ * either version 3 of the License, or (at your option) any later version.
+ * <p/>
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU Affero General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.xadisk.bridge.proxies.interfaces;
+
+import org.xadisk.filesystem.exceptions.NoTransactionAssociatedException;
+import org.xadisk.filesystem.exceptions.XASystemException;
+
+/**
+ * This interface can be implemented to get notified of the progress of a commit started through
+ * {@link Session#commitAsync(CommitListener) commitAsync}.
+ * <p> The methods are called by the thread completing the commit, and should return quickly.
+ * Any exception thrown by these methods is ignored.
+ *
+ * @since 1.2.3
+ */
+
+public interface CommitListener {
+
+    /**
+     * Called once the commit has become durable.
+     */
+    public void commitDurable();
+
+    /**
+     * Called once the changes of the transaction have been applied to the real files.
+     */
+    public void commitApplied();
+
+    /**
+     * Called if the commit could not be completed. If the commit had already become durable,
+     * its changes are applied during the recovery of XADisk.
+     * @param failure the reason the commit could not be completed; either a
+     * {@link NoTransactionAssociatedException} or an {@link XASystemException}.
+     */
+    public void commitFailed(Exception failure);
+}
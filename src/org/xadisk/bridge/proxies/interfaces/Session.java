@@ -63,7 +63,31 @@ public interface Session extends XADiskBasicIOOperations {
 
     /**
      * Commits the transaction associated with this Session.
+     * <p> When {@link FileSystemConfiguration#getCommitWriteBehind() commitWriteBehind} is set, this
+     * method returns once the commit has become durable, and the changes are applied to the real
+     * files in the background.
      * @throws NoTransactionAssociatedException
      */
     public void commit() throws NoTransactionAssociatedException;
+
+    /**
+     * Starts committing the transaction associated with this Session, and returns without waiting
+     * for the commit to complete. The commit is completed by a thread of XADisk, and its progress
+     * can be followed through the returned {@link AsynchronousCommit}.
+     * <p> Once this method returns, the Session can no more be used.
+     * @return the commit in progress.
+     * @throws NoTransactionAssociatedException
+     * @since 1.2.3
+     */
+    public AsynchronousCommit commitAsync() throws NoTransactionAssociatedException;
+
+    /**
+     * Same as {@link #commitAsync()}, but also notifies the given listener as the commit makes
+     * progress.
+     * @param listener the listener to notify; can be null.
+     * @return the commit in progress.
+     * @throws NoTransactionAssociatedException
+     * @since 1.2.3
+     */
+    public AsynchronousCommit commitAsync(CommitListener listener) throws NoTransactionAssociatedException;
 }
@@ -0,0 +1,125 @@
+/*
+ * Engineering Ingegneria Informatica S.p.A.
+ *
+ * Copyright (C) 2023 Regione Emilia-Romagna
+ * <p/>
+ * This program is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU Affero General Public License as published by the Free Software Foundation,
+ * either version 3 of the License, or (at your option) any later version.
+ * <p/>
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU Affero General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.xadisk.filesystem;
+
+import java.util.concurrent.CountDownLatch;
+import org.xadisk.bridge.proxies.interfaces.AsynchronousCommit;
+import org.xadisk.bridge.proxies.interfaces.CommitListener;
+import org.xadisk.filesystem.exceptions.NoTransactionAssociatedException;
+
+/**
+ * Keeps the progress of a commit started through {@link NativeSession#commitAsync(CommitListener)}
+ * and notifies the listener, if any, as the commit makes progress.
+ */
+public class AsynchronousCommitTracker implements AsynchronousCommit {
+
+    private final CommitListener listener;
+    private final CountDownLatch durableLatch = new CountDownLatch(1);
+    private final CountDownLatch appliedLatch = new CountDownLatch(1);
+    private volatile boolean durable = false;
+    private volatile boolean applied = false;
+    private volatile Exception durabilityFailure = null;
+    private volatile Exception applicationFailure = null;
+
+    public AsynchronousCommitTracker(CommitListener listener) {
+        this.listener = listener;
+    }
+
+    public boolean isDurable() {
+        return durable;
+    }
+
+    public boolean isApplied() {
+        return applied;
+    }
+
+    public void waitUntilDurable() throws NoTransactionAssociatedException, InterruptedException {
+        durableLatch.await();
+        throwIfFailed(durabilityFailure);
+    }
+
+    public void waitUntilApplied() throws NoTransactionAssociatedException, InterruptedException {
+        appliedLatch.await();
+        throwIfFailed(applicationFailure);
+    }
+
+    public void commitDurable() {
+        synchronized (this) {
+            if (durable || applicationFailure != null) {
+                return;
+            }
+            durable = true;
+        }
+        durableLatch.countDown();
+        if (listener != null) {
+            try {
+                listener.commitDurable();
+            } catch (Throwable t) {
+                //ignored, as documented in CommitListener.
+            }
+        }
+    }
+
+    public void commitApplied() {
+        commitDurable();
+        synchronized (this) {
+            if (applied || applicationFailure != null) {
+                return;
+            }
+            applied = true;
+        }
+        appliedLatch.countDown();
+        if (listener != null) {
+            try {
+                listener.commitApplied();
+            } catch (Throwable t) {
+                //ignored, as documented in CommitListener.
+            }
+        }
+    }
+
+    public void commitFailed(Exception failure) {
+        synchronized (this) {
+            if (applied || applicationFailure != null) {
+                return;
+            }
+            applicationFailure = failure;
+            if (!durable) {
+                durabilityFailure = failure;
+            }
+        }
+        durableLatch.countDown();
+        appliedLatch.countDown();
+        if (listener != null) {
+            try {
+                listener.commitFailed(failure);
+            } catch (Throwable t) {
+                //ignored, as documented in CommitListener.
+            }
+        }
+    }
+
+    private static void throwIfFailed(Exception failure) throws NoTransactionAssociatedException {
+        if (failure instanceof NoTransactionAssociatedException) {
+            throw (NoTransactionAssociatedException) failure;
+        }
+        if (failure instanceof RuntimeException) {
+            throw (RuntimeException) failure;
+        }
+    }
+}
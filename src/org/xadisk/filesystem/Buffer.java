@@ -18,24 +18,47 @@
 package org.xadisk.filesystem;
 
 import org.xadisk.filesystem.pools.PooledBuffer;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
+/**
+ * Holds a log entry, or the content of a file, in memory.
+ * <p> The memory of a non-pooled buffer is accounted for (see
+ * {@link NativeXAFileSystem#getTotalNonPooledBufferSize()}) till the buffer is released by its
+ * owners. A buffer starts with a single reference, owned by its creator; this reference goes along
+ * with the buffer when it is submitted for logging, to the session of the transaction which keeps it
+ * till the transaction is over. A buffer whose content is dropped for being on the disk is no more
+ * accounted for, whatever its references.
+ * <p> A session over its memory quota spills its buffers which are already in the log: their content
+ * is dropped, and their memory (pooled or not) is given back as soon as no stream is reading it.
+ * A virtual copy (see {@link #createVirtualCopy()}) shares the content, and the references, of its
+ * buffer, and is spilled along with it.
+ * <p> A buffer over a slice of a larger slab is not accounted for by itself; it keeps a reference
+ * to the slab, which is accounted for as a whole till its last slice is released.
+ */
 public class Buffer {
 
     protected ByteBuffer buffer;
-    private final boolean hasItsOwnBytes;
+    private final NonPooledBufferTracker.TrackedBuffer trackedBuffer;
+    private final AtomicInteger references = new AtomicInteger(1);
+    private final AtomicReference<Buffer> slab;
+    private volatile boolean spilled = false;
+    private volatile long lastUsed = System.nanoTime();
+    private Buffer source;
+    private ArrayList<Buffer> virtualCopies;
     public final boolean isDirect;
     private volatile OnDiskInfo onDiskInfo = null;
     private long fileContentPosition;
     private int fileContentLength;
     private int headerLength;
-    private FileChannel logFileChannel;
-    private int logChannelIndex = -1;
     private final NativeXAFileSystem xaFileSystem;
     private volatile boolean memorySynchTrigger = true;
+    private ByteBuffer encodedLogEntry;
+    private int contentCodecId = 0;
 
     public Buffer(int bufferSize, boolean isDirect, NativeXAFileSystem xaFileSystem) {
         this.xaFileSystem = xaFileSystem;
@@ -44,27 +67,44 @@ public class Buffer {
         } else {
             this.buffer = ByteBuffer.allocate(bufferSize);
         }
-        this.hasItsOwnBytes = true;
         this.isDirect = isDirect;
         if (!(this instanceof PooledBuffer)) {
-            xaFileSystem.changeTotalNonPooledBufferSize(bufferSize);
+            this.trackedBuffer = xaFileSystem.trackNonPooledBuffer(this, bufferSize);
+        } else {
+            this.trackedBuffer = null;
         }
+        this.slab = null;
     }
 
     public Buffer(ByteBuffer buffer, NativeXAFileSystem xaFileSystem) {
         this.xaFileSystem = xaFileSystem;
         this.buffer = buffer;
-        this.isDirect = false;
-        this.hasItsOwnBytes = true;
+        this.isDirect = buffer.isDirect();
         if (!(this instanceof PooledBuffer)) {
-            xaFileSystem.changeTotalNonPooledBufferSize(buffer.capacity());
+            this.trackedBuffer = xaFileSystem.trackNonPooledBuffer(this, buffer.capacity());
+        } else {
+            this.trackedBuffer = null;
         }
+        this.slab = null;
+    }
+
+    /*
+     * A buffer over a slice of the given slab; the slab stays accounted for till this buffer is released.
+     */
+    public Buffer(ByteBuffer slice, Buffer slab, NativeXAFileSystem xaFileSystem) {
+        this.xaFileSystem = xaFileSystem;
+        this.buffer = slice;
+        this.isDirect = slice.isDirect();
+        this.trackedBuffer = null;
+        slab.retain();
+        this.slab = new AtomicReference<Buffer>(slab);
     }
 
     public Buffer(NativeXAFileSystem xaFileSystem) {
         this.xaFileSystem = xaFileSystem;
-        this.hasItsOwnBytes = false;
         this.isDirect = false;
+        this.trackedBuffer = null;
+        this.slab = null;
     }
 
     public void flushByteBufferChanges() {
@@ -79,6 +119,33 @@ public class Buffer {
         return buffer;
     }
 
+    /*
+     * Keeps a copy of this log entry, with its content encoded, to be written to the transaction log
+     * in place of the buffer. The buffer itself keeps the original content for the readers.
+     */
+    public void setEncodedLogEntry(ByteBuffer encodedLogEntry, int contentCodecId) {
+        this.encodedLogEntry = encodedLogEntry;
+        this.contentCodecId = contentCodecId;
+    }
+
+    public ByteBuffer getBufferToLog() {
+        return encodedLogEntry == null ? buffer : encodedLogEntry;
+    }
+
+    /*
+     * Drops the encoded copy of this log entry, once written, and returns it (null if there was none)
+     * so that its array can be reused.
+     */
+    public ByteBuffer releaseEncodedLogEntry() {
+        ByteBuffer released = encodedLogEntry;
+        encodedLogEntry = null;
+        return released;
+    }
+
+    public int getContentCodecId() {
+        return contentCodecId;
+    }
+
     boolean isDirect() {
         return isDirect;
     }
@@ -88,25 +155,91 @@ public class Buffer {
             return;
         }
         this.onDiskInfo = onDiskInfo;
+        this.encodedLogEntry = null;
         if (!(this instanceof PooledBuffer)) {
-            if (hasItsOwnBytes) {
-                xaFileSystem.changeTotalNonPooledBufferSize(-buffer.capacity());
-            }
+            releaseMemory();
             buffer = null;
         }
     }
 
-    public void setOnDiskInfo(OnDiskInfo onDiskInfo) {
-        this.onDiskInfo = onDiskInfo;
+    public void retain() {
+        if (source != null) {
+            source.retain();
+            return;
+        }
+        references.incrementAndGet();
     }
 
-    @Override
-    protected void finalize() throws Throwable {
-        if (!(this instanceof PooledBuffer)) {
-            if (buffer == null) {
-            } else {
-                if (hasItsOwnBytes) {
-                    xaFileSystem.changeTotalNonPooledBufferSize(-buffer.capacity());
+    /*
+     * Drops a reference; with the last one gone, the memory of a non-pooled buffer is no more
+     * accounted for, and a pooled buffer goes back to its pool.
+     */
+    public void release() {
+        if (source != null) {
+            source.release();
+            return;
+        }
+        if (references.decrementAndGet() == 0) {
+            releaseMemory();
+        }
+    }
+
+    protected void resetReferences() {
+        references.set(1);
+    }
+
+    protected void releaseMemory() {
+        if (trackedBuffer != null) {
+            trackedBuffer.release();
+        }
+        if (slab != null) {
+            Buffer slabToRelease = slab.getAndSet(null);
+            if (slabToRelease != null) {
+                slabToRelease.release();
+            }
+        }
+    }
+
+    /*
+     * Must be called by the owning session, holding its asynchronousRollbackLock (as do the
+     * streams reading the content). Drops the content of this buffer, which must be in the log
+     * already, and releases the reference of the session. Returns false if there was no content.
+     */
+    public boolean spill() {
+        if (buffer == null || onDiskInfo == null || source != null) {
+            return false;
+        }
+        buffer = null;
+        spilled = true;
+        if (virtualCopies != null) {
+            for (Buffer virtualCopy : virtualCopies) {
+                virtualCopy.buffer = null;
+                virtualCopy.onDiskInfo = onDiskInfo;
+            }
+        }
+        release();
+        return true;
+    }
+
+    public boolean isSpilled() {
+        return spilled;
+    }
+
+    public void markUsed() {
+        lastUsed = System.nanoTime();
+    }
+
+    public long getLastUsed() {
+        return lastUsed;
+    }
+
+    public void setOnDiskInfo(OnDiskInfo onDiskInfo) {
+        this.onDiskInfo = onDiskInfo;
+        if (virtualCopies != null) {
+            for (Buffer virtualCopy : virtualCopies) {
+                if (virtualCopy.buffer == null) {
+                    //a copy reading from the log follows the entry when it gets relocated.
+                    virtualCopy.onDiskInfo = onDiskInfo;
                 }
             }
         }
@@ -151,26 +284,60 @@ public class Buffer {
         clone.setFileContentLength(fileContentLength);
         clone.setFileContentPosition(fileContentPosition);
         clone.setHeaderLength(headerLength);
+        clone.contentCodecId = contentCodecId;
         return clone;
     }
 
+    /*
+     * A read-only clone kept for long, e.g. by a truncated file; it follows this buffer when spilled,
+     * or when its log entry is relocated by a compaction of the logs.
+     */
+    public Buffer createVirtualCopy() {
+        Buffer virtualCopy = createReadOnlyClone();
+        Buffer original = source == null ? this : source;
+        virtualCopy.source = original;
+        if (original.virtualCopies == null) {
+            original.virtualCopies = new ArrayList<Buffer>(1);
+        }
+        original.virtualCopies.add(virtualCopy);
+        return virtualCopy;
+    }
+
+    /*
+     * For a log entry whose content is not encoded; see regenerateDecodedContentFromDisk for the other ones.
+     */
     public int regenerateContentFromDisk(ByteBuffer target, int offsetToReadFrom) throws IOException {
         int logIndex = onDiskInfo.getLogIndex();
-        if (logChannelIndex != logIndex) {
-            if (logFileChannel != null) {
-                logFileChannel.close();
+        TransactionLogChannelCache logChannelCache = xaFileSystem.getTransactionLogChannelCache();
+        FileChannel logFileChannel = logChannelCache.acquireChannel(logIndex);
+        try {
+            //the content may be larger than the target, which then gets only its first part.
+            target.limit(Math.min(target.capacity(), fileContentLength - offsetToReadFrom));
+            long readPosition = onDiskInfo.getLocation() + headerLength + offsetToReadFrom;
+            int numRead = 0;
+            while (numRead == 0) {
+                numRead = logFileChannel.read(target, readPosition);
             }
-            FileInputStream logIS = new FileInputStream(xaFileSystem.getTransactionLogFileBaseName() + "_" + logIndex);
-            logFileChannel = logIS.getChannel();
-            logChannelIndex = logIndex;
-        }
-        logFileChannel.position(onDiskInfo.getLocation() + headerLength + offsetToReadFrom);
-        target.limit(fileContentLength - offsetToReadFrom);
-        int numRead = 0;
-        while (numRead == 0) {
-            numRead = logFileChannel.read(target);
-        }
-        target.flip();
-        return numRead;
+            target.flip();
+            return numRead;
+        } finally {
+            logChannelCache.releaseChannel(logIndex);
+        }
+    }
+
+    /*
+     * Returns the whole content of a log entry whose content is encoded, decoded into a new buffer. As
+     * the content can only be decoded as a whole, the reader keeps this buffer to read all of it from.
+     */
+    public ByteBuffer regenerateDecodedContentFromDisk() throws IOException {
+        int logIndex = onDiskInfo.getLogIndex();
+        TransactionLogChannelCache logChannelCache = xaFileSystem.getTransactionLogChannelCache();
+        FileChannel logFileChannel = logChannelCache.acquireChannel(logIndex);
+        try {
+            return TransactionLogEntry.readDecodedContent(logFileChannel, onDiskInfo.getLocation(),
+                    xaFileSystem.getLogContentCodec(contentCodecId));
+        } finally {
+            logChannelCache.releaseChannel(logIndex);
+        }
     }
 }
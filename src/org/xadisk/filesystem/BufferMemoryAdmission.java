@@ -0,0 +1,115 @@
+/*
+ * Engineering Ingegneria Informatica S.p.A.
+ *
+ * Copyright (C) 2023 Regione Emilia-Romagna
+ * <p/>
+ * This program is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU Affero General Public License as published by the Free Software Foundation,
+ * either version 3 of the License, or (at your option) any later version.
+ * <p/>
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU Affero General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.xadisk.filesystem;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Holds back the writers (and the new sessions) while the non-pooled buffers take more memory than
+ * allowed, instead of letting them allocate still more buffers. The admission stops once the total
+ * goes above the high-water mark, and resumes only once it comes down to the low-water mark, which
+ * the gathering disk writers work towards by keeping the logged buffers on the disk.
+ * <p> A thread is held back for a bounded time only; after that, it is let in anyway.
+ */
+class BufferMemoryAdmission {
+
+    private static final long RECHECK_INTERVAL = TimeUnit.MILLISECONDS.toNanos(10);
+    private final NonPooledBufferTracker nonPooledBufferTracker;
+    private final long highWaterMark;
+    private final long lowWaterMark;
+    private final long maximumWait;
+    private volatile boolean throttling = false;
+    private final AtomicLong throttledTime = new AtomicLong(0);
+    private final AtomicLong throttledCount = new AtomicLong(0);
+    private final AtomicLong expiredWaitCount = new AtomicLong(0);
+
+    BufferMemoryAdmission(NonPooledBufferTracker nonPooledBufferTracker, long maxNonPooledBufferSize,
+            int maximumWaitMillis) {
+        this.nonPooledBufferTracker = nonPooledBufferTracker;
+        this.highWaterMark = maxNonPooledBufferSize;
+        //the gathering disk writers keep the logged buffers in memory up to three quarters of the maximum,
+        //so the admission resumes a little above that.
+        this.lowWaterMark = maxNonPooledBufferSize * 7 / 8;
+        this.maximumWait = TimeUnit.MILLISECONDS.toNanos(maximumWaitMillis);
+    }
+
+    boolean isThrottling() {
+        if (maximumWait <= 0) {
+            return false;
+        }
+        long totalSize = nonPooledBufferTracker.getTotalSize();
+        if (!throttling) {
+            if (totalSize <= highWaterMark) {
+                return false;
+            }
+            throttling = true;
+        } else if (totalSize <= lowWaterMark) {
+            //cleared here too, as the gathering disk writers only ask, and never wait in admit.
+            throttling = false;
+            return false;
+        }
+        return true;
+    }
+
+    void admit() {
+        if (!isThrottling()) {
+            return;
+        }
+        long startTime = System.nanoTime();
+        long deadline = startTime + maximumWait;
+        boolean counted = false;
+        try {
+            while (true) {
+                if (nonPooledBufferTracker.getTotalSize() <= lowWaterMark) {
+                    throttling = false;
+                    return;
+                }
+                if (!counted) {
+                    throttledCount.incrementAndGet();
+                    counted = true;
+                }
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    expiredWaitCount.incrementAndGet();
+                    return;
+                }
+                //the memory comes back from several places, so it is checked again from time to time.
+                TimeUnit.NANOSECONDS.sleep(Math.min(remaining, RECHECK_INTERVAL));
+            }
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        } finally {
+            if (counted) {
+                throttledTime.addAndGet(System.nanoTime() - startTime);
+            }
+        }
+    }
+
+    long getThrottledTimeMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(throttledTime.get());
+    }
+
+    long getThrottledCount() {
+        return throttledCount.get();
+    }
+
+    long getExpiredWaitCount() {
+        return expiredWaitCount.get();
+    }
+}
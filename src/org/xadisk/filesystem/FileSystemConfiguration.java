@@ -66,6 +66,27 @@ public class FileSystemConfiguration implements Serializable {
     private Boolean enableClusterMode = false;
     private String clusterMasterAddress;
     private Integer clusterMasterPort;
+    private Integer groupCommitWindow = 0;
+    private Integer groupCommitMaxBatchSize = 128;
+    private Integer logSubmissionRingSize = 8192;
+    private Boolean logSubmissionRingSpinWait = false;
+    private Integer transactionLogSegmentPoolSize = 0;
+    private String transactionLogBackend = "channel";
+    private Integer transactionLogStreams = 1;
+    private String transactionLogStreamDirectories;
+    private Boolean compactAppendLogEntries = false;
+    private String transactionLogContentCodec = "deflate";
+    private Integer logFlushMaxLingerTime = 1000;
+    private Boolean logFlushAdaptive = false;
+    private Integer commitApplyParallelism = 1;
+    private Boolean commitWriteBehind = false;
+    private Integer recoveryLogScanParallelism = 4;
+    private Integer transactionLogCheckpointInterval = 60;
+    private Integer recoveryParallelism = 4;
+    private Integer transactionLogCompactionInterval = 0;
+    private Integer largestBufferSize = 1048576;
+    private Long transactionMemoryQuota = 0L;
+    private Integer bufferMemoryAdmissionWait = 1000;
 
     /**
      * A constructor called by the JavaEE Container while deploying XADisk JCA Resource Adapter. The
@@ -91,7 +112,8 @@ public class FileSystemConfiguration implements Serializable {
      * use {@link ByteBuffer byte-buffers} for holding file's contents. These byte-buffers
      * are either from buffer pool or normally allocated (if the pool is exhausted).
      * <p> This property decides the size of these byte-buffers, both for pooled and normal
-     * cases.
+     * cases; the streams writing a lot may also use larger pooled byte-buffers, up to
+     * {@link #getLargestBufferSize() largestBufferSize}.
      * <p> Default value is 4096.
      * @return value of bufferSize, in bytes.
      */
@@ -105,7 +127,8 @@ public class FileSystemConfiguration implements Serializable {
      * use {@link ByteBuffer byte-buffers} for holding file's contents. These byte-buffers
      * are either from buffer pool or normally allocated (if the pool is exhausted).
      * <p> This property decides the size of these byte-buffers, both for pooled and normal
-     * cases.
+     * cases; the streams writing a lot may also use larger pooled byte-buffers, up to
+     * {@link #getLargestBufferSize() largestBufferSize}.
      * <p> Default value is 4096.
      * @param bufferSize new value of bufferSize, in bytes.
      */
@@ -119,6 +142,8 @@ public class FileSystemConfiguration implements Serializable {
      * byte buffers. Pooled buffers (direct or indirect) are used by i/o streams
      * {@link XAFileInputStream} and {@link XAFileOutputStream} for holding file's contents.
      * <p> Default value is 1000 (means, at most 1000 direct buffers can exist in the pool).
+     * <p> The buffers larger than {@link #getBufferSize() bufferSize} (see
+     * {@link #getLargestBufferSize() largestBufferSize}) count as many buffers as they are times larger.
      * @return value of directBufferPoolSize.
      */
     public Integer getDirectBufferPoolSize() {
@@ -131,6 +156,8 @@ public class FileSystemConfiguration implements Serializable {
      * byte buffers. Pooled buffers (direct or indirect) are used by i/o streams
      * {@link XAFileInputStream} and {@link XAFileOutputStream} for holding file's contents.
      * <p> Default value is 1000 (means, at most 1000 direct buffers can exist in the pool).
+     * <p> The buffers larger than {@link #getBufferSize() bufferSize} (see
+     * {@link #getLargestBufferSize() largestBufferSize}) count as many buffers as they are times larger.
      * @param directBufferPoolSize new value of directBufferPoolSize.
      */
     public void setDirectBufferPoolSize(Integer directBufferPoolSize) {
@@ -143,6 +170,8 @@ public class FileSystemConfiguration implements Serializable {
      * byte buffers. Pooled buffers (direct or indirect) are used by i/o streams
      * {@link XAFileInputStream} and {@link XAFileOutputStream} for holding file's contents.
      * <p> Default value is 1000 (means, at most 1000 nonDirect buffers can exist in the pool).
+     * <p> The buffers larger than {@link #getBufferSize() bufferSize} (see
+     * {@link #getLargestBufferSize() largestBufferSize}) count as many buffers as they are times larger.
      * @return value of nonDirectBufferPoolSize.
      */
     public Integer getNonDirectBufferPoolSize() {
@@ -155,6 +184,8 @@ public class FileSystemConfiguration implements Serializable {
      * byte buffers. Pooled buffers (direct or indirect) are used by i/o streams
      * {@link XAFileInputStream} and {@link XAFileOutputStream} for holding file's contents.
      * <p> Default value is 1000 (means, at most 1000 nonDirect buffers can exist in the pool).
+     * <p> The buffers larger than {@link #getBufferSize() bufferSize} (see
+     * {@link #getLargestBufferSize() largestBufferSize}) count as many buffers as they are times larger.
      * @param nonDirectBufferPoolSize new value of nonDirectBufferPoolSize.
      */
     public void setNonDirectBufferPoolSize(Integer nonDirectBufferPoolSize) {
@@ -675,6 +706,682 @@ public class FileSystemConfiguration implements Serializable {
         this.enableClusterMode = enableClusterMode;
     }
 
+    /**
+     * Returns the value of groupCommitWindow (a performance tuning property).
+     * <p> Transaction log records which must be durable immediately (like those written at
+     * prepare or commit of a transaction) are not forced to the disk one-by-one; records
+     * submitted concurrently by different transactions are gathered into a single disk write
+     * followed by a single disk force. This property is the time, in microseconds, for which
+     * such a write waits for more records to join before going to the disk.
+     * <p> A value of 0 means no additional wait; the records which arrive while the previous
+     * disk force is in progress still get batched together.
+     * <p> Default value is 0 microseconds.
+     * @return value of groupCommitWindow, in microseconds.
+     * @since 1.2.3
+     */
+    public Integer getGroupCommitWindow() {
+        return groupCommitWindow;
+    }
+
+    /**
+     * Sets the value of groupCommitWindow (a performance tuning property).
+     * <p> Transaction log records which must be durable immediately (like those written at
+     * prepare or commit of a transaction) are not forced to the disk one-by-one; records
+     * submitted concurrently by different transactions are gathered into a single disk write
+     * followed by a single disk force. This property is the time, in microseconds, for which
+     * such a write waits for more records to join before going to the disk.
+     * <p> A value of 0 means no additional wait; the records which arrive while the previous
+     * disk force is in progress still get batched together.
+     * <p> Default value is 0 microseconds.
+     * @param groupCommitWindow new value of groupCommitWindow.
+     * @since 1.2.3
+     */
+    public void setGroupCommitWindow(Integer groupCommitWindow) {
+        this.groupCommitWindow = groupCommitWindow;
+    }
+
+    /**
+     * Returns the value of groupCommitMaxBatchSize (a performance tuning property).
+     * <p> This is the maximum number of transaction log records which are written to the
+     * disk together by a single disk force. See {@link #getGroupCommitWindow() groupCommitWindow}.
+     * <p> A value of 1 turns off the batching, and each such record gets forced separately.
+     * <p> Default value is 128.
+     * @return value of groupCommitMaxBatchSize.
+     * @since 1.2.3
+     */
+    public Integer getGroupCommitMaxBatchSize() {
+        return groupCommitMaxBatchSize;
+    }
+
+    /**
+     * Sets the value of groupCommitMaxBatchSize (a performance tuning property).
+     * <p> This is the maximum number of transaction log records which are written to the
+     * disk together by a single disk force. See {@link #getGroupCommitWindow() groupCommitWindow}.
+     * <p> A value of 1 turns off the batching, and each such record gets forced separately.
+     * <p> Default value is 128.
+     * @param groupCommitMaxBatchSize new value of groupCommitMaxBatchSize.
+     * @since 1.2.3
+     */
+    public void setGroupCommitMaxBatchSize(Integer groupCommitMaxBatchSize) {
+        this.groupCommitMaxBatchSize = groupCommitMaxBatchSize;
+    }
+
+    /**
+     * Returns the value of logSubmissionRingSize (a performance tuning property).
+     * <p> The transaction log buffers submitted by all the ongoing transactions are queued
+     * in a fixed-size ring before being written to the transaction log in batches (see
+     * {@link #getCumulativeBufferSizeForDiskWrite() cumulativeBufferSizeForDiskWrite}). This
+     * property is the number of buffers the ring can hold; it is rounded up to a power of two.
+     * <p> When the ring is full, the threads submitting more buffers wait for the ring to be
+     * drained; see {@link #getLogSubmissionRingSpinWait() logSubmissionRingSpinWait}.
+     * <p> Default value is 8192.
+     * @return value of logSubmissionRingSize.
+     * @since 1.2.3
+     */
+    public Integer getLogSubmissionRingSize() {
+        return logSubmissionRingSize;
+    }
+
+    /**
+     * Sets the value of logSubmissionRingSize (a performance tuning property).
+     * <p> The transaction log buffers submitted by all the ongoing transactions are queued
+     * in a fixed-size ring before being written to the transaction log in batches (see
+     * {@link #getCumulativeBufferSizeForDiskWrite() cumulativeBufferSizeForDiskWrite}). This
+     * property is the number of buffers the ring can hold; it is rounded up to a power of two.
+     * <p> When the ring is full, the threads submitting more buffers wait for the ring to be
+     * drained; see {@link #getLogSubmissionRingSpinWait() logSubmissionRingSpinWait}.
+     * <p> Default value is 8192.
+     * @param logSubmissionRingSize new value of logSubmissionRingSize.
+     * @since 1.2.3
+     */
+    public void setLogSubmissionRingSize(Integer logSubmissionRingSize) {
+        this.logSubmissionRingSize = logSubmissionRingSize;
+    }
+
+    /**
+     * Returns the value of logSubmissionRingSpinWait (a performance tuning property).
+     * <p> This flag decides how a thread waits when the ring of submitted transaction log buffers
+     * (see {@link #getLogSubmissionRingSize() logSubmissionRingSize}) is full. If true, the thread
+     * keeps yielding the processor till a slot becomes free; if false, it parks itself for short
+     * intervals instead.
+     * <p> Default value is false.
+     * @return value of logSubmissionRingSpinWait.
+     * @since 1.2.3
+     */
+    public Boolean getLogSubmissionRingSpinWait() {
+        return logSubmissionRingSpinWait;
+    }
+
+    /**
+     * Sets the value of logSubmissionRingSpinWait (a performance tuning property).
+     * <p> This flag decides how a thread waits when the ring of submitted transaction log buffers
+     * (see {@link #getLogSubmissionRingSize() logSubmissionRingSize}) is full. If true, the thread
+     * keeps yielding the processor till a slot becomes free; if false, it parks itself for short
+     * intervals instead.
+     * <p> Default value is false.
+     * @param logSubmissionRingSpinWait new value of logSubmissionRingSpinWait.
+     * @since 1.2.3
+     */
+    public void setLogSubmissionRingSpinWait(Boolean logSubmissionRingSpinWait) {
+        this.logSubmissionRingSpinWait = logSubmissionRingSpinWait;
+    }
+
+    /**
+     * Returns the value of transactionLogSegmentPoolSize (a performance tuning property).
+     * <p> This is the number of transaction log files XADisk keeps ready in advance, preallocated
+     * to the size {@link #getTransactionLogFileMaxSize() transactionLogFileMaxSize} (and filled with
+     * zeroes). Transaction logs which are no more required are recycled into this pool
+     * instead of being deleted. Writing into a preallocated transaction log avoids the growth of
+     * the file, and the associated file-system metadata updates, at each disk write.
+     * <p> The pool is maintained inside the XADisk System Directory, and occupies
+     * up to this many times {@link #getTransactionLogFileMaxSize() transactionLogFileMaxSize}
+     * of disk space. A value of 0 disables the pool.
+     * <p> Default value is 0.
+     * @return value of transactionLogSegmentPoolSize.
+     * @since 1.2.3
+     */
+    public Integer getTransactionLogSegmentPoolSize() {
+        return transactionLogSegmentPoolSize;
+    }
+
+    /**
+     * Sets the value of transactionLogSegmentPoolSize (a performance tuning property).
+     * <p> This is the number of transaction log files XADisk keeps ready in advance, preallocated
+     * to the size {@link #getTransactionLogFileMaxSize() transactionLogFileMaxSize} (and filled with
+     * zeroes). Transaction logs which are no more required are recycled into this pool
+     * instead of being deleted. Writing into a preallocated transaction log avoids the growth of
+     * the file, and the associated file-system metadata updates, at each disk write.
+     * <p> The pool is maintained inside the XADisk System Directory, and occupies
+     * up to this many times {@link #getTransactionLogFileMaxSize() transactionLogFileMaxSize}
+     * of disk space. A value of 0 disables the pool.
+     * <p> Default value is 0.
+     * @param transactionLogSegmentPoolSize new value of transactionLogSegmentPoolSize.
+     * @since 1.2.3
+     */
+    public void setTransactionLogSegmentPoolSize(Integer transactionLogSegmentPoolSize) {
+        this.transactionLogSegmentPoolSize = transactionLogSegmentPoolSize;
+    }
+
+    /**
+     * Returns the value of transactionLogBackend (a performance tuning property).
+     * <p> This property decides how XADisk writes to its transaction logs. The possible values are:
+     * <ul>
+     * <li> "channel": each write to the transaction log is a write call on the log file.
+     * <li> "mapped": the log file is memory-mapped in windows of up to 16 MB, and the writes to the
+     * transaction log are copies into that memory; a disk force then flushes only the windows
+     * written since the previous one. This works best together with preallocated transaction logs
+     * (see {@link #getTransactionLogSegmentPoolSize() transactionLogSegmentPoolSize}).
+     * </ul>
+     * <p> Default value is "channel".
+     * @return value of transactionLogBackend.
+     * @since 1.2.3
+     */
+    public String getTransactionLogBackend() {
+        return transactionLogBackend;
+    }
+
+    /**
+     * Sets the value of transactionLogBackend (a performance tuning property).
+     * <p> This property decides how XADisk writes to its transaction logs. The possible values are:
+     * <ul>
+     * <li> "channel": each write to the transaction log is a write call on the log file.
+     * <li> "mapped": the log file is memory-mapped in windows of up to 16 MB, and the writes to the
+     * transaction log are copies into that memory; a disk force then flushes only the windows
+     * written since the previous one. This works best together with preallocated transaction logs
+     * (see {@link #getTransactionLogSegmentPoolSize() transactionLogSegmentPoolSize}).
+     * </ul>
+     * <p> Default value is "channel".
+     * @param transactionLogBackend new value of transactionLogBackend.
+     * @since 1.2.3
+     */
+    public void setTransactionLogBackend(String transactionLogBackend) {
+        this.transactionLogBackend = transactionLogBackend;
+    }
+
+    /**
+     * Returns the value of transactionLogStreams (a performance tuning property).
+     * <p> This is the number of independent transaction log streams XADisk writes to. Each stream
+     * has its own transaction log files, its own writer and its own lock, and each transaction
+     * writes all its log entries to one of the streams, chosen from its transaction identifier.
+     * Transactions pinned to different streams thus do not wait for each other while logging.
+     * <p> The streams other than the first one keep their transaction logs in the directories given
+     * by {@link #getTransactionLogStreamDirectories() transactionLogStreamDirectories}, which
+     * can lie on different disks.
+     * <p> The number of streams can be changed only after XADisk has been shut down with no
+     * transaction in progress (and no recovery pending); otherwise XADisk refuses to boot with the
+     * changed value, as the recovery would not read the transaction logs correctly. The maximum value is 128.
+     * <p> Default value is 1.
+     * @return value of transactionLogStreams.
+     * @since 1.2.3
+     */
+    public Integer getTransactionLogStreams() {
+        return transactionLogStreams;
+    }
+
+    /**
+     * Sets the value of transactionLogStreams (a performance tuning property).
+     * <p> This is the number of independent transaction log streams XADisk writes to. Each stream
+     * has its own transaction log files, its own writer and its own lock, and each transaction
+     * writes all its log entries to one of the streams, chosen from its transaction identifier.
+     * Transactions pinned to different streams thus do not wait for each other while logging.
+     * <p> The streams other than the first one keep their transaction logs in the directories given
+     * by {@link #getTransactionLogStreamDirectories() transactionLogStreamDirectories}, which
+     * can lie on different disks.
+     * <p> The number of streams can be changed only after XADisk has been shut down with no
+     * transaction in progress (and no recovery pending); otherwise XADisk refuses to boot with the
+     * changed value, as the recovery would not read the transaction logs correctly. The maximum value is 128.
+     * <p> Default value is 1.
+     * @param transactionLogStreams new value of transactionLogStreams.
+     * @since 1.2.3
+     */
+    public void setTransactionLogStreams(Integer transactionLogStreams) {
+        this.transactionLogStreams = transactionLogStreams;
+    }
+
+    /**
+     * Returns the value of transactionLogStreamDirectories.
+     * <p> This is a comma-separated list of directories, one for each transaction log stream after
+     * the first one (see {@link #getTransactionLogStreams() transactionLogStreams}). For a stream
+     * without an entry in this list, the directory "logstreams/&lt;stream number&gt;" inside the
+     * XADisk System Directory is used. The first stream always keeps its transaction logs inside
+     * the XADisk System Directory.
+     * <p> Default value is null.
+     * @return value of transactionLogStreamDirectories.
+     * @since 1.2.3
+     */
+    public String getTransactionLogStreamDirectories() {
+        return transactionLogStreamDirectories;
+    }
+
+    /**
+     * Sets the value of transactionLogStreamDirectories.
+     * <p> This is a comma-separated list of directories, one for each transaction log stream after
+     * the first one (see {@link #getTransactionLogStreams() transactionLogStreams}). For a stream
+     * without an entry in this list, the directory "logstreams/&lt;stream number&gt;" inside the
+     * XADisk System Directory is used. The first stream always keeps its transaction logs inside
+     * the XADisk System Directory.
+     * <p> Default value is null.
+     * @param transactionLogStreamDirectories new value of transactionLogStreamDirectories.
+     * @since 1.2.3
+     */
+    public void setTransactionLogStreamDirectories(String transactionLogStreamDirectories) {
+        this.transactionLogStreamDirectories = transactionLogStreamDirectories;
+    }
+
+    /**
+     * Returns the value of compactAppendLogEntries.
+     * <p> This tells XADisk to write the transaction log entries of the file appends in a compact
+     * form. A transaction then declares each file it appends to once, giving it a small number,
+     * and the log entries of the appends carry only that number instead of the full path of the
+     * file. This reduces the bytes logged, and leaves more room for the content inside each buffer.
+     * <p> Transaction logs written in this form cannot be read by the XADisk versions before 1.2.3,
+     * so this should be enabled only when there is no need to go back to such a version.
+     * <p> Default value is false.
+     * @return value of compactAppendLogEntries.
+     * @since 1.2.3
+     */
+    public Boolean getCompactAppendLogEntries() {
+        return compactAppendLogEntries;
+    }
+
+    /**
+     * Sets the value of compactAppendLogEntries.
+     * <p> This tells XADisk to write the transaction log entries of the file appends in a compact
+     * form. A transaction then declares each file it appends to once, giving it a small number,
+     * and the log entries of the appends carry only that number instead of the full path of the
+     * file. This reduces the bytes logged, and leaves more room for the content inside each buffer.
+     * <p> Transaction logs written in this form cannot be read by the XADisk versions before 1.2.3,
+     * so this should be enabled only when there is no need to go back to such a version.
+     * <p> Default value is false.
+     * @param compactAppendLogEntries new value of compactAppendLogEntries.
+     * @since 1.2.3
+     */
+    public void setCompactAppendLogEntries(Boolean compactAppendLogEntries) {
+        this.compactAppendLogEntries = compactAppendLogEntries;
+    }
+
+    /**
+     * Returns the value of transactionLogContentCodec.
+     * <p> This is the codec which compresses the content written by the transactions into the
+     * transaction logs (the content kept in memory remains as it is). The value "deflate" uses the
+     * deflate compression of the JDK at its fastest level, and the value "none" turns the compression
+     * off. Any other value is taken as the name of a class implementing
+     * {@link org.xadisk.filesystem.utilities.LogContentCodec}.
+     * <p> The content of a log entry is kept compressed only if that makes it smaller; so, content
+     * which does not compress well costs only the (wasted) compression time. Compression pays off
+     * when the disk is slower than the compression of the content, and the content compresses well;
+     * the reading of a compressed content back from the logs decompresses the whole log entry.
+     * <p> Default value is "deflate".
+     * @return value of transactionLogContentCodec.
+     * @since 1.2.3
+     */
+    public String getTransactionLogContentCodec() {
+        return transactionLogContentCodec;
+    }
+
+    /**
+     * Sets the value of transactionLogContentCodec.
+     * <p> This is the codec which compresses the content written by the transactions into the
+     * transaction logs (the content kept in memory remains as it is). The value "deflate" uses the
+     * deflate compression of the JDK at its fastest level, and the value "none" turns the compression
+     * off. Any other value is taken as the name of a class implementing
+     * {@link org.xadisk.filesystem.utilities.LogContentCodec}.
+     * <p> The content of a log entry is kept compressed only if that makes it smaller; so, content
+     * which does not compress well costs only the (wasted) compression time. Compression pays off
+     * when the disk is slower than the compression of the content, and the content compresses well;
+     * the reading of a compressed content back from the logs decompresses the whole log entry.
+     * <p> Default value is "deflate".
+     * @param transactionLogContentCodec new value of transactionLogContentCodec.
+     * @since 1.2.3
+     */
+    public void setTransactionLogContentCodec(String transactionLogContentCodec) {
+        this.transactionLogContentCodec = transactionLogContentCodec;
+    }
+
+    /**
+     * Returns the value of logFlushMaxLingerTime.
+     * <p> This is the longest time, in milliseconds, a log buffer submitted by a transaction waits
+     * in memory before it is written to the transaction log, even if the total size of the waiting
+     * buffers has not reached {@link #getCumulativeBufferSizeForDiskWrite() cumulativeBufferSizeForDiskWrite}.
+     * This bounds the memory held by the waiting buffers under a light load. A value of 0 lets the
+     * buffers wait till that size is reached (or till a transaction commits).
+     * <p> Default value is 1000.
+     * @return value of logFlushMaxLingerTime, in milliseconds.
+     * @since 1.2.3
+     */
+    public Integer getLogFlushMaxLingerTime() {
+        return logFlushMaxLingerTime;
+    }
+
+    /**
+     * Sets the value of logFlushMaxLingerTime.
+     * <p> This is the longest time, in milliseconds, a log buffer submitted by a transaction waits
+     * in memory before it is written to the transaction log, even if the total size of the waiting
+     * buffers has not reached {@link #getCumulativeBufferSizeForDiskWrite() cumulativeBufferSizeForDiskWrite}.
+     * This bounds the memory held by the waiting buffers under a light load. A value of 0 lets the
+     * buffers wait till that size is reached (or till a transaction commits).
+     * <p> Default value is 1000.
+     * @param logFlushMaxLingerTime new value of logFlushMaxLingerTime.
+     * @since 1.2.3
+     */
+    public void setLogFlushMaxLingerTime(Integer logFlushMaxLingerTime) {
+        this.logFlushMaxLingerTime = logFlushMaxLingerTime;
+    }
+
+    /**
+     * Returns the value of logFlushAdaptive.
+     * <p> This tells XADisk to tune the size at which the waiting log buffers are written to the
+     * transaction log (see {@link #getCumulativeBufferSizeForDiskWrite() cumulativeBufferSizeForDiskWrite})
+     * from the observed rate of log buffer submission and the time taken by the writes. The
+     * size is then kept around the bytes which get submitted while one write is in progress, and
+     * the configured cumulativeBufferSizeForDiskWrite acts as its upper bound. This keeps the
+     * writes steady instead of bursty.
+     * <p> Default value is false.
+     * @return value of logFlushAdaptive.
+     * @since 1.2.3
+     */
+    public Boolean getLogFlushAdaptive() {
+        return logFlushAdaptive;
+    }
+
+    /**
+     * Sets the value of logFlushAdaptive.
+     * <p> This tells XADisk to tune the size at which the waiting log buffers are written to the
+     * transaction log (see {@link #getCumulativeBufferSizeForDiskWrite() cumulativeBufferSizeForDiskWrite})
+     * from the observed rate of log buffer submission and the time taken by the writes. The
+     * size is then kept around the bytes which get submitted while one write is in progress, and
+     * the configured cumulativeBufferSizeForDiskWrite acts as its upper bound. This keeps the
+     * writes steady instead of bursty.
+     * <p> Default value is false.
+     * @param logFlushAdaptive new value of logFlushAdaptive.
+     * @since 1.2.3
+     */
+    public void setLogFlushAdaptive(Boolean logFlushAdaptive) {
+        this.logFlushAdaptive = logFlushAdaptive;
+    }
+
+    /**
+     * Returns the value of commitApplyParallelism.
+     * <p> This is the number of threads applying the changes of a committing transaction to the real
+     * files. The appends, truncations, creations and deletions of different files are applied in
+     * parallel by the committing thread and by up to (commitApplyParallelism - 1) other threads,
+     * while the moves, copies and directory operations still wait for everything logged before
+     * them. This shortens the commit of the transactions touching many files. A value of 1 applies
+     * the changes one after another in the committing thread.
+     * <p> Default value is 1.
+     * @return value of commitApplyParallelism.
+     * @since 1.2.3
+     */
+    public Integer getCommitApplyParallelism() {
+        return commitApplyParallelism;
+    }
+
+    /**
+     * Sets the value of commitApplyParallelism.
+     * <p> This is the number of threads applying the changes of a committing transaction to the real
+     * files. The appends, truncations, creations and deletions of different files are applied in
+     * parallel by the committing thread and by up to (commitApplyParallelism - 1) other threads,
+     * while the moves, copies and directory operations still wait for everything logged before
+     * them. This shortens the commit of the transactions touching many files. A value of 1 applies
+     * the changes one after another in the committing thread.
+     * <p> Default value is 1.
+     * @param commitApplyParallelism new value of commitApplyParallelism.
+     * @since 1.2.3
+     */
+    public void setCommitApplyParallelism(Integer commitApplyParallelism) {
+        this.commitApplyParallelism = commitApplyParallelism;
+    }
+
+    /**
+     * Returns the value of commitWriteBehind.
+     * <p> This tells XADisk to return from the one-phase commit of a transaction as soon as the commit
+     * has become durable in the transaction log, and to apply the changes to the real files in the
+     * background. The transaction keeps its locks till its changes are applied, so that other
+     * transactions touching the same files wait for those files only, and always see the committed
+     * changes. Applications reading the files directly, without XADisk, may see them late. If the
+     * system crashes before the changes are applied, they are applied during the recovery.
+     * <p> Default value is false.
+     * @return value of commitWriteBehind.
+     * @since 1.2.3
+     */
+    public Boolean getCommitWriteBehind() {
+        return commitWriteBehind;
+    }
+
+    /**
+     * Sets the value of commitWriteBehind.
+     * <p> This tells XADisk to return from the one-phase commit of a transaction as soon as the commit
+     * has become durable in the transaction log, and to apply the changes to the real files in the
+     * background. The transaction keeps its locks till its changes are applied, so that other
+     * transactions touching the same files wait for those files only, and always see the committed
+     * changes. Applications reading the files directly, without XADisk, may see them late. If the
+     * system crashes before the changes are applied, they are applied during the recovery.
+     * <p> Default value is false.
+     * @param commitWriteBehind new value of commitWriteBehind.
+     * @since 1.2.3
+     */
+    public void setCommitWriteBehind(Boolean commitWriteBehind) {
+        this.commitWriteBehind = commitWriteBehind;
+    }
+
+    /**
+     * Returns the value of recoveryLogScanParallelism.
+     * <p> This is the number of threads reading the transaction logs during the recovery which
+     * follows a crash. The logs are read in parallel, each by one thread, and what is found in
+     * them is then merged in the order the logs were written. This shortens the restart when many
+     * (or large) transaction logs have survived the crash. A value of 1 reads the logs one after
+     * another in the booting thread.
+     * <p> Default value is 4.
+     * @return value of recoveryLogScanParallelism.
+     * @since 1.2.3
+     */
+    public Integer getRecoveryLogScanParallelism() {
+        return recoveryLogScanParallelism;
+    }
+
+    /**
+     * Sets the value of recoveryLogScanParallelism.
+     * <p> This is the number of threads reading the transaction logs during the recovery which
+     * follows a crash. The logs are read in parallel, each by one thread, and what is found in
+     * them is then merged in the order the logs were written. This shortens the restart when many
+     * (or large) transaction logs have survived the crash. A value of 1 reads the logs one after
+     * another in the booting thread.
+     * <p> Default value is 4.
+     * @param recoveryLogScanParallelism new value of recoveryLogScanParallelism.
+     * @since 1.2.3
+     */
+    public void setRecoveryLogScanParallelism(Integer recoveryLogScanParallelism) {
+        this.recoveryLogScanParallelism = recoveryLogScanParallelism;
+    }
+
+    /**
+     * Returns the value of transactionLogCheckpointInterval.
+     * <p> This is the interval (in seconds) between two checkpoints of the transaction logs. A
+     * checkpoint saves how far each log has been read and where the entries of the transactions
+     * still open are, so that the recovery after a crash reads only those entries and the part of
+     * the logs written after the latest checkpoint. This keeps the restart short even when long
+     * running transactions keep many (or large) logs alive. A value of 0 disables the checkpoints.
+     * <p> Default value is 60.
+     * @return value of transactionLogCheckpointInterval.
+     * @since 1.2.3
+     */
+    public Integer getTransactionLogCheckpointInterval() {
+        return transactionLogCheckpointInterval;
+    }
+
+    /**
+     * Sets the value of transactionLogCheckpointInterval.
+     * <p> This is the interval (in seconds) between two checkpoints of the transaction logs. A
+     * checkpoint saves how far each log has been read and where the entries of the transactions
+     * still open are, so that the recovery after a crash reads only those entries and the part of
+     * the logs written after the latest checkpoint. This keeps the restart short even when long
+     * running transactions keep many (or large) logs alive. A value of 0 disables the checkpoints.
+     * <p> Default value is 60.
+     * @param transactionLogCheckpointInterval new value of transactionLogCheckpointInterval.
+     * @since 1.2.3
+     */
+    public void setTransactionLogCheckpointInterval(Integer transactionLogCheckpointInterval) {
+        this.transactionLogCheckpointInterval = transactionLogCheckpointInterval;
+    }
+
+    /**
+     * Returns the value of recoveryParallelism.
+     * <p> This is the number of threads completing (committing or rolling back) the transactions
+     * found in the transaction logs during the recovery which follows a crash. Transactions
+     * touching the same files are completed one after another, in the order they appear in the
+     * logs; the others are completed in parallel. While the recovery is in progress, the number of
+     * transactions and of bytes still to be replayed are reported by the
+     * {@link org.xadisk.filesystem.exceptions.RecoveryInProgressException RecoveryInProgressException}.
+     * <p> Default value is 4.
+     * @return value of recoveryParallelism.
+     * @since 1.2.3
+     */
+    public Integer getRecoveryParallelism() {
+        return recoveryParallelism;
+    }
+
+    /**
+     * Sets the value of recoveryParallelism.
+     * <p> This is the number of threads completing (committing or rolling back) the transactions
+     * found in the transaction logs during the recovery which follows a crash. Transactions
+     * touching the same files are completed one after another, in the order they appear in the
+     * logs; the others are completed in parallel. While the recovery is in progress, the number of
+     * transactions and of bytes still to be replayed are reported by the
+     * {@link org.xadisk.filesystem.exceptions.RecoveryInProgressException RecoveryInProgressException}.
+     * <p> Default value is 4.
+     * @param recoveryParallelism new value of recoveryParallelism.
+     * @since 1.2.3
+     */
+    public void setRecoveryParallelism(Integer recoveryParallelism) {
+        this.recoveryParallelism = recoveryParallelism;
+    }
+
+    /**
+     * Returns the value of transactionLogCompactionInterval.
+     * <p> This is the interval (in seconds) between two compactions of the transaction logs. A log
+     * is kept as long as a transaction which has written to it is open; the compaction copies all
+     * the log entries of such transactions, while these are still active, into the current log, so
+     * that the older logs can be deleted. This bounds the disk space taken by the logs, and the
+     * recovery time, when a long running transaction has written a few entries long ago. Only the
+     * transactions which have written not more than a quarter of transactionLogFileMaxSize are
+     * copied. A value of 0 disables the compaction; the log entries of the transactions are then
+     * not tracked at all.
+     * <p> Default value is 0.
+     * @return value of transactionLogCompactionInterval.
+     * @since 1.2.3
+     */
+    public Integer getTransactionLogCompactionInterval() {
+        return transactionLogCompactionInterval;
+    }
+
+    /**
+     * Sets the value of transactionLogCompactionInterval.
+     * <p> This is the interval (in seconds) between two compactions of the transaction logs. A log
+     * is kept as long as a transaction which has written to it is open; the compaction copies all
+     * the log entries of such transactions, while these are still active, into the current log, so
+     * that the older logs can be deleted. This bounds the disk space taken by the logs, and the
+     * recovery time, when a long running transaction has written a few entries long ago. Only the
+     * transactions which have written not more than a quarter of transactionLogFileMaxSize are
+     * copied. A value of 0 disables the compaction; the log entries of the transactions are then
+     * not tracked at all.
+     * <p> Default value is 0.
+     * @param transactionLogCompactionInterval new value of transactionLogCompactionInterval.
+     * @since 1.2.3
+     */
+    public void setTransactionLogCompactionInterval(Integer transactionLogCompactionInterval) {
+        this.transactionLogCompactionInterval = transactionLogCompactionInterval;
+    }
+
+    /**
+     * Returns the value of largestBufferSize (a performance tuning property).
+     * <p> Besides the buffers of {@link #getBufferSize() bufferSize}, the buffer pool keeps buffers 16, 256...
+     * times larger, up to this size. An output stream which has already written a lot uses such larger
+     * buffers, and then writes its content as fewer and larger transaction log entries. A value not
+     * larger than bufferSize keeps only the buffers of bufferSize in the pool.
+     * <p> The larger buffers are taken from the pool only; the normally allocated buffers are always of
+     * bufferSize.
+     * <p> Default value is 1048576.
+     * @return value of largestBufferSize, in bytes.
+     * @since 1.2.3
+     */
+    public Integer getLargestBufferSize() {
+        return largestBufferSize;
+    }
+
+    /**
+     * Sets the value of largestBufferSize (a performance tuning property).
+     * <p> Besides the buffers of {@link #getBufferSize() bufferSize}, the buffer pool keeps buffers 16, 256...
+     * times larger, up to this size. An output stream which has already written a lot uses such larger
+     * buffers, and then writes its content as fewer and larger transaction log entries. A value not
+     * larger than bufferSize keeps only the buffers of bufferSize in the pool.
+     * <p> The larger buffers are taken from the pool only; the normally allocated buffers are always of
+     * bufferSize.
+     * <p> Default value is 1048576.
+     * @param largestBufferSize new value of largestBufferSize, in bytes.
+     * @since 1.2.3
+     */
+    public void setLargestBufferSize(Integer largestBufferSize) {
+        this.largestBufferSize = largestBufferSize;
+    }
+
+    /**
+     * Returns the value of transactionMemoryQuota (a performance tuning property).
+     * <p> The most memory, in bytes, the buffers holding the transaction log entries of a single transaction
+     * may keep. Once a transaction writes beyond it, its buffers read least recently are dropped from
+     * memory (their content is already in the transaction log, from where it is read again if needed), and
+     * the pooled ones go back to the buffer pool. A value of 0 or less sets no quota.
+     * <p> Default value is 0.
+     * @return value of transactionMemoryQuota, in bytes.
+     * @since 1.2.3
+     */
+    public Long getTransactionMemoryQuota() {
+        return transactionMemoryQuota;
+    }
+
+    /**
+     * Sets the value of transactionMemoryQuota (a performance tuning property).
+     * <p> The most memory, in bytes, the buffers holding the transaction log entries of a single transaction
+     * may keep. Once a transaction writes beyond it, its buffers read least recently are dropped from
+     * memory (their content is already in the transaction log, from where it is read again if needed), and
+     * the pooled ones go back to the buffer pool. A value of 0 or less sets no quota.
+     * <p> Default value is 0.
+     * @param transactionMemoryQuota new value of transactionMemoryQuota, in bytes.
+     * @since 1.2.3
+     */
+    public void setTransactionMemoryQuota(Long transactionMemoryQuota) {
+        this.transactionMemoryQuota = transactionMemoryQuota;
+    }
+
+    /**
+     * Returns the value of bufferMemoryAdmissionWait (a performance tuning property).
+     * <p> Once the normally allocated buffers (see {@link #getMaxNonPooledBufferSize() maxNonPooledBufferSize})
+     * take more memory than maxNonPooledBufferSize, the output streams writing to the transaction logs and
+     * the new transactions are held back till the buffers come down to seven eighths of it. This is the
+     * most time, in milliseconds, any such write or transaction is held back; after that, it goes ahead.
+     * A value of 0 or less never holds anything back.
+     * <p> Default value is 1000.
+     * @return value of bufferMemoryAdmissionWait, in milliseconds.
+     * @since 1.2.3
+     */
+    public Integer getBufferMemoryAdmissionWait() {
+        return bufferMemoryAdmissionWait;
+    }
+
+    /**
+     * Sets the value of bufferMemoryAdmissionWait (a performance tuning property).
+     * <p> Once the normally allocated buffers (see {@link #getMaxNonPooledBufferSize() maxNonPooledBufferSize})
+     * take more memory than maxNonPooledBufferSize, the output streams writing to the transaction logs and
+     * the new transactions are held back till the buffers come down to seven eighths of it. This is the
+     * most time, in milliseconds, any such write or transaction is held back; after that, it goes ahead.
+     * A value of 0 or less never holds anything back.
+     * <p> Default value is 1000.
+     * @param bufferMemoryAdmissionWait new value of bufferMemoryAdmissionWait, in milliseconds.
+     * @since 1.2.3
+     */
+    public void setBufferMemoryAdmissionWait(Integer bufferMemoryAdmissionWait) {
+        this.bufferMemoryAdmissionWait = bufferMemoryAdmissionWait;
+    }
+
 	@Override
 	public boolean equals(Object obj) {
 		if(obj instanceof FileSystemConfiguration) {
@@ -17,23 +17,28 @@
 
 package org.xadisk.filesystem;
 
-import org.xadisk.filesystem.pools.PooledBuffer;
 import org.xadisk.filesystem.virtual.TransactionVirtualView;
 import org.xadisk.filesystem.virtual.NativeXAFileOutputStream;
+import org.xadisk.filesystem.pools.PooledBuffer;
 import org.xadisk.filesystem.virtual.NativeXAFileInputStream;
 import org.xadisk.filesystem.virtual.VirtualViewFile;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.Map;
 import java.util.concurrent.locks.ReentrantLock;
+import javax.resource.spi.work.Work;
+import javax.resource.spi.work.WorkException;
 import org.xadisk.bridge.proxies.impl.RemoteConcurrencyControl;
+import org.xadisk.bridge.proxies.interfaces.AsynchronousCommit;
+import org.xadisk.bridge.proxies.interfaces.CommitListener;
 import org.xadisk.bridge.proxies.interfaces.XAFileInputStream;
 import org.xadisk.filesystem.exceptions.DeadLockVictimizedException;
 import org.xadisk.filesystem.exceptions.DirectoryNotEmptyException;
@@ -50,6 +55,7 @@ import org.xadisk.filesystem.exceptions.XASystemException;
 import org.xadisk.filesystem.exceptions.internal.XASystemIOException;
 import org.xadisk.filesystem.exceptions.XASystemNoMoreAvailableException;
 import org.xadisk.filesystem.utilities.FileIOUtility;
+import org.xadisk.filesystem.utilities.Logger;
 import org.xadisk.filesystem.utilities.MiscUtils;
 
 public class NativeSession implements SessionCommonness {
@@ -64,6 +70,9 @@ public class NativeSession implements SessionCommonness {
     private boolean rolledbackPrematurely = false;
     private boolean sessionIsUseless = false;
     private volatile boolean startedCommitting = false;
+    private boolean prepared = false;
+    private volatile boolean committingAsynchronously = false;
+    private volatile AsynchronousCommitTracker asynchronousCommit = null;
     private Throwable rollbackCause = null;
     private volatile boolean systemHasFailed = false;
     private volatile boolean systemGotShutdown = false;
@@ -78,10 +87,15 @@ public class NativeSession implements SessionCommonness {
     private final ReentrantLock asynchronousRollbackLock = new ReentrantLock(false);
     private final ArrayList<Long> transactionLogPositions = new ArrayList<Long>(25);
     private final ArrayList<Buffer> transactionInMemoryBuffers = new ArrayList<Buffer>(25);
+    private final ArrayList<Buffer> transactionOnDiskBuffers = new ArrayList<Buffer>(25);
+    private final boolean trackingOnDiskBuffers;
+    private long inMemoryBufferBytes = 0;
+    private final long memoryQuota;
     private boolean publishFileStateChangeEventsOnCommit = false;
     private final HashMap<File, NativeXAFileOutputStream> fileAndOutputStream = new HashMap<File, NativeXAFileOutputStream>(1000);
     private boolean usingReadOnlyOptimization = true;
     private final DurableDiskSession diskSession;
+    private final TransactionLogEntryEncoder logEntryEncoder;
 
     NativeSession(TransactionInformation xid, boolean createdForRecovery, NativeXAFileSystem xaFileSystem) {
         this.xid = xid;
@@ -89,7 +103,11 @@ public class NativeSession implements SessionCommonness {
         this.xaFileSystem = xaFileSystem;
         this.concurrencyControl = xaFileSystem.getConcurrencyControl();
         this.diskSession = xaFileSystem.createDurableDiskSession();
+        this.logEntryEncoder = new TransactionLogEntryEncoder(xid, xaFileSystem.isCompactingAppendLogEntries(),
+                xaFileSystem);
         this.createdForRecovery = createdForRecovery;
+        this.memoryQuota = xaFileSystem.getTransactionMemoryQuota();
+        this.trackingOnDiskBuffers = xaFileSystem.getTransactionLogCompactionInterval() > 0;
         if (createdForRecovery) {
             this.transactionTimeout = 0;
             this.view = null;
@@ -110,7 +128,11 @@ public class NativeSession implements SessionCommonness {
         this.xaFileSystem = xaFileSystem;
         this.concurrencyControl = xaFileSystem.getConcurrencyControl();
         this.diskSession = xaFileSystem.createDurableDiskSession();
+        this.logEntryEncoder = new TransactionLogEntryEncoder(xid, xaFileSystem.isCompactingAppendLogEntries(),
+                xaFileSystem);
         this.createdForRecovery = true;
+        this.memoryQuota = xaFileSystem.getTransactionMemoryQuota();
+        this.trackingOnDiskBuffers = xaFileSystem.getTransactionLogCompactionInterval() > 0;
         this.usingReadOnlyOptimization = false;
         this.transactionTimeout = 0;
         this.view = null;
@@ -147,6 +169,24 @@ public class NativeSession implements SessionCommonness {
         this.systemFailureCause = systemFailureCause;
     }
 
+    /*
+     * Called during the shutdown, so that a commit completing in the background gets a chance to
+     * finish instead of being left to the recovery.
+     */
+    void waitForAsynchronousCommit() {
+        AsynchronousCommitTracker commitTracker = asynchronousCommit;
+        if (commitTracker == null) {
+            return;
+        }
+        try {
+            commitTracker.waitUntilApplied();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        } catch (NoTransactionAssociatedException note) {
+        } catch (XASystemException xase) {
+        }
+    }
+
     void notifySystemShutdown() {
         this.systemGotShutdown = true;
         this.operationsCanContinue = false;
@@ -235,10 +275,8 @@ public class NativeSession implements SessionCommonness {
             checkPermission(PermissionType.WRITE_DIRECTORY, parentFile);
             view.createFile(f, isDirectory);
             byte operation = isDirectory ? TransactionLogEntry.DIR_CREATE : TransactionLogEntry.FILE_CREATE;
-            ByteBuffer logEntryBytes = ByteBuffer.wrap(TransactionLogEntry.getLogEntry(xid, f.getAbsolutePath(),
-                    operation));
-            Buffer logEntry = new Buffer(logEntryBytes, xaFileSystem);
-            xaFileSystem.getTheGatheringDiskWriter().submitBuffer(logEntry, xid);
+            Buffer logEntry = logEntryEncoder.getLogEntry(f.getAbsolutePath(), operation);
+            xaFileSystem.getGatheringDiskWriter(xid).submitBuffer(logEntry, xid);
             addToFileSystemEvents(FileSystemStateChangeEvent.FileSystemEventType.CREATED, f, isDirectory);
             success = true;
             usingReadOnlyOptimization = false;
@@ -271,10 +309,8 @@ public class NativeSession implements SessionCommonness {
             checkValidParent(f);
             checkPermission(PermissionType.WRITE_DIRECTORY, parentFile);
             isDirectory = view.deleteFile(f);
-            ByteBuffer logEntryBytes = ByteBuffer.wrap(TransactionLogEntry.getLogEntry(xid, f.getAbsolutePath(),
-                    TransactionLogEntry.FILE_DELETE));
-            Buffer logEntry = new Buffer(logEntryBytes, xaFileSystem);
-            xaFileSystem.getTheGatheringDiskWriter().submitBuffer(logEntry, xid);
+            Buffer logEntry = logEntryEncoder.getLogEntry(f.getAbsolutePath(), TransactionLogEntry.FILE_DELETE);
+            xaFileSystem.getGatheringDiskWriter(xid).submitBuffer(logEntry, xid);
             addToFileSystemEvents(FileSystemStateChangeEvent.FileSystemEventType.DELETED, f, isDirectory);
             success = true;
             usingReadOnlyOptimization = false;
@@ -323,10 +359,8 @@ public class NativeSession implements SessionCommonness {
             } else {
                 throw new FileNotExistsException(src.getAbsolutePath());
             }
-            ByteBuffer logEntryBytes = ByteBuffer.wrap(TransactionLogEntry.getLogEntry(xid, src.getAbsolutePath(),
-                    dest.getAbsolutePath(), TransactionLogEntry.FILE_MOVE));
-            Buffer logEntry = new Buffer(logEntryBytes, xaFileSystem);
-            xaFileSystem.getTheGatheringDiskWriter().submitBuffer(logEntry, xid);
+            Buffer logEntry = logEntryEncoder.getLogEntry(src.getAbsolutePath(), dest.getAbsolutePath(), TransactionLogEntry.FILE_MOVE);
+            xaFileSystem.getGatheringDiskWriter(xid).submitBuffer(logEntry, xid);
 
             addToFileSystemEvents(new FileSystemStateChangeEvent.FileSystemEventType[]{FileSystemStateChangeEvent.FileSystemEventType.DELETED,
                         FileSystemStateChangeEvent.FileSystemEventType.CREATED, FileSystemStateChangeEvent.FileSystemEventType.MODIFIED},
@@ -372,10 +406,8 @@ public class NativeSession implements SessionCommonness {
             VirtualViewFile srcFileInView = view.getVirtualViewFile(src);
             VirtualViewFile destFileInView = view.getVirtualViewFile(dest);
             srcFileInView.takeSnapshotInto(destFileInView);
-            ByteBuffer logEntryBytes = ByteBuffer.wrap(TransactionLogEntry.getLogEntry(xid, src.getAbsolutePath(),
-                    dest.getAbsolutePath(), TransactionLogEntry.FILE_COPY));
-            Buffer logEntry = new Buffer(logEntryBytes, xaFileSystem);
-            xaFileSystem.getTheGatheringDiskWriter().submitBuffer(logEntry, xid);
+            Buffer logEntry = logEntryEncoder.getLogEntry(src.getAbsolutePath(), dest.getAbsolutePath(), TransactionLogEntry.FILE_COPY);
+            xaFileSystem.getGatheringDiskWriter(xid).submitBuffer(logEntry, xid);
 
             addToFileSystemEvents(new FileSystemStateChangeEvent.FileSystemEventType[]{FileSystemStateChangeEvent.FileSystemEventType.CREATED, FileSystemStateChangeEvent.FileSystemEventType.MODIFIED},
                     new File[]{dest, dest}, false);
@@ -565,10 +597,8 @@ public class NativeSession implements SessionCommonness {
             }
             VirtualViewFile vvf = view.getVirtualViewFile(f);
             vvf.truncate(newLength);
-            ByteBuffer logEntryBytes = ByteBuffer.wrap(TransactionLogEntry.getLogEntry(xid, f.getAbsolutePath(), newLength,
-                    TransactionLogEntry.FILE_TRUNCATE));
-            Buffer logEntry = new Buffer(logEntryBytes, xaFileSystem);
-            xaFileSystem.getTheGatheringDiskWriter().submitBuffer(logEntry, xid);
+            Buffer logEntry = logEntryEncoder.getLogEntry(f.getAbsolutePath(), newLength, TransactionLogEntry.FILE_TRUNCATE);
+            xaFileSystem.getGatheringDiskWriter(xid).submitBuffer(logEntry, xid);
 
             addToFileSystemEvents(FileSystemStateChangeEvent.FileSystemEventType.MODIFIED, f, false);
 
@@ -597,23 +627,24 @@ public class NativeSession implements SessionCommonness {
         }
         HashSet<File> filesOnDisk = view.getFilesWithLatestViewOnDisk();
         ByteBuffer logEntryBytes = ByteBuffer.wrap(TransactionLogEntry.getLogEntry(xid, filesOnDisk));
-        xaFileSystem.getTheGatheringDiskWriter().submitBuffer(new Buffer(logEntryBytes, xaFileSystem), xid);
+        xaFileSystem.getGatheringDiskWriter(xid).submitBuffer(new Buffer(logEntryBytes, xaFileSystem), xid);
 
         if (publishFileStateChangeEventsOnCommit) {
             fileStateChangeEventsToRaise = xaFileSystem.getFileSystemEventDelegator().retainOnlyInterestingEvents(fileStateChangeEventsToRaise);
             logEntryBytes = ByteBuffer.wrap(TransactionLogEntry.getLogEntry(xid, fileStateChangeEventsToRaise,
                     TransactionLogEntry.EVENT_ENQUEUE));
-            xaFileSystem.getTheGatheringDiskWriter().submitBuffer(new Buffer(logEntryBytes, xaFileSystem), xid);
+            xaFileSystem.getGatheringDiskWriter(xid).submitBuffer(new Buffer(logEntryBytes, xaFileSystem), xid);
         }
-        xaFileSystem.getTheGatheringDiskWriter().writeRemainingBuffersNow(xid);
+        xaFileSystem.getGatheringDiskWriter(xid).writeRemainingBuffersNow(xid);
     }
 
     public void prepare() throws NoTransactionAssociatedException {
         try {
             asynchronousRollbackLock.lock();
             checkIfCanContinue();
+            prepared = true;
             submitPreCommitInformationForLogging();
-            xaFileSystem.getTheGatheringDiskWriter().transactionPrepareCompletes(xid);
+            xaFileSystem.getGatheringDiskWriter(xid).transactionPrepareCompletes(xid);
         } catch (NoTransactionAssociatedException note) {
             throw note;
         } catch (IOException ioe) {
@@ -624,10 +655,70 @@ public class NativeSession implements SessionCommonness {
     }
 
     public void commit(boolean onePhase) throws NoTransactionAssociatedException {
-        ArrayList<FileInputStream> logInputStreams = new ArrayList<FileInputStream>();
+        if (onePhase && !createdForRecovery && xaFileSystem.isCommittingWriteBehind()) {
+            //the changes get applied in the background; the locks are held till then.
+            AsynchronousCommit commit = commitAsync(null);
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    commit.waitUntilDurable();
+                    break;
+                } catch (InterruptedException ie) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            return;
+        }
+        commit(onePhase, null);
+    }
+
+    public AsynchronousCommit commitAsync() throws NoTransactionAssociatedException {
+        return commitAsync(null);
+    }
+
+    public AsynchronousCommit commitAsync(CommitListener listener) throws NoTransactionAssociatedException {
+        AsynchronousCommitTracker commitTracker = new AsynchronousCommitTracker(listener);
         try {
             asynchronousRollbackLock.lock();
             checkIfCanContinue();
+            if (usingReadOnlyOptimization) {
+                completeReadOnlyTransaction();
+                commitTracker.commitApplied();
+                return commitTracker;
+            }
+            //the streams are closed while the session can still be used; closing them from the commit
+            //itself would find the session taken away from the application.
+            releaseAllStreams();
+            //from here, the session can no more be used by the application, nor be rolled back on a timeout.
+            startedCommitting = true;
+            committingAsynchronously = true;
+            operationsCanContinue = false;
+        } finally {
+            asynchronousRollbackLock.unlock();
+        }
+        asynchronousCommit = commitTracker;
+        AsynchronousCommitter committer = new AsynchronousCommitter(commitTracker);
+        try {
+            xaFileSystem.startWork(committer);
+        } catch (WorkException we) {
+            committer.run();
+        }
+        return commitTracker;
+    }
+
+    private void commit(boolean onePhase, AsynchronousCommitTracker commitTracker) throws NoTransactionAssociatedException {
+        HashMap<Integer, FileChannel> logReaderChannels = new HashMap<Integer, FileChannel>(2);
+        RedoApplier redoApplier = new RedoApplier(xaFileSystem.getCommitApplyParallelism(), diskSession, xaFileSystem);
+        try {
+            asynchronousRollbackLock.lock();
+            if (commitTracker == null) {
+                checkIfCanContinue();
+            } else {
+                checkIfSystemIsAvailable();
+            }
             if (onePhase) {
                 try {
                     if(usingReadOnlyOptimization) {
@@ -636,7 +727,10 @@ public class NativeSession implements SessionCommonness {
                     }
                     if (!createdForRecovery) {
                         submitPreCommitInformationForLogging();
-                        xaFileSystem.getTheGatheringDiskWriter().transactionCommitBegins(xid);
+                        xaFileSystem.getGatheringDiskWriter(xid).transactionCommitBegins(xid);
+                        if (commitTracker != null) {
+                            commitTracker.commitDurable();
+                        }
                     }
                 } catch (IOException ioe) {
                     xaFileSystem.notifySystemFailure(ioe);
@@ -645,15 +739,15 @@ public class NativeSession implements SessionCommonness {
             startedCommitting = true;
             ArrayList<Long> logPositions;
             HashSet<File> filesDirectlyWrittenToDisk;
-            HashMap<Integer, FileChannel> logReaderChannels = new HashMap<Integer, FileChannel>(2);
             FileChannel logReaderChannel = null;
-            String transactionLogBaseName = xaFileSystem.getTransactionLogFileBaseName();
             int latestCheckPointForRecoveryCase = 0;
             HashSet<File> srcFilesMoved = new HashSet<File>();
             HashSet<File> srcFilesCopied = new HashSet<File>();
+            Map<Integer, String> declaredFileNames;
             if (createdForRecovery) {
                 filesDirectlyWrittenToDisk = xaFileSystem.getRecoveryWorker().getFilesOnDiskForTransaction(xid);
                 logPositions = xaFileSystem.getRecoveryWorker().getTransactionLogsPositions(xid);
+                declaredFileNames = xaFileSystem.getRecoveryWorker().getTransactionsDeclaredFileNames(xid);
                 latestCheckPointForRecoveryCase = xaFileSystem.getRecoveryWorker().getTransactionsLatestCheckPoint(xid);
                 if (latestCheckPointForRecoveryCase == -1) {
                     latestCheckPointForRecoveryCase = 0;
@@ -663,6 +757,7 @@ public class NativeSession implements SessionCommonness {
             } else {
                 filesDirectlyWrittenToDisk = view.getFilesWithLatestViewOnDisk();
                 logPositions = this.transactionLogPositions;
+                declaredFileNames = logEntryEncoder.getDeclaredFileNames();
             }
             Buffer inMemoryLog;
             for (int i = latestCheckPointForRecoveryCase; i < logPositions.size() - 1; i += 2) {
@@ -673,52 +768,76 @@ public class NativeSession implements SessionCommonness {
                 if (logFileIndex == -1) {
                     inMemoryLog = transactionInMemoryBuffers.get((int) localPosition);
                     temp = inMemoryLog.getBuffer();
+                    if (temp == null) {
+                        //spilled to stay within the memory quota; its entry is read back from the log.
+                        logFileIndex = inMemoryLog.getOnDiskInfo().getLogIndex();
+                        localPosition = inMemoryLog.getOnDiskInfo().getLocation();
+                    }
+                }
+                if (logFileIndex == -1) {
                     temp.position(0);
                     logEntry = TransactionLogEntry.parseLogEntry(temp);
                 } else {
-                    if (logReaderChannels.get(logFileIndex) == null) {
-                        FileInputStream fis = new FileInputStream(transactionLogBaseName + "_" + logFileIndex);
-                        logReaderChannels.put(logFileIndex, fis.getChannel());
-                        logInputStreams.add(fis);
-                    }
-                    logReaderChannel = logReaderChannels.get(logFileIndex);
-                    logReaderChannel.position(localPosition);
-                    logEntry = TransactionLogEntry.getNextTransactionLogEntry(logReaderChannel, localPosition, false);
+                    logReaderChannel = acquireLogReaderChannel(logReaderChannels, logFileIndex);
+                    logEntry = TransactionLogEntry.readTransactionLogEntry(logReaderChannel, localPosition);
                 }
+                logEntry.resolveFileName(declaredFileNames);
                 try {
+                    if (logEntry.getOperationType() == TransactionLogEntry.DIR_CREATE
+                            || logEntry.getOperationType() == TransactionLogEntry.FILE_COPY
+                            || logEntry.getOperationType() == TransactionLogEntry.FILE_MOVE
+                            || logEntry.getOperationType() == TransactionLogEntry.FILE_SPECIAL_MOVE) {
+                        //these relate more than one file, so the entries applied in parallel so far must complete first.
+                        redoApplier.applyAll();
+                    }
                     if (logEntry.getOperationType() == TransactionLogEntry.FILE_APPEND) {
                         File f = new File(logEntry.getFileName());
                         if (filesDirectlyWrittenToDisk.contains(f)) {
                             continue;
                         }
-                        checkPointDuringModificationAgainstCopy(i - 2, f, srcFilesCopied, srcFilesMoved);
-                        commitFileAppend(logEntry, temp, logReaderChannel, logFileIndex, localPosition);
+                        checkPointDuringModificationAgainstCopy(i - 2, f, srcFilesCopied, srcFilesMoved, redoApplier);
+                        ByteBuffer inMemoryContent = null;
+                        if (logFileIndex == -1) {
+                            inMemoryContent = temp.duplicate();
+                            inMemoryContent.limit(logEntry.getHeaderLength() + logEntry.getFileContentLength());
+                            inMemoryContent.position(logEntry.getHeaderLength());
+                        }
+                        redoApplier.submit(logEntry.getFileName(), new SingleFileRedo(logEntry, inMemoryContent,
+                                logReaderChannel, localPosition, filesDirectlyWrittenToDisk));
                     } else if (logEntry.getOperationType() == TransactionLogEntry.FILE_DELETE) {
                         String fileName = logEntry.getFileName();
                         File f = new File(fileName);
                         if (filesDirectlyWrittenToDisk.contains(f)) {
                             continue;
                         }
-                        checkPointDuringModificationAgainstCopy(i - 2, f, srcFilesCopied, srcFilesMoved);
-                        commitDeleteFile(fileName, filesDirectlyWrittenToDisk);
+                        checkPointDuringModificationAgainstCopy(i - 2, f, srcFilesCopied, srcFilesMoved, redoApplier);
+                        if (f.isDirectory()) {
+                            //the deletion of a directory depends upon the deletion of its children.
+                            redoApplier.applyAll();
+                            commitDeleteFile(fileName, filesDirectlyWrittenToDisk, diskSession);
+                        } else {
+                            redoApplier.submit(fileName, new SingleFileRedo(logEntry, null, null, 0,
+                                    filesDirectlyWrittenToDisk));
+                        }
                     } else if (logEntry.getOperationType() == TransactionLogEntry.FILE_CREATE) {
                         String fileName = logEntry.getFileName();
                         File f = new File(fileName);
                         if (filesDirectlyWrittenToDisk.contains(f)) {
                             continue;
                         }
-                        checkPointDuringCreationAgainstMove(i - 2, f, srcFilesCopied, srcFilesMoved);
-                        commitCreateFile(fileName);
+                        checkPointDuringCreationAgainstMove(i - 2, f, srcFilesCopied, srcFilesMoved, redoApplier);
+                        redoApplier.submit(fileName, new SingleFileRedo(logEntry, null, null, 0,
+                                filesDirectlyWrittenToDisk));
                     } else if (logEntry.getOperationType() == TransactionLogEntry.DIR_CREATE) {
                         String dirName = logEntry.getFileName();
-                        checkPointDuringCreationAgainstMove(i - 2, new File(dirName), srcFilesCopied, srcFilesMoved);
+                        checkPointDuringCreationAgainstMove(i - 2, new File(dirName), srcFilesCopied, srcFilesMoved, redoApplier);
                         commitCreateDir(dirName);
                     } else if (logEntry.getOperationType() == TransactionLogEntry.FILE_COPY) {
                         File dest = new File(logEntry.getDestFileName());
                         if (filesDirectlyWrittenToDisk.contains(dest)) {
                             continue;
                         }
-                        checkPointDuringCreationAgainstMove(i - 2, dest, srcFilesCopied, srcFilesMoved);
+                        checkPointDuringCreationAgainstMove(i - 2, dest, srcFilesCopied, srcFilesMoved, redoApplier);
                         commitFileCopy(logEntry, srcFilesCopied);
                     } else if (logEntry.getOperationType() == TransactionLogEntry.FILE_MOVE) {
                         File src = new File(logEntry.getFileName());
@@ -728,12 +847,12 @@ public class NativeSession implements SessionCommonness {
                         }
                         boolean isDirectoryMove = src.isDirectory();
                         if(isDirectoryMove) {
-                            declareCheckPoint(i - 2, srcFilesCopied, srcFilesMoved);
+                            declareCheckPoint(i - 2, srcFilesCopied, srcFilesMoved, redoApplier);
                             commitMove(logEntry);
-                            declareCheckPoint(i - 2, srcFilesCopied, srcFilesMoved);
+                            declareCheckPoint(i - 2, srcFilesCopied, srcFilesMoved, redoApplier);
                         } else {
-                            if(!checkPointDuringModificationAgainstCopy(i - 2, src, srcFilesCopied, srcFilesMoved)) {
-                                checkPointDuringCreationAgainstMove(i - 2, dest, srcFilesCopied, srcFilesMoved);
+                            if(!checkPointDuringModificationAgainstCopy(i - 2, src, srcFilesCopied, srcFilesMoved, redoApplier)) {
+                                checkPointDuringCreationAgainstMove(i - 2, dest, srcFilesCopied, srcFilesMoved, redoApplier);
                             }
                             commitFileMove(logEntry, srcFilesMoved);
                         }
@@ -742,13 +861,14 @@ public class NativeSession implements SessionCommonness {
                         if (filesDirectlyWrittenToDisk.contains(f)) {
                             continue;
                         }
-                        checkPointDuringModificationAgainstCopy(i - 2, f, srcFilesCopied, srcFilesMoved);
-                        commitFileTruncate(logEntry);
+                        checkPointDuringModificationAgainstCopy(i - 2, f, srcFilesCopied, srcFilesMoved, redoApplier);
+                        redoApplier.submit(logEntry.getFileName(), new SingleFileRedo(logEntry, null, null, 0,
+                                filesDirectlyWrittenToDisk));
                     } else if (logEntry.getOperationType() == TransactionLogEntry.FILE_SPECIAL_MOVE) {
                         File src = new File(logEntry.getFileName());
                         File dest = new File(logEntry.getDestFileName());
-                        if(!checkPointDuringModificationAgainstCopy(i - 2, src, srcFilesCopied, srcFilesMoved)) {
-                            checkPointDuringCreationAgainstMove(i - 2, dest, srcFilesCopied, srcFilesMoved);
+                        if(!checkPointDuringModificationAgainstCopy(i - 2, src, srcFilesCopied, srcFilesMoved, redoApplier)) {
+                            checkPointDuringCreationAgainstMove(i - 2, dest, srcFilesCopied, srcFilesMoved, redoApplier);
                         }
                         commitFileSpecialMove(logEntry, srcFilesMoved);
                     }
@@ -761,48 +881,54 @@ public class NativeSession implements SessionCommonness {
                     throw new TransactionFailedException(ioe, xid);
                 }
             }
-            diskSession.forceToDisk();
-            xaFileSystem.getTheGatheringDiskWriter().transactionCompletes(xid, true);
-            for(FileInputStream logInputStream: logInputStreams) {
-                MiscUtils.closeAll(logInputStream);
-                //need to close logs here to allow cleanup of logs in crashRecoveryWorker.
+            try {
+                redoApplier.applyAll();
+            } catch (IOException ioe) {
+                xaFileSystem.notifyTransactionFailure(xid);
+                throw new TransactionFailedException(ioe, xid);
             }
-            logInputStreams.clear();//to avoid the loop in finally block.
+            diskSession.forceToDisk();
+            xaFileSystem.getGatheringDiskWriter(xid).transactionCompletes(xid, true);
+            //need to release the logs here to allow cleanup of logs in crashRecoveryWorker.
+            releaseLogReaderChannels(logReaderChannels);
             cleanup();
             raiseFileStateChangeEvents();
         } catch (IOException ioe) {
             xaFileSystem.notifySystemFailure(ioe);
         } finally {
-            for(FileInputStream logInputStream: logInputStreams) {
-                MiscUtils.closeAll(logInputStream);
-            }
+            redoApplier.closeAll();
+            releaseLogReaderChannels(logReaderChannels);
             asynchronousRollbackLock.unlock();
         }
     }
 
     private boolean checkPointDuringModificationAgainstCopy(int currentLogPosition, File fileBeingModified,
-            HashSet<File> srcFilesCopied, HashSet<File> srcFilesMoved) throws IOException {
+            HashSet<File> srcFilesCopied, HashSet<File> srcFilesMoved, RedoApplier redoApplier)
+            throws IOException {
         if(srcFilesCopied.contains(fileBeingModified)) {
-            declareCheckPoint(currentLogPosition, srcFilesCopied, srcFilesMoved);
+            declareCheckPoint(currentLogPosition, srcFilesCopied, srcFilesMoved, redoApplier);
             return true;
         }
         return false;
     }
 
     private boolean checkPointDuringCreationAgainstMove(int currentLogPosition, File fileBeingCreated,
-            HashSet<File> srcFilesCopied, HashSet<File> srcFilesMoved) throws IOException {
+            HashSet<File> srcFilesCopied, HashSet<File> srcFilesMoved, RedoApplier redoApplier)
+            throws IOException {
         if(srcFilesMoved.contains(fileBeingCreated)) {
-            declareCheckPoint(currentLogPosition, srcFilesCopied, srcFilesMoved);
+            declareCheckPoint(currentLogPosition, srcFilesCopied, srcFilesMoved, redoApplier);
             return true;
         }
         return false;
     }
 
-    private void declareCheckPoint(int currentLogPosition, HashSet<File> srcFilesCopied, HashSet<File> srcFilesMoved) throws IOException {
+    private void declareCheckPoint(int currentLogPosition, HashSet<File> srcFilesCopied, HashSet<File> srcFilesMoved,
+            RedoApplier redoApplier) throws IOException {
+        redoApplier.applyAll();
         diskSession.forceToDisk();
         try {
             ByteBuffer logEntryBytes = ByteBuffer.wrap(TransactionLogEntry.getLogEntry(xid, currentLogPosition));
-            xaFileSystem.getTheGatheringDiskWriter().forceLog(xid, logEntryBytes);
+            xaFileSystem.getGatheringDiskWriter(xid).forceLog(xid, logEntryBytes);
         } catch(IOException ioe) {
             throw new XASystemIOException(ioe);
         }
@@ -838,48 +964,28 @@ public class NativeSession implements SessionCommonness {
         }
     }
     
-    private void commitFileAppend(TransactionLogEntry logEntry, ByteBuffer inMemoryLogEntry,
-            FileChannel logReaderChannel, int logFileIndex, long localPosition)
+    private void commitFileAppend(TransactionLogEntry logEntry, ByteBuffer inMemoryContent,
+            FileChannel logReaderChannel, long localPosition, RedoFileAppender redoFileAppender)
             throws IOException {
         String fileName = logEntry.getFileName();
-        if (!new File(fileName).exists()) {
-            return;
-        }
-
-        FileOutputStream fos = null;
-        try {
-            fos = new FileOutputStream(fileName, true);
-            long contentLength = logEntry.getFileContentLength();
-            FileChannel fc = fos.getChannel();
-            if (logFileIndex == -1) {
-                long num = 0;
-                inMemoryLogEntry.position(logEntry.getHeaderLength());
-                while (num < contentLength) {
-                    num += fc.write(inMemoryLogEntry, logEntry.getFilePosition());
-                }
-
-            } else {
-                logReaderChannel.position(localPosition + logEntry.getHeaderLength());
-                long num = 0;
-                if (logEntry.getFilePosition() <= fc.size()) {
-                    while (num < contentLength) {
-                        num += fc.transferFrom(logReaderChannel, num + logEntry.getFilePosition(),
-                                NativeXAFileSystem.maxTransferToChannel(contentLength - num));
-                    }
-                }
-            }
-            fc.force(false);
-        } finally {
-            MiscUtils.closeAll(fos);
+        if (inMemoryContent != null) {
+            redoFileAppender.append(fileName, logEntry.getFilePosition(), inMemoryContent, false);
+        } else if (logEntry.getContentCodecId() != 0) {
+            ByteBuffer content = TransactionLogEntry.readDecodedContent(logReaderChannel, localPosition,
+                    xaFileSystem.getLogContentCodec(logEntry.getContentCodecId()));
+            redoFileAppender.append(fileName, logEntry.getFilePosition(), content, true);
+        } else {
+            redoFileAppender.transfer(fileName, logEntry.getFilePosition(), logReaderChannel,
+                    localPosition + logEntry.getHeaderLength(), logEntry.getFileContentLength());
         }
     }
 
-    private void commitDeleteFile(String fileName, HashSet<File> filesDirectlyWrittenToDisk)
-            throws IOException {
+    private void commitDeleteFile(String fileName, HashSet<File> filesDirectlyWrittenToDisk,
+            DurableDiskSession fileDiskSession) throws IOException {
         File f = new File(fileName);
         if (f.exists()) {
             try {
-                diskSession.deleteFile(f);
+                fileDiskSession.deleteFile(f);
             } catch(IOException ioe) {
                 if(f.isDirectory()) {
                     if(f.list().length!=0) {
@@ -900,12 +1006,12 @@ public class NativeSession implements SessionCommonness {
         }
     }
 
-    private void commitCreateFile(String fileName) throws IOException {
+    private void commitCreateFile(String fileName, DurableDiskSession fileDiskSession) throws IOException {
         File f = new File(fileName);
         if (f.exists()) {
-            diskSession.deleteFile(f);
+            fileDiskSession.deleteFile(f);
         }
-        diskSession.createFile(f);
+        fileDiskSession.createFile(f);
     }
 
     private void commitCreateDir(String fileName) throws IOException {
@@ -946,21 +1052,9 @@ public class NativeSession implements SessionCommonness {
         diskSession.renameTo(src, dest);
     }
 
-    private void commitFileTruncate(TransactionLogEntry logEntry) throws IOException {
-        String fileName = logEntry.getFileName();
-        if (!new File(fileName).exists()) {
-            return;
-        }
-
-        FileOutputStream fos = null;
-        try {
-            fos = new FileOutputStream(fileName, true);
-            FileChannel fc = fos.getChannel();
-            fc.truncate(logEntry.getNewLength());
-            fc.force(false);
-        } finally {
-            MiscUtils.closeAll(fos);
-        }
+    private void commitFileTruncate(TransactionLogEntry logEntry, RedoFileAppender redoFileAppender)
+            throws IOException {
+        redoFileAppender.truncate(logEntry.getFileName(), logEntry.getNewLength());
     }
 
     private void commitFileSpecialMove(TransactionLogEntry logEntry, HashSet<File> srcFilesMoved) throws IOException {
@@ -983,7 +1077,8 @@ public class NativeSession implements SessionCommonness {
     }
 
     public void rollback() throws NoTransactionAssociatedException {
-        ArrayList<FileInputStream> logInputStreams = new ArrayList<FileInputStream>();
+        HashMap<Integer, FileChannel> logReaderChannels = new HashMap<Integer, FileChannel>(2);
+        RedoFileAppender undoFileAppender = new RedoFileAppender();
         try {
             asynchronousRollbackLock.lock();
             checkIfCanContinue();
@@ -996,9 +1091,7 @@ public class NativeSession implements SessionCommonness {
             releaseAllStreams();
 
             ArrayList<Long> logPositions;
-            HashMap<Integer, FileChannel> logReaderChannels = new HashMap<Integer, FileChannel>(2);
             FileChannel logReaderChannel = null;
-            String transactionLogBaseName = xaFileSystem.getTransactionLogFileBaseName();
             if (createdForRecovery) {
                 logPositions = xaFileSystem.getRecoveryWorker().getTransactionLogsPositions(xid);
             } else {
@@ -1008,7 +1101,7 @@ public class NativeSession implements SessionCommonness {
                 }
                 logPositions = this.transactionLogPositions;
             }
-            xaFileSystem.getTheGatheringDiskWriter().transactionRollbackBegins(xid);
+            xaFileSystem.getGatheringDiskWriter(xid).transactionRollbackBegins(xid);
 
             Buffer inMemoryLog;
             for (int i = logPositions.size() - 2; i >= 0; i -= 2) {
@@ -1019,84 +1112,85 @@ public class NativeSession implements SessionCommonness {
 
                 if (logFileIndex == -1) {
                     inMemoryLog = transactionInMemoryBuffers.get((int) localPosition);
-                    temp =
-                            inMemoryLog.getBuffer();
+                    temp = inMemoryLog.getBuffer();
+                    if (temp == null) {
+                        logFileIndex = inMemoryLog.getOnDiskInfo().getLogIndex();
+                        localPosition = inMemoryLog.getOnDiskInfo().getLocation();
+                    }
+                }
+                if (logFileIndex == -1) {
                     temp.position(0);
                     logEntry =
                             TransactionLogEntry.parseLogEntry(temp);
                 } else {
-                    if (!logReaderChannels.containsKey(logFileIndex)) {
-                        FileInputStream fis = new FileInputStream(transactionLogBaseName + "_" + logFileIndex);
-                        logReaderChannels.put(logFileIndex, fis.getChannel());
-                        logInputStreams.add(fis);
-                    }
-
-                    logReaderChannel = logReaderChannels.get(logFileIndex);
-                    logReaderChannel.position(localPosition);
+                    logReaderChannel = acquireLogReaderChannel(logReaderChannels, logFileIndex);
                     logEntry =
-                            TransactionLogEntry.getNextTransactionLogEntry(logReaderChannel, localPosition, false);
+                            TransactionLogEntry.readTransactionLogEntry(logReaderChannel, localPosition);
                 }
 
-                FileOutputStream fos = null;
                 try {
                     if (logEntry.getOperationType() == TransactionLogEntry.UNDOABLE_FILE_TRUNCATE) {
                         String fileName = logEntry.getFileName();
-                        fos = new FileOutputStream(fileName, true);
-                        long contentLength = logEntry.getFileContentLength();
-                        FileChannel fc = fos.getChannel();
                         if (logFileIndex == -1) {
                         } else {
-                            logReaderChannel.position(localPosition + logEntry.getHeaderLength());
-                            long num = 0;
-                            if (logEntry.getFilePosition() <= fc.size()) {
-                                while (num < contentLength) {
-                                    num += fc.transferFrom(logReaderChannel, num + logEntry.getFilePosition(),
-                                            NativeXAFileSystem.maxTransferToChannel(contentLength - num));
-                                }
-                            }
+                            //the log channel is shared, so the undo content is transferred from an explicit position.
+                            undoFileAppender.transfer(fileName, logEntry.getFilePosition(), logReaderChannel,
+                                    localPosition + logEntry.getHeaderLength(), logEntry.getFileContentLength());
                         }
-                        fc.force(false);//improve this. force for every piece of content? (same in commit method).
                     } else if (logEntry.getOperationType() == TransactionLogEntry.UNDOABLE_FILE_APPEND) {
-                        String fileName = logEntry.getFileName();
-                        fos = new FileOutputStream(fileName, true);
-                        FileChannel fc = fos.getChannel();
-                        fc.truncate(logEntry.getNewLength());
-                        fc.force(false);//the file length may be part of meta-data (not sure). Make "true"?
+                        undoFileAppender.truncate(logEntry.getFileName(), logEntry.getNewLength());
                     }
                 } catch(IOException ioe) {
                     //all these ioexceptions will be transaction specific (file_append just
                     //reads from the txn-log) and so would not affect the system.
                     xaFileSystem.notifyTransactionFailure(xid);
                     throw new TransactionFailedException(ioe, xid);
-                } finally {
-                    MiscUtils.closeAll(fos);
                 }
             }
-            xaFileSystem.getTheGatheringDiskWriter().transactionCompletes(xid, false);
-            for(FileInputStream logInputStream: logInputStreams) {
-                MiscUtils.closeAll(logInputStream);
-                //need to close logs here to allow cleanup of logs in crashRecoveryWorker.
+            try {
+                undoFileAppender.forceAndCloseAll();
+            } catch (IOException ioe) {
+                xaFileSystem.notifyTransactionFailure(xid);
+                throw new TransactionFailedException(ioe, xid);
             }
-            logInputStreams.clear();//to avoid the loop in finally block.
+            xaFileSystem.getGatheringDiskWriter(xid).transactionCompletes(xid, false);
+            //need to release the logs here to allow cleanup of logs in crashRecoveryWorker.
+            releaseLogReaderChannels(logReaderChannels);
             cleanup();
         } catch (IOException ioe) {
             xaFileSystem.notifySystemFailure(ioe);
         } finally {
-            for(FileInputStream logInputStream: logInputStreams) {
-                MiscUtils.closeAll(logInputStream);
-            }
+            undoFileAppender.closeAll();
+            releaseLogReaderChannels(logReaderChannels);
             asynchronousRollbackLock.unlock();
         }
 
     }
 
+    private FileChannel acquireLogReaderChannel(HashMap<Integer, FileChannel> logReaderChannels, int logFileIndex)
+            throws IOException {
+        FileChannel logReaderChannel = logReaderChannels.get(logFileIndex);
+        if (logReaderChannel == null) {
+            logReaderChannel = xaFileSystem.getTransactionLogChannelCache().acquireChannel(logFileIndex);
+            logReaderChannels.put(logFileIndex, logReaderChannel);
+        }
+        return logReaderChannel;
+    }
+
+    private void releaseLogReaderChannels(HashMap<Integer, FileChannel> logReaderChannels) {
+        for (Integer logFileIndex : logReaderChannels.keySet()) {
+            xaFileSystem.getTransactionLogChannelCache().releaseChannel(logFileIndex);
+        }
+        logReaderChannels.clear();
+    }
+
     private void cleanup() throws IOException {
         this.sessionIsUseless = true;
         this.operationsCanContinue = false;
         if (createdForRecovery) {
             xaFileSystem.getRecoveryWorker().cleanupTransactionInfo(xid);
         } else {
-            xaFileSystem.getTheGatheringDiskWriter().cleanupTransactionInfo(xid);
+            xaFileSystem.getGatheringDiskWriter(xid).cleanupTransactionInfo(xid);
         }
 
         releaseAllLocks();
@@ -1114,11 +1208,15 @@ public class NativeSession implements SessionCommonness {
             concurrencyControl.shutdown();
         }
 
-        for (Buffer buffer : transactionInMemoryBuffers) {
-            if (buffer instanceof PooledBuffer) {
-                xaFileSystem.getBufferPool().checkIn((PooledBuffer) buffer);
+        synchronized (transactionInMemoryBuffers) {
+            for (Buffer buffer : transactionInMemoryBuffers) {
+                if (!buffer.isSpilled()) {
+                    //a spilled buffer has given up its reference already.
+                    buffer.release();
+                }
             }
         }
+        logEntryEncoder.release();
     }
 
     private void releaseAllLocks() {
@@ -1249,19 +1347,26 @@ public class NativeSession implements SessionCommonness {
             if (sessionIsUseless) {
                 throw new NoTransactionAssociatedException();
             }
-            if (systemHasFailed) {
-                throw new XASystemNoMoreAvailableException(systemFailureCause);
-            }
-            if(systemGotShutdown) {
-                throw new XASystemNoMoreAvailableException();
+            checkIfSystemIsAvailable();
+            if (committingAsynchronously) {
+                throw new NoTransactionAssociatedException();
             }
         }
     }
 
+    private void checkIfSystemIsAvailable() {
+        if (systemHasFailed) {
+            throw new XASystemNoMoreAvailableException(systemFailureCause);
+        }
+        if(systemGotShutdown) {
+            throw new XASystemNoMoreAvailableException();
+        }
+    }
+
     public void declareTransactionUsingUndoLogs() throws IOException {
         ByteBuffer logEntryBytes = ByteBuffer.wrap(TransactionLogEntry.getLogEntry(xid,
                 TransactionLogEntry.TXN_USES_UNDO_LOGS));
-        xaFileSystem.getTheGatheringDiskWriter().forceLog(xid, logEntryBytes);
+        xaFileSystem.getGatheringDiskWriter(xid).forceLog(xid, logEntryBytes);
     }
 
     public long getTimeOfEntryToTransaction() {
@@ -1272,17 +1377,155 @@ public class NativeSession implements SessionCommonness {
         return asynchronousRollbackLock;
     }
 
+    public TransactionLogEntryEncoder getLogEntryEncoder() {
+        return logEntryEncoder;
+    }
+
     public void addLogPositionToTransaction(int logFileIndex, long localPosition) {
         transactionLogPositions.add((long) logFileIndex);
         transactionLogPositions.add(localPosition);
     }
 
+    /*
+     * Keeps the buffers whose content is in the transaction logs, so that they can be pointed to the
+     * copies made by a compaction of the logs; nothing is kept when the logs are not compacted.
+     */
+    public void addOnDiskBufferToTransaction(Buffer buffer) {
+        if (!trackingOnDiskBuffers) {
+            return;
+        }
+        synchronized (transactionOnDiskBuffers) {
+            transactionOnDiskBuffers.add(buffer);
+        }
+    }
+
+    /*
+     * To be called with the asynchronousRollbackLock held. The log entries of a transaction are
+     * relocated only while it is active; once prepared or completing, its entries are read (or
+     * recovered) from where they are.
+     */
+    public boolean canRelocateLogEntries() {
+        return operationsCanContinue && !prepared && !startedCommitting && !createdForRecovery;
+    }
+
+    /*
+     * Called by the gathering disk writer, with the asynchronousRollbackLock and the transaction log
+     * lock held, after it has copied the log entries of this transaction into the log newLogIndex;
+     * relocations maps the old log indices and positions to the new positions.
+     */
+    public void relocateLogEntries(Map<Integer, HashMap<Long, Long>> relocations, int newLogIndex) {
+        for (int i = 0; i < transactionLogPositions.size() - 1; i += 2) {
+            HashMap<Long, Long> relocationsFromLog = relocations.get((int) transactionLogPositions.get(i).longValue());
+            if (relocationsFromLog == null) {
+                continue;
+            }
+            Long newPosition = relocationsFromLog.get(transactionLogPositions.get(i + 1));
+            if (newPosition != null) {
+                transactionLogPositions.set(i, (long) newLogIndex);
+                transactionLogPositions.set(i + 1, newPosition);
+            }
+        }
+        synchronized (transactionOnDiskBuffers) {
+            relocateBuffers(transactionOnDiskBuffers, relocations, newLogIndex);
+        }
+        synchronized (transactionInMemoryBuffers) {
+            //these keep their log positions too, in case they get spilled.
+            relocateBuffers(transactionInMemoryBuffers, relocations, newLogIndex);
+        }
+    }
+
+    private static void relocateBuffers(ArrayList<Buffer> buffers, Map<Integer, HashMap<Long, Long>> relocations,
+            int newLogIndex) {
+        for (Buffer buffer : buffers) {
+            OnDiskInfo onDiskInfo = buffer.getOnDiskInfo();
+            if (onDiskInfo == null) {
+                continue;
+            }
+            HashMap<Long, Long> relocationsFromLog = relocations.get(onDiskInfo.getLogIndex());
+            if (relocationsFromLog == null) {
+                continue;
+            }
+            Long newPosition = relocationsFromLog.get(onDiskInfo.getLocation());
+            if (newPosition != null) {
+                buffer.setOnDiskInfo(new OnDiskInfo(newLogIndex, newPosition));
+            }
+        }
+    }
+
     public void addInMemoryBufferToTransaction(Buffer buffer) {
-        transactionInMemoryBuffers.add(buffer);
-        int indexIntoBufferArray = transactionInMemoryBuffers.size() - 1;
+        int indexIntoBufferArray;
+        synchronized (transactionInMemoryBuffers) {
+            transactionInMemoryBuffers.add(buffer);
+            inMemoryBufferBytes += buffer.getBuffer().capacity();
+            indexIntoBufferArray = transactionInMemoryBuffers.size() - 1;
+        }
         addLogPositionToTransaction(-1, indexIntoBufferArray);
     }
 
+    /*
+     * Called with the asynchronousRollbackLock held, by the streams writing into this transaction.
+     * When the in-memory log buffers exceed the memory quota, the ones read least recently are
+     * spilled (they are already in the log) until a quarter of the quota is free again.
+     */
+    public void spillBuffersOverQuota() {
+        if (memoryQuota <= 0) {
+            return;
+        }
+        ArrayList<Buffer> spillCandidates;
+        synchronized (transactionInMemoryBuffers) {
+            if (inMemoryBufferBytes <= memoryQuota) {
+                return;
+            }
+            spillCandidates = new ArrayList<Buffer>(transactionInMemoryBuffers.size());
+            for (Buffer buffer : transactionInMemoryBuffers) {
+                if (!buffer.isSpilled() && buffer.getOnDiskInfo() != null) {
+                    spillCandidates.add(buffer);
+                }
+            }
+        }
+        Collections.sort(spillCandidates, LEAST_RECENTLY_USED_FIRST);
+        long spillTarget = memoryQuota * 3 / 4;
+        for (Buffer buffer : spillCandidates) {
+            synchronized (transactionInMemoryBuffers) {
+                if (inMemoryBufferBytes <= spillTarget) {
+                    return;
+                }
+                ByteBuffer memory = buffer.getBuffer();
+                if (memory != null && buffer.spill()) {
+                    inMemoryBufferBytes -= memory.capacity();
+                }
+            }
+        }
+    }
+
+    /*
+     * Called with the asynchronousRollbackLock held, by the streams about to be held back for the
+     * memory of the non-pooled buffers; this session gives up those of its own which are in the log.
+     */
+    public void spillNonPooledBuffers() {
+        synchronized (transactionInMemoryBuffers) {
+            for (Buffer buffer : transactionInMemoryBuffers) {
+                if (buffer instanceof PooledBuffer) {
+                    continue;
+                }
+                ByteBuffer memory = buffer.getBuffer();
+                if (memory != null && buffer.spill()) {
+                    inMemoryBufferBytes -= memory.capacity();
+                }
+            }
+        }
+    }
+
+    private static final Comparator<Buffer> LEAST_RECENTLY_USED_FIRST = new LeastRecentlyUsedFirst();
+
+    private static class LeastRecentlyUsedFirst implements Comparator<Buffer> {
+
+        public int compare(Buffer a, Buffer b) {
+            long difference = a.getLastUsed() - b.getLastUsed();
+            return difference < 0 ? -1 : (difference > 0 ? 1 : 0);
+        }
+    }
+
     boolean hasStartedCommitting() {
         return startedCommitting;
     }
@@ -1385,4 +1628,83 @@ public class NativeSession implements SessionCommonness {
     public boolean isUsingReadOnlyOptimization() {
         return usingReadOnlyOptimization;
     }
+
+    private class AsynchronousCommitter implements Work {
+
+        private final AsynchronousCommitTracker commitTracker;
+
+        private AsynchronousCommitter(AsynchronousCommitTracker commitTracker) {
+            this.commitTracker = commitTracker;
+        }
+
+        public void release() {
+        }
+
+        public void run() {
+            try {
+                commit(true, commitTracker);
+                if (systemHasFailed) {
+                    //commit() reports the system failures to the XADisk instance, not to its caller.
+                    commitTracker.commitFailed(new XASystemNoMoreAvailableException(systemFailureCause));
+                } else {
+                    commitTracker.commitApplied();
+                }
+            } catch (Throwable t) {
+                //any failure, Errors included, must release the threads waiting on the tracker, which
+                //otherwise wait forever while the session keeps its locks.
+                failedAfterDurability(t);
+                if (t instanceof Exception) {
+                    commitTracker.commitFailed((Exception) t);
+                } else {
+                    commitTracker.commitFailed(new XASystemNoMoreAvailableException(t));
+                }
+            }
+        }
+
+        private void failedAfterDurability(Throwable failure) {
+            if (!commitTracker.isDurable() || failure instanceof XASystemException) {
+                return;
+            }
+            //the commit record is durable, so the transaction must still be applied; nobody may be waiting
+            //on this commit, so the failure is logged and the redo is left to the recovery.
+            xaFileSystem.getLogger().logThrowable(failure, Logger.ERROR);
+            xaFileSystem.notifySystemFailureAndContinue(failure);
+        }
+    }
+
+    /*
+     * A redo log entry touching a single file, applied by the RedoApplier.
+     */
+    private class SingleFileRedo implements RedoApplier.RedoTask {
+
+        private final TransactionLogEntry logEntry;
+        private final ByteBuffer inMemoryContent;
+        private final FileChannel logReaderChannel;
+        private final long localPosition;
+        private final HashSet<File> filesDirectlyWrittenToDisk;
+
+        private SingleFileRedo(TransactionLogEntry logEntry, ByteBuffer inMemoryContent, FileChannel logReaderChannel,
+                long localPosition, HashSet<File> filesDirectlyWrittenToDisk) {
+            this.logEntry = logEntry;
+            this.inMemoryContent = inMemoryContent;
+            this.logReaderChannel = logReaderChannel;
+            this.localPosition = localPosition;
+            this.filesDirectlyWrittenToDisk = filesDirectlyWrittenToDisk;
+        }
+
+        public void apply(RedoFileAppender redoFileAppender, DurableDiskSession fileDiskSession) throws IOException {
+            String fileName = logEntry.getFileName();
+            if (logEntry.getOperationType() == TransactionLogEntry.FILE_APPEND) {
+                commitFileAppend(logEntry, inMemoryContent, logReaderChannel, localPosition, redoFileAppender);
+            } else if (logEntry.getOperationType() == TransactionLogEntry.FILE_TRUNCATE) {
+                commitFileTruncate(logEntry, redoFileAppender);
+            } else if (logEntry.getOperationType() == TransactionLogEntry.FILE_CREATE) {
+                redoFileAppender.forceAndClose(fileName);
+                commitCreateFile(fileName, fileDiskSession);
+            } else if (logEntry.getOperationType() == TransactionLogEntry.FILE_DELETE) {
+                redoFileAppender.forceAndClose(fileName);
+                commitDeleteFile(fileName, filesDirectlyWrittenToDisk, fileDiskSession);
+            }
+        }
+    }
 }
@@ -28,11 +28,16 @@ import org.xadisk.filesystem.workers.CrashRecoveryWorker;
 import org.xadisk.filesystem.workers.FileSystemEventDelegator;
 import org.xadisk.filesystem.workers.GatheringDiskWriter;
 import org.xadisk.filesystem.workers.ObjectPoolReliever;
+import org.xadisk.filesystem.workers.TransactionLogCheckpointWriter;
+import org.xadisk.filesystem.workers.TransactionLogCompactor;
+import org.xadisk.filesystem.workers.TransactionLogSegmentManager;
 import org.xadisk.filesystem.workers.TransactionTimeoutDetector;
 import java.io.File;
 import java.io.IOException;
+import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashSet;
 import java.util.concurrent.ConcurrentHashMap;
@@ -61,7 +66,10 @@ import org.xadisk.connector.inbound.LocalEventProcessingXAResource;
 import org.xadisk.filesystem.exceptions.XASystemBootFailureException;
 import org.xadisk.filesystem.exceptions.XASystemNoMoreAvailableException;
 import org.xadisk.filesystem.pools.SelectorPool;
+import org.xadisk.filesystem.utilities.DeflaterLogContentCodec;
 import org.xadisk.filesystem.utilities.FileIOUtility;
+import org.xadisk.filesystem.utilities.LogContentCodec;
+import org.xadisk.filesystem.utilities.TransactionLogsUtility;
 
 public class NativeXAFileSystem implements XAFileSystemCommonness {
 
@@ -69,9 +77,7 @@ public class NativeXAFileSystem implements XAFileSystemCommonness {
     private final AtomicLong lastTransactionId = new AtomicLong(System.currentTimeMillis() / 1000);
     private final BufferPool bufferPool;
     private final SelectorPool selectorPool;
-    private final String transactionLogFileBaseName;
     private Logger logger;
-    private final String transactionLogsDir;
     private final DeadLetterMessageEndpoint deadLetter;
     private final FileSystemConfiguration configuration;
     private final ConcurrentHashMap<TransactionInformation, NativeSession> transactionAndSession =
@@ -79,12 +85,18 @@ public class NativeXAFileSystem implements XAFileSystemCommonness {
     private HashSet<TransactionInformation> transactionsPreparedPreCrash;
     private boolean returnedAllPreparedTransactions = false;
     private final WorkManager workManager;
-    private final GatheringDiskWriter gatheringDiskWriter;
+    private final GatheringDiskWriter gatheringDiskWriters[];
+    private final TransactionLogSegmentManager transactionLogSegmentManagers[];
+    private final TransactionLogChannelCache transactionLogChannelCache = new TransactionLogChannelCache(this);
+    private final LogContentCodec logContentCodec;
+    private final LogContentCodec builtInLogContentCodec = new DeflaterLogContentCodec();
     private final CrashRecoveryWorker recoveryWorker;
     private final ObjectPoolReliever bufferPoolReliever;
     private final ObjectPoolReliever selectorPoolReliever;
     private final FileSystemEventDelegator fileSystemEventDelegator;
     private final TransactionTimeoutDetector transactionTimeoutDetector;
+    private final TransactionLogCheckpointWriter transactionLogCheckpointWriter;
+    private final TransactionLogCompactor transactionLogCompactor;
     private final PointOfContact pointOfContact;
     private boolean recoveryComplete = false;
     private final LinkedBlockingQueue<FileSystemStateChangeEvent> fileSystemEventQueue;
@@ -97,7 +109,8 @@ public class NativeXAFileSystem implements XAFileSystemCommonness {
     private File currentBackupDirPath;
     private final AtomicInteger currentBackupFileName = new AtomicInteger(0);
     private final GlobalHostedContext globalCallbackContext = new GlobalHostedContext();
-    private final AtomicLong totalNonPooledBufferSize = new AtomicLong(0);
+    private final NonPooledBufferTracker nonPooledBufferTracker = new NonPooledBufferTracker();
+    private final BufferMemoryAdmission bufferMemoryAdmission;
     private final ConcurrencyControl concurrencyControl;
     private final boolean handleGeneralRemoteInvocations;
     private final boolean handleClusterRemoteInvocations;
@@ -109,6 +122,8 @@ public class NativeXAFileSystem implements XAFileSystemCommonness {
     private static final int BACKUP_DIR_PATH_MAX_DEPTH = 5;
     private static final int BACKUP_DIR_PATH_MAX_BREADTH = 65000;
     private static final int BACKUP_DIR_MAX_FILES = BACKUP_DIR_PATH_MAX_BREADTH;
+    private static final String LOG_STREAMS_RECORD_NAME = "txnlogstreams";
+    private static final String LOG_STREAMS_RECORD_CLEAN = "clean";
 
     private NativeXAFileSystem(FileSystemConfiguration configuration,
             WorkManager workManager) {
@@ -116,7 +131,6 @@ public class NativeXAFileSystem implements XAFileSystemCommonness {
         this.workManager = workManager;
         try {
             File xaDiskHome = new File(configuration.getXaDiskHome()).getAbsoluteFile();
-            String xaDiskHomePath = xaDiskHome.getPath();
             FileIOUtility.createDirectoriesIfRequired(xaDiskHome);
             backupDirRoot = new File(xaDiskHome, "backupDir");
             logger = new Logger(new File(xaDiskHome, "xadisk.log"), (byte) 3);
@@ -140,20 +154,43 @@ public class NativeXAFileSystem implements XAFileSystemCommonness {
             if (!backupDirRoot.isDirectory()) {
                 diskSession.createDirectory(backupDirRoot);
             }
-            transactionLogsDir = xaDiskHomePath + File.separator + "txnlogs";
-            diskSession.createDirectoriesIfRequired(new File(transactionLogsDir));
-            transactionLogFileBaseName = transactionLogsDir + File.separator + "xadisk.log";
+            //a log entry carrying a whole buffer must fit well inside a transaction log.
+            int largestBufferSize = (int) Math.min(configuration.getLargestBufferSize(),
+                    configuration.getTransactionLogFileMaxSize() / 4);
             bufferPool = new BufferPool(configuration.getDirectBufferPoolSize(), configuration.getNonDirectBufferPoolSize(),
-                    configuration.getBufferSize(), configuration.getDirectBufferIdleTime(),
+                    configuration.getBufferSize(), largestBufferSize, configuration.getDirectBufferIdleTime(),
                     configuration.getNonDirectBufferIdleTime(), this);
+            bufferMemoryAdmission = new BufferMemoryAdmission(nonPooledBufferTracker,
+                    configuration.getMaxNonPooledBufferSize(), configuration.getBufferMemoryAdmissionWait());
             selectorPool = new SelectorPool(1000);
-            gatheringDiskWriter = new GatheringDiskWriter(configuration.getCumulativeBufferSizeForDiskWrite(),
-                    configuration.getTransactionLogFileMaxSize(), configuration.getMaxNonPooledBufferSize(),
-                    transactionLogFileBaseName, this);
+            logContentCodec = createLogContentCodec(configuration.getTransactionLogContentCodec());
+            File logStreamHomes[] = getTransactionLogStreamHomes(xaDiskHome);
+            checkTransactionLogStreams(xaDiskHome, logStreamHomes.length);
+            transactionLogSegmentManagers = new TransactionLogSegmentManager[logStreamHomes.length];
+            gatheringDiskWriters = new GatheringDiskWriter[logStreamHomes.length];
+            for (int streamId = 0; streamId < logStreamHomes.length; streamId++) {
+                File transactionLogsDir = new File(logStreamHomes[streamId], "txnlogs");
+                diskSession.createDirectoriesIfRequired(transactionLogsDir);
+                transactionLogSegmentManagers[streamId] = new TransactionLogSegmentManager(streamId,
+                        transactionLogsDir.getPath() + File.separator + "xadisk.log",
+                        new File(logStreamHomes[streamId], "txnlogpool"),
+                        new File(logStreamHomes[streamId], "txnlogcheckpoints"), configuration.getTransactionLogFileMaxSize(),
+                        configuration.getTransactionLogSegmentPoolSize(), this);
+                gatheringDiskWriters[streamId] = new GatheringDiskWriter(configuration.getCumulativeBufferSizeForDiskWrite(),
+                        configuration.getLogFlushMaxLingerTime(), configuration.getLogFlushAdaptive(),
+                        configuration.getTransactionLogFileMaxSize(), configuration.getMaxNonPooledBufferSize(),
+                        configuration.getGroupCommitWindow(), configuration.getGroupCommitMaxBatchSize(),
+                        configuration.getLogSubmissionRingSize(), configuration.getLogSubmissionRingSpinWait(),
+                        configuration.getTransactionLogBackend(),
+                        transactionLogSegmentManagers[streamId], this);
+            }
             recoveryWorker = new CrashRecoveryWorker(this);
             bufferPoolReliever = new ObjectPoolReliever(bufferPool, configuration.getBufferPoolRelieverInterval(), this);
             selectorPoolReliever = new ObjectPoolReliever(selectorPool, 1000, this);
             transactionTimeoutDetector = new TransactionTimeoutDetector(1, this);
+            transactionLogCheckpointWriter = new TransactionLogCheckpointWriter(
+                    configuration.getTransactionLogCheckpointInterval(), logStreamHomes.length, this);
+            transactionLogCompactor = new TransactionLogCompactor(configuration.getTransactionLogCompactionInterval(), this);
             this.fileSystemEventQueue = new LinkedBlockingQueue<FileSystemStateChangeEvent>();
             this.fileSystemEventDelegator = new FileSystemEventDelegator(this, configuration.getMaximumConcurrentEventDeliveries());
             this.workListener = new CriticalWorkersListener(this);
@@ -197,8 +234,18 @@ public class NativeXAFileSystem implements XAFileSystemCommonness {
             }
 
             recoveryWorker.collectRecoveryData();
-            gatheringDiskWriter.initialize();
-            workManager.startWork(gatheringDiskWriter, WorkManager.INDEFINITE, null, workListener);
+            for (int streamId = 0; streamId < gatheringDiskWriters.length; streamId++) {
+                transactionLogSegmentManagers[streamId].initialize();
+                workManager.startWork(transactionLogSegmentManagers[streamId], WorkManager.INDEFINITE, null, workListener);
+                gatheringDiskWriters[streamId].initialize();
+                workManager.startWork(gatheringDiskWriters[streamId], WorkManager.INDEFINITE, null, workListener);
+            }
+            if (configuration.getTransactionLogCheckpointInterval() > 0) {
+                workManager.startWork(transactionLogCheckpointWriter, WorkManager.INDEFINITE, null, workListener);
+            }
+            if (configuration.getTransactionLogCompactionInterval() > 0) {
+                workManager.startWork(transactionLogCompactor, WorkManager.INDEFINITE, null, workListener);
+            }
             workManager.startWork(recoveryWorker, WorkManager.INDEFINITE, null, workListener);
 
         } catch (Exception e) {
@@ -260,6 +307,124 @@ public class NativeXAFileSystem implements XAFileSystemCommonness {
         if(!isValidString(configuration.getInstanceId())) {
             throw new XASystemBootFailureException("Invalid value of configuration property [instanceId]");
         }
+        Integer numberOfStreams = configuration.getTransactionLogStreams();
+        if (numberOfStreams == null || numberOfStreams < 1 || numberOfStreams > TransactionLogsUtility.MAX_LOG_STREAMS) {
+            throw new XASystemBootFailureException("Invalid value of configuration property [transactionLogStreams]");
+        }
+    }
+
+    private LogContentCodec createLogContentCodec(String codec) throws Exception {
+        if (!isValidString(codec) || codec.trim().equalsIgnoreCase("none")) {
+            return null;
+        }
+        if (codec.trim().equalsIgnoreCase("deflate")) {
+            return builtInLogContentCodec;
+        }
+        //looked up once here; the same instance then serves all the log entries.
+        LogContentCodec pluggedCodec = (LogContentCodec) Class.forName(codec.trim()).getConstructor().newInstance();
+        if (pluggedCodec.getCodecId() < 1 || pluggedCodec.getCodecId() > 15
+                || pluggedCodec.getCodecId() == builtInLogContentCodec.getCodecId()) {
+            throw new XASystemBootFailureException("Invalid value of configuration property [transactionLogContentCodec]");
+        }
+        return pluggedCodec;
+    }
+
+    /*
+     * Returns the codec to encode the content of the log entries with, or null if the content is
+     * not to be encoded.
+     */
+    public LogContentCodec getLogContentCodec() {
+        return logContentCodec;
+    }
+
+    /*
+     * Returns the codec which has encoded the content of a log entry, given its number.
+     */
+    public LogContentCodec getLogContentCodec(int codecId) throws IOException {
+        if (codecId == builtInLogContentCodec.getCodecId()) {
+            return builtInLogContentCodec;
+        }
+        if (logContentCodec != null && codecId == logContentCodec.getCodecId()) {
+            return logContentCodec;
+        }
+        throw new IOException("The content of a transaction log entry has been encoded by codec number " + codecId
+                + ", which is not configured.");
+    }
+
+    private File[] getTransactionLogStreamHomes(File xaDiskHome) {
+        int numberOfStreams = configuration.getTransactionLogStreams();
+        String configuredDirectories[] = new String[0];
+        if (isValidString(configuration.getTransactionLogStreamDirectories())) {
+            configuredDirectories = configuration.getTransactionLogStreamDirectories().split(",");
+        }
+        File logStreamHomes[] = new File[numberOfStreams];
+        logStreamHomes[0] = xaDiskHome;
+        for (int streamId = 1; streamId < numberOfStreams; streamId++) {
+            if (streamId - 1 < configuredDirectories.length && isValidString(configuredDirectories[streamId - 1])) {
+                logStreamHomes[streamId] = new File(configuredDirectories[streamId - 1].trim()).getAbsoluteFile();
+            } else {
+                logStreamHomes[streamId] = new File(new File(xaDiskHome, "logstreams"), Integer.toString(streamId));
+            }
+        }
+        return logStreamHomes;
+    }
+
+    /*
+     * The recovery merges what the logs of different streams tell by the log index, and which stream a
+     * transaction logs into depends on the number of streams; so the number of streams can change only
+     * when the previous run left nothing to be recovered from its logs.
+     */
+    private void checkTransactionLogStreams(File xaDiskHome, int numberOfStreams) throws IOException {
+        File record = new File(xaDiskHome, LOG_STREAMS_RECORD_NAME);
+        int recordedStreams;
+        boolean recordedAtCleanShutdown;
+        if (record.exists()) {
+            String recorded[] = readFileAsString(record).trim().split(" ");
+            recordedStreams = TransactionLogsUtility.parseNonNegativeNumber(recorded[0]);
+            recordedAtCleanShutdown = recorded.length > 1 && recorded[1].equals(LOG_STREAMS_RECORD_CLEAN);
+        } else if (new File(xaDiskHome, "txnlogs").isDirectory()) {
+            //left by a version which had a single log stream, and did not keep this record.
+            recordedStreams = 1;
+            recordedAtCleanShutdown = false;
+        } else {
+            recordedStreams = numberOfStreams;
+            recordedAtCleanShutdown = true;
+        }
+        if (recordedStreams != numberOfStreams && !recordedAtCleanShutdown) {
+            throw new IOException("The transaction logs inside the XADisk System Directory have been written with "
+                    + recordedStreams + " log stream(s), but the configuration property [transactionLogStreams] is "
+                    + numberOfStreams + ". Please boot XADisk with the earlier value once, and shut it down after "
+                    + "the recovery completes and with no transaction in progress; the value can be changed then.");
+        }
+        recordTransactionLogStreams(xaDiskHome, numberOfStreams, false);
+    }
+
+    private void recordTransactionLogStreams(File xaDiskHome, int numberOfStreams, boolean cleanShutdown)
+            throws IOException {
+        File record = new File(xaDiskHome, LOG_STREAMS_RECORD_NAME);
+        if (!record.exists()) {
+            createDurableDiskSession().createFileDurably(record);
+        }
+        String content = numberOfStreams + (cleanShutdown ? " " + LOG_STREAMS_RECORD_CLEAN : "") + "\n";
+        RandomAccessFile raf = new RandomAccessFile(record, "rw");
+        try {
+            raf.setLength(0);
+            raf.write(content.getBytes("US-ASCII"));
+            raf.getFD().sync();
+        } finally {
+            raf.close();
+        }
+    }
+
+    private static String readFileAsString(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            byte content[] = new byte[(int) Math.min(raf.length(), 1024)];
+            raf.readFully(content);
+            return new String(content, "US-ASCII");
+        } finally {
+            raf.close();
+        }
     }
 
     private static boolean isValidString(String s) {
@@ -305,12 +470,14 @@ public class NativeXAFileSystem implements XAFileSystemCommonness {
 
     public NativeSession createSessionForLocalTransaction() {
         checkIfCanContinue();
+        bufferMemoryAdmission.admit();
         NativeSession session = new NativeSession(TransactionInformation.getXidInstanceForLocalTransaction(getNextLocalTransactionId()), false, this);
         return session;
     }
 
     public NativeSession createSessionForXATransaction(Xid xid) {
         checkIfCanContinue();
+        bufferMemoryAdmission.admit();
         NativeSession session = new NativeSession((TransactionInformation) xid, false, this);
         return session;
     }
@@ -403,7 +570,7 @@ public class NativeXAFileSystem implements XAFileSystemCommonness {
     public void declareTransactionAsComplete(byte[] transactionIdentifier) {
         try {
             TransactionInformation xid = new TransactionInformation(ByteBuffer.wrap(transactionIdentifier));
-            gatheringDiskWriter.transactionCompletes(xid, true);
+            getGatheringDiskWriter(xid).transactionCompletes(xid, true);
             NativeSession session = transactionAndSession.get(xid);
             if(session != null) {
                 //the xadisk has not gone down after failure.
@@ -430,16 +597,49 @@ public class NativeXAFileSystem implements XAFileSystemCommonness {
         return globalCallbackContext;
     }
 
+    /*
+     * All the log entries of a transaction go to the same log stream. The stream is chosen from the
+     * bytes of the xid (and not from its object identity), so that a transaction lands on the same
+     * stream across re-boots of XADisk.
+     */
+    public GatheringDiskWriter[] getGatheringDiskWriters() {
+        return gatheringDiskWriters;
+    }
+
+    public GatheringDiskWriter getGatheringDiskWriter(TransactionInformation xid) {
+        if (gatheringDiskWriters.length == 1) {
+            return gatheringDiskWriters[0];
+        }
+        int hash = 31 * Arrays.hashCode(xid.getGlobalTransactionId()) + Arrays.hashCode(xid.getBranchQualifier());
+        hash ^= (hash >>> 16);
+        return gatheringDiskWriters[(hash & 0x7fffffff) % gatheringDiskWriters.length];
+    }
+
+    /*
+     * The writer of the first log stream; it also records the activations of remote endpoints.
+     */
     public GatheringDiskWriter getTheGatheringDiskWriter() {
-        return gatheringDiskWriter;
+        return gatheringDiskWriters[0];
     }
 
-    public String getTransactionLogFileBaseName() {
-        return transactionLogFileBaseName;
+    public TransactionLogSegmentManager[] getTransactionLogSegmentManagers() {
+        return transactionLogSegmentManagers;
     }
 
-    public String getTransactionLogsDir() {
-        return transactionLogsDir;
+    public TransactionLogSegmentManager getTransactionLogSegmentManager(int logIndex) {
+        return transactionLogSegmentManagers[TransactionLogsUtility.getLogStreamId(logIndex)];
+    }
+
+    public String getTransactionLogFileName(int logIndex) {
+        return getTransactionLogSegmentManager(logIndex).getLogFileName(logIndex);
+    }
+
+    public TransactionLogCheckpointWriter getTransactionLogCheckpointWriter() {
+        return transactionLogCheckpointWriter;
+    }
+
+    public TransactionLogChannelCache getTransactionLogChannelCache() {
+        return transactionLogChannelCache;
     }
 
     public CrashRecoveryWorker getRecoveryWorker() {
@@ -483,6 +683,9 @@ public class NativeXAFileSystem implements XAFileSystemCommonness {
         NativeSession allSessions[];
         Collection<NativeSession> sessionsCollection = transactionAndSession.values();
         allSessions = sessionsCollection.toArray(new NativeSession[0]);
+        for (int i = 0; i < allSessions.length; i++) {
+            allSessions[i].waitForAsynchronousCommit();
+        }
         for (int i = 0; i < allSessions.length; i++) {
             allSessions[i].notifySystemShutdown();
         }
@@ -491,8 +694,19 @@ public class NativeXAFileSystem implements XAFileSystemCommonness {
         selectorPoolReliever.release();
         concurrencyControl.shutdown();
         recoveryWorker.release();
-        gatheringDiskWriter.release();
-        gatheringDiskWriter.deInitialize();
+        transactionLogCheckpointWriter.release();
+        transactionLogCompactor.release();
+        for (int streamId = 0; streamId < gatheringDiskWriters.length; streamId++) {
+            gatheringDiskWriters[streamId].release();
+            gatheringDiskWriters[streamId].deInitialize();
+            transactionLogSegmentManagers[streamId].release();
+        }
+        transactionLogChannelCache.closeAll();
+        if (allSessions.length == 0 && recoveryComplete && !systemHasFailed && fileSystemEventQueue.isEmpty()) {
+            //nothing is left in the logs for a recovery; the number of log streams may change now.
+            recordTransactionLogStreams(new File(configuration.getXaDiskHome()).getAbsoluteFile(),
+                    gatheringDiskWriters.length, true);
+        }
         fileSystemEventDelegator.release();
         transactionTimeoutDetector.release();
         if (getHandleGeneralRemoteInvocations() || getHandleClusterRemoteInvocations()) {
@@ -511,6 +725,34 @@ public class NativeXAFileSystem implements XAFileSystemCommonness {
         return configuration.getLockTimeOut();
     }
 
+    boolean isCompactingAppendLogEntries() {
+        return configuration.getCompactAppendLogEntries();
+    }
+
+    boolean isCommittingWriteBehind() {
+        return configuration.getCommitWriteBehind();
+    }
+
+    int getCommitApplyParallelism() {
+        return configuration.getCommitApplyParallelism();
+    }
+
+    public int getRecoveryLogScanParallelism() {
+        return configuration.getRecoveryLogScanParallelism();
+    }
+
+    public int getRecoveryParallelism() {
+        return configuration.getRecoveryParallelism();
+    }
+
+    public int getTransactionLogCompactionInterval() {
+        return configuration.getTransactionLogCompactionInterval();
+    }
+
+    public long getTransactionMemoryQuota() {
+        return configuration.getTransactionMemoryQuota();
+    }
+
     public File getNextBackupFileName() throws IOException {
         File savedCurrentBackupDir = this.currentBackupDirPath;
         int nextBackupFileName = currentBackupFileName.getAndIncrement();
@@ -539,7 +781,7 @@ public class NativeXAFileSystem implements XAFileSystemCommonness {
     public void registerEndPointActivation(EndPointActivation activation) throws IOException {
         boolean notADuplicateActivation = fileSystemEventDelegator.registerActivation(activation);
         if (notADuplicateActivation && activation.getMessageEndpointFactory() instanceof RemoteMessageEndpointFactory) {
-            gatheringDiskWriter.recordEndPointActivation(activation);
+            getTheGatheringDiskWriter().recordEndPointActivation(activation);
             ((RemoteMessageEndpointFactory)activation.getMessageEndpointFactory()).setLocalXAFileSystem(this);
         }
     }
@@ -547,7 +789,7 @@ public class NativeXAFileSystem implements XAFileSystemCommonness {
     public void deRegisterEndPointActivation(EndPointActivation activation) throws IOException {
         fileSystemEventDelegator.deRegisterActivation(activation);
         if (activation.getMessageEndpointFactory() instanceof RemoteMessageEndpointFactory) {
-            gatheringDiskWriter.recordEndPointDeActivation(activation);
+            getTheGatheringDiskWriter().recordEndPointDeActivation(activation);
         }
     }
 
@@ -579,7 +821,8 @@ public class NativeXAFileSystem implements XAFileSystemCommonness {
             throw new XASystemNoMoreAvailableException(systemFailureCause);
         }
         if (!recoveryComplete) {
-            throw new RecoveryInProgressException();
+            throw new RecoveryInProgressException(recoveryWorker.getRemainingTransactions(),
+                    recoveryWorker.getRemainingBytes());
         }
         if(systemShuttingDown) {
             throw new XASystemNoMoreAvailableException();
@@ -631,12 +874,35 @@ public class NativeXAFileSystem implements XAFileSystemCommonness {
         return deadLetter;
     }
 
-    public void changeTotalNonPooledBufferSize(int changeAmount) {
-        totalNonPooledBufferSize.addAndGet(changeAmount);
+    NonPooledBufferTracker.TrackedBuffer trackNonPooledBuffer(Buffer buffer, int size) {
+        return nonPooledBufferTracker.track(buffer, size);
     }
 
     public long getTotalNonPooledBufferSize() {
-        return totalNonPooledBufferSize.get();
+        return nonPooledBufferTracker.getTotalSize();
+    }
+
+    public boolean isBufferMemoryThrottling() {
+        return bufferMemoryAdmission.isThrottling();
+    }
+
+    /*
+     * Called by the writers before they take more buffers, without holding any lock of their session.
+     */
+    public void admitBufferMemoryUse() {
+        bufferMemoryAdmission.admit();
+    }
+
+    public long getBufferMemoryThrottledTime() {
+        return bufferMemoryAdmission.getThrottledTimeMillis();
+    }
+
+    public long getBufferMemoryThrottledCount() {
+        return bufferMemoryAdmission.getThrottledCount();
+    }
+
+    public long getBufferMemoryExpiredWaitCount() {
+        return bufferMemoryAdmission.getExpiredWaitCount();
     }
 
     public static long maxTransferToChannel(long upperLimitOnBytes) {
@@ -0,0 +1,81 @@
+/*
+ * Engineering Ingegneria Informatica S.p.A.
+ *
+ * Copyright (C) 2023 Regione Emilia-Romagna
+ * <p/>
+ * This program is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU Affero General Public License as published by the Free Software Foundation,
+ * either version 3 of the License, or (at your option) any later version.
+ * <p/>
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU Affero General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.xadisk.filesystem;
+
+import java.lang.ref.PhantomReference;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps the total size of the non-pooled buffers in use. A buffer is counted from its creation
+ * till it is released by its last owner, or till its content is dropped for being on the disk.
+ * <p> As a safety net for a buffer which is never released (e.g. one held by a stream which is
+ * never closed), each buffer is watched through a phantom reference, and a buffer found unreachable
+ * is taken off the total the next time the total is asked for.
+ */
+class NonPooledBufferTracker {
+
+    private final AtomicLong totalSize = new AtomicLong(0);
+    private final ReferenceQueue<Buffer> unreachableBuffers = new ReferenceQueue<Buffer>();
+    //the references must stay reachable themselves till released, to be ever enqueued.
+    private final ConcurrentHashMap<TrackedBuffer, Boolean> trackedBuffers =
+            new ConcurrentHashMap<TrackedBuffer, Boolean>(1000);
+
+    TrackedBuffer track(Buffer buffer, int size) {
+        TrackedBuffer trackedBuffer = new TrackedBuffer(buffer, size, this);
+        trackedBuffers.put(trackedBuffer, Boolean.TRUE);
+        totalSize.addAndGet(size);
+        return trackedBuffer;
+    }
+
+    long getTotalSize() {
+        Reference<? extends Buffer> unreachable;
+        while ((unreachable = unreachableBuffers.poll()) != null) {
+            ((TrackedBuffer) unreachable).release();
+        }
+        return totalSize.get();
+    }
+
+    static class TrackedBuffer extends PhantomReference<Buffer> {
+
+        private final int size;
+        private final NonPooledBufferTracker tracker;
+        private final AtomicBoolean released = new AtomicBoolean(false);
+
+        private TrackedBuffer(Buffer buffer, int size, NonPooledBufferTracker tracker) {
+            super(buffer, tracker.unreachableBuffers);
+            this.size = size;
+            this.tracker = tracker;
+        }
+
+        /*
+         * Takes the buffer off the total; only the first call has any effect.
+         */
+        void release() {
+            if (!released.compareAndSet(false, true)) {
+                return;
+            }
+            tracker.totalSize.addAndGet(-size);
+            tracker.trackedBuffers.remove(this);
+            clear();
+        }
+    }
+}
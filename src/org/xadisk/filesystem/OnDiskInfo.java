@@ -17,6 +17,8 @@
 
 package org.xadisk.filesystem;
 
+import org.xadisk.filesystem.utilities.TransactionLogsUtility;
+
 public class OnDiskInfo {
 
     private final int logIndex;
@@ -31,6 +33,10 @@ public class OnDiskInfo {
         return logIndex;
     }
 
+    public int getLogStreamId() {
+        return TransactionLogsUtility.getLogStreamId(logIndex);
+    }
+
     public long getLocation() {
         return location;
     }
@@ -0,0 +1,190 @@
+/*
+ * Engineering Ingegneria Informatica S.p.A.
+ *
+ * Copyright (C) 2023 Regione Emilia-Romagna
+ * <p/>
+ * This program is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU Affero General Public License as published by the Free Software Foundation,
+ * either version 3 of the License, or (at your option) any later version.
+ * <p/>
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU Affero General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.xadisk.filesystem;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import javax.resource.spi.work.Work;
+import javax.resource.spi.work.WorkException;
+
+/**
+ * Applies the redo log entries of a committing transaction which touch a single file each (appends,
+ * truncations, and creations and deletions of files).
+ * <p> With a parallelism of 1, each entry is applied at once by the committing thread. Otherwise, the
+ * entries are kept aside, grouped by file, till {@link #applyAll()} gets called; this happens before
+ * any entry which may relate different files (moves, copies, directory entries), before a check
+ * point and before the commit completes. The files are then applied in parallel by the committing
+ * thread and by up to (parallelism - 1) works of the XADisk instance; the entries of a file are
+ * applied in their log order by a single thread, and the file is forced once they are all applied.
+ */
+class RedoApplier {
+
+    interface RedoTask {
+
+        void apply(RedoFileAppender redoFileAppender, DurableDiskSession diskSession) throws IOException;
+    }
+
+    private final int parallelism;
+    private final DurableDiskSession diskSession;
+    private final NativeXAFileSystem xaFileSystem;
+    private final RedoFileAppender redoFileAppender = new RedoFileAppender();
+    private final LinkedHashMap<String, ArrayList<RedoTask>> pendingTasks = new LinkedHashMap<String, ArrayList<RedoTask>>();
+    private final ReentrantLock applyLock = new ReentrantLock(false);
+    private final Condition appliersDone = applyLock.newCondition();
+    private final LinkedList<ArrayList<RedoTask>> filesToApply = new LinkedList<ArrayList<RedoTask>>();
+    private int activeAppliers = 0;
+    private Throwable failure = null;
+
+    RedoApplier(int parallelism, DurableDiskSession diskSession, NativeXAFileSystem xaFileSystem) {
+        this.parallelism = parallelism;
+        this.diskSession = diskSession;
+        this.xaFileSystem = xaFileSystem;
+    }
+
+    void submit(String fileName, RedoTask task) throws IOException {
+        if (parallelism <= 1) {
+            task.apply(redoFileAppender, diskSession);
+            return;
+        }
+        ArrayList<RedoTask> tasks = pendingTasks.get(fileName);
+        if (tasks == null) {
+            tasks = new ArrayList<RedoTask>(4);
+            pendingTasks.put(fileName, tasks);
+        }
+        tasks.add(task);
+    }
+
+    /*
+     * Returns after all the submitted entries have been applied, and the files and the directories
+     * they touched have been forced.
+     */
+    void applyAll() throws IOException {
+        redoFileAppender.forceAndCloseAll();
+        if (pendingTasks.isEmpty()) {
+            return;
+        }
+        int helpers = Math.min(parallelism, pendingTasks.size()) - 1;
+        try {
+            applyLock.lock();
+            filesToApply.addAll(pendingTasks.values());
+        } finally {
+            applyLock.unlock();
+        }
+        pendingTasks.clear();
+        for (int i = 0; i < helpers; i++) {
+            try {
+                xaFileSystem.startWork(new FileApplier());
+            } catch (WorkException we) {
+                //the committing thread applies whatever is left.
+                break;
+            }
+        }
+        applyFiles();
+        Throwable applyFailure;
+        try {
+            applyLock.lock();
+            while (activeAppliers > 0) {
+                appliersDone.awaitUninterruptibly();
+            }
+            applyFailure = failure;
+            failure = null;
+        } finally {
+            applyLock.unlock();
+        }
+        if (applyFailure instanceof IOException) {
+            throw (IOException) applyFailure;
+        }
+        if (applyFailure instanceof RuntimeException) {
+            throw (RuntimeException) applyFailure;
+        }
+        if (applyFailure instanceof Error) {
+            throw (Error) applyFailure;
+        }
+    }
+
+    void closeAll() {
+        redoFileAppender.closeAll();
+        pendingTasks.clear();
+    }
+
+    private void applyFiles() {
+        try {
+            applyLock.lock();
+            if (filesToApply.isEmpty()) {
+                return;
+            }
+            activeAppliers++;
+        } finally {
+            applyLock.unlock();
+        }
+        RedoFileAppender fileAppender = new RedoFileAppender();
+        DurableDiskSession fileDiskSession = xaFileSystem.createDurableDiskSession();
+        try {
+            while (true) {
+                ArrayList<RedoTask> tasks;
+                try {
+                    applyLock.lock();
+                    tasks = failure == null ? filesToApply.poll() : null;
+                } finally {
+                    applyLock.unlock();
+                }
+                if (tasks == null) {
+                    break;
+                }
+                for (RedoTask task : tasks) {
+                    task.apply(fileAppender, fileDiskSession);
+                }
+                fileAppender.forceAndCloseAll();
+            }
+            fileDiskSession.forceToDisk();
+        } catch (Throwable t) {
+            try {
+                applyLock.lock();
+                if (failure == null) {
+                    failure = t;
+                }
+                filesToApply.clear();
+            } finally {
+                applyLock.unlock();
+            }
+        } finally {
+            fileAppender.closeAll();
+            try {
+                applyLock.lock();
+                activeAppliers--;
+                appliersDone.signalAll();
+            } finally {
+                applyLock.unlock();
+            }
+        }
+    }
+
+    private class FileApplier implements Work {
+
+        public void release() {
+        }
+
+        public void run() {
+            applyFiles();
+        }
+    }
+}
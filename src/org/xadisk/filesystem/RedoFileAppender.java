@@ -0,0 +1,200 @@
+/*
+ * Engineering Ingegneria Informatica S.p.A.
+ *
+ * Copyright (C) 2023 Regione Emilia-Romagna
+ * <p/>
+ * This program is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU Affero General Public License as published by the Free Software Foundation,
+ * either version 3 of the License, or (at your option) any later version.
+ * <p/>
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU Affero General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.xadisk.filesystem;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import org.xadisk.filesystem.utilities.MiscUtils;
+
+/**
+ * Applies the file append and truncate log entries of a committing transaction to the real files
+ * (and the undo entries of a transaction rolling back).
+ * <p> The files being appended to are kept open across the log entries, and the contents going
+ * to adjacent ranges of a file are gathered and written together. A file is forced once, when it
+ * gets closed; a file is closed before it gets created or deleted again, and all the files are
+ * closed by the {@link RedoApplier} whenever the entries applied so far must be on the disk.
+ * <p> An instance is used by one thread at a time; the transaction log channels are only read at
+ * explicit positions, so that several instances can read the same log concurrently.
+ */
+class RedoFileAppender {
+
+    private static final int MAX_OPEN_FILES = 64;
+    private static final int MAX_GATHERED_BUFFERS = 64;
+    private static final int MAX_GATHERED_BYTES = 4 * 1024 * 1024;
+    private final LinkedHashMap<String, OpenFile> openFiles = new LinkedHashMap<String, OpenFile>(16, 0.75f, true);
+    private final ArrayList<ByteBuffer> gatheredContents = new ArrayList<ByteBuffer>(MAX_GATHERED_BUFFERS);
+    private OpenFile gatheringFile = null;
+    private long gatheringPosition;
+    private long gatheringEnd;
+
+    /*
+     * Appends the remaining bytes of the content at the given position of the file; the content
+     * may be written later, so it must not be modified till this appender is closed. If
+     * onlyWithinFile is true, nothing is written when the position lies beyond the end of file.
+     */
+    void append(String fileName, long filePosition, ByteBuffer content, boolean onlyWithinFile)
+            throws IOException {
+        OpenFile openFile = open(fileName);
+        if (openFile == null || (onlyWithinFile && filePosition > openFile.size)) {
+            return;
+        }
+        if (openFile != gatheringFile || filePosition != gatheringEnd
+                || gatheredContents.size() == MAX_GATHERED_BUFFERS
+                || gatheringEnd - gatheringPosition + content.remaining() > MAX_GATHERED_BYTES) {
+            writeGatheredContents();
+            gatheringFile = openFile;
+            gatheringPosition = filePosition;
+            gatheringEnd = filePosition;
+        }
+        gatheredContents.add(content);
+        gatheringEnd += content.remaining();
+        openFile.size = Math.max(openFile.size, gatheringEnd);
+    }
+
+    /*
+     * Same as append, but the content is transferred from the given channel (the transaction log);
+     * nothing is written when the position lies beyond the end of file.
+     */
+    void transfer(String fileName, long filePosition, FileChannel source, long sourcePosition, long length)
+            throws IOException {
+        OpenFile openFile = open(fileName);
+        if (openFile == null || filePosition > openFile.size) {
+            return;
+        }
+        if (openFile == gatheringFile) {
+            writeGatheredContents();
+        }
+        long num = 0;
+        while (num < length) {
+            openFile.channel.position(filePosition + num);
+            num += source.transferTo(sourcePosition + num, NativeXAFileSystem.maxTransferToChannel(length - num),
+                    openFile.channel);
+        }
+        openFile.size = Math.max(openFile.size, filePosition + length);
+    }
+
+    void truncate(String fileName, long newLength) throws IOException {
+        OpenFile openFile = open(fileName);
+        if (openFile == null) {
+            return;
+        }
+        if (openFile == gatheringFile) {
+            writeGatheredContents();
+        }
+        openFile.channel.truncate(newLength);
+        openFile.size = Math.min(openFile.size, newLength);
+    }
+
+    /*
+     * Called before the file gets deleted or created again.
+     */
+    void forceAndClose(String fileName) throws IOException {
+        OpenFile openFile = openFiles.remove(fileName);
+        if (openFile == null) {
+            return;
+        }
+        try {
+            if (openFile == gatheringFile) {
+                writeGatheredContents();
+            }
+            openFile.channel.force(false);
+        } finally {
+            MiscUtils.closeAll(openFile.file);
+        }
+    }
+
+    void forceAndCloseAll() throws IOException {
+        try {
+            writeGatheredContents();
+            for (OpenFile openFile : openFiles.values()) {
+                openFile.channel.force(false);
+            }
+        } finally {
+            closeAll();
+        }
+    }
+
+    void closeAll() {
+        for (OpenFile openFile : openFiles.values()) {
+            MiscUtils.closeAll(openFile.file);
+        }
+        openFiles.clear();
+        gatheredContents.clear();
+        gatheringFile = null;
+    }
+
+    private OpenFile open(String fileName) throws IOException {
+        OpenFile openFile = openFiles.get(fileName);
+        if (openFile != null) {
+            return openFile;
+        }
+        if (!new File(fileName).exists()) {
+            return null;
+        }
+        if (openFiles.size() == MAX_OPEN_FILES) {
+            Iterator<OpenFile> eldest = openFiles.values().iterator();
+            OpenFile fileToClose = eldest.next();
+            if (fileToClose == gatheringFile) {
+                writeGatheredContents();
+            }
+            eldest.remove();
+            try {
+                fileToClose.channel.force(false);
+            } finally {
+                MiscUtils.closeAll(fileToClose.file);
+            }
+        }
+        openFile = new OpenFile(new RandomAccessFile(fileName, "rw"));
+        openFiles.put(fileName, openFile);
+        return openFile;
+    }
+
+    private void writeGatheredContents() throws IOException {
+        if (gatheringFile == null) {
+            return;
+        }
+        ByteBuffer contents[] = gatheredContents.toArray(new ByteBuffer[gatheredContents.size()]);
+        FileChannel channel = gatheringFile.channel;
+        channel.position(gatheringPosition);
+        long remaining = gatheringEnd - gatheringPosition;
+        while (remaining > 0) {
+            remaining -= channel.write(contents);
+        }
+        gatheredContents.clear();
+        gatheringFile = null;
+    }
+
+    private static class OpenFile {
+
+        private final RandomAccessFile file;
+        private final FileChannel channel;
+        private long size;
+
+        private OpenFile(RandomAccessFile file) throws IOException {
+            this.file = file;
+            this.channel = file.getChannel();
+            this.size = channel.size();
+        }
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * Engineering Ingegneria Informatica S.p.A.
+ *
+ * Copyright (C) 2023 Regione Emilia-Romagna
+ * <p/>
+ * This program is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU Affero General Public License as published by the Free Software Foundation,
+ * either version 3 of the License, or (at your option) any later version.
+ * <p/>
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU Affero General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.xadisk.filesystem;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import org.xadisk.filesystem.utilities.MiscUtils;
+
+/**
+ * Keeps the read-only channels over the transaction logs, shared by all the readers of the logs
+ * (buffers regenerating their content, commits, rollbacks and heavy-write setups).
+ * <p> A channel stays open once opened, till its log is retired by the
+ * {@link org.xadisk.filesystem.workers.TransactionLogSegmentManager segment manager}; it is then
+ * closed as soon as its last reader releases it, and only then is the log file deleted or reused
+ * for a new log. Since many readers share a channel, they must read it only at explicit positions,
+ * and never through the position of the channel.
+ */
+public class TransactionLogChannelCache {
+
+    private final NativeXAFileSystem xaFileSystem;
+    private final HashMap<Integer, CachedChannel> channels = new HashMap<Integer, CachedChannel>();
+    private final ReentrantLock channelsLock = new ReentrantLock(false);
+
+    TransactionLogChannelCache(NativeXAFileSystem xaFileSystem) {
+        this.xaFileSystem = xaFileSystem;
+    }
+
+    /*
+     * Every call must be paired with a call to releaseChannel for the same log index.
+     */
+    public FileChannel acquireChannel(int logIndex) throws IOException {
+        try {
+            channelsLock.lock();
+            CachedChannel cachedChannel = channels.get(logIndex);
+            if (cachedChannel == null) {
+                cachedChannel = new CachedChannel(new FileInputStream(xaFileSystem.getTransactionLogFileName(logIndex)));
+                channels.put(logIndex, cachedChannel);
+            }
+            cachedChannel.references++;
+            return cachedChannel.channel;
+        } finally {
+            channelsLock.unlock();
+        }
+    }
+
+    public void releaseChannel(int logIndex) {
+        try {
+            channelsLock.lock();
+            CachedChannel cachedChannel = channels.get(logIndex);
+            if (cachedChannel == null) {
+                return;
+            }
+            cachedChannel.references--;
+            if (cachedChannel.references != 0 || !cachedChannel.retired) {
+                return;
+            }
+            channels.remove(logIndex);
+            MiscUtils.closeAll(cachedChannel.stream);
+        } finally {
+            channelsLock.unlock();
+        }
+        try {
+            xaFileSystem.getTransactionLogSegmentManager(logIndex).disposeSegment(logIndex);
+        } catch (IOException ioe) {
+            xaFileSystem.notifySystemFailureAndContinue(ioe);
+        }
+    }
+
+    /*
+     * Called when the log is no more required. Returns true if the log can be deleted, or renamed
+     * into the pool of segments, right away; otherwise, the last reader still having the log open
+     * hands it over to the segment manager when releasing it.
+     */
+    public boolean logRetired(int logIndex) {
+        try {
+            channelsLock.lock();
+            CachedChannel cachedChannel = channels.get(logIndex);
+            if (cachedChannel == null) {
+                return true;
+            }
+            if (cachedChannel.references == 0) {
+                channels.remove(logIndex);
+                MiscUtils.closeAll(cachedChannel.stream);
+                return true;
+            }
+            cachedChannel.retired = true;
+            return false;
+        } finally {
+            channelsLock.unlock();
+        }
+    }
+
+    void closeAll() {
+        try {
+            channelsLock.lock();
+            for (CachedChannel cachedChannel : channels.values()) {
+                MiscUtils.closeAll(cachedChannel.stream);
+            }
+            channels.clear();
+        } finally {
+            channelsLock.unlock();
+        }
+    }
+
+    private static class CachedChannel {
+
+        private final FileInputStream stream;
+        private final FileChannel channel;
+        private int references = 0;
+        private boolean retired = false;
+
+        private CachedChannel(FileInputStream stream) {
+            this.stream = stream;
+            this.channel = stream.getChannel();
+        }
+    }
+}
@@ -17,7 +17,10 @@
 
 package org.xadisk.filesystem;
 
+import org.xadisk.filesystem.utilities.CRC32CChecksum;
 import org.xadisk.filesystem.utilities.FileIOUtility;
+import org.xadisk.filesystem.utilities.LogContentCodec;
+import java.io.EOFException;
 import java.io.File;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
@@ -26,6 +29,7 @@ import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.Map;
 import java.util.Set;
 import org.xadisk.bridge.proxies.facilitators.RemoteMethodInvoker;
 import org.xadisk.bridge.proxies.facilitators.RemoteXADiskActivationSpecImpl;
@@ -56,7 +60,35 @@ public class TransactionLogEntry {
     public static final byte CHECKPOINT_AVOIDING_COPY_OR_MOVE_REDO = 21;
     public static final byte REMOTE_ENDPOINT_ACTIVATES = 22;
     public static final byte REMOTE_ENDPOINT_DEACTIVATES = 23;
+    public static final byte FILE_ID_DECLARE = 24;
+    /*
+     * Carries, as its content, all the log entries written so far by a still active transaction;
+     * these copies supersede the entries of the transaction lying before this entry in the logs,
+     * which can then be deleted. See GatheringDiskWriter.compactTransactionLogs.
+     */
+    public static final byte TRANSACTION_LOG_COMPACTED = 25;
     public static final String UTF8Charset = "UTF8";
+    /*
+     * Every log entry is framed as: an int carrying the frame version (in bits 24 to 27) and the
+     * header length, the int content length, the header fields, a CRC-32C checksum as the last int
+     * of the header, and then the content. The checksum covers the header (except itself) and the
+     * content. Entries written before the frame was versioned have the version 0 and no checksum.
+     * <p> The highest four bits of the first int carry the number of the codec (see
+     * {@link LogContentCodec}) which encoded the content of the entry, or 0 if the content is kept
+     * as it is. An encoded content starts with its original length, as an int.
+     * <p> A file append entry can name its file by a number which the transaction has declared
+     * earlier (by a FILE_ID_DECLARE entry); the file path length is then replaced by -(number + 1)
+     * and no path follows.
+     */
+    private static final int FRAME_VERSION = 1;
+    private static final int FRAME_VERSION_SHIFT = 24;
+    private static final int FRAME_VERSION_MASK = 0xF;
+    private static final int FRAME_CODEC_SHIFT = 28;
+    private static final int HEADER_LENGTH_MASK = (1 << FRAME_VERSION_SHIFT) - 1;
+    private static final int CHECKSUM_LENGTH = 4;
+    private static final int MINIMUM_HEADER_LENGTH = 4 + 4 + 1 + CHECKSUM_LENGTH;
+    private static final int CONTENT_CHECKSUM_CHUNK = 64 * 1024;
+    private static final int MINIMUM_CONTENT_LENGTH_TO_ENCODE = 64;
     private TransactionInformation xid;
     private byte operationType;
     private String fileName;
@@ -68,9 +100,11 @@ public class TransactionLogEntry {
     private HashSet<File> fileList;
     private ArrayList<FileSystemStateChangeEvent> eventList;
     private int checkPointPosition = -1;
+    private int fileId = -1;
+    private int contentCodecId;
     private EndPointActivation remoteActivation;
 
-    static byte[] getUTF8Bytes(String str) {
+    public static byte[] getUTF8Bytes(String str) {
         try {
             return str.getBytes(UTF8Charset);
         } catch (UnsupportedEncodingException uee) {
@@ -88,95 +122,285 @@ public class TransactionLogEntry {
         }
     }
 
-    public static byte[] getLogEntry(TransactionInformation xid, String file, long filePosition, int fileContentLength,
-            byte appendOrUndoTruncate) {
-        byte filePathBytes[] = getUTF8Bytes(file);
-        int filePathLength = filePathBytes.length;
-        ByteBuffer buffer = ByteBuffer.allocate(200 + filePathLength);
-
-        buffer.putInt(0);
-        buffer.putInt((int) fileContentLength);
-        buffer.put(appendOrUndoTruncate);
-        buffer.put(xid.getBytes());
-
-        buffer.putInt(filePathLength);
-        buffer.put(filePathBytes);
-
-        buffer.putLong(filePosition);
-        buffer.putInt(0, buffer.position());
-
+    private static byte[] completeLogEntry(ByteBuffer buffer) {
+        endLogEntry(buffer, 0);
         buffer.flip();
         byte temp[] = new byte[buffer.limit()];
         buffer.get(temp);
         return temp;
     }
 
-    static byte[] getLogEntry(TransactionInformation xid, String file, byte createFileOrDirOrDeleteOrUndoCreate) {
-        byte filePathBytes[] = getUTF8Bytes(file);
-        int filePathLength = filePathBytes.length;
-        ByteBuffer buffer = ByteBuffer.allocate(200 + filePathLength);
+    private static int beginLogEntry(ByteBuffer target, byte xidBytes[], int fileContentLength, byte operationType) {
+        int start = target.position();
+        target.putInt(0);
+        target.putInt(fileContentLength);
+        target.put(operationType);
+        target.put(xidBytes);
+        return start;
+    }
 
-        buffer.putInt(0);
-        buffer.putInt(0);
-        buffer.put(createFileOrDirOrDeleteOrUndoCreate);
-        buffer.put(xid.getBytes());
+    private static int endLogEntry(ByteBuffer target, int start) {
+        target.putInt(0);//room for the checksum.
+        int headerLength = target.position() - start;
+        target.putInt(start, (FRAME_VERSION << FRAME_VERSION_SHIFT) | headerLength);
+        if (target.getInt(start + 4) == 0) {
+            //entries with content get sealed once the content is in place.
+            sealLogEntry(target, start);
+        }
+        return headerLength;
+    }
 
-        buffer.putInt(filePathLength);
-        buffer.put(filePathBytes);
+    /*
+     * Puts the checksum into a log entry lying (along with its content) from the position of the
+     * buffer onwards.
+     */
+    public static void sealLogEntry(ByteBuffer logEntry) {
+        sealLogEntry(logEntry, logEntry.position());
+    }
+
+    private static void sealLogEntry(ByteBuffer logEntry, int start) {
+        int headerLength = logEntry.getInt(start) & HEADER_LENGTH_MASK;
+        CRC32CChecksum checksum = new CRC32CChecksum();
+        checksum.update(logEntry, start, headerLength - CHECKSUM_LENGTH);
+        checksum.update(logEntry, start + headerLength, logEntry.getInt(start + 4));
+        logEntry.putInt(start + headerLength - CHECKSUM_LENGTH, (int) checksum.getValue());
+    }
+
+    /*
+     * Puts the checksum into a log entry header whose content is to be taken from the given channel.
+     */
+    public static void sealLogEntry(ByteBuffer logEntryHeader, FileChannel contents, long contentPosition,
+            long contentLength) throws IOException {
+        int start = logEntryHeader.position();
+        int headerLength = logEntryHeader.getInt(start) & HEADER_LENGTH_MASK;
+        CRC32CChecksum checksum = new CRC32CChecksum();
+        checksum.update(logEntryHeader, start, headerLength - CHECKSUM_LENGTH);
+        if (contentLength > 0) {
+            ByteBuffer chunk = ByteBuffer.allocate((int) Math.min(contentLength, CONTENT_CHECKSUM_CHUNK));
+            updateChecksumFromChannel(checksum, contents, contentPosition, contentLength, chunk);
+        }
+        logEntryHeader.putInt(start + headerLength - CHECKSUM_LENGTH, (int) checksum.getValue());
+    }
+
+    /*
+     * Puts the checksum into a log entry header whose content is the concatenation of the given
+     * ranges of the given channels.
+     */
+    public static void sealLogEntry(ByteBuffer logEntryHeader, FileChannel contents[], long contentPositions[],
+            long contentLengths[]) throws IOException {
+        int start = logEntryHeader.position();
+        int headerLength = logEntryHeader.getInt(start) & HEADER_LENGTH_MASK;
+        CRC32CChecksum checksum = new CRC32CChecksum();
+        checksum.update(logEntryHeader, start, headerLength - CHECKSUM_LENGTH);
+        ByteBuffer chunk = ByteBuffer.allocate(CONTENT_CHECKSUM_CHUNK);
+        for (int i = 0; i < contents.length; i++) {
+            updateChecksumFromChannel(checksum, contents[i], contentPositions[i], contentLengths[i], chunk);
+        }
+        logEntryHeader.putInt(start + headerLength - CHECKSUM_LENGTH, (int) checksum.getValue());
+    }
 
-        buffer.putInt(0, buffer.position());
+    private static void updateChecksumFromChannel(CRC32CChecksum checksum, FileChannel channel, long position,
+            long length, ByteBuffer chunk) throws IOException {
+        long done = 0;
+        while (done < length) {
+            chunk.clear();
+            if (length - done < chunk.capacity()) {
+                chunk.limit((int) (length - done));
+            }
+            while (chunk.hasRemaining()) {
+                if (channel.read(chunk, position + done + chunk.position()) == -1) {
+                    throw new EOFException();
+                }
+            }
+            checksum.update(chunk, 0, chunk.limit());
+            done += chunk.limit();
+        }
+    }
 
-        buffer.flip();
-        byte temp[] = new byte[buffer.limit()];
-        buffer.get(temp);
-        return temp;
+    /*
+     * Returns a copy of the given (sealed or not) log entry with its content encoded by the codec, sealed
+     * and ready to be written to the transaction log; or null if the encoding would not make the
+     * entry smaller.
+     */
+    public static ByteBuffer encodeContent(ByteBuffer logEntry, LogContentCodec codec) {
+        int contentLength = getContentLength(logEntry);
+        return encodeContent(logEntry, codec, new byte[contentLength], new byte[contentLength],
+                new byte[getEncodedLogEntryMaxLength(logEntry)]);
+    }
+
+    /*
+     * As above, using the given arrays (the first two at least as long as the content) to encode the
+     * content, so that a caller encoding many log entries can keep reusing them. The encoded log entry
+     * is put at the start of the last array (see getEncodedLogEntryMaxLength), and the returned buffer
+     * wraps that array.
+     */
+    public static ByteBuffer encodeContent(ByteBuffer logEntry, LogContentCodec codec, byte contentBytes[],
+            byte encodedBytes[], byte encodedLogEntryBytes[]) {
+        int start = logEntry.position();
+        int headerLength = logEntry.getInt(start) & HEADER_LENGTH_MASK;
+        int contentLength = logEntry.getInt(start + 4);
+        if (contentLength < MINIMUM_CONTENT_LENGTH_TO_ENCODE) {
+            return null;
+        }
+        ByteBuffer content = logEntry.duplicate();
+        content.position(start + headerLength);
+        content.limit(start + headerLength + contentLength);
+        content.get(contentBytes, 0, contentLength);
+        int encodedLength = codec.encode(contentBytes, contentLength, encodedBytes, contentLength - 4 - 1);
+        if (encodedLength == -1) {
+            return null;
+        }
+        ByteBuffer encodedLogEntry = ByteBuffer.wrap(encodedLogEntryBytes, 0, headerLength + 4 + encodedLength);
+        ByteBuffer header = logEntry.duplicate();
+        header.position(start);
+        header.limit(start + headerLength);
+        encodedLogEntry.put(header);
+        encodedLogEntry.putInt(0, encodedLogEntry.getInt(0) | (codec.getCodecId() << FRAME_CODEC_SHIFT));
+        encodedLogEntry.putInt(4, 4 + encodedLength);
+        encodedLogEntry.putInt(contentLength);
+        encodedLogEntry.put(encodedBytes, 0, encodedLength);
+        encodedLogEntry.flip();
+        sealLogEntry(encodedLogEntry, 0);
+        return encodedLogEntry;
+    }
+
+    /*
+     * Returns the length of an array which can hold the log entry lying from the position of the buffer
+     * onwards once its content is encoded; an encoded log entry is always shorter than the original.
+     */
+    public static int getEncodedLogEntryMaxLength(ByteBuffer logEntry) {
+        int start = logEntry.position();
+        return (logEntry.getInt(start) & HEADER_LENGTH_MASK) + logEntry.getInt(start + 4);
+    }
+
+    /*
+     * Returns the length of the content of the log entry lying from the position of the buffer onwards.
+     */
+    public static int getContentLength(ByteBuffer logEntry) {
+        return logEntry.getInt(logEntry.position() + 4);
+    }
+
+    /*
+     * Reads the content of the log entry at the given position of the transaction log, and returns
+     * it decoded by the codec.
+     */
+    public static ByteBuffer readDecodedContent(FileChannel logChannel, long logEntryPosition, LogContentCodec codec)
+            throws IOException {
+        ByteBuffer lengths = ByteBuffer.allocate(8);
+        FileIOUtility.readFromChannel(logChannel, logEntryPosition, lengths, 0, 8);
+        int headerLength = lengths.getInt(0) & HEADER_LENGTH_MASK;
+        int encodedContentLength = lengths.getInt(4);
+        //one byte more, for the codec to use as padding.
+        ByteBuffer encodedContent = ByteBuffer.allocate(encodedContentLength + 1);
+        FileIOUtility.readFromChannel(logChannel, logEntryPosition + headerLength, encodedContent, 0,
+                encodedContentLength);
+        byte decodedBytes[] = new byte[encodedContent.getInt(0)];
+        codec.decode(encodedContent.array(), 4, encodedContentLength - 4, decodedBytes);
+        return ByteBuffer.wrap(decodedBytes);
+    }
+
+    /*
+     * The putLogEntry methods below encode a log entry header at the current position of the target
+     * buffer (which must have the room for it, see the corresponding getLogEntryLength method) and
+     * return the header length; the target position is left just after the header. The xid and path
+     * bytes are taken as already encoded, so that the callers can keep them across log entries.
+     */
+    public static int putLogEntry(ByteBuffer target, byte xidBytes[], byte filePathBytes[], long filePosition,
+            int fileContentLength, byte appendOrUndoTruncate) {
+        int start = beginLogEntry(target, xidBytes, fileContentLength, appendOrUndoTruncate);
+        target.putInt(filePathBytes.length);
+        target.put(filePathBytes);
+        target.putLong(filePosition);
+        return endLogEntry(target, start);
+    }
+
+    public static int putLogEntry(ByteBuffer target, byte xidBytes[], byte filePathBytes[],
+            byte createFileOrDirOrDeleteOrUndoCreate) {
+        int start = beginLogEntry(target, xidBytes, 0, createFileOrDirOrDeleteOrUndoCreate);
+        target.putInt(filePathBytes.length);
+        target.put(filePathBytes);
+        return endLogEntry(target, start);
+    }
+
+    public static int putLogEntry(ByteBuffer target, byte xidBytes[], byte filePathBytes[], long newLength,
+            byte truncateOrUndoAppend) {
+        int start = beginLogEntry(target, xidBytes, 0, truncateOrUndoAppend);
+        target.putInt(filePathBytes.length);
+        target.put(filePathBytes);
+        target.putLong(newLength);
+        return endLogEntry(target, start);
+    }
+
+    public static int putLogEntry(ByteBuffer target, byte xidBytes[], byte sourceFilePathBytes[],
+            byte destFilePathBytes[], byte moveOrCopyOrUndoDelete) {
+        int start = beginLogEntry(target, xidBytes, 0, moveOrCopyOrUndoDelete);
+        target.putInt(sourceFilePathBytes.length);
+        target.put(sourceFilePathBytes);
+        target.putInt(destFilePathBytes.length);
+        target.put(destFilePathBytes);
+        return endLogEntry(target, start);
+    }
+
+    public static int putFileAppendLogEntry(ByteBuffer target, byte xidBytes[], int fileId, long filePosition,
+            int fileContentLength) {
+        int start = beginLogEntry(target, xidBytes, fileContentLength, FILE_APPEND);
+        target.putInt(-(fileId + 1));
+        target.putLong(filePosition);
+        return endLogEntry(target, start);
+    }
+
+    public static int putFileIdDeclaration(ByteBuffer target, byte xidBytes[], int fileId, byte filePathBytes[]) {
+        int start = beginLogEntry(target, xidBytes, 0, FILE_ID_DECLARE);
+        target.putInt(fileId);
+        target.putInt(filePathBytes.length);
+        target.put(filePathBytes);
+        return endLogEntry(target, start);
+    }
+
+    public static int getFileIdDeclarationLength(byte xidBytes[], byte filePathBytes[]) {
+        return 4 + 4 + 1 + xidBytes.length + 4 + 4 + filePathBytes.length + CHECKSUM_LENGTH;
+    }
+
+    public static int getLogEntryLength(byte xidBytes[], byte filePathBytes[], boolean withLongField) {
+        return 4 + 4 + 1 + xidBytes.length + 4 + filePathBytes.length + (withLongField ? 8 : 0) + CHECKSUM_LENGTH;
+    }
+
+    public static int getLogEntryLength(byte xidBytes[], byte sourceFilePathBytes[], byte destFilePathBytes[]) {
+        return 4 + 4 + 1 + xidBytes.length + 4 + sourceFilePathBytes.length + 4 + destFilePathBytes.length
+                + CHECKSUM_LENGTH;
     }
 
-    public static byte[] getLogEntry(TransactionInformation xid, String file, long newLength, byte truncateOrUndoAppend) {
+    public static byte[] getLogEntry(TransactionInformation xid, String file, long filePosition, int fileContentLength,
+            byte appendOrUndoTruncate) {
+        byte xidBytes[] = xid.getBytes();
         byte filePathBytes[] = getUTF8Bytes(file);
-        int filePathLength = filePathBytes.length;
-        ByteBuffer buffer = ByteBuffer.allocate(200 + filePathLength);
-
-        buffer.putInt(0);
-        buffer.putInt(0);
-        buffer.put(truncateOrUndoAppend);
-        buffer.put(xid.getBytes());
-
-        buffer.putInt(filePathLength);
-        buffer.put(filePathBytes);
-
-        buffer.putLong(newLength);
+        byte temp[] = new byte[getLogEntryLength(xidBytes, filePathBytes, true)];
+        putLogEntry(ByteBuffer.wrap(temp), xidBytes, filePathBytes, filePosition, fileContentLength, appendOrUndoTruncate);
+        return temp;
+    }
 
-        buffer.putInt(0, buffer.position());
+    static byte[] getLogEntry(TransactionInformation xid, String file, byte createFileOrDirOrDeleteOrUndoCreate) {
+        byte xidBytes[] = xid.getBytes();
+        byte filePathBytes[] = getUTF8Bytes(file);
+        byte temp[] = new byte[getLogEntryLength(xidBytes, filePathBytes, false)];
+        putLogEntry(ByteBuffer.wrap(temp), xidBytes, filePathBytes, createFileOrDirOrDeleteOrUndoCreate);
+        return temp;
+    }
 
-        buffer.flip();
-        byte temp[] = new byte[buffer.limit()];
-        buffer.get(temp);
+    public static byte[] getLogEntry(TransactionInformation xid, String file, long newLength, byte truncateOrUndoAppend) {
+        byte xidBytes[] = xid.getBytes();
+        byte filePathBytes[] = getUTF8Bytes(file);
+        byte temp[] = new byte[getLogEntryLength(xidBytes, filePathBytes, true)];
+        putLogEntry(ByteBuffer.wrap(temp), xidBytes, filePathBytes, newLength, truncateOrUndoAppend);
         return temp;
     }
 
     public static byte[] getLogEntry(TransactionInformation xid, String sourceFile, String destinationFile, byte moveOrCopyOrUndoDelete) {
+        byte xidBytes[] = xid.getBytes();
         byte sourceFilePathBytes[] = getUTF8Bytes(sourceFile);
         byte destFilePathBytes[] = getUTF8Bytes(destinationFile);
-        int srcFilePathLength = sourceFilePathBytes.length;
-        int destFilePathLength = destFilePathBytes.length;
-        ByteBuffer buffer = ByteBuffer.allocate(200 + srcFilePathLength + destFilePathLength);
-
-        buffer.putInt(0);
-        buffer.putInt(0);
-        buffer.put(moveOrCopyOrUndoDelete);
-        buffer.put(xid.getBytes());
-        buffer.putInt(srcFilePathLength);
-        buffer.put(sourceFilePathBytes);
-
-        buffer.putInt(destFilePathLength);
-        buffer.put(destFilePathBytes);
-
-        buffer.putInt(0, buffer.position());
-
-        buffer.flip();
-        byte temp[] = new byte[buffer.limit()];
-        buffer.get(temp);
+        byte temp[] = new byte[getLogEntryLength(xidBytes, sourceFilePathBytes, destFilePathBytes)];
+        putLogEntry(ByteBuffer.wrap(temp), xidBytes, sourceFilePathBytes, destFilePathBytes, moveOrCopyOrUndoDelete);
         return temp;
     }
 
@@ -187,12 +411,7 @@ public class TransactionLogEntry {
         buffer.put(commitStatus);
         buffer.put(xid.getBytes());
 
-        buffer.putInt(0, buffer.position());
-
-        buffer.flip();
-        byte temp[] = new byte[buffer.limit()];
-        buffer.get(temp);
-        return temp;
+        return completeLogEntry(buffer);
     }
 
     static byte[] getLogEntry(TransactionInformation xid, int checkPointPosition) {
@@ -203,12 +422,17 @@ public class TransactionLogEntry {
         buffer.put(xid.getBytes());
         buffer.putInt(checkPointPosition);
 
-        buffer.putInt(0, buffer.position());
+        return completeLogEntry(buffer);
+    }
 
-        buffer.flip();
-        byte temp[] = new byte[buffer.limit()];
-        buffer.get(temp);
-        return temp;
+    /*
+     * The header of a TRANSACTION_LOG_COMPACTED entry; to be sealed once its content is known.
+     */
+    public static byte[] getCompactionLogEntryHeader(TransactionInformation xid, int contentLength) {
+        byte xidBytes[] = xid.getBytes();
+        ByteBuffer buffer = ByteBuffer.allocate(4 + 4 + 1 + xidBytes.length + CHECKSUM_LENGTH);
+        endLogEntry(buffer, beginLogEntry(buffer, xidBytes, contentLength, TRANSACTION_LOG_COMPACTED));
+        return buffer.array();
     }
 
     public static byte[] getLogEntry(TransactionInformation xid, Set<File> files) {
@@ -233,12 +457,7 @@ public class TransactionLogEntry {
             buffer.putInt(filePathsBytes[i].length);
             buffer.put(filePathsBytes[i]);
         }
-        buffer.putInt(0, buffer.position());
-
-        buffer.flip();
-        byte temp[] = new byte[buffer.limit()];
-        buffer.get(temp);
-        return temp;
+        return completeLogEntry(buffer);
     }
 
     public static byte[] getLogEntry(TransactionInformation xid, ArrayList<FileSystemStateChangeEvent> events, byte enQ_deQ_prepareDequeue) {
@@ -258,12 +477,7 @@ public class TransactionLogEntry {
         for (int i = 0; i < eventsBytes.length; i++) {
             buffer.put(eventsBytes[i]);
         }
-        buffer.putInt(0, buffer.position());
-
-        buffer.flip();
-        byte temp[] = new byte[buffer.limit()];
-        buffer.get(temp);
-        return temp;
+        return completeLogEntry(buffer);
     }
 
     public static byte[] getLogEntry(EndPointActivation remoteEPActivation, byte activation_deActivation) {
@@ -284,7 +498,7 @@ public class TransactionLogEntry {
             for (int i = 0; i < 3; i++) {
                 variableBytesLength += variableBytes[i].length;
             }
-            ByteBuffer buffer = ByteBuffer.allocate(41 + variableBytesLength);
+            ByteBuffer buffer = ByteBuffer.allocate(45 + variableBytesLength);
 
             buffer.putInt(0);
             buffer.putInt(0);
@@ -309,12 +523,7 @@ public class TransactionLogEntry {
 
             buffer.putLong(remoteMEPF.getRemoteObjectId());
 
-            buffer.putInt(0, buffer.position());
-
-            buffer.flip();
-            byte temp[] = new byte[buffer.limit()];
-            buffer.get(temp);
-            return temp;
+            return completeLogEntry(buffer);
         } catch (UnsupportedEncodingException uee) {
             //assert false;
             return null;
@@ -325,7 +534,9 @@ public class TransactionLogEntry {
         TransactionLogEntry temp = new TransactionLogEntry();
         int position = buffer.position();
         buffer.position(0);
-        temp.headerLength = buffer.getInt();
+        int frame = buffer.getInt();
+        temp.headerLength = frame & HEADER_LENGTH_MASK;
+        temp.contentCodecId = frame >>> FRAME_CODEC_SHIFT;
         buffer.getInt();
         temp.operationType = buffer.get();
         if (temp.operationType != REMOTE_ENDPOINT_ACTIVATES
@@ -333,7 +544,16 @@ public class TransactionLogEntry {
             temp.xid = new TransactionInformation(buffer);
         }
 
-        if (temp.operationType == FILE_APPEND || temp.operationType == UNDOABLE_FILE_TRUNCATE) {
+        if (temp.operationType == FILE_APPEND) {
+            int fileNameLength = buffer.getInt();
+            if (fileNameLength < 0) {
+                temp.fileId = -fileNameLength - 1;
+            } else {
+                temp.fileName = readFileName(buffer, fileNameLength);
+            }
+            temp.filePosition = buffer.getLong();
+            temp.fileContentLength = buffer.getInt(4);
+        } else if (temp.operationType == UNDOABLE_FILE_TRUNCATE) {
             temp.fileName = readFileName(buffer);
             temp.filePosition = buffer.getLong();
             temp.fileContentLength = buffer.getInt(4);
@@ -360,8 +580,13 @@ public class TransactionLogEntry {
             for (int i = 0; i < numEvents; i++) {
                 temp.eventList.add(readEvent(buffer));
             }
+        } else if (temp.operationType == FILE_ID_DECLARE) {
+            temp.fileId = buffer.getInt();
+            temp.fileName = readFileName(buffer);
         } else if (temp.operationType == CHECKPOINT_AVOIDING_COPY_OR_MOVE_REDO) {
             temp.checkPointPosition = buffer.getInt();
+        } else if (temp.operationType == TRANSACTION_LOG_COMPACTED) {
+            temp.fileContentLength = buffer.getInt(4);
         } else if (temp.operationType == REMOTE_ENDPOINT_ACTIVATES
                 || temp.operationType == REMOTE_ENDPOINT_DEACTIVATES) {
             temp.remoteActivation = readRemoteEndPointActivation(buffer);
@@ -372,7 +597,10 @@ public class TransactionLogEntry {
     }
 
     private static String readFileName(ByteBuffer buffer) {
-        int fileNameLength = buffer.getInt();
+        return readFileName(buffer, buffer.getInt());
+    }
+
+    private static String readFileName(ByteBuffer buffer, int fileNameLength) {
         byte fileName[] = new byte[fileNameLength];
         buffer.get(fileName);
         return getUTF8AssumedString(fileName);
@@ -440,14 +668,32 @@ public class TransactionLogEntry {
         return operationType;
     }
 
-    int getFileContentLength() {
+    public int getFileContentLength() {
         return fileContentLength;
     }
 
-    String getFileName() {
+    public String getFileName() {
         return fileName;
     }
 
+    public int getContentCodecId() {
+        return contentCodecId;
+    }
+
+    public int getFileId() {
+        return fileId;
+    }
+
+    /*
+     * For a file append entry naming its file by a declared number, takes the file path from the
+     * numbers declared by the transaction.
+     */
+    public void resolveFileName(Map<Integer, String> declaredFileNames) {
+        if (operationType == FILE_APPEND && fileName == null) {
+            fileName = declaredFileNames.get(fileId);
+        }
+    }
+
     long getFilePosition() {
         return filePosition;
     }
@@ -456,11 +702,11 @@ public class TransactionLogEntry {
         return xid;
     }
 
-    int getHeaderLength() {
+    public int getHeaderLength() {
         return headerLength;
     }
 
-    String getDestFileName() {
+    public String getDestFileName() {
         return destFileName;
     }
 
@@ -476,42 +722,98 @@ public class TransactionLogEntry {
         buffer.putInt(4, contentLength);
     }
 
-    public static TransactionLogEntry getNextTransactionLogEntry(FileChannel logChannel, long position,
-            boolean onlyCompletionEntry) throws IOException {
+    /*
+     * Reads the log entry at the given position of the transaction log without using (or moving) the
+     * position of the channel, so that the channel can be shared by concurrent readers.
+     */
+    public static TransactionLogEntry readTransactionLogEntry(FileChannel logChannel, long position)
+            throws IOException {
         ByteBuffer header = ByteBuffer.allocate(500);
-        logChannel.position(position);
-
-        FileIOUtility.readFromChannel(logChannel, header, 0, 4);
-
-        int logEntryHeaderLength = header.getInt(0);
+        FileIOUtility.readFromChannel(logChannel, position, header, 0, 4);
+        int logEntryHeaderLength = header.getInt(0) & HEADER_LENGTH_MASK;
+        if (logEntryHeaderLength <= 0) {
+            throw new EOFException();
+        }
         if (logEntryHeaderLength > header.capacity()) {
             header = ByteBuffer.allocate(logEntryHeaderLength);
         }
-        logChannel.position(position);
         header.clear();
-        FileIOUtility.readFromChannel(logChannel, header, 0, logEntryHeaderLength);
+        FileIOUtility.readFromChannel(logChannel, position, header, 0, logEntryHeaderLength);
         header.flip();
-
-        if (onlyCompletionEntry) {
-            TransactionLogEntry logEntry = new TransactionLogEntry();
-            logEntry.headerLength = header.getInt();
-            logEntry.fileContentLength = header.getInt();
-            logEntry.xid = new TransactionInformation(header);
-            logEntry.operationType = header.get();
-
-            logChannel.position(position + logEntry.headerLength + logEntry.fileContentLength);
-
-            if (logEntry.operationType == COMMIT_BEGINS || logEntry.operationType == PREPARE_COMPLETES
-                    || logEntry.operationType == TXN_COMMIT_DONE || logEntry.operationType == TXN_ROLLBACK_DONE
-                    || logEntry.operationType == PREPARE_COMPLETES_FOR_EVENT_DEQUEUE) {
-                return logEntry;
+        return parseLogEntry(header);
+    }
+
+    /*
+     * Used while scanning a transaction log during recovery. The scan ends, with an EOFException, at
+     * the first entry which is not a complete and valid frame; such an entry can only be the tail of the
+     * log written partially before a crash (or the zero-filled remainder of a preallocated log).
+     * The log is read only at explicit positions. The header and chunk buffers are reused by the
+     * scanner across the entries; a header larger than the header buffer gets a buffer of its own.
+     * <p> An entry of version 0, which carries no checksum, is taken only from a log written before the
+     * frame was versioned (see isUnversionedLog); elsewhere it is as invalid as any other torn entry.
+     */
+    public static TransactionLogEntry getNextVerifiedTransactionLogEntry(FileChannel logChannel, long position,
+            long logSize, boolean unversionedLog, ByteBuffer headerBuffer, ByteBuffer chunkBuffer)
+            throws IOException {
+        long remainingInLog = logSize - position;
+        if (remainingInLog < MINIMUM_HEADER_LENGTH) {
+            throw new EOFException();
+        }
+        ByteBuffer header = headerBuffer;
+        header.clear();
+        FileIOUtility.readFromChannel(logChannel, position, header, 0, 8);
+        int frameVersion = (header.getInt(0) >>> FRAME_VERSION_SHIFT) & FRAME_VERSION_MASK;
+        int logEntryHeaderLength = header.getInt(0) & HEADER_LENGTH_MASK;
+        int contentLength = header.getInt(4);
+        if (frameVersion > FRAME_VERSION || (frameVersion == 0 && !unversionedLog)
+                || logEntryHeaderLength < MINIMUM_HEADER_LENGTH || contentLength < 0
+                || logEntryHeaderLength + (long) contentLength > remainingInLog) {
+            throw new EOFException();
+        }
+        if (logEntryHeaderLength > header.capacity()) {
+            header = ByteBuffer.allocate(logEntryHeaderLength);
+        }
+        header.clear();
+        FileIOUtility.readFromChannel(logChannel, position, header, 0, logEntryHeaderLength);
+        header.limit(logEntryHeaderLength);
+        header.position(0);
+        if (frameVersion == FRAME_VERSION) {
+            CRC32CChecksum checksum = new CRC32CChecksum();
+            checksum.update(header, 0, logEntryHeaderLength - CHECKSUM_LENGTH);
+            if (contentLength > 0) {
+                updateChecksumFromChannel(checksum, logChannel, position + logEntryHeaderLength, contentLength,
+                        chunkBuffer);
+            }
+            if ((int) checksum.getValue() != header.getInt(logEntryHeaderLength - CHECKSUM_LENGTH)) {
+                throw new EOFException();
             }
-            return null;
-        } else {
-            TransactionLogEntry logEntry = parseLogEntry(header);
-            logChannel.position(position + logEntry.headerLength + logEntry.fileContentLength);
-            return logEntry;
         }
+        try {
+            return parseLogEntry(header);
+        } catch (RuntimeException re) {
+            //only possible for an entry of version 0, which carries no checksum.
+            throw new EOFException();
+        }
+    }
+
+    /*
+     * Tells if the log was written before the frame was versioned, i.e. if its first entry has the
+     * version 0. A log written since starts with an entry of the current version, or with zeroes if
+     * nothing has been written to it yet.
+     */
+    public static boolean isUnversionedLog(FileChannel logChannel, ByteBuffer headerBuffer) throws IOException {
+        if (logChannel.size() < MINIMUM_HEADER_LENGTH) {
+            return false;
+        }
+        headerBuffer.clear();
+        FileIOUtility.readFromChannel(logChannel, 0, headerBuffer, 0, 4);
+        int firstInt = headerBuffer.getInt(0);
+        return ((firstInt >>> FRAME_VERSION_SHIFT) & FRAME_VERSION_MASK) == 0
+                && (firstInt & HEADER_LENGTH_MASK) >= MINIMUM_HEADER_LENGTH;
+    }
+
+    public static ByteBuffer allocateChecksumChunk() {
+        return ByteBuffer.allocate(CONTENT_CHECKSUM_CHUNK);
     }
 
     public HashSet<File> getFileList() {
@@ -533,6 +835,7 @@ public class TransactionLogEntry {
     }
 
     public boolean isRedoLogEntry() {
-        return operationType < 12;
+        //the file id declarations are kept along with the redo entries, as these may refer to them.
+        return operationType < 12 || operationType == FILE_ID_DECLARE;
     }
 }
@@ -0,0 +1,202 @@
+/*
+ * Engineering Ingegneria Informatica S.p.A.
+ *
+ * Copyright (C) 2023 Regione Emilia-Romagna
+ * <p/>
+ * This program is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU Affero General Public License as published by the Free Software Foundation,
+ * either version 3 of the License, or (at your option) any later version.
+ * <p/>
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU Affero General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.xadisk.filesystem;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.xadisk.filesystem.utilities.LogContentCodec;
+
+/**
+ * Encodes the log entries of a single session, keeping the bytes of the xid and of the recently
+ * used file paths so that they are not encoded again for every log entry.
+ * <p> The file append headers are put directly into the (pooled) buffer carrying the content.
+ * The other log entries, having no content, are put one after another into a slab owned by the
+ * session, and each log entry gets a {@link Buffer} over its own slice of the slab; a new slab is
+ * taken only when the current one is full. The memory of a slab is accounted for as a whole, till
+ * the encoder has moved to another slab and the log entries over it have all been released.
+ * <p> With compact append log entries, the encoder also keeps the numbers declared by the
+ * transaction for the files it appends to, and the append headers carry these numbers instead of
+ * the file paths.
+ * <p> The arrays used to encode the content of the file append entries (see
+ * {@link org.xadisk.filesystem.FileSystemConfiguration#getTransactionLogContentCodec()}) are also
+ * kept here, and reused across the log entries of the session.
+ */
+public class TransactionLogEntryEncoder {
+
+    private static final int MAX_CACHED_PATHS = 64;
+    private static final int SLAB_SIZE = 4096;
+    private final TransactionInformation xid;
+    private final NativeXAFileSystem xaFileSystem;
+    private final boolean compactAppendLogEntries;
+    private final HashMap<String, Integer> declaredFileIds = new HashMap<String, Integer>();
+    private final HashMap<Integer, String> declaredFileNames = new HashMap<Integer, String>();
+    private byte xidBytes[];
+    private ByteBuffer slab;
+    private Buffer slabBuffer;
+    private byte contentBytes[];
+    private byte encodedContentBytes[];
+    private final RecentPathBytes pathBytes = new RecentPathBytes();
+
+    public TransactionLogEntryEncoder(TransactionInformation xid, boolean compactAppendLogEntries,
+            NativeXAFileSystem xaFileSystem) {
+        this.xid = xid;
+        this.compactAppendLogEntries = compactAppendLogEntries;
+        this.xaFileSystem = xaFileSystem;
+    }
+
+    /*
+     * Returns the log entry declaring a number for the file, to be logged before the first append to
+     * the file; or null if no declaration is needed.
+     */
+    public synchronized Buffer declareFileId(String file) {
+        if (!compactAppendLogEntries || declaredFileIds.containsKey(file)) {
+            return null;
+        }
+        int fileId = declaredFileIds.size();
+        declaredFileIds.put(file, fileId);
+        declaredFileNames.put(fileId, file);
+        byte filePathBytes[] = getPathBytes(file);
+        ByteBuffer target = reserve(TransactionLogEntry.getFileIdDeclarationLength(getXidBytes(), filePathBytes));
+        TransactionLogEntry.putFileIdDeclaration(target, xidBytes, fileId, filePathBytes);
+        return toBuffer(target);
+    }
+
+    public synchronized Map<Integer, String> getDeclaredFileNames() {
+        return declaredFileNames;
+    }
+
+    /*
+     * Puts the header of a file append log entry at the current position of the target, and
+     * returns the header length.
+     */
+    public synchronized int putFileAppendHeader(ByteBuffer target, String file, long filePosition, int fileContentLength) {
+        Integer fileId = declaredFileIds.get(file);
+        if (fileId != null) {
+            return TransactionLogEntry.putFileAppendLogEntry(target, getXidBytes(), fileId, filePosition,
+                    fileContentLength);
+        }
+        return TransactionLogEntry.putLogEntry(target, getXidBytes(), getPathBytes(file), filePosition,
+                fileContentLength, TransactionLogEntry.FILE_APPEND);
+    }
+
+    public synchronized Buffer getLogEntry(String file, byte createFileOrDirOrDeleteOrUndoCreate) {
+        byte filePathBytes[] = getPathBytes(file);
+        ByteBuffer target = reserve(TransactionLogEntry.getLogEntryLength(getXidBytes(), filePathBytes, false));
+        TransactionLogEntry.putLogEntry(target, xidBytes, filePathBytes, createFileOrDirOrDeleteOrUndoCreate);
+        return toBuffer(target);
+    }
+
+    public synchronized Buffer getLogEntry(String file, long newLength, byte truncateOrUndoAppend) {
+        byte filePathBytes[] = getPathBytes(file);
+        ByteBuffer target = reserve(TransactionLogEntry.getLogEntryLength(getXidBytes(), filePathBytes, true));
+        TransactionLogEntry.putLogEntry(target, xidBytes, filePathBytes, newLength, truncateOrUndoAppend);
+        return toBuffer(target);
+    }
+
+    public synchronized Buffer getLogEntry(String sourceFile, String destinationFile, byte moveOrCopyOrUndoDelete) {
+        byte sourceFilePathBytes[] = getPathBytes(sourceFile);
+        byte destFilePathBytes[] = getPathBytes(destinationFile);
+        ByteBuffer target = reserve(TransactionLogEntry.getLogEntryLength(getXidBytes(), sourceFilePathBytes,
+                destFilePathBytes));
+        TransactionLogEntry.putLogEntry(target, xidBytes, sourceFilePathBytes, destFilePathBytes, moveOrCopyOrUndoDelete);
+        return toBuffer(target);
+    }
+
+    /*
+     * See TransactionLogEntry.encodeContent; the encoded log entry is put into encodedLogEntryBytes,
+     * which the caller owns.
+     */
+    public synchronized ByteBuffer encodeContent(ByteBuffer logEntry, LogContentCodec codec,
+            byte encodedLogEntryBytes[]) {
+        int contentLength = TransactionLogEntry.getContentLength(logEntry);
+        if (contentBytes == null || contentBytes.length < contentLength) {
+            contentBytes = new byte[contentLength];
+            encodedContentBytes = new byte[contentLength];
+        }
+        return TransactionLogEntry.encodeContent(logEntry, codec, contentBytes, encodedContentBytes,
+                encodedLogEntryBytes);
+    }
+
+    private byte[] getXidBytes() {
+        if (xidBytes == null) {
+            xidBytes = xid.getBytes();
+        }
+        return xidBytes;
+    }
+
+    private byte[] getPathBytes(String file) {
+        byte bytes[] = pathBytes.get(file);
+        if (bytes == null) {
+            bytes = TransactionLogEntry.getUTF8Bytes(file);
+            pathBytes.put(file, bytes);
+        }
+        return bytes;
+    }
+
+    private ByteBuffer reserve(int logEntryLength) {
+        if (slab == null || slab.remaining() < logEntryLength) {
+            releaseSlab();
+            slab = ByteBuffer.allocate(Math.max(SLAB_SIZE, logEntryLength));
+            slabBuffer = new Buffer(slab, xaFileSystem);
+        }
+        ByteBuffer target = slab.slice();
+        target.limit(logEntryLength);
+        slab.position(slab.position() + logEntryLength);
+        return target;
+    }
+
+    private Buffer toBuffer(ByteBuffer target) {
+        target.flip();
+        return new Buffer(target.slice(), slabBuffer, xaFileSystem);
+    }
+
+    /*
+     * Called once the session is over; the current slab is then let go once its log entries are.
+     */
+    public synchronized void release() {
+        releaseSlab();
+        slab = null;
+    }
+
+    private void releaseSlab() {
+        if (slabBuffer != null) {
+            slabBuffer.release();
+            slabBuffer = null;
+        }
+    }
+
+    /*
+     * The bytes of the recently used file paths, dropping the least recently used one beyond
+     * MAX_CACHED_PATHS.
+     */
+    private static class RecentPathBytes extends LinkedHashMap<String, byte[]> {
+
+        private static final long serialVersionUID = 1L;
+
+        private RecentPathBytes() {
+            super(16, 0.75f, true);
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, byte[]> eldest) {
+            return size() > MAX_CACHED_PATHS;
+        }
+    }
+}
@@ -48,9 +48,44 @@ import org.xadisk.connector.outbound.XADiskConnectionFactory;
 public class RecoveryInProgressException extends XASystemException {
 
     private static final long serialVersionUID = 1L;
-    
+    private final int remainingTransactions;
+    private final long remainingBytes;
+
+    public RecoveryInProgressException() {
+        this(-1, -1);
+    }
+
+    public RecoveryInProgressException(int remainingTransactions, long remainingBytes) {
+        this.remainingTransactions = remainingTransactions;
+        this.remainingBytes = remainingBytes;
+    }
+
+    /**
+     * Returns the number of transactions the crash recovery still has to complete, including the
+     * in-doubt XA transactions waiting for the Transaction Manager's decision; or -1 if not known.
+     * @return the number of transactions still to be completed.
+     * @since 1.2.3
+     */
+    public int getRemainingTransactions() {
+        return remainingTransactions;
+    }
+
+    /**
+     * Returns the number of bytes the crash recovery still has to replay from the transaction logs
+     * for the transactions being committed or rolled back; or -1 if not known.
+     * @return the number of bytes still to be replayed.
+     * @since 1.2.3
+     */
+    public long getRemainingBytes() {
+        return remainingBytes;
+    }
+
     @Override
     public String getMessage() {
-        return "This XADisk instance has not yet completed its crash recovery process.";
+        if (remainingTransactions < 0) {
+            return "This XADisk instance has not yet completed its crash recovery process.";
+        }
+        return "This XADisk instance has not yet completed its crash recovery process. Transactions remaining : "
+                + remainingTransactions + ", bytes remaining to replay : " + remainingBytes + ".";
     }
 }
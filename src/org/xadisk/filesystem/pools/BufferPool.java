@@ -17,75 +17,129 @@
 
 package org.xadisk.filesystem.pools;
 
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
 import org.xadisk.filesystem.NativeXAFileSystem;
 
+/**
+ * Pools the buffers used by the i/o streams, in a few size classes: the configured buffer size,
+ * and then sizes 16 times larger each, up to the largest buffer size. A stream asks for a size
+ * suited to what it is doing, e.g. a stream which has already written a lot asks for a large one.
+ * <p> The pool sizes are counted in units of the configured buffer size, so a buffer of a larger
+ * class takes that many more units out of the pool.
+ * <p> The direct buffers are slabs carved out of large direct memory arenas, one arena being
+ * carved for a single size class. An idle direct slab goes back to its arena, to be handed out
+ * again, and an arena none of whose slabs is in use is dropped altogether.
+ * <p> In front of the free lists of each size class, there are small magazines of free buffers,
+ * striped by the thread ids, so that a thread mostly checks out and checks in buffers without
+ * touching the shared free lists. An empty magazine is refilled with a few buffers at once from
+ * the free list, and a full one hands half of its buffers back to it. A magazine is never waited
+ * for; if another thread is using it, the free list is used directly. The buffers in the magazines
+ * are free buffers of the pool as any other, so the pool sizes hold as before.
+ * <p> The free lists are stacks, so the buffers used most recently are handed out first, and the
+ * buffers lying idle are all at the bottom, from where they are freed.
+ */
 public class BufferPool implements ResourcePool<PooledBuffer> {
 
+    private static final int SIZE_CLASS_GROWTH = 16;
+    private static final int MINIMUM_ARENA_SIZE = 1024 * 1024;
+    private static final int MAGAZINE_SIZE = 16;
+    private static final int MAGAZINE_STRIPES = getMagazineStripes();
     private final int directBufferMaxPoolSize;
     private final int nonDirectBufferMaxPoolSize;
-    private final int bufferSize;
+    private final SizeClass sizeClasses[];
     private final AtomicInteger currentDirectPoolSize;
     private final AtomicInteger currentNonDirectPoolSize;
-    private final ConcurrentLinkedQueue<PooledBuffer> directFreeBuffers;
-    private final ConcurrentLinkedQueue<PooledBuffer> nonDirectFreeBuffers;
     private final int directBufferIdleTime;
     private final int nonDirectBufferIdleTime;
     private final NativeXAFileSystem xaFileSystem;
 
-    public BufferPool(int directBufferPoolSize, int nonDirectBufferPoolSize, int bufferSize,
+    public BufferPool(int directBufferPoolSize, int nonDirectBufferPoolSize, int bufferSize, int largestBufferSize,
             int directBufferIdleTime, int nonDirectBufferIdleTime, NativeXAFileSystem xaFileSystem) {
         this.xaFileSystem = xaFileSystem;
         this.directBufferMaxPoolSize = directBufferPoolSize;
         this.nonDirectBufferMaxPoolSize = nonDirectBufferPoolSize;
-        this.bufferSize = bufferSize;
         this.directBufferIdleTime = directBufferIdleTime;
         this.nonDirectBufferIdleTime = nonDirectBufferIdleTime;
-        this.directFreeBuffers = new ConcurrentLinkedQueue<PooledBuffer>();
-        this.nonDirectFreeBuffers = new ConcurrentLinkedQueue<PooledBuffer>();
         this.currentDirectPoolSize = new AtomicInteger(0);
         this.currentNonDirectPoolSize = new AtomicInteger(0);
+        ArrayList<SizeClass> classes = new ArrayList<SizeClass>(3);
+        long size = bufferSize;
+        int units = 1;
+        do {
+            classes.add(new SizeClass(classes.size(), (int) size, units));
+            size *= SIZE_CLASS_GROWTH;
+            units *= SIZE_CLASS_GROWTH;
+        } while (size <= largestBufferSize);
+        this.sizeClasses = classes.toArray(new SizeClass[classes.size()]);
     }
 
     public PooledBuffer checkOut() {
-        PooledBuffer temp = lookIntoCurrentPool(true);
-        if (temp != null) {
-            return temp;
+        return checkOut(sizeClasses[0]);
+    }
+
+    /*
+     * Checks out a buffer of the largest size class not larger than the given size, or of the
+     * smallest class if all are larger. Returns null if the pool is exhausted for that class.
+     */
+    public PooledBuffer checkOut(long sizeHint) {
+        SizeClass sizeClass = sizeClasses[0];
+        for (int i = 1; i < sizeClasses.length && sizeClasses[i].size <= sizeHint; i++) {
+            sizeClass = sizeClasses[i];
         }
-        temp = lookIntoCurrentPool(false);
+        return checkOut(sizeClass);
+    }
+
+    private PooledBuffer checkOut(SizeClass sizeClass) {
+        PooledBuffer temp = lookIntoCurrentPool(sizeClass, true);
         if (temp != null) {
             return temp;
         }
-        temp = allocateNewInCurrentPool(true);
+        temp = lookIntoCurrentPool(sizeClass, false);
         if (temp != null) {
             return temp;
         }
-        temp = allocateNewInCurrentPool(false);
+        temp = allocateNewInCurrentPool(sizeClass, true);
         if (temp != null) {
-            return null;
+            return temp;
         }
-        return null;
+        return allocateNewInCurrentPool(sizeClass, false);
     }
 
-    private PooledBuffer lookIntoCurrentPool(boolean inDirectBufferPool) {
-        ConcurrentLinkedQueue<PooledBuffer> buffers;
+    private PooledBuffer lookIntoCurrentPool(SizeClass sizeClass, boolean inDirectBufferPool) {
+        IdleStack<PooledBuffer> buffers;
+        Magazine magazine;
         if (inDirectBufferPool) {
-            buffers = directFreeBuffers;
+            buffers = sizeClass.directFreeBuffers;
+            magazine = sizeClass.directMagazines[getMagazineStripe()];
         } else {
-            buffers = nonDirectFreeBuffers;
+            buffers = sizeClass.nonDirectFreeBuffers;
+            magazine = sizeClass.nonDirectMagazines[getMagazineStripe()];
+        }
+        PooledBuffer freeBuffer;
+        if (magazine.lock.tryLock()) {
+            try {
+                if (magazine.count == 0) {
+                    magazine.refill(buffers);
+                }
+                freeBuffer = magazine.pop();
+            } finally {
+                magazine.lock.unlock();
+            }
+        } else {
+            freeBuffer = buffers.pop();
         }
-        PooledBuffer freeBuffer = buffers.poll();
         if (freeBuffer != null) {
             freeBuffer.invalidateByteBufferFromCache();
         }
         return freeBuffer;
     }
 
-    private PooledBuffer allocateNewInCurrentPool(boolean inDirectBufferPool) {
+    private PooledBuffer allocateNewInCurrentPool(SizeClass sizeClass, boolean inDirectBufferPool) {
         AtomicInteger currentPoolSize;
         int maxPoolSize;
-        PooledBuffer newBuffer = null;
         if (inDirectBufferPool) {
             currentPoolSize = currentDirectPoolSize;
             maxPoolSize = directBufferMaxPoolSize;
@@ -95,59 +149,265 @@ public class BufferPool implements ResourcePool<PooledBuffer> {
         }
         while (true) {
             int temp = currentPoolSize.get();
-            if (temp >= maxPoolSize) {
+            if (temp + sizeClass.units > maxPoolSize) {
                 return null;
             }
-            if (currentPoolSize.compareAndSet(temp, temp + 1)) {
+            if (currentPoolSize.compareAndSet(temp, temp + sizeClass.units)) {
                 break;
             }
         }
-        newBuffer = new PooledBuffer(bufferSize, inDirectBufferPool, xaFileSystem);
-        return newBuffer;
+        if (inDirectBufferPool) {
+            return sizeClass.carveSlab(xaFileSystem);
+        }
+        return new PooledBuffer(ByteBuffer.allocate(sizeClass.size), sizeClass.index, null, xaFileSystem);
     }
 
     public void checkIn(PooledBuffer buffer) {
+        if (buffer.getBuffer() == null) {
+            //spilled; the buffer itself stays with its transaction, describing the content on the disk.
+            buffer = new PooledBuffer(buffer.getMemory(), buffer.getSizeClass(), buffer.getArena(), xaFileSystem);
+        }
         buffer.markFree();
+        SizeClass sizeClass = sizeClasses[buffer.getSizeClass()];
+        IdleStack<PooledBuffer> buffers;
+        Magazine magazine;
         if (buffer.isDirect) {
-            directFreeBuffers.offer(buffer);
+            buffers = sizeClass.directFreeBuffers;
+            magazine = sizeClass.directMagazines[getMagazineStripe()];
+        } else {
+            buffers = sizeClass.nonDirectFreeBuffers;
+            magazine = sizeClass.nonDirectMagazines[getMagazineStripe()];
+        }
+        if (magazine.lock.tryLock()) {
+            try {
+                if (magazine.count == MAGAZINE_SIZE) {
+                    magazine.flushHalf(buffers);
+                }
+                magazine.push(buffer);
+            } finally {
+                magazine.lock.unlock();
+            }
         } else {
-            nonDirectFreeBuffers.offer(buffer);
+            buffers.push(buffer);
         }
         buffer.flushByteBufferChanges();
     }
 
+    /*
+     * The number of units of the configured buffer size which the direct buffers of the pool, free or
+     * checked out, take.
+     */
+    public int getCurrentDirectPoolSize() {
+        return currentDirectPoolSize.get();
+    }
+
     public void freeIdleMembers() {
-        freeIdleMembers(true);
-        freeIdleMembers(false);
+        for (int i = 0; i < sizeClasses.length; i++) {
+            freeIdleMembers(sizeClasses[i], true);
+            freeIdleMembers(sizeClasses[i], false);
+        }
     }
 
-    private void freeIdleMembers(boolean inDirectBufferPool) {
+    private void freeIdleMembers(SizeClass sizeClass, boolean inDirectBufferPool) {
         AtomicInteger currentPoolSize;
-        ConcurrentLinkedQueue<PooledBuffer> buffers;
+        IdleStack<PooledBuffer> buffers;
         int bufferIdleTime;
 
         if (inDirectBufferPool) {
             currentPoolSize = currentDirectPoolSize;
             bufferIdleTime = directBufferIdleTime;
-            buffers = directFreeBuffers;
+            buffers = sizeClass.directFreeBuffers;
         } else {
             currentPoolSize = currentNonDirectPoolSize;
             bufferIdleTime = nonDirectBufferIdleTime;
-            buffers = nonDirectFreeBuffers;
+            buffers = sizeClass.nonDirectFreeBuffers;
         }
+        Magazine magazines[] = inDirectBufferPool ? sizeClass.directMagazines : sizeClass.nonDirectMagazines;
         long now = System.currentTimeMillis() / 1000;
-        while (true) {
-            PooledBuffer buffer = buffers.peek();
-            if (buffer == null) {
-                break;
+        for (int i = 0; i < magazines.length; i++) {
+            ArrayList<PooledBuffer> idleBuffers;
+            try {
+                magazines[i].lock.lock();
+                idleBuffers = magazines[i].removeIdle(now - bufferIdleTime);
+            } finally {
+                magazines[i].lock.unlock();
+            }
+            for (PooledBuffer buffer : idleBuffers) {
+                if (inDirectBufferPool) {
+                    sizeClass.retireSlab(buffer);
+                }
+                currentPoolSize.addAndGet(-sizeClass.units);
+            }
+        }
+        PooledBuffer buffer;
+        while ((buffer = buffers.popIdle(now - bufferIdleTime)) != null) {
+            if (inDirectBufferPool) {
+                sizeClass.retireSlab(buffer);
+            }
+            currentPoolSize.addAndGet(-sizeClass.units);
+        }
+    }
+
+    private static int getMagazineStripes() {
+        int stripes = 1;
+        while (stripes < 2 * Runtime.getRuntime().availableProcessors()) {
+            stripes *= 2;
+        }
+        return stripes;
+    }
+
+    private static int getMagazineStripe() {
+        return (int) Thread.currentThread().getId() & (MAGAZINE_STRIPES - 1);
+    }
+
+    private static class SizeClass {
+
+        private final int index;
+        private final int size;
+        private final int units;
+        private final int arenaSize;
+        private final IdleStack<PooledBuffer> directFreeBuffers = new IdleStack<PooledBuffer>();
+        private final IdleStack<PooledBuffer> nonDirectFreeBuffers = new IdleStack<PooledBuffer>();
+        private final Magazine directMagazines[] = new Magazine[MAGAZINE_STRIPES];
+        private final Magazine nonDirectMagazines[] = new Magazine[MAGAZINE_STRIPES];
+        private final ArrayList<SlabArena> arenas = new ArrayList<SlabArena>();
+
+        private SizeClass(int index, int size, int units) {
+            this.index = index;
+            this.size = size;
+            this.units = units;
+            this.arenaSize = Math.max(size, MINIMUM_ARENA_SIZE / size * size);
+            for (int i = 0; i < MAGAZINE_STRIPES; i++) {
+                directMagazines[i] = new Magazine();
+                nonDirectMagazines[i] = new Magazine();
             }
-            if (now - buffer.getLastFreed() > bufferIdleTime) {
-                if (buffers.remove(buffer)) {
-                    currentPoolSize.decrementAndGet();
+        }
+
+        /*
+         * Prefers a slab retired into an arena still in use, then the uncarved part of an arena,
+         * and allocates a new arena only when neither is there.
+         */
+        private synchronized PooledBuffer carveSlab(NativeXAFileSystem xaFileSystem) {
+            SlabArena arena = null;
+            for (SlabArena candidate : arenas) {
+                if (!candidate.retiredSlabs.isEmpty()) {
+                    arena = candidate;
+                    break;
                 }
+                if (arena == null && candidate.memory.remaining() >= size) {
+                    arena = candidate;
+                }
+            }
+            if (arena == null) {
+                arena = new SlabArena(ByteBuffer.allocateDirect(arenaSize));
+                arenas.add(arena);
+            }
+            ByteBuffer slab;
+            if (!arena.retiredSlabs.isEmpty()) {
+                slab = arena.retiredSlabs.remove(arena.retiredSlabs.size() - 1);
             } else {
-                break;
+                ByteBuffer memory = arena.memory;
+                memory.limit(memory.position() + size);
+                slab = memory.slice();
+                memory.position(memory.limit());
+                memory.limit(memory.capacity());
+            }
+            arena.slabsInUse++;
+            return new PooledBuffer(slab, index, arena, xaFileSystem);
+        }
+
+        private synchronized void retireSlab(PooledBuffer buffer) {
+            SlabArena arena = buffer.getArena();
+            arena.slabsInUse--;
+            if (arena.slabsInUse == 0) {
+                //the direct memory of the arena gets freed along with its last slab.
+                arenas.remove(arena);
+            } else {
+                arena.retiredSlabs.add(buffer.getBuffer());
+            }
+        }
+    }
+
+    /*
+     * A stack of free buffers; the most recently checked in buffer is handed out first.
+     */
+    private static class Magazine {
+
+        private final ReentrantLock lock = new ReentrantLock(false);
+        private final PooledBuffer rounds[] = new PooledBuffer[MAGAZINE_SIZE];
+        private int count = 0;
+
+        private void push(PooledBuffer buffer) {
+            rounds[count++] = buffer;
+        }
+
+        private PooledBuffer pop() {
+            if (count == 0) {
+                return null;
+            }
+            PooledBuffer buffer = rounds[--count];
+            rounds[count] = null;
+            return buffer;
+        }
+
+        private void refill(IdleStack<PooledBuffer> buffers) {
+            int refilled = 0;
+            while (refilled < MAGAZINE_SIZE / 2) {
+                PooledBuffer buffer = buffers.pop();
+                if (buffer == null) {
+                    break;
+                }
+                rounds[refilled++] = buffer;
             }
+            //the warmest buffer came first off the free list; it goes on the top here.
+            for (int i = 0; i < refilled / 2; i++) {
+                PooledBuffer temp = rounds[i];
+                rounds[i] = rounds[refilled - 1 - i];
+                rounds[refilled - 1 - i] = temp;
+            }
+            count = refilled;
+        }
+
+        /*
+         * Hands the older half back, keeping the recently used buffers here. These have been idle
+         * longer than the buffers checked in to the free list meanwhile, so they go to its bottom.
+         */
+        private void flushHalf(IdleStack<PooledBuffer> buffers) {
+            int toFlush = count / 2;
+            buffers.pushToBottom(rounds, toFlush);
+            System.arraycopy(rounds, toFlush, rounds, 0, count - toFlush);
+            for (int i = count - toFlush; i < count; i++) {
+                rounds[i] = null;
+            }
+            count -= toFlush;
+        }
+
+        private ArrayList<PooledBuffer> removeIdle(long freedBefore) {
+            ArrayList<PooledBuffer> idleBuffers = new ArrayList<PooledBuffer>(0);
+            int kept = 0;
+            for (int i = 0; i < count; i++) {
+                if (rounds[i].getLastFreed() < freedBefore) {
+                    idleBuffers.add(rounds[i]);
+                } else {
+                    rounds[kept++] = rounds[i];
+                }
+            }
+            for (int i = kept; i < count; i++) {
+                rounds[i] = null;
+            }
+            count = kept;
+            return idleBuffers;
+        }
+    }
+
+    static class SlabArena {
+
+        private final ByteBuffer memory;
+        private final ArrayList<ByteBuffer> retiredSlabs = new ArrayList<ByteBuffer>();
+        private int slabsInUse = 0;
+
+        private SlabArena(ByteBuffer memory) {
+            this.memory = memory;
         }
     }
 }
@@ -0,0 +1,129 @@
+/*
+ * Engineering Ingegneria Informatica S.p.A.
+ *
+ * Copyright (C) 2023 Regione Emilia-Romagna
+ * <p/>
+ * This program is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU Affero General Public License as published by the Free Software Foundation,
+ * either version 3 of the License, or (at your option) any later version.
+ * <p/>
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU Affero General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.xadisk.filesystem.pools;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A free list of pooled resources, used as a stack: the resource checked in last is checked out
+ * first, while it is still warm in the caches, and the resources lying at the bottom are the ones
+ * idle for the longest. These are freed from the bottom, without going through the whole list; the
+ * resources handed back long after they were freed (by the magazines of the buffer pool) are put at
+ * the bottom, to keep this order.
+ * <p> The resources are kept in a circular array, which grows as needed.
+ */
+class IdleStack<R extends PooledResource> {
+
+    private final ReentrantLock lock = new ReentrantLock(false);
+    private Object resources[] = new Object[16];
+    private int bottom = 0;
+    private int count = 0;
+
+    void push(R resource) {
+        try {
+            lock.lock();
+            if (count == resources.length) {
+                grow();
+            }
+            resources[(bottom + count) & (resources.length - 1)] = resource;
+            count++;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /*
+     * Puts the given resources, ordered from the one idle for the longest, below all the others.
+     */
+    void pushToBottom(R coldResources[], int number) {
+        try {
+            lock.lock();
+            while (count + number > resources.length) {
+                grow();
+            }
+            for (int i = number - 1; i >= 0; i--) {
+                bottom = (bottom - 1) & (resources.length - 1);
+                resources[bottom] = coldResources[i];
+                count++;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    R pop() {
+        try {
+            lock.lock();
+            if (count == 0) {
+                return null;
+            }
+            count--;
+            int top = (bottom + count) & (resources.length - 1);
+            //the array is only ever filled through push and pushToBottom, with resources of type R.
+            @SuppressWarnings("unchecked")
+            R resource = (R) resources[top];
+            resources[top] = null;
+            return resource;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /*
+     * Removes and returns the resource at the bottom, if it was freed before the given time (in
+     * seconds); returns null otherwise.
+     */
+    R popIdle(long freedBefore) {
+        try {
+            lock.lock();
+            if (count == 0) {
+                return null;
+            }
+            //the array is only ever filled through push and pushToBottom, with resources of type R.
+            @SuppressWarnings("unchecked")
+            R resource = (R) resources[bottom];
+            if (resource.getLastFreed() >= freedBefore) {
+                return null;
+            }
+            resources[bottom] = null;
+            bottom = (bottom + 1) & (resources.length - 1);
+            count--;
+            return resource;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int size() {
+        try {
+            lock.lock();
+            return count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void grow() {
+        Object grown[] = new Object[resources.length * 2];
+        for (int i = 0; i < count; i++) {
+            grown[i] = resources[(bottom + i) & (resources.length - 1)];
+        }
+        resources = grown;
+        bottom = 0;
+    }
+}
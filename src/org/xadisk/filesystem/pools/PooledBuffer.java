@@ -24,16 +24,31 @@ import org.xadisk.filesystem.NativeXAFileSystem;
 public class PooledBuffer extends Buffer implements PooledResource {
 
     private volatile long lastFreed = -1;
+    private final int sizeClass;
+    private final BufferPool.SlabArena arena;
+    //kept even after the content gets spilled, to go back to the pool.
+    private final ByteBuffer memory;
+    private final NativeXAFileSystem xaFileSystem;
 
-    PooledBuffer(int bufferSize, boolean isDirect, NativeXAFileSystem xaFileSystem) {
-        super(bufferSize, isDirect, xaFileSystem);
+    PooledBuffer(ByteBuffer buffer, int sizeClass, BufferPool.SlabArena arena, NativeXAFileSystem xaFileSystem) {
+        super(buffer, xaFileSystem);
+        this.sizeClass = sizeClass;
+        this.arena = arena;
+        this.memory = buffer;
+        this.xaFileSystem = xaFileSystem;
     }
 
     public void markFree() {
         buffer.clear();
+        resetReferences();
         lastFreed = System.currentTimeMillis() / 1000;
     }
 
+    @Override
+    protected void releaseMemory() {
+        xaFileSystem.getBufferPool().checkIn(this);
+    }
+
     @Override
     public ByteBuffer getBuffer() {
         return buffer;
@@ -42,4 +57,16 @@ public class PooledBuffer extends Buffer implements PooledResource {
     public long getLastFreed() {
         return lastFreed;
     }
+
+    int getSizeClass() {
+        return sizeClass;
+    }
+
+    BufferPool.SlabArena getArena() {
+        return arena;
+    }
+
+    ByteBuffer getMemory() {
+        return memory;
+    }
 }
@@ -18,16 +18,15 @@
 package org.xadisk.filesystem.pools;
 
 import java.io.IOException;
-import java.util.concurrent.ConcurrentLinkedQueue;
 
 public class SelectorPool implements ResourcePool<PooledSelector> {
 
-    private final ConcurrentLinkedQueue<PooledSelector> freeSelectors;
+    private final IdleStack<PooledSelector> freeSelectors;
     private final int idleTime;
 
     public SelectorPool(int idleTime) {
         this.idleTime = idleTime;
-        this.freeSelectors = new ConcurrentLinkedQueue<PooledSelector>();
+        this.freeSelectors = new IdleStack<PooledSelector>();
     }
 
     public PooledSelector checkOut() {
@@ -43,7 +42,7 @@ public class SelectorPool implements ResourcePool<PooledSelector> {
     }
 
     private PooledSelector lookIntoCurrentPool() {
-        PooledSelector freeSelector = freeSelectors.poll();
+        PooledSelector freeSelector = freeSelectors.pop();
         return freeSelector;
     }
 
@@ -60,21 +59,13 @@ public class SelectorPool implements ResourcePool<PooledSelector> {
 
     public void checkIn(PooledSelector selector) {
         selector.markFree();
-        freeSelectors.offer(selector);
+        freeSelectors.push(selector);
     }
 
     public void freeIdleMembers() {
         long now = System.currentTimeMillis() / 1000;
-        while (true) {
-            PooledSelector selector = freeSelectors.peek();
-            if (selector == null) {
-                break;
-            }
-            if (now - selector.getLastFreed() > idleTime) {
-                freeSelectors.remove(selector);
-            } else {
-                break;
-            }
+        while (freeSelectors.popIdle(now - idleTime) != null) {
+            //the idle selector is let go.
         }
     }
 }
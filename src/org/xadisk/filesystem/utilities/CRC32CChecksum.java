@@ -0,0 +1,96 @@
+/*
+ * Engineering Ingegneria Informatica S.p.A.
+ *
+ * Copyright (C) 2023 Regione Emilia-Romagna
+ * <p/>
+ * This program is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU Affero General Public License as published by the Free Software Foundation,
+ * either version 3 of the License, or (at your option) any later version.
+ * <p/>
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU Affero General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.xadisk.filesystem.utilities;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.zip.Checksum;
+
+/**
+ * The CRC-32C (Castagnoli) checksum, computed eight bytes at a time with the "slicing-by-8" tables.
+ * Used to frame the entries of the transaction logs.
+ */
+public class CRC32CChecksum implements Checksum {
+
+    private static final int POLYNOMIAL = 0x82F63B78;
+    private static final int T0[] = new int[256];
+    private static final int T1[] = new int[256];
+    private static final int T2[] = new int[256];
+    private static final int T3[] = new int[256];
+    private static final int T4[] = new int[256];
+    private static final int T5[] = new int[256];
+    private static final int T6[] = new int[256];
+    private static final int T7[] = new int[256];
+
+    static {
+        for (int n = 0; n < 256; n++) {
+            int crc = n;
+            for (int k = 0; k < 8; k++) {
+                crc = (crc & 1) != 0 ? (crc >>> 1) ^ POLYNOMIAL : crc >>> 1;
+            }
+            T0[n] = crc;
+        }
+        int tables[][] = new int[][]{T0, T1, T2, T3, T4, T5, T6, T7};
+        for (int n = 0; n < 256; n++) {
+            int crc = T0[n];
+            for (int t = 1; t < 8; t++) {
+                crc = T0[crc & 0xff] ^ (crc >>> 8);
+                tables[t][n] = crc;
+            }
+        }
+    }
+    private int crc = 0xFFFFFFFF;
+
+    public void update(int b) {
+        crc = T0[(crc ^ b) & 0xff] ^ (crc >>> 8);
+    }
+
+    public void update(byte[] b, int off, int len) {
+        update(ByteBuffer.wrap(b), off, len);
+    }
+
+    /*
+     * Reads the bytes at the given absolute indices; the position, limit and byte order of the
+     * buffer are left untouched.
+     */
+    public void update(ByteBuffer buffer, int offset, int length) {
+        ByteBuffer littleEndian = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        int c = crc;
+        int index = offset;
+        int end = offset + length;
+        while (end - index >= 8) {
+            int low = littleEndian.getInt(index) ^ c;
+            int high = littleEndian.getInt(index + 4);
+            c = T7[low & 0xff] ^ T6[(low >>> 8) & 0xff] ^ T5[(low >>> 16) & 0xff] ^ T4[low >>> 24]
+                    ^ T3[high & 0xff] ^ T2[(high >>> 8) & 0xff] ^ T1[(high >>> 16) & 0xff] ^ T0[high >>> 24];
+            index += 8;
+        }
+        while (index < end) {
+            c = T0[(c ^ littleEndian.get(index++)) & 0xff] ^ (c >>> 8);
+        }
+        crc = c;
+    }
+
+    public long getValue() {
+        return (~crc) & 0xFFFFFFFFL;
+    }
+
+    public void reset() {
+        crc = 0xFFFFFFFF;
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Engineering Ingegneria Informatica S.p.A.
+ *
+ * Copyright (C) 2023 Regione Emilia-Romagna
+ * <p/>
+ * This program is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU Affero General Public License as published by the Free Software Foundation,
+ * either version 3 of the License, or (at your option) any later version.
+ * <p/>
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU Affero General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.xadisk.filesystem.utilities;
+
+import java.io.IOException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * A {@link LogContentCodec} using the "deflate" compression of the JDK, at its fastest level.
+ * Every thread gets its own deflater and inflater, which are reused across calls.
+ */
+public class DeflaterLogContentCodec implements LogContentCodec {
+
+    public static final int CODEC_ID = 1;
+    private final ThreadLocal<Deflater> deflaters = new ThreadLocal<Deflater>() {
+
+        @Override
+        protected Deflater initialValue() {
+            return new Deflater(Deflater.BEST_SPEED, true);
+        }
+    };
+    private final ThreadLocal<Inflater> inflaters = new ThreadLocal<Inflater>() {
+
+        @Override
+        protected Inflater initialValue() {
+            return new Inflater(true);
+        }
+    };
+
+    public int getCodecId() {
+        return CODEC_ID;
+    }
+
+    public int encode(byte source[], int length, byte target[], int targetLength) {
+        Deflater deflater = deflaters.get();
+        deflater.reset();
+        deflater.setInput(source, 0, length);
+        deflater.finish();
+        int encodedLength = 0;
+        while (!deflater.finished()) {
+            if (encodedLength == targetLength) {
+                return -1;
+            }
+            encodedLength += deflater.deflate(target, encodedLength, targetLength - encodedLength);
+        }
+        return encodedLength;
+    }
+
+    public void decode(byte source[], int offset, int length, byte target[]) throws IOException {
+        Inflater inflater = inflaters.get();
+        inflater.reset();
+        //the "nowrap" inflater may need one byte past the compressed data, which the caller leaves room for.
+        inflater.setInput(source, offset, Math.min(length + 1, source.length - offset));
+        try {
+            int decodedLength = 0;
+            while (decodedLength < target.length) {
+                int n = inflater.inflate(target, decodedLength, target.length - decodedLength);
+                if (n == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                decodedLength += n;
+            }
+            if (decodedLength != target.length) {
+                throw new IOException("The content of a transaction log entry could not be decoded completely.");
+            }
+        } catch (DataFormatException dfe) {
+            IOException ioe = new IOException("The content of a transaction log entry could not be decoded.");
+            ioe.initCause(dfe);
+            throw ioe;
+        }
+    }
+}
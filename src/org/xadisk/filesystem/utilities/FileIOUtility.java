@@ -183,6 +183,24 @@ public class FileIOUtility {
         }
     }
 
+    public static void readFromChannel(FileChannel fc, long position, ByteBuffer buffer, int bufferOffset, int num)
+            throws IOException, EOFException {
+        buffer.position(bufferOffset);
+        if (buffer.remaining() < num) {
+            throw new BufferUnderflowException();
+        }
+        buffer.limit(bufferOffset + num);
+        int numRead = 0;
+        int t = 0;
+        while (numRead < num) {
+            t = fc.read(buffer, position + numRead);
+            if (t == -1) {
+                throw new EOFException();
+            }
+            numRead += t;
+        }
+    }
+
     public static void copyFile(File src, File dest, boolean append) throws IOException {
         FileInputStream srcFileInputStream = null;
         FileOutputStream destFileOutputStream = null;
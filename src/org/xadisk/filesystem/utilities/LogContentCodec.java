@@ -0,0 +1,64 @@
+/*
+ * Engineering Ingegneria Informatica S.p.A.
+ *
+ * Copyright (C) 2023 Regione Emilia-Romagna
+ * <p/>
+ * This program is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU Affero General Public License as published by the Free Software Foundation,
+ * either version 3 of the License, or (at your option) any later version.
+ * <p/>
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU Affero General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.xadisk.filesystem.utilities;
+
+import java.io.IOException;
+
+/**
+ * Encodes (typically, compresses) the content of the file append entries of the transaction
+ * logs, and decodes it back. A codec other than the built-in ones can be plugged in by giving the
+ * name of its class as {@link org.xadisk.filesystem.FileSystemConfiguration#getTransactionLogContentCodec()
+ * transactionLogContentCodec}; such a class needs a public no-argument constructor.
+ * <p> A codec is called concurrently by many threads, and must not keep any state across calls
+ * other than what is safe for such use.
+ */
+public interface LogContentCodec {
+
+    /**
+     * Returns the number identifying this codec inside the transaction logs. It must lie between 1
+     * and 15 (both inclusive), and must not be changed once some transaction logs carry it, as these
+     * logs are read back with the codec having that number.
+     * @return the codec number.
+     */
+    public int getCodecId();
+
+    /**
+     * Encodes the given bytes into the target array. The arrays are reused by the caller across calls,
+     * and can be longer than the given lengths.
+     * @param source the array holding the bytes to encode.
+     * @param length the number of bytes to encode, starting from the beginning of source.
+     * @param target the array to encode into.
+     * @param targetLength the number of bytes available for the encoded bytes, starting from the
+     * beginning of target.
+     * @return the number of bytes put into target, or -1 if the encoded bytes do not fit into
+     * targetLength bytes.
+     */
+    public int encode(byte source[], int length, byte target[], int targetLength);
+
+    /**
+     * Decodes the given bytes into the target array, which has exactly the length of the original
+     * bytes. The source array has at least one more byte after the encoded bytes, which can be
+     * used as padding by the codec.
+     * @param source the array holding the encoded bytes.
+     * @param offset the offset of the encoded bytes in source.
+     * @param length the number of encoded bytes.
+     * @param target the array to decode into.
+     * @throws IOException if the encoded bytes are not valid.
+     */
+    public void decode(byte source[], int offset, int length, byte target[]) throws IOException;
+}
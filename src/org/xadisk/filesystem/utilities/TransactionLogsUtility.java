@@ -17,15 +17,60 @@
 
 package org.xadisk.filesystem.utilities;
 
-import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Map;
-import org.xadisk.filesystem.DurableDiskSession;
 import org.xadisk.filesystem.TransactionInformation;
+import org.xadisk.filesystem.workers.TransactionLogSegmentManager;
 
 public class TransactionLogsUtility {
 
+    /*
+     * With more than one log stream, the log index kept in the log positions and in OnDiskInfo carries
+     * the stream id in its high bits; with a single stream (id 0) it is the plain log index as before.
+     */
+    public static final int LOG_STREAM_ID_SHIFT = 24;
+    public static final int MAX_LOG_STREAMS = 1 << (31 - LOG_STREAM_ID_SHIFT);
+    public static final int MAX_LOG_INDEX_IN_STREAM = (1 << LOG_STREAM_ID_SHIFT) - 1;
+
+    public static int getLogIndexAcrossStreams(int streamId, int logIndexInStream) {
+        return (streamId << LOG_STREAM_ID_SHIFT) | logIndexInStream;
+    }
+
+    public static int getLogStreamId(int logIndexAcrossStreams) {
+        return logIndexAcrossStreams >>> LOG_STREAM_ID_SHIFT;
+    }
+
+    public static int getLogIndexInStream(int logIndexAcrossStreams) {
+        return logIndexAcrossStreams & MAX_LOG_INDEX_IN_STREAM;
+    }
+
+    /*
+     * Returns the log index in the stream carried by the name of a transaction log file, or -1 if the
+     * name is not that of a transaction log (e.g. a copy like "xadisk.log_3.bak" left by someone).
+     */
+    public static int getLogIndexInStream(String logFileName, String logFilePrefix) {
+        if (!logFileName.startsWith(logFilePrefix)) {
+            return -1;
+        }
+        return parseNonNegativeNumber(logFileName.substring(logFilePrefix.length()));
+    }
+
+    /*
+     * Returns -1 if the string is not a plain, non-negative decimal number fitting in an int.
+     */
+    public static int parseNonNegativeNumber(String number) {
+        if (number.length() == 0 || number.length() > 9) {
+            return -1;
+        }
+        for (int i = 0; i < number.length(); i++) {
+            if (!Character.isDigit(number.charAt(i))) {
+                return -1;
+            }
+        }
+        return Integer.parseInt(number);
+    }
+
     public static void addLogPositionToTransaction(TransactionInformation xid, int logFileIndex,
             long localPosition, Map<TransactionInformation, ArrayList<Long>> transactionLogPositions) {
         ArrayList<Long> temp = transactionLogPositions.get(xid);
@@ -39,7 +84,7 @@ public class TransactionLogsUtility {
 
     public static void deleteLogsIfPossible(TransactionInformation xid, Map<TransactionInformation, ArrayList<Integer>> transactionsAndLogsOccupied,
             Map<Integer, Integer> transactionLogsAndOpenTransactions, int currentLogIndex,
-            String transactionLogBaseName, DurableDiskSession durableDiskSession) throws IOException {
+            TransactionLogSegmentManager segmentManager) throws IOException {
         ArrayList<Integer> logsOccupied = transactionsAndLogsOccupied.get(xid);
         if (logsOccupied == null) {
             return;
@@ -51,7 +96,7 @@ public class TransactionLogsUtility {
             }
             numTxns--;
             if (numTxns == 0 && currentLogIndex != logFileIndex) {
-                durableDiskSession.deleteFileDurably(new File(transactionLogBaseName + "_" + logFileIndex));
+                segmentManager.retireSegment(logFileIndex);
                 transactionLogsAndOpenTransactions.remove(logFileIndex);
             } else {
                 transactionLogsAndOpenTransactions.put(logFileIndex, numTxns);
@@ -60,10 +105,10 @@ public class TransactionLogsUtility {
     }
 
     public static void deleteLastLogIfPossible(int logFileIndex, Map<Integer, Integer> transactionLogsAndOpenTransactions,
-            String transactionLogBaseName, DurableDiskSession durableDiskSession) throws IOException {
+            TransactionLogSegmentManager segmentManager) throws IOException {
         Integer numTxns = transactionLogsAndOpenTransactions.get(logFileIndex);
         if (numTxns != null && numTxns == 0) {
-            durableDiskSession.deleteFileDurably(new File(transactionLogBaseName + "_" + logFileIndex));
+            segmentManager.retireSegment(logFileIndex);
             transactionLogsAndOpenTransactions.remove(logFileIndex);
         }
     }
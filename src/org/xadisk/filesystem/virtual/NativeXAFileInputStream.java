@@ -49,15 +49,20 @@ public class NativeXAFileInputStream implements XAFileInputStream {
     private final NativeSession owningSession;
     private final ReentrantLock asynchronousRollbackLock;
     private final PooledBuffer pooledBuffer;
+    private final Buffer nonPooledBuffer;
+    private Buffer heldContentBuffer;
 
     public NativeXAFileInputStream(VirtualViewFile vvf, NativeSession owningSession, NativeXAFileSystem xaFileSystem)
             throws FileNotExistsException {
         this.xaFileSystem = xaFileSystem;
-        pooledBuffer = this.xaFileSystem.getBufferPool().checkOut();
+        //a larger buffer for a larger file, so that it is read with fewer calls.
+        pooledBuffer = this.xaFileSystem.getBufferPool().checkOut(vvf.getLength());
         if (pooledBuffer != null) {
+            this.nonPooledBuffer = null;
             this.byteBuffer = pooledBuffer.getBuffer();
         } else {
-            this.byteBuffer = (new Buffer(xaFileSystem.getConfiguredBufferSize(), false, xaFileSystem)).getBuffer();
+            this.nonPooledBuffer = new Buffer(xaFileSystem.getConfiguredBufferSize(), false, xaFileSystem);
+            this.byteBuffer = nonPooledBuffer.getBuffer();
         }
         this.cachedWritableByteBuffer = this.byteBuffer;
         assert cachedWritableByteBuffer != null;//to debug a strange issue where refillBuffer was reporting
@@ -106,8 +111,11 @@ public class NativeXAFileInputStream implements XAFileInputStream {
                 }
             }
             vvf.reduceBeingRead();
+            releaseHeldContentBuffer();
             if (pooledBuffer != null) {
-                xaFileSystem.getBufferPool().checkIn(pooledBuffer);
+                pooledBuffer.release();
+            } else {
+                nonPooledBuffer.release();
             }
             closed = true;
         } finally {
@@ -250,8 +258,16 @@ public class NativeXAFileInputStream implements XAFileInputStream {
         }
     }
 
+    private void releaseHeldContentBuffer() {
+        if (heldContentBuffer != null) {
+            heldContentBuffer.release();
+            heldContentBuffer = null;
+        }
+    }
+
     private int refillBuffer() {
         try {
+            releaseHeldContentBuffer();
             byteBuffer = cachedWritableByteBuffer;
             byteBuffer.clear();
             int numRead = 0;
@@ -287,14 +303,25 @@ public class NativeXAFileInputStream implements XAFileInputStream {
 
             //the only remaining case...
 
-            Buffer newBuffer = vvf.getInMemoryContentBuffer(position);
-            if (newBuffer == null) {
+            Buffer contentBuffer = vvf.getInMemoryContentBuffer(position);
+            if (contentBuffer == null) {
                 byteBuffer.flip();//to cancel the effect of above "clear". (a bug was
                 //reported where after an EOF once, again data started coming.
                 return -1;
             }
-            newBuffer = newBuffer.createReadOnlyClone();
-            if (newBuffer.getBuffer() == null) {
+            Buffer newBuffer = contentBuffer.createReadOnlyClone();
+            if (newBuffer.getBuffer() == null && newBuffer.getContentCodecId() != 0) {
+                //decoded once for the whole content, which is then read from till the stream moves past it.
+                ByteBuffer decodedContent = newBuffer.regenerateDecodedContentFromDisk();
+                //the buffer may cover only a part of the content, as for the last buffer of a truncated file.
+                decodedContent.limit(newBuffer.getFileContentLength());
+                decodedContent.position((int) (position - newBuffer.getFileContentPosition()));
+                this.byteBuffer = decodedContent.slice();
+                position += this.byteBuffer.remaining();
+                filledAtleastOnce = true;
+                this.headerLengthInByteBuffer = 0;
+                return this.byteBuffer.remaining();
+            } else if (newBuffer.getBuffer() == null) {
                 int offsetInNewBuffer = (int) (position - newBuffer.getFileContentPosition());
                 numRead = newBuffer.regenerateContentFromDisk(byteBuffer, offsetInNewBuffer);
                 if (numRead != -1) {
@@ -305,6 +332,11 @@ public class NativeXAFileInputStream implements XAFileInputStream {
                 this.headerLengthInByteBuffer = 0;
                 return numRead;
             } else {
+                //pin the memory until this stream moves on, so that a spill of the content buffer
+                //cannot hand it back to the pool while we are still reading from it.
+                contentBuffer.retain();
+                contentBuffer.markUsed();
+                heldContentBuffer = contentBuffer;
                 this.byteBuffer = newBuffer.getBuffer();
                 int offsetInNewBuffer = (int) (position - newBuffer.getFileContentPosition());
                 this.byteBuffer.position(newBuffer.getHeaderLength() + offsetInNewBuffer);
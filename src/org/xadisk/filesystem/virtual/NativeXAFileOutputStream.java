@@ -28,6 +28,7 @@ import org.xadisk.filesystem.Buffer;
 import org.xadisk.filesystem.NativeSession;
 import org.xadisk.filesystem.NativeXAFileSystem;
 import org.xadisk.filesystem.TransactionLogEntry;
+import org.xadisk.filesystem.TransactionLogEntryEncoder;
 import org.xadisk.filesystem.TransactionInformation;
 import org.xadisk.filesystem.exceptions.ClosedStreamException;
 import org.xadisk.filesystem.exceptions.FileUnderUseException;
@@ -42,20 +43,23 @@ public class NativeXAFileOutputStream implements XAFileOutputStream {
     private final TransactionInformation xid;
     private final GatheringDiskWriter theGatheringDiskWriter;
     private long filePosition;
+    private final long startingFilePosition;
     private boolean closed = false;
     private final VirtualViewFile vvf;
     private final boolean heavyWrite;
     private final NativeSession owningSession;
     private final ReentrantLock asynchronousRollbackLock;
+    private final TransactionLogEntryEncoder logEntryEncoder;
 
     public NativeXAFileOutputStream(VirtualViewFile vvf, TransactionInformation xid, boolean heavyWrite,
             NativeSession owningSession, NativeXAFileSystem xaFileSystem) {
         this.xaFileSystem = xaFileSystem;
         this.destination = vvf.getFileName().getAbsolutePath();
         this.xid = xid;
-        this.theGatheringDiskWriter = this.xaFileSystem.getTheGatheringDiskWriter();
+        this.theGatheringDiskWriter = this.xaFileSystem.getGatheringDiskWriter(xid);
         this.vvf = vvf;
         this.filePosition = vvf.getLength();
+        this.startingFilePosition = filePosition;
         vvf.setBeingWritten(true);
         if (heavyWrite) {
             if (!vvf.isUsingHeavyWriteOptimization()) {
@@ -67,7 +71,17 @@ public class NativeXAFileOutputStream implements XAFileOutputStream {
             }
         }
         this.heavyWrite = vvf.isUsingHeavyWriteOptimization();
-        allocateByteBuffer();
+        this.logEntryEncoder = owningSession.getLogEntryEncoder();
+        if (!this.heavyWrite) {
+            Buffer fileIdDeclaration = logEntryEncoder.declareFileId(destination);
+            if (fileIdDeclaration != null) {
+                theGatheringDiskWriter.submitBuffer(fileIdDeclaration, xid);
+            }
+        }
+        if (this.heavyWrite) {
+            //reused for all the writes; otherwise, each new buffer is allocated by setUpNewBuffer.
+            allocateByteBuffer();
+        }
         setUpNewBuffer();
         this.owningSession = owningSession;
         this.asynchronousRollbackLock = owningSession.getAsynchronousRollbackLock();
@@ -83,6 +97,20 @@ public class NativeXAFileOutputStream implements XAFileOutputStream {
     }
 
     public void write(byte[] b, int off, int len) throws ClosedStreamException, NoTransactionAssociatedException {
+        if (!heavyWrite && xaFileSystem.isBufferMemoryThrottling()) {
+            //the memory may well be held by the waiting transactions themselves, which then give it up.
+            try {
+                asynchronousRollbackLock.lock();
+                checkIfCanContinue();
+                owningSession.spillNonPooledBuffers();
+            } finally {
+                asynchronousRollbackLock.unlock();
+            }
+            //the buffers waiting to be logged can be let go only once logged.
+            theGatheringDiskWriter.writeSubmittedBuffersSoon();
+            //outside the lock, so that a rollback of this transaction need not wait for the admission.
+            xaFileSystem.admitBufferMemoryUse();
+        }
         try {
             asynchronousRollbackLock.lock();
             checkIfCanContinue();
@@ -121,6 +149,10 @@ public class NativeXAFileOutputStream implements XAFileOutputStream {
             asynchronousRollbackLock.lock();
             owningSession.checkIfCanContinue();
             submitBuffer();
+            if (heavyWrite) {
+                //the content has gone to the file, and the buffer was never handed to anyone else.
+                buffer.release();
+            }
             vvf.setBeingWritten(false);
             closed = true;
         } finally {
@@ -128,8 +160,12 @@ public class NativeXAFileOutputStream implements XAFileOutputStream {
         }
     }
 
+    /*
+     * The more this stream has written, the larger the buffer it asks for; its content then goes
+     * into fewer and larger log entries.
+     */
     private void allocateByteBuffer() {
-        buffer = xaFileSystem.getBufferPool().checkOut();
+        buffer = xaFileSystem.getBufferPool().checkOut(filePosition - startingFilePosition);
         if (buffer != null) {
             this.byteBuffer = buffer.getBuffer();
         } else {
@@ -144,10 +180,9 @@ public class NativeXAFileOutputStream implements XAFileOutputStream {
             this.byteBuffer.clear();
         } else {
             allocateByteBuffer();
-            byte temp[] = TransactionLogEntry.getLogEntry(xid, destination, filePosition, 21, TransactionLogEntry.FILE_APPEND);
-            byteBuffer.put(temp);
+            int headerLength = logEntryEncoder.putFileAppendHeader(byteBuffer, destination, filePosition, 21);
             buffer.setFileContentPosition(filePosition);
-            buffer.setHeaderLength(temp.length);
+            buffer.setHeaderLength(headerLength);
         }
     }
 
@@ -163,6 +198,7 @@ public class NativeXAFileOutputStream implements XAFileOutputStream {
                 byteBuffer.flip();
                 vvf.appendContentBuffer(buffer);
                 theGatheringDiskWriter.submitBuffer(buffer, xid);
+                owningSession.spillBuffersOverQuota();
             }
         } catch (IOException ioe) {
             xaFileSystem.notifySystemFailure(ioe);
@@ -18,7 +18,6 @@
 package org.xadisk.filesystem.virtual;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
@@ -29,6 +28,7 @@ import org.xadisk.filesystem.Buffer;
 import org.xadisk.filesystem.DurableDiskSession;
 import org.xadisk.filesystem.NativeXAFileSystem;
 import org.xadisk.filesystem.OnDiskInfo;
+import org.xadisk.filesystem.TransactionLogChannelCache;
 import org.xadisk.filesystem.TransactionLogEntry;
 import org.xadisk.filesystem.TransactionInformation;
 
@@ -172,33 +172,54 @@ public class VirtualViewFile {
         usingHeavyWriteOptimization = true;
         safePhysicalTruncate(mappedToThePhysicalFileTill);
         ByteBuffer temp;
+        TransactionLogChannelCache logChannelCache = xaFileSystem.getTransactionLogChannelCache();
         HashMap<Integer, FileChannel> logChannels = new HashMap<Integer, FileChannel>(2);
         long positionOfAppending = fileViewChannel.size();
-        for (Buffer vvCB : virtualViewContentBuffers) {
-            Buffer srcClone = vvCB.createReadOnlyClone();
-            temp = srcClone.getBuffer();
-            if (temp == null) {
-                OnDiskInfo onDiskInfo = srcClone.getOnDiskInfo();
-                int logIndex = onDiskInfo.getLogIndex();
-                FileChannel logFileChannel = logChannels.get(logIndex);
-                if (logFileChannel == null) {
-                    logFileChannel = new FileInputStream(xaFileSystem.getTransactionLogFileBaseName() + "_"
-                            + srcClone.getOnDiskInfo().getLogIndex()).getChannel();
-                    logChannels.put(logIndex, logFileChannel);
-                }
-                logFileChannel.position(onDiskInfo.getLocation() + srcClone.getHeaderLength());
-                fileViewChannel.transferFrom(logFileChannel, srcClone.getFileContentPosition(),
-                        NativeXAFileSystem.maxTransferToChannel(srcClone.getFileContentLength()));
-            } else {
-                temp.position(srcClone.getHeaderLength());
-                int sizeToWrite = temp.remaining();
-                int num = 0;
-                while (num < sizeToWrite) {
-                    num += fileViewChannel.write(temp);
+        try {
+            for (Buffer vvCB : virtualViewContentBuffers) {
+                Buffer srcClone = vvCB.createReadOnlyClone();
+                temp = srcClone.getBuffer();
+                if (temp == null) {
+                    OnDiskInfo onDiskInfo = srcClone.getOnDiskInfo();
+                    int logIndex = onDiskInfo.getLogIndex();
+                    FileChannel logFileChannel = logChannels.get(logIndex);
+                    if (logFileChannel == null) {
+                        logFileChannel = logChannelCache.acquireChannel(logIndex);
+                        logChannels.put(logIndex, logFileChannel);
+                    }
+                    if (srcClone.getContentCodecId() != 0) {
+                        ByteBuffer content = TransactionLogEntry.readDecodedContent(logFileChannel, onDiskInfo.getLocation(),
+                                xaFileSystem.getLogContentCodec(srcClone.getContentCodecId()));
+                        long num = 0;
+                        while (content.hasRemaining()) {
+                            num += fileViewChannel.write(content, srcClone.getFileContentPosition() + num);
+                        }
+                    } else {
+                        //the log channel is shared, so it is read only at explicit positions.
+                        long contentLocation = onDiskInfo.getLocation() + srcClone.getHeaderLength();
+                        long contentLength = srcClone.getFileContentLength();
+                        fileViewChannel.position(srcClone.getFileContentPosition());
+                        long num = 0;
+                        while (num < contentLength) {
+                            num += logFileChannel.transferTo(contentLocation + num,
+                                    NativeXAFileSystem.maxTransferToChannel(contentLength - num), fileViewChannel);
+                        }
+                    }
+                } else {
+                    temp.position(srcClone.getHeaderLength());
+                    int sizeToWrite = temp.remaining();
+                    int num = 0;
+                    while (num < sizeToWrite) {
+                        num += fileViewChannel.write(temp);
+                    }
                 }
+                positionOfAppending += srcClone.getFileContentLength();
+                fileViewChannel.position(positionOfAppending);
+            }
+        } finally {
+            for (Integer logIndex : logChannels.keySet()) {
+                logChannelCache.releaseChannel(logIndex);
             }
-            positionOfAppending += srcClone.getFileContentLength();
-            fileViewChannel.position(positionOfAppending);
         }
         virtualViewContentBuffers.clear();
         mappedToThePhysicalFileTill = -1;
@@ -217,7 +238,7 @@ public class VirtualViewFile {
         }
         ByteBuffer logEntryHeader = ByteBuffer.wrap(TransactionLogEntry.getLogEntry(xid, fileName.getAbsolutePath(),
                 originalPhysicalFileSize, TransactionLogEntry.UNDOABLE_FILE_APPEND));
-        xaFileSystem.getTheGatheringDiskWriter().forceUndoLogAndData(xid, logEntryHeader, null, -1, -1);
+        xaFileSystem.getGatheringDiskWriter(xid).forceUndoLogAndData(xid, logEntryHeader, null, -1, -1);
     }
 
     private void safePhysicalTruncate(long newLength) throws IOException {
@@ -236,7 +257,7 @@ public class VirtualViewFile {
             ByteBuffer logEntryHeader = ByteBuffer.wrap(TransactionLogEntry.getLogEntry(xid, fileName.getAbsolutePath(),
                     newLength, lengthOfContentToBackUp,
                     TransactionLogEntry.UNDOABLE_FILE_TRUNCATE));
-            long logInfo[] = xaFileSystem.getTheGatheringDiskWriter().forceUndoLogAndData(xid, logEntryHeader, fileViewChannel,
+            long logInfo[] = xaFileSystem.getGatheringDiskWriter(xid).forceUndoLogAndData(xid, logEntryHeader, fileViewChannel,
                     newLength, lengthOfContentToBackUp);
             OnDiskInfo truncatedContentsFromLogs = new OnDiskInfo((int) logInfo[0], logInfo[1]);
             Buffer buffer = new Buffer(xaFileSystem);
@@ -244,6 +265,7 @@ public class VirtualViewFile {
             buffer.setFileContentLength(lengthOfContentToBackUp);
             buffer.setHeaderLength(logInfo.length);
             buffer.makeOnDisk(truncatedContentsFromLogs);
+            xid.getOwningSession().addOnDiskBufferToTransaction(buffer);
             for (VirtualViewFile fileCopy : fileCopies) {
                 fileCopy.updatePhysicalContents(buffer, newLength);
             }
@@ -329,7 +351,7 @@ public class VirtualViewFile {
         }
         if (needToTruncatePartially) {
             Buffer partiallyTruncatedBuffer = virtualViewContentBuffers.get(removeCompleteBuffersFromIndex - 1);
-            Buffer virtualCopy = partiallyTruncatedBuffer.createReadOnlyClone();
+            Buffer virtualCopy = partiallyTruncatedBuffer.createVirtualCopy();
             int effectiveContentLengthInBuffer = (int) (newLength - virtualCopy.getFileContentPosition());
             virtualCopy.setFileContentLength(effectiveContentLengthInBuffer);
             virtualViewContentBuffers.set(removeCompleteBuffersFromIndex - 1, virtualCopy);
@@ -380,7 +402,7 @@ public class VirtualViewFile {
         ByteBuffer logEntryHeader = ByteBuffer.wrap(TransactionLogEntry.getLogEntry(xid, sourceFile.getAbsolutePath(),
                 destFile.getAbsolutePath(),
                 TransactionLogEntry.FILE_SPECIAL_MOVE));
-        xaFileSystem.getTheGatheringDiskWriter().submitBuffer(new Buffer(logEntryHeader, xaFileSystem), xid);
+        xaFileSystem.getGatheringDiskWriter(xid).submitBuffer(new Buffer(logEntryHeader, xaFileSystem), xid);
     }
 
     public void forceAndFreePhysicalChannel() {
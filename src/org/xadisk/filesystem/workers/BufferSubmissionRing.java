@@ -0,0 +1,137 @@
+/*
+ * Engineering Ingegneria Informatica S.p.A.
+ *
+ * Copyright (C) 2023 Regione Emilia-Romagna
+ * <p/>
+ * This program is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU Affero General Public License as published by the Free Software Foundation,
+ * either version 3 of the License, or (at your option) any later version.
+ * <p/>
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU Affero General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.xadisk.filesystem.workers;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import org.xadisk.filesystem.Buffer;
+import org.xadisk.filesystem.TransactionInformation;
+
+/**
+ * A bounded ring of (xid, buffer) slots with many producers (the sessions submitting their
+ * log buffers) and a single consumer at a time (whoever holds the transaction log lock of the
+ * {@link GatheringDiskWriter}).
+ * <p> Every slot carries a sequence number; a producer claims a position by a CAS on the tail
+ * and publishes the slot by advancing its sequence, and the consumer frees the slot for the
+ * next round by advancing the sequence once more. No node is allocated per submission.
+ * <p> Each slot also keeps the time of its submission, which bounds how long the oldest buffer
+ * left in the ring has been waiting.
+ */
+class BufferSubmissionRing {
+
+    private final int capacity;
+    private final int mask;
+    private final TransactionInformation xids[];
+    private final Buffer buffers[];
+    private final long submissionTimes[];
+    private final AtomicLongArray sequences;
+    private final AtomicLong tail = new AtomicLong(0);
+    private volatile long head = 0;
+
+    BufferSubmissionRing(int requestedCapacity) {
+        int size = 2;
+        while (size < requestedCapacity) {
+            size <<= 1;
+        }
+        this.capacity = size;
+        this.mask = size - 1;
+        this.xids = new TransactionInformation[size];
+        this.buffers = new Buffer[size];
+        this.submissionTimes = new long[size];
+        this.sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+    }
+
+    int getCapacity() {
+        return capacity;
+    }
+
+    boolean offer(TransactionInformation xid, Buffer buffer) {
+        long position = tail.get();
+        while (true) {
+            int index = (int) (position & mask);
+            long difference = sequences.get(index) - position;
+            if (difference == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    xids[index] = xid;
+                    buffers[index] = buffer;
+                    submissionTimes[index] = System.nanoTime();
+                    sequences.set(index, position + 1);
+                    return true;
+                }
+                position = tail.get();
+            } else if (difference < 0) {
+                return false;
+            } else {
+                position = tail.get();
+            }
+        }
+    }
+
+    long getTailPosition() {
+        return tail.get();
+    }
+
+    /*
+     * Returns the submission time of the oldest slot left in the ring; or the given time if that slot
+     * is not published yet (its submission is then in progress). Called by the consumer.
+     */
+    long getOldestSubmissionTime(long submissionInProgressTime) {
+        long position = head;
+        int index = (int) (position & mask);
+        if (sequences.get(index) != position + 1) {
+            return submissionInProgressTime;
+        }
+        return submissionTimes[index];
+    }
+
+    boolean isEmpty() {
+        return head == tail.get();
+    }
+
+    /*
+     * Moves the published slots into the given arrays, starting at the head. If drainUptoPosition
+     * is non-negative, slots before that position which are claimed but not yet published are
+     * waited for, so that everything submitted before the position was taken gets drained.
+     */
+    int drainTo(TransactionInformation xidsOut[], Buffer buffersOut[], long drainUptoPosition) {
+        long position = head;
+        int count = 0;
+        while (count < xidsOut.length) {
+            int index = (int) (position & mask);
+            if (sequences.get(index) != position + 1) {
+                if (position < drainUptoPosition) {
+                    Thread.yield();
+                    continue;
+                }
+                break;
+            }
+            xidsOut[count] = xids[index];
+            buffersOut[count] = buffers[index];
+            xids[index] = null;
+            buffers[index] = null;
+            sequences.set(index, position + capacity);
+            position++;
+            count++;
+        }
+        head = position;
+        return count;
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Engineering Ingegneria Informatica S.p.A.
+ *
+ * Copyright (C) 2023 Regione Emilia-Romagna
+ * <p/>
+ * This program is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU Affero General Public License as published by the Free Software Foundation,
+ * either version 3 of the License, or (at your option) any later version.
+ * <p/>
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU Affero General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.xadisk.filesystem.workers;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import org.xadisk.filesystem.NativeXAFileSystem;
+
+/**
+ * Writes the transaction log through the write calls on its {@link FileChannel}.
+ */
+class ChannelLogAppender implements TransactionLogAppender {
+
+    private final FileChannel logChannel;
+
+    ChannelLogAppender(FileChannel logChannel) {
+        this.logChannel = logChannel;
+    }
+
+    public long position() throws IOException {
+        return logChannel.position();
+    }
+
+    public long write(ByteBuffer srcs[], int offset, int length) throws IOException {
+        return logChannel.write(srcs, offset, length);
+    }
+
+    public long write(ByteBuffer src) throws IOException {
+        return logChannel.write(src);
+    }
+
+    public long append(FileChannel source, long sourcePosition, long count) throws IOException {
+        long startingPosition = logChannel.position();
+        long n = 0;
+        source.position(sourcePosition);
+        while (n < count) {
+            n += logChannel.transferFrom(source, startingPosition + n,
+                    NativeXAFileSystem.maxTransferToChannel(count - n));
+        }
+        logChannel.position(startingPosition + n);
+        return n;
+    }
+
+    public void force() throws IOException {
+        logChannel.force(false);
+    }
+
+    public void close() throws IOException {
+        logChannel.close();
+    }
+}
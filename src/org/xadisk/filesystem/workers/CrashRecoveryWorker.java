@@ -18,17 +18,24 @@
 package org.xadisk.filesystem.workers;
 
 import org.xadisk.filesystem.utilities.FileIOUtility;
-import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 import javax.resource.spi.work.Work;
+import javax.resource.spi.work.WorkException;
 import javax.resource.spi.work.WorkManager;
 import org.xadisk.connector.inbound.EndPointActivation;
 import org.xadisk.filesystem.DurableDiskSession;
@@ -37,14 +44,14 @@ import org.xadisk.filesystem.NativeSession;
 import org.xadisk.filesystem.NativeXAFileSystem;
 import org.xadisk.filesystem.TransactionLogEntry;
 import org.xadisk.filesystem.TransactionInformation;
-import org.xadisk.filesystem.exceptions.NoTransactionAssociatedException;
 import org.xadisk.filesystem.utilities.TransactionLogsUtility;
 
 public class CrashRecoveryWorker implements Work {
 
     private final NativeXAFileSystem xaFileSystem;
     private final HashMap<TransactionInformation, ArrayList<Long>> transactionLogPositions = new HashMap<TransactionInformation, ArrayList<Long>>(1000);
-    private final HashMap<Integer, FileChannel> logChannels = new HashMap<Integer, FileChannel>(5);
+    //sorted, so that the logs of each stream are read in the order they were written.
+    private final TreeMap<Integer, FileChannel> logChannels = new TreeMap<Integer, FileChannel>();
     private final HashSet<TransactionInformation> preparedInDoubtTransactions = new HashSet<TransactionInformation>(1000);
     private final HashSet<TransactionInformation> onePhaseCommittingTransactions = new HashSet<TransactionInformation>(1000);
     private final HashSet<TransactionInformation> heavyWriteTransactionsForRollback = new HashSet<TransactionInformation>(1000);
@@ -58,26 +65,47 @@ public class CrashRecoveryWorker implements Work {
             new ArrayList<FileSystemStateChangeEvent>(1000);
     private final ArrayList<FileSystemStateChangeEvent> eventsDequeueCommitted = new ArrayList<FileSystemStateChangeEvent>(1000);
     private final HashMap<TransactionInformation, FileSystemStateChangeEvent> eventsDequeuePrepared = new HashMap<TransactionInformation, FileSystemStateChangeEvent>(1000);
+    private final HashMap<TransactionInformation, HashMap<Integer, String>> transactionsDeclaredFileNames =
+            new HashMap<TransactionInformation, HashMap<Integer, String>>(1000);
     private final HashMap<TransactionInformation, Integer> transactionsLatestCheckPoint = new HashMap<TransactionInformation, Integer>(1000);
+    //what the transactions to recover touch, as found by the scans; the file numbers are resolved when scheduling.
+    private final HashMap<TransactionInformation, HashSet<String>> transactionsFilesTouched =
+            new HashMap<TransactionInformation, HashSet<String>>(1000);
+    private final HashMap<TransactionInformation, HashSet<Integer>> transactionsFileIdsTouched =
+            new HashMap<TransactionInformation, HashSet<Integer>>(1000);
+    private final HashMap<TransactionInformation, Long> transactionsBytesToReplay = new HashMap<TransactionInformation, Long>(1000);
     private final ArrayList<EndPointActivation> remoteActivations = new ArrayList<EndPointActivation>();
     private final AtomicInteger distanceFromRecoveryCompletion = new AtomicInteger(0);
+    private volatile RecoveryScheduler recoveryScheduler;
 
     public CrashRecoveryWorker(NativeXAFileSystem xaFileSystem) {
         this.xaFileSystem = xaFileSystem;
     }
 
     private void collectLogFileNamesToProcess() throws IOException {
-        String logsDir = xaFileSystem.getTransactionLogsDir();
-        String logNames[] = FileIOUtility.listDirectoryContents(new File(logsDir));
-
-        for (int i = 0; i < logNames.length; i++) {
-            int logIndex = Integer.parseInt(logNames[i].split("_")[1]);
-            logChannels.put(logIndex, new FileInputStream(logsDir + File.separator + logNames[i]).getChannel());
+        for (TransactionLogSegmentManager segmentManager : xaFileSystem.getTransactionLogSegmentManagers()) {
+            File logsDir = segmentManager.getLogsDirectory();
+            String logFilePrefix = segmentManager.getLogFilePrefix();
+            String logNames[] = FileIOUtility.listDirectoryContents(logsDir);
+
+            for (int i = 0; i < logNames.length; i++) {
+                int logIndexInStream = TransactionLogsUtility.getLogIndexInStream(logNames[i], logFilePrefix);
+                if (logIndexInStream == -1) {
+                    continue;
+                }
+                int logIndex = TransactionLogsUtility.getLogIndexAcrossStreams(segmentManager.getStreamId(),
+                        logIndexInStream);
+                logChannels.put(logIndex, new FileInputStream(new File(logsDir, logNames[i])).getChannel());
+            }
         }
     }
 
     public void release() {
         released = true;
+        RecoveryScheduler scheduler = recoveryScheduler;
+        if (scheduler != null) {
+            scheduler.release();
+        }
     }
 
     private void cleanLogFiles() throws IOException {
@@ -86,7 +114,7 @@ public class CrashRecoveryWorker implements Work {
             int logIndex = (Integer) iter.next();
             FileChannel logFC = (FileChannel) logChannels.get(logIndex);
             logFC.close();
-            xaFileSystem.createDurableDiskSession().deleteFileDurably(new File(xaFileSystem.getTransactionLogFileBaseName() + "_" + logIndex));
+            xaFileSystem.getTransactionLogSegmentManager(logIndex).retireSegment(logIndex);
         }
     }
 
@@ -101,17 +129,18 @@ public class CrashRecoveryWorker implements Work {
         //by the worker thread; but that is not a problem as the worker thread would be created after
         //completion of this method; so changes would be reflected across probable different "processors".
         collectLogFileNamesToProcess();
-        for (FileChannel logCh : logChannels.values()) {
-            if (released) {
-                return;
-            }
-            findInCompleteTransactions(logCh.position(0));
+        ArrayList<TransactionLogScan> logScans = scanLogs();
+        if (released) {
+            return;
         }
-        for (Integer logIndex : logChannels.keySet()) {
-            if (released) {
-                return;
+        //the logs are scanned independently; what they tell is merged here in the order they were written.
+        for (TransactionLogScan logScan : logScans) {
+            for (TransactionLogEntry logEntry : logScan.getCompletionEntries()) {
+                findInCompleteTransactions(logEntry);
             }
-            collectTransactionLogPositions(logChannels.get(logIndex).position(0), logIndex);
+        }
+        for (TransactionLogScan logScan : logScans) {
+            collectTransactionLogPositions(logScan);
         }
 
         distanceFromRecoveryCompletion.set(preparedInDoubtTransactions.size()
@@ -122,9 +151,15 @@ public class CrashRecoveryWorker implements Work {
     public void run() {
         try {
             registerRemoteEndpoints();
-            recoverOnePhaseTransactions();
-            recoverHeavyWriteTransactionsForRollback();
+            //before any transaction gets completed, as the last completion may finish the recovery.
             prepareEventsToPopulate();
+            RecoveryScheduler scheduler = new RecoveryScheduler(xaFileSystem.getRecoveryParallelism(), xaFileSystem);
+            scheduleTransactions(scheduler);
+            recoveryScheduler = scheduler;
+            if (released) {
+                return;
+            }
+            scheduler.runAll();
             checkForRecoveryDone();
         } catch (Throwable t) {
             xaFileSystem.notifySystemFailure(t);
@@ -142,102 +177,159 @@ public class CrashRecoveryWorker implements Work {
         }
     }
 
-    private void findInCompleteTransactions(FileChannel logFC) throws IOException {
-        TransactionLogEntry logEntry = null;
-        while (true) {
+    private ArrayList<TransactionLogScan> scanLogs() throws IOException {
+        ArrayList<TransactionLogScan> logScans = new ArrayList<TransactionLogScan>(logChannels.size());
+        for (Integer logIndex : logChannels.keySet()) {
+            logScans.add(new TransactionLogScan(logIndex));
+        }
+        LogScanner logScanner = new LogScanner(logScans);
+        int otherScanners = Math.min(xaFileSystem.getRecoveryLogScanParallelism(), logScans.size()) - 1;
+        for (int i = 0; i < otherScanners; i++) {
             try {
-                logEntry = TransactionLogEntry.getNextTransactionLogEntry(logFC,
-                        logFC.position(), false);
-            } catch (EOFException eofe) {
-                return;
-            }
-            if (logEntry == null) {
-                continue;
-            }
-            byte operationType = logEntry.getOperationType();
-            TransactionInformation xid = logEntry.getXid();
-            switch (operationType) {
-                case TransactionLogEntry.COMMIT_BEGINS:
-                    onePhaseCommittingTransactions.add(xid);
-                    preparedInDoubtTransactions.remove(xid);
-                    heavyWriteTransactionsForRollback.remove(xid);
-                    eventsDequeuePrepared.remove(xid);
-                    break;
-                case TransactionLogEntry.TXN_COMMIT_DONE:
-                    onePhaseCommittingTransactions.remove(xid);
-                    preparedInDoubtTransactions.remove(xid);
-                    heavyWriteTransactionsForRollback.remove(xid);
-                    committedTransactions.add(xid);
-                    eventsDequeuePrepared.remove(xid);
-                    ArrayList<FileSystemStateChangeEvent> events = eventsEnqueuePreparedOnly.remove(xid);
-                    if (events != null) {
-                        eventsEnqueueCommittedNotDequeued.addAll(events);
-                    }
-                    break;
-                case TransactionLogEntry.TXN_ROLLBACK_DONE:
-                    onePhaseCommittingTransactions.remove(xid);
-                    preparedInDoubtTransactions.remove(xid);
-                    heavyWriteTransactionsForRollback.remove(xid);
-                    eventsDequeuePrepared.remove(xid);
-                    eventsEnqueuePreparedOnly.remove(xid);
-                    break;
-                case TransactionLogEntry.PREPARE_COMPLETES:
-                    preparedInDoubtTransactions.add(xid);
-                    heavyWriteTransactionsForRollback.remove(xid);
-                    break;
-                case TransactionLogEntry.TXN_USES_UNDO_LOGS:
-                    heavyWriteTransactionsForRollback.add(xid);
-                    break;
-                case TransactionLogEntry.EVENT_ENQUEUE:
-                    eventsEnqueuePreparedOnly.put(xid, logEntry.getEventList());
-                    break;
-                case TransactionLogEntry.EVENT_DEQUEUE:
-                    eventsDequeueCommitted.add(logEntry.getEventList().get(0));
-                    break;
-                case TransactionLogEntry.PREPARE_COMPLETES_FOR_EVENT_DEQUEUE:
-                    eventsDequeuePrepared.put(xid, logEntry.getEventList().get(0));
-                    break;
-                case TransactionLogEntry.REMOTE_ENDPOINT_ACTIVATES:
-                    //we need not preserve the txn logs for these entries because we are now calling
-                    //the epActivation again, so another log will get created.
-                    remoteActivations.add(logEntry.getRemoteActivation(xaFileSystem));
-                    break;
-                case TransactionLogEntry.REMOTE_ENDPOINT_DEACTIVATES:
-                    remoteActivations.remove(logEntry.getRemoteActivation(xaFileSystem));
-                    break;
+                xaFileSystem.startWork(logScanner);
+            } catch (WorkException we) {
+                //the booting thread scans the remaining logs itself.
+                break;
             }
         }
+        logScanner.scanLogsAndWait();
+        return logScans;
     }
 
-    private void collectTransactionLogPositions(FileChannel logFC, int logIndex)
-            throws IOException {
-        TransactionLogEntry logEntry = null;
-        while (true) {
-            long filePositionAtBuffersBeginning = logFC.position();
-            try {
-                logEntry = TransactionLogEntry.getNextTransactionLogEntry(logFC,
-                        filePositionAtBuffersBeginning, false);
-            } catch (EOFException oefe) {
-                return;
-            }
-            TransactionInformation xid = logEntry.getXid();
-            if (onePhaseCommittingTransactions.contains(xid) || preparedInDoubtTransactions.contains(xid)) {
-                if (logEntry.isRedoLogEntry() || logEntry.isUndoLogEntry()) {
-                    addLogPositionToTransaction(xid, logIndex, filePositionAtBuffersBeginning);
+    private void findInCompleteTransactions(TransactionLogEntry logEntry) {
+        byte operationType = logEntry.getOperationType();
+        TransactionInformation xid = logEntry.getXid();
+        switch (operationType) {
+            case TransactionLogEntry.COMMIT_BEGINS:
+                onePhaseCommittingTransactions.add(xid);
+                preparedInDoubtTransactions.remove(xid);
+                heavyWriteTransactionsForRollback.remove(xid);
+                eventsDequeuePrepared.remove(xid);
+                break;
+            case TransactionLogEntry.TXN_COMMIT_DONE:
+                onePhaseCommittingTransactions.remove(xid);
+                preparedInDoubtTransactions.remove(xid);
+                heavyWriteTransactionsForRollback.remove(xid);
+                committedTransactions.add(xid);
+                eventsDequeuePrepared.remove(xid);
+                ArrayList<FileSystemStateChangeEvent> events = eventsEnqueuePreparedOnly.remove(xid);
+                if (events != null) {
+                    eventsEnqueueCommittedNotDequeued.addAll(events);
                 }
-                if (logEntry.getOperationType() == TransactionLogEntry.CHECKPOINT_AVOIDING_COPY_OR_MOVE_REDO) {
-                    updateTransactionsLatestCheckPoint(xid, logEntry.getCheckPointPosition());
+                break;
+            case TransactionLogEntry.TXN_ROLLBACK_DONE:
+                onePhaseCommittingTransactions.remove(xid);
+                preparedInDoubtTransactions.remove(xid);
+                heavyWriteTransactionsForRollback.remove(xid);
+                eventsDequeuePrepared.remove(xid);
+                eventsEnqueuePreparedOnly.remove(xid);
+                break;
+            case TransactionLogEntry.PREPARE_COMPLETES:
+                preparedInDoubtTransactions.add(xid);
+                heavyWriteTransactionsForRollback.remove(xid);
+                break;
+            case TransactionLogEntry.TXN_USES_UNDO_LOGS:
+                heavyWriteTransactionsForRollback.add(xid);
+                break;
+            case TransactionLogEntry.EVENT_ENQUEUE:
+                eventsEnqueuePreparedOnly.put(xid, logEntry.getEventList());
+                break;
+            case TransactionLogEntry.EVENT_DEQUEUE:
+                eventsDequeueCommitted.add(logEntry.getEventList().get(0));
+                break;
+            case TransactionLogEntry.PREPARE_COMPLETES_FOR_EVENT_DEQUEUE:
+                eventsDequeuePrepared.put(xid, logEntry.getEventList().get(0));
+                break;
+            case TransactionLogEntry.REMOTE_ENDPOINT_ACTIVATES:
+                //we need not preserve the txn logs for these entries because we are now calling
+                //the epActivation again, so another log will get created.
+                remoteActivations.add(logEntry.getRemoteActivation(xaFileSystem));
+                break;
+            case TransactionLogEntry.REMOTE_ENDPOINT_DEACTIVATES:
+                remoteActivations.remove(logEntry.getRemoteActivation(xaFileSystem));
+                break;
+        }
+    }
+
+    /*
+     * Keeps, out of the candidates found in a log, those of the transactions which are to be recovered.
+     */
+    private void collectTransactionLogPositions(TransactionLogScan logScan) {
+        for (Map.Entry<TransactionInformation, TransactionLogScan.TransactionInLog> openTransaction
+                : logScan.getOpenTransactions().entrySet()) {
+            TransactionInformation xid = openTransaction.getKey();
+            TransactionLogScan.TransactionInLog transaction = openTransaction.getValue();
+            if (transaction.isCompacted()) {
+                //what was collected for it from the earlier logs has been copied into this log.
+                transactionLogPositions.remove(xid);
+                transactionsLatestCheckPoint.remove(xid);
+                transactionsAndFilesWithLatestViewOnDisk.remove(xid);
+                transactionsDeclaredFileNames.remove(xid);
+                transactionsFilesTouched.remove(xid);
+                transactionsFileIdsTouched.remove(xid);
+                transactionsBytesToReplay.remove(xid);
+            }
+            boolean toComplete = onePhaseCommittingTransactions.contains(xid)
+                    || preparedInDoubtTransactions.contains(xid);
+            boolean toRollback = heavyWriteTransactionsForRollback.contains(xid);
+            if (!toComplete && !toRollback) {
+                continue;
+            }
+            for (Long candidatePosition : transaction.getCandidatePositions()) {
+                boolean undoLogEntry = candidatePosition >= 0;
+                if (toComplete || undoLogEntry) {
+                    long position = undoLogEntry ? candidatePosition : -candidatePosition - 1;
+                    addLogPositionToTransaction(xid, logScan.getLogIndex(), position);
                 }
-                if (logEntry.getOperationType() == TransactionLogEntry.FILES_ALREADY_ONDISK) {
-                    transactionsAndFilesWithLatestViewOnDisk.put(xid, logEntry.getFileList());
+            }
+            addFilesAndBytesToTransaction(xid, transaction, toComplete);
+            if (!toComplete) {
+                continue;
+            }
+            if (transaction.getLatestCheckPoint() != -1) {
+                updateTransactionsLatestCheckPoint(xid, transaction.getLatestCheckPoint());
+            }
+            if (transaction.getFilesWithLatestViewOnDisk() != null) {
+                transactionsAndFilesWithLatestViewOnDisk.put(xid, transaction.getFilesWithLatestViewOnDisk());
+            }
+            if (transaction.getDeclaredFileNames() != null) {
+                HashMap<Integer, String> declaredFileNames = transactionsDeclaredFileNames.get(xid);
+                if (declaredFileNames == null) {
+                    declaredFileNames = new HashMap<Integer, String>();
+                    transactionsDeclaredFileNames.put(xid, declaredFileNames);
                 }
+                declaredFileNames.putAll(transaction.getDeclaredFileNames());
             }
-            if (heavyWriteTransactionsForRollback.contains(xid)) {
-                if (logEntry.isUndoLogEntry()) {
-                    addLogPositionToTransaction(xid, logIndex, filePositionAtBuffersBeginning);
+        }
+    }
+
+    /*
+     * Keeps, along with the log positions collected from a log, the files touched by these log entries
+     * and the bytes these replay.
+     */
+    private void addFilesAndBytesToTransaction(TransactionInformation xid, TransactionLogScan.TransactionInLog transaction,
+            boolean toComplete) {
+        HashSet<String> filesTouched = transactionsFilesTouched.get(xid);
+        if (filesTouched == null) {
+            filesTouched = new HashSet<String>();
+            transactionsFilesTouched.put(xid, filesTouched);
+        }
+        filesTouched.addAll(transaction.getUndoFileNames());
+        long bytesToReplay = transaction.getUndoTruncatedBytes();
+        if (toComplete) {
+            filesTouched.addAll(transaction.getRedoFileNames());
+            if (!transaction.getRedoFileIds().isEmpty()) {
+                HashSet<Integer> fileIdsTouched = transactionsFileIdsTouched.get(xid);
+                if (fileIdsTouched == null) {
+                    fileIdsTouched = new HashSet<Integer>();
+                    transactionsFileIdsTouched.put(xid, fileIdsTouched);
                 }
+                fileIdsTouched.addAll(transaction.getRedoFileIds());
             }
+            bytesToReplay += transaction.getAppendedBytes();
         }
+        Long bytesCollected = transactionsBytesToReplay.get(xid);
+        transactionsBytesToReplay.put(xid, bytesCollected == null ? bytesToReplay : bytesCollected + bytesToReplay);
     }
 
     private void registerRemoteEndpoints() throws IOException {
@@ -246,29 +338,45 @@ public class CrashRecoveryWorker implements Work {
         }
     }
 
-    private void recoverOnePhaseTransactions() throws Exception {
-        for (TransactionInformation xid : onePhaseCommittingTransactions) {
-            if (released) {
-                return;
+    /*
+     * Schedules the one-phase committing transactions for commit, and the heavy-write transactions
+     * for rollback, in the order of their first entries in the logs.
+     */
+    private void scheduleTransactions(RecoveryScheduler scheduler) {
+        ArrayList<TransactionInformation> transactionsToComplete = new ArrayList<TransactionInformation>();
+        transactionsToComplete.addAll(onePhaseCommittingTransactions);
+        transactionsToComplete.addAll(heavyWriteTransactionsForRollback);
+        Collections.sort(transactionsToComplete, new FirstLogPositionComparator());
+        for (TransactionInformation xid : transactionsToComplete) {
+            boolean toCommit = onePhaseCommittingTransactions.contains(xid);
+            HashSet<String> filesTouched = transactionsFilesTouched.get(xid);
+            if (filesTouched == null) {
+                filesTouched = new HashSet<String>(0);
             }
-            NativeSession recoverySession;
-            ArrayList<FileSystemStateChangeEvent> events = getEventsFromPreparedTransaction(xid);
-            recoverySession = xaFileSystem.createRecoverySession(xid, events);
-
-            TransactionCompleter commitWork = new TransactionCompleter(recoverySession, true);
-            xaFileSystem.startWork(commitWork);
+            HashSet<Integer> fileIdsTouched = transactionsFileIdsTouched.get(xid);
+            if (fileIdsTouched != null) {
+                HashMap<Integer, String> declaredFileNames = getTransactionsDeclaredFileNames(xid);
+                for (Integer fileId : fileIdsTouched) {
+                    String fileName = declaredFileNames.get(fileId);
+                    if (fileName != null) {
+                        filesTouched.add(fileName);
+                    }
+                }
+            }
+            Long bytesToReplay = transactionsBytesToReplay.get(xid);
+            ArrayList<FileSystemStateChangeEvent> events = toCommit ? getEventsFromPreparedTransaction(xid) : null;
+            NativeSession recoverySession = xaFileSystem.createRecoverySession(xid, events);
+            scheduler.schedule(recoverySession, toCommit, filesTouched, bytesToReplay == null ? 0 : bytesToReplay);
         }
     }
 
-    private void recoverHeavyWriteTransactionsForRollback() throws Exception {
-        for (TransactionInformation xid : heavyWriteTransactionsForRollback) {
-            if (released) {
-                return;
-            }
-            NativeSession recoverySession = xaFileSystem.createRecoverySession(xid, null);
-            TransactionCompleter rollbackWork = new TransactionCompleter(recoverySession, false);
-            xaFileSystem.startWork(rollbackWork);
-        }
+    public int getRemainingTransactions() {
+        return Math.max(distanceFromRecoveryCompletion.get(), 0);
+    }
+
+    public long getRemainingBytes() {
+        RecoveryScheduler scheduler = recoveryScheduler;
+        return scheduler == null ? 0 : scheduler.getRemainingBytes();
     }
 
     public ArrayList<FileSystemStateChangeEvent> getEventsFromPreparedTransaction(TransactionInformation xid) {
@@ -303,6 +411,14 @@ public class CrashRecoveryWorker implements Work {
         return logPositions;
     }
 
+    public HashMap<Integer, String> getTransactionsDeclaredFileNames(TransactionInformation xid) {
+        HashMap<Integer, String> declaredFileNames = transactionsDeclaredFileNames.get(xid);
+        if (declaredFileNames == null) {
+            return new HashMap<Integer, String>(0);
+        }
+        return declaredFileNames;
+    }
+
     public int getTransactionsLatestCheckPoint(TransactionInformation xid) {
         Integer latestCheckPoint = transactionsLatestCheckPoint.get(xid);
         return latestCheckPoint == null ? -1 : latestCheckPoint;
@@ -329,14 +445,22 @@ public class CrashRecoveryWorker implements Work {
         return transactionsAndFilesWithLatestViewOnDisk.get(xid);
     }
 
-    private static class TransactionCompleter implements Work {
-
-        private NativeSession session;
-        private boolean toCommit;
-
-        private TransactionCompleter(NativeSession session, boolean toCommit) {
-            this.session = session;
-            this.toCommit = toCommit;
+    /*
+     * Scans the logs handed out one by one from a shared list; run by the booting thread and by
+     * the other threads started for the scan, each with its own reusable buffers. A log having a
+     * valid checkpoint is read only from the entries saved in the checkpoint and beyond.
+     */
+    private class LogScanner implements Work {
+
+        private final ArrayList<TransactionLogScan> logScans;
+        private final AtomicInteger nextLogScan = new AtomicInteger(0);
+        private final ReentrantLock scannersLock = new ReentrantLock(false);
+        private final Condition scannersDone = scannersLock.newCondition();
+        private int activeScanners = 0;
+        private IOException failure;
+
+        private LogScanner(ArrayList<TransactionLogScan> logScans) {
+            this.logScans = logScans;
         }
 
         public void release() {
@@ -344,13 +468,88 @@ public class CrashRecoveryWorker implements Work {
 
         public void run() {
             try {
-                if (toCommit) {
-                    session.commit(true);
-                } else {
-                    session.rollback();
+                scannersLock.lock();
+                activeScanners++;
+            } finally {
+                scannersLock.unlock();
+            }
+            IOException scanFailure = null;
+            try {
+                ByteBuffer headerBuffer = ByteBuffer.allocate(500);
+                ByteBuffer chunkBuffer = TransactionLogEntry.allocateChecksumChunk();
+                int next;
+                while (!released && (next = nextLogScan.getAndIncrement()) < logScans.size()) {
+                    int logIndex = logScans.get(next).getLogIndex();
+                    FileChannel logChannel = logChannels.get(logIndex);
+                    TransactionLogScan logScan = restoreFromCheckpoint(logIndex, logChannel);
+                    logScan.scan(logChannel, headerBuffer, chunkBuffer);
+                    logScans.set(next, logScan);
                 }
-            } catch (NoTransactionAssociatedException note) {
+            } catch (IOException ioe) {
+                scanFailure = ioe;
+            } finally {
+                try {
+                    scannersLock.lock();
+                    if (scanFailure != null && failure == null) {
+                        failure = scanFailure;
+                    }
+                    activeScanners--;
+                    scannersDone.signalAll();
+                } finally {
+                    scannersLock.unlock();
+                }
+            }
+        }
+
+        private TransactionLogScan restoreFromCheckpoint(int logIndex, FileChannel logChannel) {
+            TransactionLogSegmentManager segmentManager = xaFileSystem.getTransactionLogSegmentManager(logIndex);
+            //the new checkpoint file is left alone only by a crash while it was replacing the previous one.
+            File checkpointFiles[] = {segmentManager.getCheckpointFile(logIndex),
+                segmentManager.getNewCheckpointFile(logIndex)};
+            for (int i = 0; i < checkpointFiles.length; i++) {
+                TransactionLogScan logScan = new TransactionLogScan(logIndex);
+                try {
+                    if (logScan.restoreFromCheckpoint(checkpointFiles[i], logChannel)) {
+                        return logScan;
+                    }
+                } catch (IOException ioe) {
+                    //an unusable checkpoint; the log is read from its beginning instead.
+                } catch (RuntimeException re) {
+                }
+            }
+            return new TransactionLogScan(logIndex);
+        }
+
+        private void scanLogsAndWait() throws IOException {
+            run();
+            try {
+                scannersLock.lock();
+                while (activeScanners > 0) {
+                    scannersDone.awaitUninterruptibly();
+                }
+                if (failure != null) {
+                    throw failure;
+                }
+            } finally {
+                scannersLock.unlock();
+            }
+        }
+    }
+
+    private class FirstLogPositionComparator implements Comparator<TransactionInformation> {
+
+        public int compare(TransactionInformation xid1, TransactionInformation xid2) {
+            ArrayList<Long> logPositions1 = getTransactionLogsPositions(xid1);
+            ArrayList<Long> logPositions2 = getTransactionLogsPositions(xid2);
+            if (logPositions1.isEmpty() || logPositions2.isEmpty()) {
+                //a transaction with nothing left in the logs goes first.
+                return (logPositions2.isEmpty() ? 1 : 0) - (logPositions1.isEmpty() ? 1 : 0);
+            }
+            int logIndexComparison = logPositions1.get(0).compareTo(logPositions2.get(0));
+            if (logIndexComparison != 0) {
+                return logIndexComparison;
             }
+            return logPositions1.get(1).compareTo(logPositions2.get(1));
         }
     }
 }
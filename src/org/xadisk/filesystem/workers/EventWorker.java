@@ -46,7 +46,12 @@ public abstract class EventWorker implements Work {
             try {
                 eventRaiseSynchLock.lockInterruptibly();
                 while (!eventRaised && enabled) {
-                    waitTillEventRaised.await();
+                    long maximumWaitNanos = getMaximumEventWaitNanos();
+                    if (maximumWaitNanos < 0) {
+                        waitTillEventRaised.await();
+                    } else if (maximumWaitNanos == 0 || waitTillEventRaised.awaitNanos(maximumWaitNanos) <= 0) {
+                        eventRaised = true;
+                    }
                 }
             } catch (InterruptedException ie) {
                 Thread.currentThread().interrupt();
@@ -63,6 +68,26 @@ public abstract class EventWorker implements Work {
 
     abstract void processEvent();
 
+    /*
+     * The longest time the worker waits for an event before processing anyway; a negative value
+     * makes it wait for the event indefinitely. Asked again whenever the wait gets reviewed.
+     */
+    long getMaximumEventWaitNanos() {
+        return -1;
+    }
+
+    /*
+     * Wakes the worker, without raising an event, to recompute how long it waits.
+     */
+    void reviewEventWait() {
+        try {
+            eventRaiseSynchLock.lock();
+            waitTillEventRaised.signal();
+        } finally {
+            eventRaiseSynchLock.unlock();
+        }
+    }
+
     void raiseEvent() {
         if (eventRaised) {
             return;
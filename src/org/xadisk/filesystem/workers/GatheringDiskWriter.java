@@ -18,98 +18,106 @@
 package org.xadisk.filesystem.workers;
 
 import org.xadisk.filesystem.pools.PooledBuffer;
-import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.Iterator;
+import java.util.HashSet;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.TreeMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
 import java.util.concurrent.locks.ReentrantLock;
 import org.xadisk.connector.inbound.EndPointActivation;
 import org.xadisk.filesystem.Buffer;
 import org.xadisk.filesystem.FileSystemStateChangeEvent;
+import org.xadisk.filesystem.NativeSession;
 import org.xadisk.filesystem.NativeXAFileSystem;
 import org.xadisk.filesystem.OnDiskInfo;
+import org.xadisk.filesystem.TransactionLogChannelCache;
 import org.xadisk.filesystem.TransactionLogEntry;
 import org.xadisk.filesystem.TransactionInformation;
+import org.xadisk.filesystem.utilities.FileIOUtility;
+import org.xadisk.filesystem.utilities.LogContentCodec;
 import org.xadisk.filesystem.utilities.TransactionLogsUtility;
 
 public class GatheringDiskWriter extends EventWorker {
 
-    private final int cumulativeBufferSizeForDiskWrite;
+    private final LogFlushPolicy flushPolicy;
     private final AtomicInteger cumulativeBufferSize = new AtomicInteger(0);
-    private FileChannel transactionLogChannel;
-    private final ConcurrentHashMap<TransactionInformation, ConcurrentLinkedQueue<Buffer>> transactionSubmittedBuffers =
-            new ConcurrentHashMap<TransactionInformation, ConcurrentLinkedQueue<Buffer>>(1000);
+    private TransactionLogAppender transactionLog;
+    private final boolean useMappedTransactionLog;
+    private final BufferSubmissionRing submissionRing;
+    private final boolean spinOnFullSubmissionRing;
+    private final TransactionInformation drainedXids[];
+    private final Buffer drainedBuffers[];
+    private final ByteBuffer drainedByteBuffers[];
     private final NativeXAFileSystem xaFileSystem;
+    private final LogContentCodec logContentCodec;
+    //arrays holding the encoded log entries, reused once the entries are written.
+    private final ConcurrentLinkedQueue<byte[]> encodedLogEntryArrays = new ConcurrentLinkedQueue<byte[]>();
+    private final AtomicInteger encodedLogEntryArraysCount = new AtomicInteger(0);
     private final long transactionLogFileMaxSize;
     private final ReentrantLock transactionLogLock = new ReentrantLock(false);
-    private final String transactionLogBaseName;
+    private final TransactionLogSegmentManager segmentManager;
     private int currentLogIndex;
     private final HashMap<Integer, Integer> transactionLogsAndOpenTransactions = new HashMap<Integer, Integer>(2);
     private final HashMap<TransactionInformation, ArrayList<Integer>> transactionsAndLogsOccupied = new HashMap<TransactionInformation, ArrayList<Integer>>(1000);
+    //the log entries written for a transaction, kept only when the logs are compacted.
+    private final HashMap<TransactionInformation, LogEntries> transactionsLogEntries = new HashMap<TransactionInformation, LogEntries>(1000);
+    private final boolean trackingLogEntries;
     private final long maxNonPooledBufferSize;
+    private final long groupCommitWindowNanos;
+    private final int groupCommitMaxBatchSize;
+    private final ReentrantLock groupCommitLock = new ReentrantLock(false);
+    private final Condition groupCommitProgress = groupCommitLock.newCondition();
+    private final ArrayList<ForcedLogRecord> pendingForcedRecords = new ArrayList<ForcedLogRecord>(100);
+    private boolean groupCommitLeaderActive = false;
+    private static final long RING_FULL_PARK_NANOS = 50000;
+    private static final long MAPPED_LOG_WINDOW_SIZE = 16 * 1024 * 1024;
+    private static final int COMPACTION_COPY_CHUNK = 64 * 1024;
 
-    public GatheringDiskWriter(int cumulativeBufferSizeForDiskWrite, long transactionLogFileMaxSize,
-            long maxNonPooledBufferSize,
-            String transactionLogBaseName, NativeXAFileSystem theXAFileSystem)
+    public GatheringDiskWriter(int cumulativeBufferSizeForDiskWrite, int logFlushMaxLingerTime,
+            boolean logFlushAdaptive, long transactionLogFileMaxSize,
+            long maxNonPooledBufferSize, int groupCommitWindow, int groupCommitMaxBatchSize,
+            int logSubmissionRingSize, boolean logSubmissionRingSpinWait, String transactionLogBackend,
+            TransactionLogSegmentManager segmentManager, NativeXAFileSystem theXAFileSystem)
             throws IOException {
-        this.cumulativeBufferSizeForDiskWrite = cumulativeBufferSizeForDiskWrite;
+        this.flushPolicy = new LogFlushPolicy(cumulativeBufferSizeForDiskWrite, logFlushMaxLingerTime, logFlushAdaptive);
         this.xaFileSystem = theXAFileSystem;
+        this.logContentCodec = theXAFileSystem.getLogContentCodec();
         this.transactionLogFileMaxSize = transactionLogFileMaxSize;
-        this.transactionLogBaseName = transactionLogBaseName;
+        this.segmentManager = segmentManager;
         this.maxNonPooledBufferSize = maxNonPooledBufferSize;
+        this.groupCommitWindowNanos = TimeUnit.MICROSECONDS.toNanos(Math.max(groupCommitWindow, 0));
+        this.groupCommitMaxBatchSize = Math.max(groupCommitMaxBatchSize, 1);
+        this.submissionRing = new BufferSubmissionRing(logSubmissionRingSize);
+        this.spinOnFullSubmissionRing = logSubmissionRingSpinWait;
+        this.useMappedTransactionLog = "mapped".equalsIgnoreCase(transactionLogBackend);
+        this.drainedXids = new TransactionInformation[submissionRing.getCapacity()];
+        this.drainedBuffers = new Buffer[submissionRing.getCapacity()];
+        this.drainedByteBuffers = new ByteBuffer[submissionRing.getCapacity()];
+        this.trackingLogEntries = theXAFileSystem.getTransactionLogCompactionInterval() > 0;
     }
 
     public void initialize() throws IOException {
-        File currentTransactionLog = null;
-        for (int i = 0; i < Integer.MAX_VALUE; i++) {
-            File temp = new File(transactionLogBaseName + "_" + i);
-            if (temp.exists()) {
-                continue;
-            }
-            currentTransactionLog = temp;
-            this.currentLogIndex = i;
-            break;
-        }
-        if (currentTransactionLog == null) {
-            throw new IOException("System has reached its limit on number of transaction logs.");
-        }
-        this.transactionLogChannel = new FileOutputStream(currentTransactionLog, false).getChannel();
+        this.transactionLog = openNextTransactionLog();
+        this.currentLogIndex = segmentManager.getCurrentLogIndex();
     }
 
     public void deInitialize() throws IOException {
-        this.transactionLogChannel.close();
+        this.transactionLog.close();
     }
 
     @Override
     void processEvent() {
         try {
             transactionLogLock.lock();
-            Buffer buffersArray[];
-            TransactionInformation xids[];
-            ArrayList<Buffer> allBuffersToWrite = new ArrayList<Buffer>(1000);
-            ArrayList<TransactionInformation> xidsList = new ArrayList<TransactionInformation>(1000);
-            Iterator<Map.Entry<TransactionInformation, ConcurrentLinkedQueue<Buffer>>> entries = transactionSubmittedBuffers.entrySet().iterator();
-            while (entries.hasNext()) {
-                Map.Entry<TransactionInformation, ConcurrentLinkedQueue<Buffer>> entry = entries.next();
-                TransactionInformation xid = entry.getKey();
-                ConcurrentLinkedQueue<Buffer> txnBuffers = transactionSubmittedBuffers.get(xid);
-                Buffer buffer;
-                while((buffer = txnBuffers.poll()) != null) {
-                    xidsList.add(xid);
-                    allBuffersToWrite.add(buffer);
-                }
-            }
-            xids = xidsList.toArray(new TransactionInformation[0]);
-            buffersArray = allBuffersToWrite.toArray(new Buffer[0]);
-            writeBuffersToTransactionLog(buffersArray, xids, 0);
+            drainSubmittedBuffers(-1, null);
         } catch (Throwable t) {
             xaFileSystem.notifySystemFailure(t);
         } finally {
@@ -121,15 +129,9 @@ public class GatheringDiskWriter extends EventWorker {
             IOException {
         try {
             transactionLogLock.lock();
-            ConcurrentLinkedQueue<Buffer> txnBuffers = transactionSubmittedBuffers.remove(xid);
-            for (Buffer buffer : txnBuffers) {
-                cumulativeBufferSize.getAndAdd(-buffer.getBuffer().remaining());
-            }
-            TransactionInformation xids[] = new TransactionInformation[txnBuffers.size()];
-            for (int i = 0; i < xids.length; i++) {
-                xids[i] = xid;
-            }
-            writeBuffersToTransactionLog(txnBuffers.toArray(new Buffer[0]), xids, 0);
+            //the buffers of other transactions submitted till now also get written; that is harmless,
+            //and keeps the ring strictly in submission order.
+            drainSubmittedBuffers(submissionRing.getTailPosition(), null);
         } catch (IOException ioe) {
             xaFileSystem.notifySystemFailure(ioe);
         } finally {
@@ -137,12 +139,52 @@ public class GatheringDiskWriter extends EventWorker {
         }
     }
 
-    private void writeBuffersToTransactionLog(Buffer buffersArray[], TransactionInformation xids[], int offset) throws IOException {
-        ByteBuffer byteBufferArray[] = new ByteBuffer[buffersArray.length];
+    /*
+     * Must be called with the transactionLogLock held, which makes the caller the only consumer of
+     * the ring. Buffers belonging to xidToDiscard (if not null) are dropped instead of being written.
+     */
+    private void drainSubmittedBuffers(long drainUptoPosition, TransactionInformation xidToDiscard) throws IOException {
+        int numDrained;
+        do {
+            numDrained = submissionRing.drainTo(drainedXids, drainedBuffers, drainUptoPosition);
+            int numToWrite = 0;
+            int drainedSize = 0;
+            for (int i = 0; i < numDrained; i++) {
+                drainedSize += drainedBuffers[i].getBufferToLog().remaining();
+                if (xidToDiscard != null && xidToDiscard.equals(drainedXids[i])) {
+                    //the reference which came along with the buffer ends here.
+                    drainedBuffers[i].release();
+                    continue;
+                }
+                drainedXids[numToWrite] = drainedXids[i];
+                drainedBuffers[numToWrite] = drainedBuffers[i];
+                numToWrite++;
+            }
+            int cumulativeSizeLeft = cumulativeBufferSize.addAndGet(-drainedSize);
+            try {
+                long writeStartTime = System.nanoTime();
+                if (numToWrite > 0) {
+                    writeBuffersToTransactionLog(drainedBuffers, drainedXids, 0, numToWrite);
+                }
+                long writeEndTime = System.nanoTime();
+                flushPolicy.buffersWritten(drainedSize, writeEndTime - writeStartTime, cumulativeSizeLeft,
+                        cumulativeSizeLeft > 0 ? submissionRing.getOldestSubmissionTime(writeEndTime) : writeEndTime);
+            } finally {
+                for (int i = 0; i < numDrained; i++) {
+                    drainedXids[i] = null;
+                    drainedBuffers[i] = null;
+                    drainedByteBuffers[i] = null;
+                }
+            }
+        } while (numDrained == drainedBuffers.length);
+    }
+
+    private void writeBuffersToTransactionLog(Buffer buffersArray[], TransactionInformation xids[], int offset, int end) throws IOException {
+        ByteBuffer byteBufferArray[] = drainedByteBuffers;
         long sizeToWriteNow = 0;
-        int canProcessTill = buffersArray.length - 1;
-        for (int i = offset; i < buffersArray.length; i++) {
-            byteBufferArray[i] = buffersArray[i].getBuffer();
+        int canProcessTill = end - 1;
+        for (int i = offset; i < end; i++) {
+            byteBufferArray[i] = buffersArray[i].getBufferToLog();
             if (sizeToWriteNow + byteBufferArray[i].remaining() > transactionLogFileMaxSize) {
                 canProcessTill = i - 1;
                 break;
@@ -150,13 +192,18 @@ public class GatheringDiskWriter extends EventWorker {
             sizeToWriteNow += byteBufferArray[i].remaining();
         }
         ensureLogFileCapacity(sizeToWriteNow);
-        long entryPosition = transactionLogChannel.position();
-        ArrayList<Integer> buffersToMakeOnDisk = new ArrayList<Integer>(1000);
+        long entryPosition = transactionLog.position();
+        ArrayList<Integer> buffersToMakeOnDisk = new ArrayList<Integer>();
+        ArrayList<Integer> buffersKeptInMemory = new ArrayList<Integer>();
+        ArrayList<Long> buffersKeptInMemoryPositions = new ArrayList<Long>();
         boolean makeCurrentOnDisk;
         for (int i = offset; i <= canProcessTill; i++) {
-            byteBufferArray[i] = buffersArray[i].getBuffer();
+            byteBufferArray[i] = buffersArray[i].getBufferToLog();
             if (buffersArray[i] instanceof PooledBuffer) {
                 makeCurrentOnDisk = false;
+            } else if (xaFileSystem.isBufferMemoryThrottling()) {
+                //the writers are being held back for this memory; nothing more is kept.
+                makeCurrentOnDisk = true;
             } else {
                 if (xaFileSystem.getTotalNonPooledBufferSize() < maxNonPooledBufferSize * 3 / 4) {
                     makeCurrentOnDisk = false;
@@ -170,29 +217,45 @@ public class GatheringDiskWriter extends EventWorker {
                     makeCurrentOnDisk = true;
                 }
             }
+            addLogEntryToTransaction(xids[i], currentLogIndex, entryPosition, byteBufferArray[i].remaining());
             if (makeCurrentOnDisk) {
                 addLogPositionToTransaction(xids[i], currentLogIndex, entryPosition);
                 buffersToMakeOnDisk.add(i);
                 buffersArray[i].setOnDiskInfo(new OnDiskInfo(currentLogIndex, entryPosition));
+                if (trackingLogEntries) {
+                    xids[i].getOwningSession().addOnDiskBufferToTransaction(buffersArray[i]);
+                }
             } else {
                 TransactionLogsUtility.trackTransactionLogsUsage(xids[i], transactionsAndLogsOccupied,
                         transactionLogsAndOpenTransactions, currentLogIndex);
+                buffersKeptInMemory.add(i);
+                buffersKeptInMemoryPositions.add(entryPosition);
                 addInMemoryBufferToTransaction(xids[i], buffersArray[i]);
             }
             entryPosition += byteBufferArray[i].remaining();
         }
         long n = 0;
         while (n < sizeToWriteNow) {
-            n += transactionLogChannel.write(byteBufferArray, offset, canProcessTill - offset + 1);
+            n += transactionLog.write(byteBufferArray, offset, canProcessTill - offset + 1);
         }
 
+        for (int i = offset; i <= canProcessTill; i++) {
+            ByteBuffer encodedLogEntry = buffersArray[i].releaseEncodedLogEntry();
+            if (encodedLogEntry != null) {
+                recycleEncodedLogEntryArray(encodedLogEntry.array());
+            }
+        }
         for (Integer indices : buffersToMakeOnDisk) {
             Buffer temp = buffersArray[indices];
             temp.makeOnDisk(temp.getOnDiskInfo());
         }
-
-        if (canProcessTill < buffersArray.length - 1) {
-            writeBuffersToTransactionLog(buffersArray, xids, canProcessTill + 1);
+        for (int i = 0; i < buffersKeptInMemory.size(); i++) {
+            //only now that their entries are in the log, the session may spill these and read them from there.
+            buffersArray[buffersKeptInMemory.get(i)].setOnDiskInfo(new OnDiskInfo(currentLogIndex,
+                    buffersKeptInMemoryPositions.get(i)));
+        }
+        if (canProcessTill < end - 1) {
+            writeBuffersToTransactionLog(buffersArray, xids, canProcessTill + 1, end);
         }
     }
 
@@ -201,37 +264,108 @@ public class GatheringDiskWriter extends EventWorker {
         TransactionLogsUtility.trackTransactionLogsUsage(xid, transactionsAndLogsOccupied, transactionLogsAndOpenTransactions, logFileIndex);
     }
 
+    private void addLogEntryToTransaction(TransactionInformation xid, int logFileIndex, long localPosition, long length) {
+        if (!trackingLogEntries) {
+            return;
+        }
+        LogEntries logEntries = transactionsLogEntries.get(xid);
+        if (logEntries == null) {
+            logEntries = new LogEntries(8);
+            transactionsLogEntries.put(xid, logEntries);
+        }
+        logEntries.add(logFileIndex, localPosition, length);
+    }
+
     private void addInMemoryBufferToTransaction(TransactionInformation xid, Buffer buffer) {
         xid.getOwningSession().addInMemoryBufferToTransaction(buffer);
     }
 
     public void submitBuffer(Buffer logEntry, TransactionInformation xid) {
+        //encoded and sealed here, by the submitting thread, to keep this computation out of the log lock.
+        //Only the file append entries need it; the entries without content were sealed when put together.
+        ByteBuffer encodedLogEntry = null;
+        if (logContentCodec != null && logEntry.getHeaderLength() != 0) {
+            byte encodedLogEntryBytes[] = takeEncodedLogEntryArray(
+                    TransactionLogEntry.getEncodedLogEntryMaxLength(logEntry.getBuffer()));
+            encodedLogEntry = xid.getOwningSession().getLogEntryEncoder().encodeContent(logEntry.getBuffer(),
+                    logContentCodec, encodedLogEntryBytes);
+            if (encodedLogEntry == null) {
+                recycleEncodedLogEntryArray(encodedLogEntryBytes);
+            }
+        }
+        if (encodedLogEntry != null) {
+            logEntry.setEncodedLogEntry(encodedLogEntry, logContentCodec.getCodecId());
+        } else if (logEntry.getHeaderLength() != 0) {
+            TransactionLogEntry.sealLogEntry(logEntry.getBuffer());
+        }
         logEntry.flushByteBufferChanges();
-        int bufferSizeToAdd = logEntry.getBuffer().remaining();
-        ConcurrentLinkedQueue<Buffer> txnBuffers = transactionSubmittedBuffers.get(xid);
-        if (txnBuffers == null) {
-            txnBuffers = new ConcurrentLinkedQueue<Buffer>();
-            txnBuffers.add(logEntry);
-            transactionSubmittedBuffers.put(xid, txnBuffers);
-        } else {
-            txnBuffers.add(logEntry);
+        int bufferSizeToAdd = logEntry.getBufferToLog().remaining();
+        while (!submissionRing.offer(xid, logEntry)) {
+            //ring is full; make sure the writer is draining it, and wait for a free slot.
+            raiseEvent();
+            if (spinOnFullSubmissionRing) {
+                Thread.yield();
+            } else {
+                LockSupport.parkNanos(RING_FULL_PARK_NANOS);
+            }
         }
         int currentCumulativeSize = cumulativeBufferSize.addAndGet(bufferSizeToAdd);
-        raiseEventThreadSafely(currentCumulativeSize);
+        raiseEventThreadSafely(currentCumulativeSize - bufferSizeToAdd, currentCumulativeSize);
     }
 
-    private void raiseEventThreadSafely(int currentCumulativeSize) {
-        if (currentCumulativeSize >= cumulativeBufferSizeForDiskWrite) {
-            while (!cumulativeBufferSize.compareAndSet(currentCumulativeSize, 0)) {
-                currentCumulativeSize = cumulativeBufferSize.get();
-                if (currentCumulativeSize < cumulativeBufferSizeForDiskWrite) {
-                    return;
-                }
-            }
+    /*
+     * Returns an array of at least the given length for an encoded log entry, reusing one whose
+     * entry has been written if it is long enough.
+     */
+    private byte[] takeEncodedLogEntryArray(int length) {
+        byte array[] = encodedLogEntryArrays.poll();
+        if (array == null) {
+            return new byte[length];
+        }
+        encodedLogEntryArraysCount.decrementAndGet();
+        if (array.length < length) {
+            //dropped, so that the arrays kept grow along with the log entries.
+            return new byte[length];
+        }
+        return array;
+    }
+
+    /*
+     * Keeps the array for another encoded log entry, as long as there are no more arrays kept than
+     * there can be log entries waiting to be written.
+     */
+    private void recycleEncodedLogEntryArray(byte array[]) {
+        if (encodedLogEntryArraysCount.incrementAndGet() > submissionRing.getCapacity()) {
+            encodedLogEntryArraysCount.decrementAndGet();
+            return;
+        }
+        encodedLogEntryArrays.offer(array);
+    }
+
+    /*
+     * Has the buffers submitted so far written without waiting for the flush policy, e.g. when their
+     * memory is wanted back.
+     */
+    public void writeSubmittedBuffersSoon() {
+        if (cumulativeBufferSize.get() > 0) {
             raiseEvent();
         }
     }
 
+    private void raiseEventThreadSafely(int previousCumulativeSize, int currentCumulativeSize) {
+        if (flushPolicy.bufferSubmitted(previousCumulativeSize, currentCumulativeSize)) {
+            raiseEvent();
+        } else if (previousCumulativeSize == 0 && flushPolicy.isLingerBounded()) {
+            //the writer has been waiting without a time bound; let it start counting the linger time.
+            reviewEventWait();
+        }
+    }
+
+    @Override
+    long getMaximumEventWaitNanos() {
+        return flushPolicy.getNanosTillLingerExpires(cumulativeBufferSize.get() > 0);
+    }
+
     public void transactionCommitBegins(TransactionInformation xid) throws IOException {
         ByteBuffer temp = ByteBuffer.wrap(TransactionLogEntry.getLogEntry(xid,
                 TransactionLogEntry.COMMIT_BEGINS));
@@ -277,9 +411,11 @@ public class GatheringDiskWriter extends EventWorker {
             long contentLength)
             throws IOException {
         long logPosition[] = new long[2];
+        if (contentLength > 0) {
+            TransactionLogEntry.sealLogEntry(logEntryHeader, contents, contentPosition, contentLength);
+        }
         try {
             transactionLogLock.lock();
-            long n = 0;
             long headerSize = logEntryHeader.remaining();
             long totalLogSizeRequiredForThisRequest = headerSize;
             if (contentLength > 0) {
@@ -287,22 +423,17 @@ public class GatheringDiskWriter extends EventWorker {
             }
             ensureLogFileCapacity(totalLogSizeRequiredForThisRequest);
             logPosition[0] = currentLogIndex;
-            logPosition[1] = transactionLogChannel.position();
+            logPosition[1] = transactionLog.position();
+            long n = 0;
             while (n < headerSize) {
-                n += transactionLogChannel.write(logEntryHeader);
+                n += transactionLog.write(logEntryHeader);
             }
             if (contentLength > 0) {
-                n = 0;
-                long startingPosition = transactionLogChannel.position();
-                contents.position(contentPosition);
-                while (n < contentLength) {
-                    n += transactionLogChannel.transferFrom(contents, startingPosition + n, 
-                            NativeXAFileSystem.maxTransferToChannel(contentLength - n));
-                }
-                transactionLogChannel.position(startingPosition + n);
+                transactionLog.append(contents, contentPosition, contentLength);
             }
-            transactionLogChannel.force(false);
+            transactionLog.force();
             addLogPositionToTransaction(xid, (int) logPosition[0], logPosition[1]);
+            addLogEntryToTransaction(xid, (int) logPosition[0], logPosition[1], transactionLog.position() - logPosition[1]);
             return logPosition;
         } finally {
             transactionLogLock.unlock();
@@ -310,19 +441,128 @@ public class GatheringDiskWriter extends EventWorker {
     }
 
     private void forceWrite(TransactionInformation xid, ByteBuffer buffer) throws IOException {
+        if (groupCommitMaxBatchSize == 1 || transactionLogLock.isHeldByCurrentThread()) {
+            //the second case arises when a log rotation records the activations into the new log;
+            //we are then already inside a (batched or direct) write and must not queue behind ourselves.
+            forceWriteDirectly(xid, buffer);
+            return;
+        }
+        ForcedLogRecord record = new ForcedLogRecord(xid, buffer);
+        try {
+            groupCommitLock.lock();
+            pendingForcedRecords.add(record);
+            if (pendingForcedRecords.size() >= groupCommitMaxBatchSize) {
+                groupCommitProgress.signalAll();
+            }
+            while (!record.done && groupCommitLeaderActive) {
+                groupCommitProgress.awaitUninterruptibly();
+            }
+            if (!record.done) {
+                groupCommitLeaderActive = true;
+                try {
+                    while (!record.done) {
+                        writeNextBatchOfForcedRecords();
+                    }
+                } finally {
+                    groupCommitLeaderActive = false;
+                    groupCommitProgress.signalAll();
+                }
+            }
+        } finally {
+            groupCommitLock.unlock();
+        }
+        if (record.failure != null) {
+            throw record.failure;
+        }
+    }
+
+    /*
+     * Called by the current leader with the groupCommitLock held. The lock is released
+     * during the actual write and force, so that the next batch can accumulate meanwhile.
+     */
+    private void writeNextBatchOfForcedRecords() {
+        if (groupCommitWindowNanos > 0) {
+            long remainingWait = groupCommitWindowNanos;
+            while (remainingWait > 0 && pendingForcedRecords.size() < groupCommitMaxBatchSize) {
+                try {
+                    remainingWait = groupCommitProgress.awaitNanos(remainingWait);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+        }
+        int batchSize = Math.min(pendingForcedRecords.size(), groupCommitMaxBatchSize);
+        ArrayList<ForcedLogRecord> batch = new ArrayList<ForcedLogRecord>(pendingForcedRecords.subList(0, batchSize));
+        pendingForcedRecords.subList(0, batchSize).clear();
+        IOException failure = null;
+        groupCommitLock.unlock();
+        try {
+            forceWriteBatch(batch);
+        } catch (IOException ioe) {
+            failure = ioe;
+        } catch (RuntimeException re) {
+            failure = new IOException("Could not write the batch of transaction log records.");
+            failure.initCause(re);
+        } finally {
+            groupCommitLock.lock();
+        }
+        for (ForcedLogRecord done : batch) {
+            done.failure = failure;
+            done.done = true;
+        }
+        groupCommitProgress.signalAll();
+    }
+
+    private void forceWriteBatch(ArrayList<ForcedLogRecord> batch) throws IOException {
+        ByteBuffer buffers[] = new ByteBuffer[batch.size()];
+        long recordLengths[] = new long[batch.size()];
+        long sizeToWrite = 0;
+        for (int i = 0; i < buffers.length; i++) {
+            buffers[i] = batch.get(i).buffer;
+            recordLengths[i] = buffers[i].remaining();
+            sizeToWrite += recordLengths[i];
+        }
+        try {
+            transactionLogLock.lock();
+            ensureLogFileCapacity(sizeToWrite);
+            long recordPosition = transactionLog.position();
+            long n = 0;
+            while (n < sizeToWrite) {
+                n += transactionLog.write(buffers, 0, buffers.length);
+            }
+            transactionLog.force();
+            for (int i = 0; i < buffers.length; i++) {
+                TransactionInformation xid = batch.get(i).xid;
+                if (xid != null) {
+                    //xid passed null for ep(De)Activation.
+                    TransactionLogsUtility.trackTransactionLogsUsage(xid, transactionsAndLogsOccupied,
+                            transactionLogsAndOpenTransactions, currentLogIndex);
+                    addLogEntryToTransaction(xid, currentLogIndex, recordPosition, recordLengths[i]);
+                }
+                recordPosition += recordLengths[i];
+            }
+        } finally {
+            transactionLogLock.unlock();
+        }
+    }
+
+    private void forceWriteDirectly(TransactionInformation xid, ByteBuffer buffer) throws IOException {
         try {
             transactionLogLock.lock();
             long n = 0;
             long sizeToWrite = buffer.remaining();
             ensureLogFileCapacity(sizeToWrite);
+            long recordPosition = transactionLog.position();
             while (n < sizeToWrite) {
-                n += transactionLogChannel.write(buffer);
+                n += transactionLog.write(buffer);
             }
-            transactionLogChannel.force(false);
+            transactionLog.force();
             if (xid != null) {
                 //xid passed null for ep(De)Activation.
                 TransactionLogsUtility.trackTransactionLogsUsage(xid, transactionsAndLogsOccupied,
                         transactionLogsAndOpenTransactions, currentLogIndex);
+                addLogEntryToTransaction(xid, currentLogIndex, recordPosition, sizeToWrite);
             }
         } finally {
             transactionLogLock.unlock();
@@ -333,36 +573,192 @@ public class GatheringDiskWriter extends EventWorker {
         try {
             transactionLogLock.lock();
             TransactionLogsUtility.deleteLogsIfPossible(xid, transactionsAndLogsOccupied, transactionLogsAndOpenTransactions,
-                    currentLogIndex, transactionLogBaseName, xaFileSystem.createDurableDiskSession());
+                    currentLogIndex, segmentManager);
             transactionsAndLogsOccupied.remove(xid);
+            transactionsLogEntries.remove(xid);
         } finally {
             transactionLogLock.unlock();
         }
     }
 
-    private void ensureLogFileCapacity(long sizeToWriteNow) throws IOException {
-        if (transactionLogChannel.size() + sizeToWriteNow > transactionLogFileMaxSize) {
-            File nextTransactionLog = null;
-            for (int i = currentLogIndex + 1; i < Integer.MAX_VALUE; i++) {
-                File f = new File(transactionLogBaseName + "_" + i);
-                if (f.exists()) {
+    /*
+     * Called by the TransactionLogCompactor. Frees the logs other than the current one which are kept
+     * only by active transactions, by copying all the log entries of these transactions into the
+     * current log (see compactTransaction). A log is compacted only when all the transactions keeping
+     * it are active (not yet prepared or completing), are not in the middle of an operation, and have
+     * written not more than a quarter of the maximum log size; a transaction writing heavily fills its
+     * own logs anyway, and copying it would cost more than it frees.
+     */
+    public void compactTransactionLogs() throws IOException {
+        TreeMap<Integer, ArrayList<TransactionInformation>> transactionsInOlderLogs =
+                new TreeMap<Integer, ArrayList<TransactionInformation>>();
+        try {
+            transactionLogLock.lock();
+            for (Map.Entry<TransactionInformation, ArrayList<Integer>> logsOccupied : transactionsAndLogsOccupied.entrySet()) {
+                for (Integer logIndex : logsOccupied.getValue()) {
+                    if (logIndex == currentLogIndex) {
+                        continue;
+                    }
+                    ArrayList<TransactionInformation> transactions = transactionsInOlderLogs.get(logIndex);
+                    if (transactions == null) {
+                        transactions = new ArrayList<TransactionInformation>();
+                        transactionsInOlderLogs.put(logIndex, transactions);
+                    }
+                    transactions.add(logsOccupied.getKey());
+                }
+            }
+        } finally {
+            transactionLogLock.unlock();
+        }
+        long maximumBytesToCopy = Math.min(transactionLogFileMaxSize / 4, Integer.MAX_VALUE);
+        HashSet<TransactionInformation> compactedTransactions = new HashSet<TransactionInformation>();
+        for (ArrayList<TransactionInformation> transactionsInLog : transactionsInOlderLogs.values()) {
+            transactionsInLog.removeAll(compactedTransactions);
+            ArrayList<ReentrantLock> sessionLocksHeld = new ArrayList<ReentrantLock>(transactionsInLog.size());
+            try {
+                boolean canCompact = true;
+                for (TransactionInformation xid : transactionsInLog) {
+                    NativeSession session = xid.getOwningSession();
+                    if (session == null || !session.getAsynchronousRollbackLock().tryLock()) {
+                        canCompact = false;
+                        break;
+                    }
+                    sessionLocksHeld.add(session.getAsynchronousRollbackLock());
+                    if (!session.canRelocateLogEntries()) {
+                        canCompact = false;
+                        break;
+                    }
+                }
+                if (!canCompact) {
                     continue;
                 }
-                nextTransactionLog = f;
-                transactionLogChannel.force(false);
-                transactionLogChannel.close();
-                transactionLogChannel =
-                        new FileOutputStream(nextTransactionLog, true).getChannel();
-                TransactionLogsUtility.deleteLastLogIfPossible(currentLogIndex, transactionLogsAndOpenTransactions,
-                        transactionLogBaseName, xaFileSystem.createDurableDiskSession());
-                currentLogIndex = i;
-                recordAllActivationsInNewLog();
-                break;
+                try {
+                    transactionLogLock.lock();
+                    for (TransactionInformation xid : transactionsInLog) {
+                        LogEntries logEntries = transactionsLogEntries.get(xid);
+                        if (logEntries == null || logEntries.totalLength > maximumBytesToCopy) {
+                            canCompact = false;
+                            break;
+                        }
+                    }
+                    if (!canCompact) {
+                        continue;
+                    }
+                    for (TransactionInformation xid : transactionsInLog) {
+                        compactTransaction(xid);
+                        compactedTransactions.add(xid);
+                    }
+                } finally {
+                    transactionLogLock.unlock();
+                }
+            } finally {
+                for (ReentrantLock sessionLock : sessionLocksHeld) {
+                    sessionLock.unlock();
+                }
             }
-            if (nextTransactionLog == null) {
-                throw new IOException("Transaction logs seems to be over...cannot proceed.");
+        }
+    }
+
+    /*
+     * Must be called with the session's asynchronousRollbackLock and the transactionLogLock held.
+     * The entries are copied, in the order they were written, as the content of a single
+     * TRANSACTION_LOG_COMPACTED entry, which is forced before anything else changes: a crash before
+     * that leaves the entry torn (and ignored by the recovery) and the older logs in place; a crash
+     * after it leaves the older logs superseded by the copies. The positions kept by the session
+     * are then moved to the copies, and the logs no more needed by the transaction are retired.
+     */
+    private void compactTransaction(TransactionInformation xid) throws IOException {
+        LogEntries logEntries = transactionsLogEntries.get(xid);
+        int numEntries = logEntries.size;
+        FileChannel sources[] = new FileChannel[numEntries];
+        long sourcePositions[] = new long[numEntries];
+        long lengths[] = new long[numEntries];
+        TransactionLogChannelCache logChannelCache = xaFileSystem.getTransactionLogChannelCache();
+        HashMap<Integer, FileChannel> logChannels = new HashMap<Integer, FileChannel>(4);
+        HashMap<Integer, HashMap<Long, Long>> relocations = new HashMap<Integer, HashMap<Long, Long>>(4);
+        LogEntries compactedLogEntries = new LogEntries(numEntries);
+        try {
+            long contentLength = 0;
+            for (int i = 0; i < numEntries; i++) {
+                int logIndex = logEntries.logIndices[i];
+                FileChannel logChannel = logChannels.get(logIndex);
+                if (logChannel == null) {
+                    logChannel = logChannelCache.acquireChannel(logIndex);
+                    logChannels.put(logIndex, logChannel);
+                }
+                sources[i] = logChannel;
+                sourcePositions[i] = logEntries.positions[i];
+                lengths[i] = logEntries.lengths[i];
+                contentLength += lengths[i];
+            }
+            ByteBuffer header = ByteBuffer.wrap(TransactionLogEntry.getCompactionLogEntryHeader(xid, (int) contentLength));
+            TransactionLogEntry.sealLogEntry(header, sources, sourcePositions, lengths);
+            ensureLogFileCapacity(header.remaining() + contentLength);
+            long copyPosition = transactionLog.position() + header.remaining();
+            while (header.hasRemaining()) {
+                transactionLog.write(header);
+            }
+            ByteBuffer chunk = ByteBuffer.allocate(COMPACTION_COPY_CHUNK);
+            for (int i = 0; i < numEntries; i++) {
+                long copied = 0;
+                while (copied < lengths[i]) {
+                    chunk.clear();
+                    chunk.limit((int) Math.min(chunk.capacity(), lengths[i] - copied));
+                    FileIOUtility.readFromChannel(sources[i], sourcePositions[i] + copied, chunk, 0, chunk.limit());
+                    chunk.position(0);
+                    while (chunk.hasRemaining()) {
+                        transactionLog.write(chunk);
+                    }
+                    copied += chunk.limit();
+                }
+                int logIndex = logEntries.logIndices[i];
+                HashMap<Long, Long> relocationsFromLog = relocations.get(logIndex);
+                if (relocationsFromLog == null) {
+                    relocationsFromLog = new HashMap<Long, Long>();
+                    relocations.put(logIndex, relocationsFromLog);
+                }
+                relocationsFromLog.put(sourcePositions[i], copyPosition);
+                compactedLogEntries.add(currentLogIndex, copyPosition, lengths[i]);
+                copyPosition += lengths[i];
+            }
+            transactionLog.force();
+        } finally {
+            for (Integer logIndex : logChannels.keySet()) {
+                logChannelCache.releaseChannel(logIndex);
             }
         }
+        xid.getOwningSession().relocateLogEntries(relocations, currentLogIndex);
+        transactionsLogEntries.put(xid, compactedLogEntries);
+        TransactionLogsUtility.deleteLogsIfPossible(xid, transactionsAndLogsOccupied, transactionLogsAndOpenTransactions,
+                currentLogIndex, segmentManager);
+        transactionsAndLogsOccupied.remove(xid);
+        TransactionLogsUtility.trackTransactionLogsUsage(xid, transactionsAndLogsOccupied,
+                transactionLogsAndOpenTransactions, currentLogIndex);
+    }
+
+    private void ensureLogFileCapacity(long sizeToWriteNow) throws IOException {
+        //position, not size, as the log file may have been preallocated by the segment manager.
+        if (transactionLog.position() + sizeToWriteNow > transactionLogFileMaxSize) {
+            transactionLog.force();
+            transactionLog.close();
+            transactionLog = openNextTransactionLog();
+            TransactionLogsUtility.deleteLastLogIfPossible(currentLogIndex, transactionLogsAndOpenTransactions,
+                    segmentManager);
+            currentLogIndex = segmentManager.getCurrentLogIndex();
+            if (segmentManager.getStreamId() == 0) {
+                //activations are recorded only in the first log stream.
+                recordAllActivationsInNewLog();
+            }
+        }
+    }
+
+    private TransactionLogAppender openNextTransactionLog() throws IOException {
+        FileChannel logChannel = segmentManager.openNextSegment();
+        if (useMappedTransactionLog) {
+            return new MappedLogAppender(logChannel, Math.min(MAPPED_LOG_WINDOW_SIZE, transactionLogFileMaxSize),
+                    transactionLogFileMaxSize);
+        }
+        return new ChannelLogAppender(logChannel);
     }
 
     public void transactionRollbackBegins(TransactionInformation xid) {
@@ -371,9 +767,12 @@ public class GatheringDiskWriter extends EventWorker {
             //we take the lock to ensure that existing processEvent is complete before we begin iterating over
             //the log-positions in the session.rollback (because a processEvent going in parallel may give us
             //log-positions which are yet to be written to the log).
-            //we also remove all the buffers now to save unnecessary processing by next processEvent; all "urgent"
-            //buffers were anyway persisted immediately, and don't belong to this list.
-            transactionSubmittedBuffers.remove(xid);
+            //we also drop all the buffers of this transaction now to save unnecessary processing; all "urgent"
+            //buffers were anyway persisted immediately, and don't belong to the ring. Buffers of other
+            //transactions drained alongside get written as usual.
+            drainSubmittedBuffers(submissionRing.getTailPosition(), xid);
+        } catch (IOException ioe) {
+            xaFileSystem.notifySystemFailure(ioe);
         } finally {
             transactionLogLock.unlock();
         }
@@ -398,6 +797,57 @@ public class GatheringDiskWriter extends EventWorker {
         }
     }
 
+    /*
+     * The (log index, position, length) of the log entries of a transaction, in the order written.
+     */
+    private static class LogEntries {
+
+        private int logIndices[];
+        private long positions[];
+        private long lengths[];
+        private int size = 0;
+        private long totalLength = 0;
+
+        private LogEntries(int initialCapacity) {
+            this.logIndices = new int[initialCapacity];
+            this.positions = new long[initialCapacity];
+            this.lengths = new long[initialCapacity];
+        }
+
+        private void add(int logIndex, long position, long length) {
+            if (size == logIndices.length) {
+                int newCapacity = Math.max(size * 2, 8);
+                int newLogIndices[] = new int[newCapacity];
+                long newPositions[] = new long[newCapacity];
+                long newLengths[] = new long[newCapacity];
+                System.arraycopy(logIndices, 0, newLogIndices, 0, size);
+                System.arraycopy(positions, 0, newPositions, 0, size);
+                System.arraycopy(lengths, 0, newLengths, 0, size);
+                logIndices = newLogIndices;
+                positions = newPositions;
+                lengths = newLengths;
+            }
+            logIndices[size] = logIndex;
+            positions[size] = position;
+            lengths[size] = length;
+            size++;
+            totalLength += length;
+        }
+    }
+
+    private static class ForcedLogRecord {
+
+        private final TransactionInformation xid;
+        private final ByteBuffer buffer;
+        private boolean done = false;
+        private IOException failure;
+
+        private ForcedLogRecord(TransactionInformation xid, ByteBuffer buffer) {
+            this.xid = xid;
+            this.buffer = buffer;
+        }
+    }
+
     @Override
     public void release() {
         super.release();
@@ -0,0 +1,102 @@
+/*
+ * Engineering Ingegneria Informatica S.p.A.
+ *
+ * Copyright (C) 2023 Regione Emilia-Romagna
+ * <p/>
+ * This program is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU Affero General Public License as published by the Free Software Foundation,
+ * either version 3 of the License, or (at your option) any later version.
+ * <p/>
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU Affero General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.xadisk.filesystem.workers;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides when the {@link GatheringDiskWriter} writes the submitted log buffers to the transaction
+ * log: once their total size reaches a threshold, or once the oldest of them has waited for the
+ * maximum linger time, whichever comes first.
+ * <p> In the adaptive mode, the threshold follows the load: it is set to the bytes expected to
+ * arrive while one write is in progress (from the observed arrival rate and write latency), so that
+ * the writer neither waits for a batch longer than a write takes nor writes in tiny pieces. The
+ * configured threshold is then the upper bound.
+ */
+class LogFlushPolicy {
+
+    private static final int MINIMUM_ADAPTIVE_THRESHOLD = 64 * 1024;
+    private static final double SMOOTHING_FACTOR = 0.2;
+    private final int maximumThreshold;
+    private final long maximumLingerNanos;
+    private final boolean adaptive;
+    private volatile int threshold;
+    private volatile long oldestPendingSubmissionTime;
+    private long lastWriteEndTime;
+    private double arrivalRate = -1;
+    private double writeLatency = -1;
+
+    LogFlushPolicy(int threshold, int maximumLingerTime, boolean adaptive) {
+        this.maximumThreshold = threshold;
+        this.threshold = threshold;
+        this.maximumLingerNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(maximumLingerTime, 0));
+        this.adaptive = adaptive;
+        this.lastWriteEndTime = System.nanoTime();
+    }
+
+    /*
+     * Called after a buffer has been submitted; tells if the writer should start writing now.
+     */
+    boolean bufferSubmitted(int previousCumulativeSize, int currentCumulativeSize) {
+        if (previousCumulativeSize == 0) {
+            oldestPendingSubmissionTime = System.nanoTime();
+        }
+        return currentCumulativeSize >= threshold;
+    }
+
+    boolean isLingerBounded() {
+        return maximumLingerNanos > 0;
+    }
+
+    /*
+     * Returns how long the writer may wait before writing the pending buffers, or -1 if it may
+     * wait indefinitely (i.e. till the threshold is reached).
+     */
+    long getNanosTillLingerExpires(boolean buffersPending) {
+        if (!buffersPending || maximumLingerNanos == 0) {
+            return -1;
+        }
+        return Math.max(maximumLingerNanos - (System.nanoTime() - oldestPendingSubmissionTime), 0);
+    }
+
+    /*
+     * Called by the holder of the transaction log lock after writing the drained buffers, with the
+     * submission time of the oldest buffer left unwritten (if cumulativeSizeLeft is non-zero); the
+     * linger time of that buffer counts from its submission, not from this write.
+     */
+    void buffersWritten(long bytesWritten, long writeNanos, int cumulativeSizeLeft, long oldestLeftSubmissionTime) {
+        if (bytesWritten == 0) {
+            return;
+        }
+        if (cumulativeSizeLeft > 0) {
+            oldestPendingSubmissionTime = oldestLeftSubmissionTime;
+        }
+        if (!adaptive) {
+            return;
+        }
+        long now = System.nanoTime();
+        double arrivalRateSample = (double) bytesWritten / Math.max(now - lastWriteEndTime, 1);
+        lastWriteEndTime = now;
+        arrivalRate = arrivalRate < 0 ? arrivalRateSample
+                : arrivalRate + SMOOTHING_FACTOR * (arrivalRateSample - arrivalRate);
+        writeLatency = writeLatency < 0 ? writeNanos : writeLatency + SMOOTHING_FACTOR * (writeNanos - writeLatency);
+        long bytesArrivingDuringWrite = (long) (arrivalRate * writeLatency);
+        threshold = (int) Math.min(Math.max(bytesArrivingDuringWrite,
+                Math.min(MINIMUM_ADAPTIVE_THRESHOLD, maximumThreshold)), maximumThreshold);
+    }
+}
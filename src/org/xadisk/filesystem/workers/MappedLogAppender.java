@@ -0,0 +1,197 @@
+/*
+ * Engineering Ingegneria Informatica S.p.A.
+ *
+ * Copyright (C) 2023 Regione Emilia-Romagna
+ * <p/>
+ * This program is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU Affero General Public License as published by the Free Software Foundation,
+ * either version 3 of the License, or (at your option) any later version.
+ * <p/>
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU Affero General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.xadisk.filesystem.workers;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+
+/**
+ * Writes the transaction log by copying the entries into a memory-mapped window over the log
+ * file, and makes them durable by forcing only the windows which were written since the last force.
+ * <p> The window slides forward along the log file; mapping beyond the current end of the file
+ * extends the file, and the zero-filled space after the last entry is taken as the end of the log
+ * by the readers (as for the preallocated logs). A window never reaches beyond the maximum log size,
+ * except for the bytes of an entry which does not fit in a log by itself. On close, the windows are
+ * unmapped and the file is truncated to the bytes written.
+ */
+class MappedLogAppender implements TransactionLogAppender {
+
+    private final FileChannel logChannel;
+    private final long windowSize;
+    private final long logFileMaxSize;
+    private final ArrayList<MappedByteBuffer> windowsToForce = new ArrayList<MappedByteBuffer>(2);
+    private MappedByteBuffer window;
+    private long windowStart;
+    private long position = 0;
+    private ByteBuffer transferBuffer;
+
+    MappedLogAppender(FileChannel logChannel, long windowSize, long logFileMaxSize) throws IOException {
+        this.logChannel = logChannel;
+        this.windowSize = windowSize;
+        this.logFileMaxSize = logFileMaxSize;
+        mapWindowAt(0);
+    }
+
+    public long position() {
+        return position;
+    }
+
+    public long write(ByteBuffer srcs[], int offset, int length) throws IOException {
+        long n = 0;
+        for (int i = offset; i < offset + length; i++) {
+            n += write(srcs[i]);
+        }
+        return n;
+    }
+
+    public long write(ByteBuffer src) throws IOException {
+        int n = 0;
+        while (src.hasRemaining()) {
+            ensureWindowSpace(src.remaining());
+            int toCopy = Math.min(src.remaining(), window.remaining());
+            if (toCopy == src.remaining()) {
+                window.put(src);
+            } else {
+                ByteBuffer part = src.duplicate();
+                part.limit(part.position() + toCopy);
+                window.put(part);
+                src.position(src.position() + toCopy);
+            }
+            markDirty();
+            position += toCopy;
+            n += toCopy;
+        }
+        return n;
+    }
+
+    public long append(FileChannel source, long sourcePosition, long count) throws IOException {
+        if (transferBuffer == null) {
+            transferBuffer = ByteBuffer.allocateDirect(64 * 1024);
+        }
+        long n = 0;
+        while (n < count) {
+            transferBuffer.clear();
+            if (count - n < transferBuffer.capacity()) {
+                transferBuffer.limit((int) (count - n));
+            }
+            int numRead = source.read(transferBuffer, sourcePosition + n);
+            if (numRead == -1) {
+                throw new IOException("Unexpected end of file while logging its contents.");
+            }
+            transferBuffer.flip();
+            n += write(transferBuffer);
+        }
+        return n;
+    }
+
+    public void force() throws IOException {
+        for (MappedByteBuffer dirtyWindow : windowsToForce) {
+            dirtyWindow.force();
+            if (dirtyWindow != window) {
+                unmap(dirtyWindow);
+            }
+        }
+        windowsToForce.clear();
+    }
+
+    public void close() throws IOException {
+        try {
+            force();
+            unmap(window);
+            window = null;
+            try {
+                //the window may have grown the file (a preallocated one is already bigger); what
+                //lies beyond the last entry is not needed once the log is done with.
+                if (logChannel.size() > position) {
+                    logChannel.truncate(position);
+                }
+            } catch (IOException ioe) {
+                //a mapping not yet let go of by the platform; the zero-filled tail is harmless.
+            }
+        } finally {
+            logChannel.close();
+        }
+    }
+
+    private void ensureWindowSpace(int bytesToWrite) throws IOException {
+        if (!window.hasRemaining()) {
+            MappedByteBuffer previousWindow = window;
+            mapWindowAt(windowStart + window.capacity(), bytesToWrite);
+            if (!windowsToForce.contains(previousWindow)) {
+                unmap(previousWindow);
+            }
+        }
+    }
+
+    private void mapWindowAt(long start) throws IOException {
+        mapWindowAt(start, 0);
+    }
+
+    private void mapWindowAt(long start, int bytesToWrite) throws IOException {
+        long size = windowSize;
+        if (start + size > logFileMaxSize) {
+            //don't grow the log beyond its maximum size just for the sake of the window; beyond it,
+            //only an entry too big for a log by itself gets written, and only its bytes are mapped.
+            size = start < logFileMaxSize ? logFileMaxSize - start : Math.min(size, bytesToWrite);
+        }
+        window = logChannel.map(FileChannel.MapMode.READ_WRITE, start, size);
+        windowStart = start;
+        window.position((int) (position - start));
+    }
+
+    /*
+     * Lets go of the mapping right away instead of on its garbage collection. This is best effort, as
+     * there is no public API for it; the window must not be touched again.
+     */
+    private static void unmap(MappedByteBuffer mapping) {
+        if (mapping == null) {
+            return;
+        }
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+            Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            invokeCleaner.invoke(theUnsafe.get(null), mapping);
+            return;
+        } catch (Throwable t) {
+            //not available before Java 9.
+        }
+        try {
+            Method cleanerMethod = mapping.getClass().getMethod("cleaner");
+            cleanerMethod.setAccessible(true);
+            Object cleaner = cleanerMethod.invoke(mapping);
+            if (cleaner != null) {
+                cleaner.getClass().getMethod("clean").invoke(cleaner);
+            }
+        } catch (Throwable t) {
+            //left to the garbage collector.
+        }
+    }
+
+    private void markDirty() {
+        if (windowsToForce.isEmpty() || windowsToForce.get(windowsToForce.size() - 1) != window) {
+            windowsToForce.add(window);
+        }
+    }
+}
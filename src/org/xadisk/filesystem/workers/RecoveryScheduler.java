@@ -0,0 +1,244 @@
+/*
+ * Engineering Ingegneria Informatica S.p.A.
+ *
+ * Copyright (C) 2023 Regione Emilia-Romagna
+ * <p/>
+ * This program is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU Affero General Public License as published by the Free Software Foundation,
+ * either version 3 of the License, or (at your option) any later version.
+ * <p/>
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU Affero General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.xadisk.filesystem.workers;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import javax.resource.spi.work.Work;
+import javax.resource.spi.work.WorkException;
+import org.xadisk.filesystem.NativeSession;
+import org.xadisk.filesystem.NativeXAFileSystem;
+import org.xadisk.filesystem.exceptions.NoTransactionAssociatedException;
+
+/**
+ * Completes (commits or rolls back) the transactions found by the crash recovery, with a bounded
+ * number of threads.
+ * <p> The transactions are scheduled in the order they appear in the transaction logs. A transaction
+ * touching a file touched by an earlier scheduled transaction waits for that transaction to
+ * complete; the other transactions are completed in parallel, by the recovery worker and by up to
+ * (parallelism - 1) other threads. The transactions and the bytes of log content still to be
+ * replayed are kept as the progress of the recovery.
+ * <p> Once a transaction fails to complete, no more transactions are taken up (in particular, none
+ * of those waiting for it), and the failure is thrown by runAll once all the threads have stopped.
+ */
+class RecoveryScheduler {
+
+    private final int parallelism;
+    private final NativeXAFileSystem xaFileSystem;
+    private final ArrayList<RecoveryTask> tasks = new ArrayList<RecoveryTask>();
+    private final HashMap<String, RecoveryTask> lastTaskForFiles = new HashMap<String, RecoveryTask>();
+    private final LinkedList<RecoveryTask> readyTasks = new LinkedList<RecoveryTask>();
+    private final ReentrantLock tasksLock = new ReentrantLock(false);
+    private final Condition tasksProgress = tasksLock.newCondition();
+    private int remainingTasks = 0;
+    private int activeRunners = 0;
+    private Throwable failure = null;
+    private volatile long remainingBytes = 0;
+    private volatile boolean released = false;
+
+    RecoveryScheduler(int parallelism, NativeXAFileSystem xaFileSystem) {
+        this.parallelism = Math.max(parallelism, 1);
+        this.xaFileSystem = xaFileSystem;
+    }
+
+    /*
+     * To be called for the transactions in the order they appear in the logs, and before runAll.
+     */
+    void schedule(NativeSession session, boolean toCommit, HashSet<String> filesTouched, long bytesToReplay) {
+        RecoveryTask task = new RecoveryTask(session, toCommit, bytesToReplay);
+        HashSet<RecoveryTask> predecessors = new HashSet<RecoveryTask>();
+        for (String file : filesTouched) {
+            RecoveryTask predecessor = lastTaskForFiles.put(file, task);
+            if (predecessor != null && predecessors.add(predecessor)) {
+                predecessor.successors.add(task);
+                task.pendingPredecessors++;
+            }
+        }
+        if (task.pendingPredecessors == 0) {
+            readyTasks.add(task);
+        }
+        tasks.add(task);
+        remainingTasks++;
+        remainingBytes += bytesToReplay;
+    }
+
+    long getRemainingBytes() {
+        return remainingBytes;
+    }
+
+    /*
+     * Returns once all the scheduled transactions have been completed, or the scheduler released.
+     * Throws the first failure of a transaction, after all the threads completing them have stopped.
+     */
+    void runAll() throws NoTransactionAssociatedException {
+        lastTaskForFiles.clear();
+        int otherRunners = Math.min(parallelism, tasks.size()) - 1;
+        TaskRunner taskRunner = new TaskRunner();
+        runnerStarting();
+        for (int i = 0; i < otherRunners; i++) {
+            runnerStarting();
+            try {
+                xaFileSystem.startWork(taskRunner);
+            } catch (WorkException we) {
+                //the recovery worker completes the remaining transactions itself.
+                runnerStopped();
+                break;
+            }
+        }
+        taskRunner.run();
+        Throwable firstFailure;
+        try {
+            tasksLock.lock();
+            while (activeRunners > 0) {
+                tasksProgress.awaitUninterruptibly();
+            }
+            firstFailure = failure;
+        } finally {
+            tasksLock.unlock();
+        }
+        if (firstFailure instanceof NoTransactionAssociatedException) {
+            throw (NoTransactionAssociatedException) firstFailure;
+        } else if (firstFailure instanceof RuntimeException) {
+            throw (RuntimeException) firstFailure;
+        } else if (firstFailure instanceof Error) {
+            throw (Error) firstFailure;
+        }
+    }
+
+    void release() {
+        released = true;
+        try {
+            tasksLock.lock();
+            tasksProgress.signalAll();
+        } finally {
+            tasksLock.unlock();
+        }
+    }
+
+    private RecoveryTask takeNextTask() {
+        try {
+            tasksLock.lock();
+            while (readyTasks.isEmpty() && remainingTasks > 0 && !released && failure == null) {
+                tasksProgress.awaitUninterruptibly();
+            }
+            if (released || failure != null) {
+                return null;
+            }
+            return readyTasks.poll();
+        } finally {
+            tasksLock.unlock();
+        }
+    }
+
+    private void taskCompleted(RecoveryTask task) {
+        try {
+            tasksLock.lock();
+            remainingTasks--;
+            remainingBytes -= task.bytesToReplay;
+            for (RecoveryTask successor : task.successors) {
+                successor.pendingPredecessors--;
+                if (successor.pendingPredecessors == 0) {
+                    readyTasks.add(successor);
+                }
+            }
+            tasksProgress.signalAll();
+        } finally {
+            tasksLock.unlock();
+        }
+    }
+
+    /*
+     * The transactions waiting for the failed one are left waiting; the recovery is over anyway.
+     */
+    private void taskFailed(Throwable taskFailure) {
+        try {
+            tasksLock.lock();
+            if (failure == null) {
+                failure = taskFailure;
+            }
+            tasksProgress.signalAll();
+        } finally {
+            tasksLock.unlock();
+        }
+    }
+
+    private void runnerStarting() {
+        try {
+            tasksLock.lock();
+            activeRunners++;
+        } finally {
+            tasksLock.unlock();
+        }
+    }
+
+    private void runnerStopped() {
+        try {
+            tasksLock.lock();
+            activeRunners--;
+            tasksProgress.signalAll();
+        } finally {
+            tasksLock.unlock();
+        }
+    }
+
+    private class TaskRunner implements Work {
+
+        public void release() {
+        }
+
+        public void run() {
+            try {
+                RecoveryTask task;
+                while ((task = takeNextTask()) != null) {
+                    try {
+                        if (task.toCommit) {
+                            task.session.commit(true);
+                        } else {
+                            task.session.rollback();
+                        }
+                    } catch (Throwable t) {
+                        taskFailed(t);
+                        break;
+                    }
+                    taskCompleted(task);
+                }
+            } finally {
+                runnerStopped();
+            }
+        }
+    }
+
+    private static class RecoveryTask {
+
+        private final NativeSession session;
+        private final boolean toCommit;
+        private final long bytesToReplay;
+        private final ArrayList<RecoveryTask> successors = new ArrayList<RecoveryTask>(0);
+        private int pendingPredecessors = 0;
+
+        private RecoveryTask(NativeSession session, boolean toCommit, long bytesToReplay) {
+            this.session = session;
+            this.toCommit = toCommit;
+            this.bytesToReplay = bytesToReplay;
+        }
+    }
+}
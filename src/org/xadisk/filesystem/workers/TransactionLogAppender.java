@@ -0,0 +1,44 @@
+/*
+ * Engineering Ingegneria Informatica S.p.A.
+ *
+ * Copyright (C) 2023 Regione Emilia-Romagna
+ * <p/>
+ * This program is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU Affero General Public License as published by the Free Software Foundation,
+ * either version 3 of the License, or (at your option) any later version.
+ * <p/>
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU Affero General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.xadisk.filesystem.workers;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * The way the gathering disk writer puts bytes at the end of the current transaction log. All
+ * calls are made with the transaction log lock held.
+ */
+interface TransactionLogAppender {
+
+    long position() throws IOException;
+
+    long write(ByteBuffer srcs[], int offset, int length) throws IOException;
+
+    long write(ByteBuffer src) throws IOException;
+
+    /*
+     * Appends count bytes of the source channel, read from its sourcePosition onwards.
+     */
+    long append(FileChannel source, long sourcePosition, long count) throws IOException;
+
+    void force() throws IOException;
+
+    void close() throws IOException;
+}
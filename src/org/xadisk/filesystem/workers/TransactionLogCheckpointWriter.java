@@ -0,0 +1,240 @@
+/*
+ * Engineering Ingegneria Informatica S.p.A.
+ *
+ * Copyright (C) 2023 Regione Emilia-Romagna
+ * <p/>
+ * This program is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU Affero General Public License as published by the Free Software Foundation,
+ * either version 3 of the License, or (at your option) any later version.
+ * <p/>
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU Affero General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.xadisk.filesystem.workers;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.concurrent.locks.ReentrantLock;
+import org.xadisk.filesystem.NativeXAFileSystem;
+import org.xadisk.filesystem.TransactionLogChannelCache;
+import org.xadisk.filesystem.TransactionLogEntry;
+import org.xadisk.filesystem.utilities.FileIOUtility;
+import org.xadisk.filesystem.utilities.TransactionLogsUtility;
+
+/**
+ * Takes periodic checkpoints of the transaction logs, so that the recovery after a crash need not
+ * read the logs from their beginning.
+ * <p> For each log of each stream, this worker continues its pass over the log (see
+ * {@link TransactionLogScan}) from where the previous run had left it, and saves the point reached
+ * into a checkpoint file, along with the positions of the entries of the transactions still open
+ * at that point and of the entries telling the states of the transactions. A log is left once it is
+ * no more the current log of its stream and its checkpoint covers it fully. The recovery then reads
+ * only these entries and the part of each log beyond its checkpoint, so that it takes a time
+ * depending on the transactions in flight rather than on the size of the logs kept alive by them.
+ * <p> A checkpoint covers only entries already forced to the disk, and is written to a new file
+ * which then replaces the previous checkpoint of the log. The checkpoint of a log is deleted when
+ * the log is retired.
+ */
+public class TransactionLogCheckpointWriter extends TimedWorker {
+
+    private static final String CHECKPOINT_SUFFIX = ".checkpoint";
+    private static final String NEW_CHECKPOINT_SUFFIX = ".checkpoint.new";
+    private final NativeXAFileSystem xaFileSystem;
+    private final TransactionLogScan logScans[];
+    private final int nextLogIndices[];
+    private final long checkpointedTill[];
+    private final ReentrantLock checkpointLock = new ReentrantLock(false);
+    private final HashSet<Integer> retiredLogs = new HashSet<Integer>();
+    private final ByteBuffer headerBuffer = ByteBuffer.allocate(500);
+    private final ByteBuffer chunkBuffer = TransactionLogEntry.allocateChecksumChunk();
+    private volatile boolean released = false;
+
+    public TransactionLogCheckpointWriter(int frequency, int numberOfStreams, NativeXAFileSystem xaFileSystem) {
+        super(frequency);
+        this.xaFileSystem = xaFileSystem;
+        this.logScans = new TransactionLogScan[numberOfStreams];
+        this.nextLogIndices = new int[numberOfStreams];
+        this.checkpointedTill = new long[numberOfStreams];
+        for (int streamId = 0; streamId < numberOfStreams; streamId++) {
+            //the logs of this run only; those of the previous run are not written to any more.
+            nextLogIndices[streamId] = -1;
+        }
+    }
+
+    public static File getCheckpointFile(File checkpointDirectory, String logFileName) {
+        return new File(checkpointDirectory, new File(logFileName).getName() + CHECKPOINT_SUFFIX);
+    }
+
+    public static File getNewCheckpointFile(File checkpointDirectory, String logFileName) {
+        return new File(checkpointDirectory, new File(logFileName).getName() + NEW_CHECKPOINT_SUFFIX);
+    }
+
+    public static boolean isCheckpointFileName(String fileName) {
+        return fileName.endsWith(CHECKPOINT_SUFFIX) || fileName.endsWith(NEW_CHECKPOINT_SUFFIX);
+    }
+
+    public static String getLogFileName(String checkpointFileName) {
+        return checkpointFileName.substring(0, checkpointFileName.lastIndexOf(CHECKPOINT_SUFFIX));
+    }
+
+    @Override
+    void doWorkOnce() {
+        try {
+            for (int streamId = 0; streamId < logScans.length && !released; streamId++) {
+                checkpointLogsOfStream(xaFileSystem.getTransactionLogSegmentManagers()[streamId]);
+            }
+        } catch (Throwable t) {
+            if (!released) {
+                //not a failure if the log channels got closed by the shutdown.
+                xaFileSystem.notifySystemFailure(t);
+            }
+        }
+    }
+
+    private void checkpointLogsOfStream(TransactionLogSegmentManager segmentManager) throws IOException {
+        int streamId = segmentManager.getStreamId();
+        while (!released) {
+            int currentLogIndex = segmentManager.getCurrentLogIndex();
+            TransactionLogScan logScan;
+            try {
+                checkpointLock.lock();
+                if (logScans[streamId] == null) {
+                    int logIndex = nextLogIndices[streamId] == -1 ? currentLogIndex : nextLogIndices[streamId];
+                    logScans[streamId] = new TransactionLogScan(logIndex);
+                    checkpointedTill[streamId] = 0;
+                }
+                logScan = logScans[streamId];
+            } finally {
+                checkpointLock.unlock();
+            }
+            //a log which is no more the current one has been forced and closed by the gathering disk writer.
+            boolean sealed = logScan.getLogIndex() != currentLogIndex;
+            if (checkpointLog(segmentManager, logScan) && !sealed) {
+                return;
+            }
+            try {
+                checkpointLock.lock();
+                logScans[streamId] = null;
+                nextLogIndices[streamId] = logScan.getLogIndex() + 1;
+                Iterator<Integer> retiredLogsIter = retiredLogs.iterator();
+                while (retiredLogsIter.hasNext()) {
+                    int retiredLog = retiredLogsIter.next();
+                    if (TransactionLogsUtility.getLogStreamId(retiredLog) == streamId
+                            && retiredLog < nextLogIndices[streamId]) {
+                        retiredLogsIter.remove();
+                    }
+                }
+            } finally {
+                checkpointLock.unlock();
+            }
+        }
+    }
+
+    /*
+     * Returns false if the log has been retired.
+     */
+    private boolean checkpointLog(TransactionLogSegmentManager segmentManager, TransactionLogScan logScan)
+            throws IOException {
+        int logIndex = logScan.getLogIndex();
+        int streamId = segmentManager.getStreamId();
+        if (isRetired(logIndex)) {
+            return false;
+        }
+        TransactionLogChannelCache logChannelCache = xaFileSystem.getTransactionLogChannelCache();
+        FileChannel logChannel;
+        try {
+            logChannel = logChannelCache.acquireChannel(logIndex);
+        } catch (FileNotFoundException fnfe) {
+            return false;
+        }
+        try {
+            logScan.scan(logChannel, headerBuffer, chunkBuffer);
+            if (logScan.getScannedTill() == checkpointedTill[streamId]) {
+                return true;
+            }
+            logChannel.force(false);
+            File checkpointFile = segmentManager.getCheckpointFile(logIndex);
+            File newCheckpointFile = segmentManager.getNewCheckpointFile(logIndex);
+            logScan.writeCheckpoint(newCheckpointFile);
+            try {
+                checkpointLock.lock();
+                if (retiredLogs.contains(logIndex)) {
+                    //may have been deleted already, if the log got retired while the checkpoint was written.
+                    if (newCheckpointFile.exists()) {
+                        FileIOUtility.deleteFile(newCheckpointFile);
+                    }
+                    return false;
+                }
+                if (!newCheckpointFile.renameTo(checkpointFile)) {
+                    if (checkpointFile.exists()) {
+                        FileIOUtility.deleteFile(checkpointFile);
+                    }
+                    FileIOUtility.renameTo(newCheckpointFile, checkpointFile);
+                }
+            } finally {
+                checkpointLock.unlock();
+            }
+            checkpointedTill[streamId] = logScan.getScannedTill();
+            return true;
+        } finally {
+            logChannelCache.releaseChannel(logIndex);
+        }
+    }
+
+    private boolean isRetired(int logIndex) {
+        try {
+            checkpointLock.lock();
+            return retiredLogs.contains(logIndex);
+        } finally {
+            checkpointLock.unlock();
+        }
+    }
+
+    /*
+     * Called by the segment manager before it deletes the log, or renames it into the pool.
+     */
+    public void logRetired(int logIndex) throws IOException {
+        TransactionLogSegmentManager segmentManager = xaFileSystem.getTransactionLogSegmentManager(logIndex);
+        int streamId = TransactionLogsUtility.getLogStreamId(logIndex);
+        try {
+            checkpointLock.lock();
+            TransactionLogScan logScan = logScans[streamId];
+            int nextLogIndex = logScan == null ? nextLogIndices[streamId] : logScan.getLogIndex();
+            if (nextLogIndex != -1 && logIndex >= nextLogIndex) {
+                //remembered till this worker goes past the log.
+                retiredLogs.add(logIndex);
+            }
+            File checkpointFile = segmentManager.getCheckpointFile(logIndex);
+            if (checkpointFile.exists()) {
+                FileIOUtility.deleteFile(checkpointFile);
+            }
+            File newCheckpointFile = segmentManager.getNewCheckpointFile(logIndex);
+            if (newCheckpointFile.exists()) {
+                FileIOUtility.deleteFile(newCheckpointFile);
+            }
+        } finally {
+            checkpointLock.unlock();
+        }
+    }
+
+    @Override
+    public void release() {
+        released = true;
+        super.release();
+    }
+
+    @Override
+    public void run() {
+        super.run();
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * Engineering Ingegneria Informatica S.p.A.
+ *
+ * Copyright (C) 2023 Regione Emilia-Romagna
+ * <p/>
+ * This program is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU Affero General Public License as published by the Free Software Foundation,
+ * either version 3 of the License, or (at your option) any later version.
+ * <p/>
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU Affero General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.xadisk.filesystem.workers;
+
+import org.xadisk.filesystem.NativeXAFileSystem;
+
+/**
+ * Periodically compacts the transaction logs of each stream (see
+ * {@link GatheringDiskWriter#compactTransactionLogs()}), so that an active transaction which has
+ * written a few log entries long ago does not keep alive the logs holding them, along with all the
+ * entries of the other transactions written there since.
+ */
+public class TransactionLogCompactor extends TimedWorker {
+
+    private final NativeXAFileSystem xaFileSystem;
+    private volatile boolean released = false;
+
+    public TransactionLogCompactor(int frequency, NativeXAFileSystem xaFileSystem) {
+        super(frequency);
+        this.xaFileSystem = xaFileSystem;
+    }
+
+    @Override
+    void doWorkOnce() {
+        try {
+            GatheringDiskWriter gatheringDiskWriters[] = xaFileSystem.getGatheringDiskWriters();
+            for (int streamId = 0; streamId < gatheringDiskWriters.length && !released; streamId++) {
+                gatheringDiskWriters[streamId].compactTransactionLogs();
+            }
+        } catch (Throwable t) {
+            if (!released) {
+                //not a failure if the logs got closed by the shutdown.
+                xaFileSystem.notifySystemFailure(t);
+            }
+        }
+    }
+
+    @Override
+    public void release() {
+        released = true;
+        super.release();
+    }
+
+    @Override
+    public void run() {
+        super.run();
+    }
+}
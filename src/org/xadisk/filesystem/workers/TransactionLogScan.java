@@ -0,0 +1,352 @@
+/*
+ * Engineering Ingegneria Informatica S.p.A.
+ *
+ * Copyright (C) 2023 Regione Emilia-Romagna
+ * <p/>
+ * This program is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU Affero General Public License as published by the Free Software Foundation,
+ * either version 3 of the License, or (at your option) any later version.
+ * <p/>
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU Affero General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.xadisk.filesystem.workers;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import org.xadisk.filesystem.TransactionInformation;
+import org.xadisk.filesystem.TransactionLogEntry;
+import org.xadisk.filesystem.utilities.CRC32CChecksum;
+import org.xadisk.filesystem.utilities.MiscUtils;
+
+/**
+ * What a pass over one transaction log has found: the entries telling the state of the transactions,
+ * in the order they were written, and the candidate log positions (and other recovery data) of all
+ * the transactions still open at the point the pass has reached. Whether a transaction is to be
+ * recovered is known only after merging the states found in all the logs.
+ * <p> A pass can be resumed later from the point it reached, and that point can be saved into a
+ * checkpoint file along with the positions of the entries found so far; a pass restored from such a
+ * checkpoint reads only those entries, and then the rest of the log.
+ * <p> The entries carried by a TRANSACTION_LOG_COMPACTED entry are taken as found at their places
+ * inside it, and replace whatever was found for the transaction before it; the recovery also drops
+ * what was found for such a transaction in the earlier logs.
+ */
+class TransactionLogScan {
+
+    private static final int CHECKPOINT_MAGIC = 0x58444350;
+    private static final int CHECKPOINT_VERSION = 1;
+    private final int logIndex;
+    private final ArrayList<TransactionLogEntry> completionEntries = new ArrayList<TransactionLogEntry>();
+    private final ArrayList<Long> completionEntryPositions = new ArrayList<Long>();
+    private final HashMap<TransactionInformation, TransactionInLog> openTransactions =
+            new HashMap<TransactionInformation, TransactionInLog>();
+    private long scannedTill = 0;
+
+    TransactionLogScan(int logIndex) {
+        this.logIndex = logIndex;
+    }
+
+    int getLogIndex() {
+        return logIndex;
+    }
+
+    long getScannedTill() {
+        return scannedTill;
+    }
+
+    ArrayList<TransactionLogEntry> getCompletionEntries() {
+        return completionEntries;
+    }
+
+    Map<TransactionInformation, TransactionInLog> getOpenTransactions() {
+        return openTransactions;
+    }
+
+    /*
+     * Continues the pass till the end of the valid entries of the log.
+     */
+    void scan(FileChannel logChannel, ByteBuffer headerBuffer, ByteBuffer chunkBuffer) throws IOException {
+        long logSize = logChannel.size();
+        boolean unversionedLog = TransactionLogEntry.isUnversionedLog(logChannel, headerBuffer);
+        while (true) {
+            TransactionLogEntry logEntry;
+            try {
+                logEntry = TransactionLogEntry.getNextVerifiedTransactionLogEntry(logChannel, scannedTill, logSize,
+                        unversionedLog, headerBuffer, chunkBuffer);
+            } catch (EOFException eofe) {
+                //a torn entry at the tail (or one being written); it and anything after it is left.
+                return;
+            }
+            record(logEntry, scannedTill, logChannel, false);
+            scannedTill += logEntry.getHeaderLength() + logEntry.getFileContentLength();
+        }
+    }
+
+    private void record(TransactionLogEntry logEntry, long position, FileChannel logChannel,
+            boolean inCompactionEntry) throws IOException {
+        byte operationType = logEntry.getOperationType();
+        TransactionInformation xid = logEntry.getXid();
+        switch (operationType) {
+            case TransactionLogEntry.TXN_COMMIT_DONE:
+            case TransactionLogEntry.TXN_ROLLBACK_DONE:
+                //the transaction is over; nothing found for it so far in this log is needed.
+                openTransactions.remove(xid);
+                addCompletionEntry(logEntry, position, inCompactionEntry);
+                return;
+            case TransactionLogEntry.TRANSACTION_LOG_COMPACTED:
+                recordCompactedEntries(logEntry, position, logChannel);
+                return;
+            case TransactionLogEntry.COMMIT_BEGINS:
+            case TransactionLogEntry.PREPARE_COMPLETES:
+            case TransactionLogEntry.TXN_USES_UNDO_LOGS:
+            case TransactionLogEntry.EVENT_ENQUEUE:
+            case TransactionLogEntry.EVENT_DEQUEUE:
+            case TransactionLogEntry.PREPARE_COMPLETES_FOR_EVENT_DEQUEUE:
+            case TransactionLogEntry.REMOTE_ENDPOINT_ACTIVATES:
+            case TransactionLogEntry.REMOTE_ENDPOINT_DEACTIVATES:
+                addCompletionEntry(logEntry, position, inCompactionEntry);
+                return;
+        }
+        boolean candidate = logEntry.isRedoLogEntry() || logEntry.isUndoLogEntry();
+        if (!candidate && operationType != TransactionLogEntry.CHECKPOINT_AVOIDING_COPY_OR_MOVE_REDO) {
+            return;
+        }
+        TransactionInLog transaction = openTransactions.get(xid);
+        if (transaction == null) {
+            transaction = new TransactionInLog();
+            openTransactions.put(xid, transaction);
+        }
+        if (candidate) {
+            transaction.candidatePositions.add(logEntry.isUndoLogEntry() ? position : -position - 1);
+            transaction.addFilesAndBytes(logEntry);
+        }
+        switch (operationType) {
+            case TransactionLogEntry.CHECKPOINT_AVOIDING_COPY_OR_MOVE_REDO:
+                transaction.checkPointPositions.add(position);
+                if (transaction.latestCheckPoint < logEntry.getCheckPointPosition()) {
+                    transaction.latestCheckPoint = logEntry.getCheckPointPosition();
+                }
+                break;
+            case TransactionLogEntry.FILES_ALREADY_ONDISK:
+                transaction.filesWithLatestViewOnDisk = logEntry.getFileList();
+                break;
+            case TransactionLogEntry.FILE_ID_DECLARE:
+                if (transaction.declaredFileNames == null) {
+                    transaction.declaredFileNames = new HashMap<Integer, String>();
+                }
+                transaction.declaredFileNames.put(logEntry.getFileId(), logEntry.getFileName());
+                break;
+        }
+    }
+
+    /*
+     * The copies replace all that has been found for the transaction; the checkpoint keeps only the
+     * position of the compaction entry, not those of the copies inside it.
+     */
+    private void recordCompactedEntries(TransactionLogEntry compactionEntry, long position, FileChannel logChannel)
+            throws IOException {
+        TransactionInLog transaction = new TransactionInLog();
+        transaction.compactionEntryPosition = position;
+        openTransactions.put(compactionEntry.getXid(), transaction);
+        long copyPosition = position + compactionEntry.getHeaderLength();
+        long copiesEnd = copyPosition + compactionEntry.getFileContentLength();
+        while (copyPosition < copiesEnd) {
+            //verified along with the compaction entry.
+            TransactionLogEntry copy = TransactionLogEntry.readTransactionLogEntry(logChannel, copyPosition);
+            record(copy, copyPosition, logChannel, true);
+            copyPosition += copy.getHeaderLength() + copy.getFileContentLength();
+        }
+        transaction.candidatesInCompactionEntry = transaction.candidatePositions.size();
+        transaction.checkPointsInCompactionEntry = transaction.checkPointPositions.size();
+    }
+
+    private void addCompletionEntry(TransactionLogEntry logEntry, long position, boolean inCompactionEntry) {
+        completionEntries.add(logEntry);
+        if (!inCompactionEntry) {
+            completionEntryPositions.add(position);
+        }
+    }
+
+    /*
+     * Writes the positions of the entries found so far, and the point reached, into the checkpoint
+     * file. The entries before that point must already be on the disk.
+     */
+    void writeCheckpoint(File checkpointFile) throws IOException {
+        ArrayList<Long> positions = new ArrayList<Long>(completionEntryPositions);
+        for (TransactionInLog transaction : openTransactions.values()) {
+            if (transaction.compactionEntryPosition != -1) {
+                positions.add(transaction.compactionEntryPosition);
+            }
+            for (int i = transaction.candidatesInCompactionEntry; i < transaction.candidatePositions.size(); i++) {
+                long candidatePosition = transaction.candidatePositions.get(i);
+                positions.add(candidatePosition >= 0 ? candidatePosition : -candidatePosition - 1);
+            }
+            positions.addAll(transaction.checkPointPositions.subList(transaction.checkPointsInCompactionEntry,
+                    transaction.checkPointPositions.size()));
+        }
+        long sortedPositions[] = new long[positions.size()];
+        for (int i = 0; i < sortedPositions.length; i++) {
+            sortedPositions[i] = positions.get(i);
+        }
+        Arrays.sort(sortedPositions);
+        ByteBuffer checkpoint = ByteBuffer.allocate(4 + 4 + 4 + 8 + 4 + 8 * sortedPositions.length + 4);
+        checkpoint.putInt(CHECKPOINT_MAGIC);
+        checkpoint.putInt(CHECKPOINT_VERSION);
+        checkpoint.putInt(logIndex);
+        checkpoint.putLong(scannedTill);
+        checkpoint.putInt(sortedPositions.length);
+        for (int i = 0; i < sortedPositions.length; i++) {
+            checkpoint.putLong(sortedPositions[i]);
+        }
+        CRC32CChecksum checksum = new CRC32CChecksum();
+        checksum.update(checkpoint, 0, checkpoint.position());
+        checkpoint.putInt((int) checksum.getValue());
+        FileOutputStream checkpointStream = new FileOutputStream(checkpointFile);
+        try {
+            checkpointStream.write(checkpoint.array());
+            checkpointStream.getChannel().force(false);
+        } finally {
+            MiscUtils.closeAll(checkpointStream);
+        }
+    }
+
+    /*
+     * Restores this (new) pass from the checkpoint file, by reading again only the entries whose
+     * positions were saved. Returns false, leaving the pass as it was, if the checkpoint is not valid
+     * for the log.
+     */
+    boolean restoreFromCheckpoint(File checkpointFile, FileChannel logChannel) throws IOException {
+        if (!checkpointFile.isFile() || checkpointFile.length() > Integer.MAX_VALUE) {
+            return false;
+        }
+        byte checkpointBytes[] = new byte[(int) checkpointFile.length()];
+        FileInputStream checkpointStream = new FileInputStream(checkpointFile);
+        try {
+            new DataInputStream(checkpointStream).readFully(checkpointBytes);
+        } finally {
+            MiscUtils.closeAll(checkpointStream);
+        }
+        ByteBuffer checkpoint = ByteBuffer.wrap(checkpointBytes);
+        if (checkpointBytes.length < 4 + 4 + 4 + 8 + 4 + 4 || checkpoint.getInt() != CHECKPOINT_MAGIC
+                || checkpoint.getInt() != CHECKPOINT_VERSION || checkpoint.getInt() != logIndex) {
+            return false;
+        }
+        CRC32CChecksum checksum = new CRC32CChecksum();
+        checksum.update(checkpoint, 0, checkpointBytes.length - 4);
+        if ((int) checksum.getValue() != checkpoint.getInt(checkpointBytes.length - 4)) {
+            return false;
+        }
+        long checkpointScannedTill = checkpoint.getLong();
+        int numPositions = checkpoint.getInt();
+        if (checkpointScannedTill > logChannel.size() || checkpointBytes.length != 4 + 4 + 4 + 8 + 4 + 8 * numPositions + 4) {
+            return false;
+        }
+        for (int i = 0; i < numPositions; i++) {
+            long position = checkpoint.getLong();
+            //these entries were verified when the checkpoint was taken.
+            record(TransactionLogEntry.readTransactionLogEntry(logChannel, position), position, logChannel, false);
+        }
+        scannedTill = checkpointScannedTill;
+        return true;
+    }
+
+    /*
+     * What has been found for a transaction which is still open at the point the pass has reached.
+     */
+    static class TransactionInLog {
+
+        //an undo entry is kept as its position, a redo entry as (-position - 1).
+        private final ArrayList<Long> candidatePositions = new ArrayList<Long>();
+        private final ArrayList<Long> checkPointPositions = new ArrayList<Long>(0);
+        private int latestCheckPoint = -1;
+        private HashSet<File> filesWithLatestViewOnDisk;
+        private HashMap<Integer, String> declaredFileNames;
+        private long compactionEntryPosition = -1;
+        private int candidatesInCompactionEntry = 0;
+        private int checkPointsInCompactionEntry = 0;
+        //the files named by the candidates, and the file numbers of the appends naming no file; the
+        //undo entries are kept apart, as only these are recovered for a transaction being rolled back.
+        private final HashSet<String> redoFileNames = new HashSet<String>(4);
+        private final HashSet<Integer> redoFileIds = new HashSet<Integer>(4);
+        private final HashSet<String> undoFileNames = new HashSet<String>(0);
+        private long appendedBytes = 0;
+        private long undoTruncatedBytes = 0;
+
+        private void addFilesAndBytes(TransactionLogEntry logEntry) {
+            HashSet<String> fileNames = logEntry.isUndoLogEntry() ? undoFileNames : redoFileNames;
+            byte operationType = logEntry.getOperationType();
+            if (logEntry.getFileName() != null) {
+                fileNames.add(logEntry.getFileName());
+            } else if (operationType == TransactionLogEntry.FILE_APPEND) {
+                redoFileIds.add(logEntry.getFileId());
+            }
+            if (logEntry.getDestFileName() != null) {
+                fileNames.add(logEntry.getDestFileName());
+            }
+            if (operationType == TransactionLogEntry.FILE_APPEND) {
+                appendedBytes += logEntry.getFileContentLength();
+            } else if (operationType == TransactionLogEntry.UNDOABLE_FILE_TRUNCATE) {
+                undoTruncatedBytes += logEntry.getFileContentLength();
+            }
+        }
+
+        ArrayList<Long> getCandidatePositions() {
+            return candidatePositions;
+        }
+
+        int getLatestCheckPoint() {
+            return latestCheckPoint;
+        }
+
+        HashSet<File> getFilesWithLatestViewOnDisk() {
+            return filesWithLatestViewOnDisk;
+        }
+
+        HashMap<Integer, String> getDeclaredFileNames() {
+            return declaredFileNames;
+        }
+
+        HashSet<String> getRedoFileNames() {
+            return redoFileNames;
+        }
+
+        HashSet<Integer> getRedoFileIds() {
+            return redoFileIds;
+        }
+
+        HashSet<String> getUndoFileNames() {
+            return undoFileNames;
+        }
+
+        long getAppendedBytes() {
+            return appendedBytes;
+        }
+
+        long getUndoTruncatedBytes() {
+            return undoTruncatedBytes;
+        }
+
+        /*
+         * Whether this transaction's entries in the earlier logs are superseded by the copies found here.
+         */
+        boolean isCompacted() {
+            return compactionEntryPosition != -1;
+        }
+    }
+}
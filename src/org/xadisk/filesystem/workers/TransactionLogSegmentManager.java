@@ -0,0 +1,313 @@
+/*
+ * Engineering Ingegneria Informatica S.p.A.
+ *
+ * Copyright (C) 2023 Regione Emilia-Romagna
+ * <p/>
+ * This program is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU Affero General Public License as published by the Free Software Foundation,
+ * either version 3 of the License, or (at your option) any later version.
+ * <p/>
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU Affero General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.xadisk.filesystem.workers;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.LinkedList;
+import java.util.concurrent.locks.ReentrantLock;
+import org.xadisk.filesystem.DurableDiskSession;
+import org.xadisk.filesystem.NativeXAFileSystem;
+import org.xadisk.filesystem.utilities.FileIOUtility;
+import org.xadisk.filesystem.utilities.TransactionLogsUtility;
+
+/**
+ * Hands out the files backing the transaction logs, and takes them back once they are no more
+ * required.
+ * <p> When a pool size is configured, the files taken back are not deleted; they are renamed into
+ * a pool directory, filled with zeroes (so that no stale log entry survives) and kept there
+ * preallocated to the maximum transaction log size. A new transaction log then starts from such
+ * a ready file, and the writes to it never extend the file. The zero-filling is done by this
+ * worker in the background, and new ready files are created the same way when the pool runs short.
+ * <p> There is one such manager per transaction log stream. The log indices it hands out and takes
+ * back carry its stream id (see {@link TransactionLogsUtility#getLogIndexAcrossStreams}).
+ */
+public class TransactionLogSegmentManager extends EventWorker {
+
+    private static final String READY_SEGMENT_PREFIX = "ready_";
+    private static final String DIRTY_SEGMENT_PREFIX = "dirty_";
+    private static final int ZERO_FILL_CHUNK = 1024 * 1024;
+    private final int streamId;
+    private final String transactionLogBaseName;
+    private final File poolDirectory;
+    private final File checkpointDirectory;
+    private final long segmentSize;
+    private final int poolSize;
+    private final NativeXAFileSystem xaFileSystem;
+    private final ReentrantLock poolLock = new ReentrantLock(false);
+    private final ReentrantLock fillLock = new ReentrantLock(false);
+    private volatile boolean released = false;
+    private final LinkedList<File> readySegments = new LinkedList<File>();
+    private final LinkedList<File> dirtySegments = new LinkedList<File>();
+    private int segmentsBeingFilled = 0;
+    private int nextPoolFileNumber = 0;
+    private volatile int nextLogIndex = 0;
+
+    public TransactionLogSegmentManager(int streamId, String transactionLogBaseName, File poolDirectory,
+            File checkpointDirectory, long segmentSize, int poolSize, NativeXAFileSystem xaFileSystem) {
+        this.streamId = streamId;
+        this.transactionLogBaseName = transactionLogBaseName;
+        this.poolDirectory = poolDirectory;
+        this.checkpointDirectory = checkpointDirectory;
+        this.segmentSize = segmentSize;
+        this.poolSize = Math.max(poolSize, 0);
+        this.xaFileSystem = xaFileSystem;
+    }
+
+    /*
+     * Finds the next log index from a single listing of the logs directory, and
+     * picks up the files left in the pool by the previous run.
+     */
+    public void initialize() throws IOException {
+        File logsDir = new File(transactionLogBaseName).getParentFile();
+        String logFilePrefix = getLogFilePrefix();
+        String logNames[] = FileIOUtility.listDirectoryContents(logsDir);
+        for (int i = 0; i < logNames.length; i++) {
+            int logIndex = TransactionLogsUtility.getLogIndexInStream(logNames[i], logFilePrefix);
+            if (logIndex != -1) {
+                nextLogIndex = Math.max(nextLogIndex, logIndex + 1);
+            }
+        }
+        removeOrphanCheckpoints();
+        if (poolSize == 0) {
+            return;
+        }
+        xaFileSystem.createDurableDiskSession().createDirectoriesIfRequired(poolDirectory);
+        String pooledNames[] = FileIOUtility.listDirectoryContents(poolDirectory);
+        for (int i = 0; i < pooledNames.length; i++) {
+            File pooled = new File(poolDirectory, pooledNames[i]);
+            int number = TransactionLogsUtility.getLogIndexInStream(pooledNames[i], READY_SEGMENT_PREFIX);
+            if (number == -1) {
+                number = TransactionLogsUtility.getLogIndexInStream(pooledNames[i], DIRTY_SEGMENT_PREFIX);
+            }
+            if (number == -1) {
+                //not a file of the pool; left alone.
+                continue;
+            }
+            nextPoolFileNumber = Math.max(nextPoolFileNumber, number + 1);
+            if (pooledNames[i].startsWith(READY_SEGMENT_PREFIX) && pooled.length() == segmentSize) {
+                readySegments.add(pooled);
+            } else {
+                //a partially filled segment, or one filled for a different segment size.
+                dirtySegments.add(pooled);
+            }
+        }
+        raiseEvent();
+    }
+
+    /*
+     * Removes the checkpoints left behind by logs which were retired just before a crash.
+     */
+    private void removeOrphanCheckpoints() throws IOException {
+        xaFileSystem.createDurableDiskSession().createDirectoriesIfRequired(checkpointDirectory);
+        String checkpointNames[] = FileIOUtility.listDirectoryContents(checkpointDirectory);
+        File logsDir = getLogsDirectory();
+        for (int i = 0; i < checkpointNames.length; i++) {
+            if (!TransactionLogCheckpointWriter.isCheckpointFileName(checkpointNames[i])
+                    || !new File(logsDir, TransactionLogCheckpointWriter.getLogFileName(checkpointNames[i])).exists()) {
+                FileIOUtility.deleteFile(new File(checkpointDirectory, checkpointNames[i]));
+            }
+        }
+    }
+
+    /*
+     * Called by the gathering disk writer (holding its log lock) whenever it starts a new log.
+     */
+    public FileChannel openNextSegment() throws IOException {
+        if (nextLogIndex == TransactionLogsUtility.MAX_LOG_INDEX_IN_STREAM) {
+            throw new IOException("Transaction logs seems to be over...cannot proceed.");
+        }
+        File nextTransactionLog = new File(transactionLogBaseName + "_" + nextLogIndex);
+        File readySegment = null;
+        try {
+            poolLock.lock();
+            readySegment = readySegments.poll();
+        } finally {
+            poolLock.unlock();
+        }
+        if (readySegment != null) {
+            DurableDiskSession diskSession = xaFileSystem.createDurableDiskSession();
+            diskSession.renameTo(readySegment, nextTransactionLog);
+            diskSession.forceToDisk();
+            raiseEvent();
+        }
+        nextLogIndex++;
+        return new RandomAccessFile(nextTransactionLog, "rw").getChannel();
+    }
+
+    public int getCurrentLogIndex() {
+        return TransactionLogsUtility.getLogIndexAcrossStreams(streamId, nextLogIndex - 1);
+    }
+
+    public int getStreamId() {
+        return streamId;
+    }
+
+    public File getLogsDirectory() {
+        return new File(transactionLogBaseName).getParentFile();
+    }
+
+    /*
+     * The names of the transaction logs in the logs directory are this prefix followed by the log index.
+     */
+    public String getLogFilePrefix() {
+        return new File(transactionLogBaseName).getName() + "_";
+    }
+
+    public String getLogFileName(int logIndex) {
+        return transactionLogBaseName + "_" + TransactionLogsUtility.getLogIndexInStream(logIndex);
+    }
+
+    public File getCheckpointFile(int logIndex) {
+        return TransactionLogCheckpointWriter.getCheckpointFile(checkpointDirectory, getLogFileName(logIndex));
+    }
+
+    public File getNewCheckpointFile(int logIndex) {
+        return TransactionLogCheckpointWriter.getNewCheckpointFile(checkpointDirectory, getLogFileName(logIndex));
+    }
+
+    /*
+     * Called instead of deleting a transaction log which is no more required.
+     */
+    public void retireSegment(int logIndex) throws IOException {
+        xaFileSystem.getTransactionLogCheckpointWriter().logRetired(logIndex);
+        if (xaFileSystem.getTransactionLogChannelCache().logRetired(logIndex)) {
+            disposeSegment(logIndex);
+        }
+    }
+
+    /*
+     * Deletes a retired log, or renames it into the pool; called once no reader has the log open,
+     * as a pooled file gets filled with zeroes and then becomes a new log.
+     */
+    public void disposeSegment(int logIndex) throws IOException {
+        File logFile = new File(getLogFileName(logIndex));
+        DurableDiskSession diskSession = xaFileSystem.createDurableDiskSession();
+        try {
+            poolLock.lock();
+            if (readySegments.size() + dirtySegments.size() + segmentsBeingFilled >= poolSize) {
+                diskSession.deleteFileDurably(logFile);
+                return;
+            }
+            File pooled = new File(poolDirectory, DIRTY_SEGMENT_PREFIX + nextPoolFileNumber++);
+            diskSession.renameTo(logFile, pooled);
+            diskSession.forceToDisk();
+            dirtySegments.add(pooled);
+        } finally {
+            poolLock.unlock();
+        }
+        raiseEvent();
+    }
+
+    @Override
+    void processEvent() {
+        try {
+            fillLock.lock();
+            while (!released) {
+                File segmentToFill;
+                try {
+                    poolLock.lock();
+                    segmentToFill = dirtySegments.poll();
+                    if (segmentToFill == null) {
+                        if (readySegments.size() + segmentsBeingFilled >= poolSize) {
+                            return;
+                        }
+                        segmentToFill = new File(poolDirectory, DIRTY_SEGMENT_PREFIX + nextPoolFileNumber++);
+                    }
+                    segmentsBeingFilled++;
+                } finally {
+                    poolLock.unlock();
+                }
+                File readySegment = new File(poolDirectory, READY_SEGMENT_PREFIX
+                        + segmentToFill.getName().substring(DIRTY_SEGMENT_PREFIX.length()));
+                try {
+                    if (!fillWithZeroes(segmentToFill)) {
+                        //left as it is; it will be picked up as a dirty segment on the next boot.
+                        return;
+                    }
+                    DurableDiskSession diskSession = xaFileSystem.createDurableDiskSession();
+                    diskSession.renameTo(segmentToFill, readySegment);
+                    diskSession.forceToDisk();
+                } finally {
+                    try {
+                        poolLock.lock();
+                        segmentsBeingFilled--;
+                    } finally {
+                        poolLock.unlock();
+                    }
+                }
+                try {
+                    poolLock.lock();
+                    readySegments.add(readySegment);
+                } finally {
+                    poolLock.unlock();
+                }
+            }
+        } catch (Throwable t) {
+            xaFileSystem.notifySystemFailure(t);
+        } finally {
+            fillLock.unlock();
+        }
+    }
+
+    private boolean fillWithZeroes(File segment) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(segment, "rw");
+        try {
+            FileChannel segmentChannel = raf.getChannel();
+            ByteBuffer zeroes = ByteBuffer.allocateDirect(ZERO_FILL_CHUNK);
+            long position = 0;
+            while (position < segmentSize) {
+                if (released) {
+                    return false;
+                }
+                zeroes.clear();
+                if (segmentSize - position < ZERO_FILL_CHUNK) {
+                    zeroes.limit((int) (segmentSize - position));
+                }
+                position += segmentChannel.write(zeroes, position);
+            }
+            if (segmentChannel.size() > segmentSize) {
+                segmentChannel.truncate(segmentSize);
+            }
+            segmentChannel.force(true);
+            return true;
+        } finally {
+            raf.close();
+        }
+    }
+
+    @Override
+    public void release() {
+        released = true;
+        super.release();
+        try {
+            //wait for a fill in progress to stop, so that no pool file gets touched after the shutdown.
+            fillLock.lock();
+        } finally {
+            fillLock.unlock();
+        }
+    }
+
+    @Override
+    public void run() {
+        super.run();
+    }
+}
@@ -17,10 +17,14 @@
 
 package org.xadisk.tests.correctness;
 
+import com.sun.jdi.Bootstrap;
 import com.sun.jdi.Method;
 import com.sun.jdi.ReferenceType;
 import com.sun.jdi.ThreadReference;
 import com.sun.jdi.VirtualMachine;
+import com.sun.jdi.connect.Connector.Argument;
+import com.sun.jdi.connect.Connector.StringArgument;
+import com.sun.jdi.connect.LaunchingConnector;
 import com.sun.jdi.event.BreakpointEvent;
 import com.sun.jdi.event.ClassPrepareEvent;
 import com.sun.jdi.event.Event;
@@ -40,6 +44,7 @@ import com.sun.jdi.request.StepRequest;
 import com.sun.jdi.request.ThreadStartRequest;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Map;
 
 public class JVMCrashTrigger implements Runnable {
 
@@ -81,6 +86,39 @@ public class JVMCrashTrigger implements Runnable {
         interestingClassesAndMethodNames.put(class2, methods2);
     }
 
+    /*Crashes the VM when the given method is entered for the first time, by whichever thread; this
+    reaches the points where the work has been handed over to the threads of XADisk.
+     */
+    public JVMCrashTrigger(VirtualMachine vm, String crashPointClass, String crashPointMethod) {
+        this.vm = vm;
+        this.queue = vm.eventQueue();
+        this.erManager = vm.eventRequestManager();
+        this.transactionDemarcatingThread = null;
+        this.crashAtBreakpointNumber = 1;
+        ArrayList<String> methods = new ArrayList<String>();
+        methods.add(crashPointMethod);
+        interestingClassesAndMethodNames.put(crashPointClass, methods);
+    }
+
+    /*Launches the given main class with its arguments in a debugee JVM, using the classpath of this
+    JVM, and crashes it at the given crash point.
+     */
+    public static Process powerOnJVMAsDebugeeForCrash(String mainClassAndArguments, String crashPointClass,
+            String crashPointMethod) throws Exception {
+        LaunchingConnector connector = Bootstrap.virtualMachineManager().defaultConnector();
+        Map<String, ? extends Argument> connectorArguments = connector.defaultArguments();
+        StringArgument mainArgument = (StringArgument) connectorArguments.get("main");
+        mainArgument.setValue(mainClassAndArguments);
+        StringArgument optionsArgument = (StringArgument) connectorArguments.get("options");
+        optionsArgument.setValue("-classpath " + System.getProperty("java.class.path"));
+        VirtualMachine vm = connector.launch(connectorArguments);
+        new Thread(new JVMCrashTrigger(vm, crashPointClass, crashPointMethod)).start();
+        Process jvmProcess = vm.process();
+        new Thread(new ChildProcessOutputStreamReader(jvmProcess.getErrorStream(), System.err)).start();
+        new Thread(new ChildProcessOutputStreamReader(jvmProcess.getInputStream(), System.out)).start();
+        return jvmProcess;
+    }
+
     public void run() {
         int breakPointsEncountered = 0;
         thisRunnable:
@@ -104,7 +142,14 @@ public class JVMCrashTrigger implements Runnable {
                         ArrayList<String> interestingMethodsInClass = interestingClassesAndMethodNames.get(classRef.name());
                         if (interestingMethodsInClass != null) {
                             for (String methodName : interestingMethodsInClass) {
-                                interestingMethods.add(classRef.methodsByName(methodName).get(0));
+                                Method method = classRef.methodsByName(methodName).get(0);
+                                if (transactionDemarcatingThread == null) {
+                                    BreakpointRequest bpRequest = erManager.createBreakpointRequest(method.location());
+                                    bpRequest.setSuspendPolicy(EventRequest.SUSPEND_ALL);
+                                    bpRequest.enable();
+                                } else {
+                                    interestingMethods.add(method);
+                                }
                                 erManager.deleteEventRequest(cpEvent.request());
                             }
                         }
@@ -114,7 +159,8 @@ public class JVMCrashTrigger implements Runnable {
                         System.out.println(stepEvent);
                     } else if (event instanceof ThreadStartEvent) {
                         ThreadStartEvent tsEvent = (ThreadStartEvent) event;
-                        if (tsEvent.thread().name().equals(transactionDemarcatingThread)) {
+                        if (transactionDemarcatingThread != null
+                                && tsEvent.thread().name().equals(transactionDemarcatingThread)) {
                             mainThread = tsEvent.thread();
                             for (Method method : interestingMethods) {
                                 BreakpointRequest bpRequest = erManager.createBreakpointRequest(method.location());
@@ -0,0 +1,87 @@
+/*
+ * Engineering Ingegneria Informatica S.p.A.
+ *
+ * Copyright (C) 2023 Regione Emilia-Romagna
+ * <p/>
+ * This program is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU Affero General Public License as published by the Free Software Foundation,
+ * either version 3 of the License, or (at your option) any later version.
+ * <p/>
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU Affero General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.xadisk.tests.correctness;
+
+import java.io.File;
+import org.xadisk.bridge.proxies.interfaces.AsynchronousCommit;
+import org.xadisk.bridge.proxies.interfaces.Session;
+import org.xadisk.bridge.proxies.interfaces.XAFileInputStream;
+import org.xadisk.bridge.proxies.interfaces.XAFileOutputStream;
+import org.xadisk.filesystem.NativeXAFileSystem;
+import org.xadisk.filesystem.standalone.StandaloneFileSystemConfiguration;
+
+/*Commits asynchronously a transaction which still has an input and an output stream open,
+and then checks that the changes got applied and the locks of the transaction got released.
+ */
+public class TestAsynchronousCommit {
+
+    private static final String SEPERATOR = File.separator;
+    private static final String topLevelTestDirectory = Configuration.getTestRootDirectory();
+    private static final String XADiskSystemDirectory = Configuration.getXADiskSystemDirectory();
+
+    public static void main(String args[]) {
+        try {
+            TestUtility.cleanupDirectory(new File(XADiskSystemDirectory));
+            TestUtility.cleanupDirectory(new File(topLevelTestDirectory));
+            StandaloneFileSystemConfiguration configuration = new StandaloneFileSystemConfiguration(XADiskSystemDirectory, "local");
+            configuration.setServerPort(Configuration.getNextServerPort());
+            configuration.setLockTimeOut(5 * 1000);
+            NativeXAFileSystem xaFileSystem = NativeXAFileSystem.bootXAFileSystemStandAlone(configuration);
+            xaFileSystem.waitForBootup(-1L);
+
+            File testDirectory = new File(topLevelTestDirectory + SEPERATOR + "testAsynchronousCommit");
+            testDirectory.mkdirs();
+            File readFile = new File(testDirectory, "read.txt");
+            File writtenFile = new File(testDirectory, "written.txt");
+            byte content[] = "TextContent...".getBytes();
+
+            Session session = xaFileSystem.createSessionForLocalTransaction();
+            session.createFile(readFile, false);
+            session.createFile(writtenFile, false);
+            XAFileOutputStream xafos = session.createXAFileOutputStream(readFile, false);
+            xafos.write(content);
+            xafos.close();
+            session.commit();
+
+            session = xaFileSystem.createSessionForLocalTransaction();
+            XAFileInputStream xafis = session.createXAFileInputStream(readFile, true);
+            xafis.read();
+            xafos = session.createXAFileOutputStream(writtenFile, false);
+            xafos.write(content);
+            AsynchronousCommit commit = session.commitAsync();
+            commit.waitUntilApplied();
+
+            if (!xafis.isClosed() || !xafos.isClosed()) {
+                throw new AssertionFailedException("The streams were left open by the commit.");
+            }
+            TestUtility.checkFileContent(writtenFile, content);
+
+            session = xaFileSystem.createSessionForLocalTransaction();
+            xafos = session.createXAFileOutputStream(readFile, false);
+            xafos.write(content);
+            xafos.close();
+            session.commit();
+            TestUtility.checkFileContent(readFile, (new String(content) + new String(content)).getBytes());
+
+            xaFileSystem.shutdown();
+            System.out.println("Test passed.");
+        } catch (Throwable t) {
+            t.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Engineering Ingegneria Informatica S.p.A.
+ *
+ * Copyright (C) 2023 Regione Emilia-Romagna
+ * <p/>
+ * This program is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU Affero General Public License as published by the Free Software Foundation,
+ * either version 3 of the License, or (at your option) any later version.
+ * <p/>
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU Affero General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.xadisk.tests.correctness;
+
+import java.io.File;
+import org.xadisk.bridge.proxies.interfaces.Session;
+import org.xadisk.bridge.proxies.interfaces.XAFileOutputStream;
+import org.xadisk.filesystem.NativeSession;
+import org.xadisk.filesystem.NativeXAFileSystem;
+import org.xadisk.filesystem.standalone.StandaloneFileSystemConfiguration;
+
+/*Crashes a compaction of the transaction logs after the copies of the log entries have been forced
+to the current log, and before the older logs have been retired. The transaction being compacted has
+written directly to a file (heavy write) and truncated it, so the recovery must roll these back from
+the log entries, while keeping the transactions committed in the older logs.
+ */
+public class TestCrashDuringCompaction {
+
+    private static final String SEPERATOR = File.separator;
+    private static final String topLevelTestDirectory = Configuration.getTestRootDirectory();
+    private static final String XADiskSystemDirectory = Configuration.getXADiskSystemDirectory();
+    private static final String forRunningTests = "forRunningTests";
+    private static final String testDirectory = topLevelTestDirectory + SEPERATOR + "testCrashDuringCompaction";
+    private static final File rolledBackFile = new File(testDirectory + SEPERATOR + "rolledBack.txt");
+    private static final int numberOfCommittedFiles = 10;
+    private static final byte originalContent[] = getContent("OriginalContent...", 5000);
+    private static final byte appendedContent[] = getContent("AppendedContent...", 2000);
+    private static final byte committedContent[] = getContent("CommittedContent...", 30000);
+
+    public static void main(String args[]) {
+        try {
+            if (args.length > 0 && args[0].equals(forRunningTests)) {
+                runTillCrash();
+                return;
+            }
+            TestUtility.cleanupDirectory(new File(XADiskSystemDirectory));
+            TestUtility.cleanupDirectory(new File(topLevelTestDirectory));
+            new File(testDirectory).mkdirs();
+            System.out.println("Raising child JVM for controlled crash...");
+            Process controlledJVM = JVMCrashTrigger.powerOnJVMAsDebugeeForCrash(
+                    TestCrashDuringCompaction.class.getName() + " " + forRunningTests,
+                    NativeSession.class.getName(), "relocateLogEntries");
+            int status = controlledJVM.waitFor();
+            if (status == 0) {
+                throw new AssertionFailedException("The child JVM did not crash.");
+            }
+            System.out.println("Crashed!! Status=" + status);
+            if (rolledBackFile.length() == originalContent.length) {
+                throw new AssertionFailedException("The compacted transaction had not written to the file.");
+            }
+
+            NativeXAFileSystem xaFileSystem = bootXAFileSystem();
+            TestUtility.checkFileContent(rolledBackFile, originalContent);
+            for (int i = 0; i < numberOfCommittedFiles; i++) {
+                TestUtility.checkFileContent(getCommittedFile(i), committedContent);
+            }
+            xaFileSystem.shutdown();
+            System.out.println("Test passed.");
+        } catch (Throwable t) {
+            t.printStackTrace();
+        }
+    }
+
+    private static void runTillCrash() throws Exception {
+        NativeXAFileSystem xaFileSystem = bootXAFileSystem();
+        Session session = xaFileSystem.createSessionForLocalTransaction();
+        session.createFile(rolledBackFile, false);
+        XAFileOutputStream xafos = session.createXAFileOutputStream(rolledBackFile, false);
+        xafos.write(originalContent);
+        xafos.close();
+        session.commit();
+
+        Session compactedSession = xaFileSystem.createSessionForLocalTransaction();
+        xafos = compactedSession.createXAFileOutputStream(rolledBackFile, true);
+        xafos.write(appendedContent);
+        xafos.close();
+        compactedSession.truncateFile(rolledBackFile, originalContent.length / 5);
+
+        //these fill up the logs, leaving the entries of the compacted session in an older log.
+        for (int i = 0; i < numberOfCommittedFiles; i++) {
+            session = xaFileSystem.createSessionForLocalTransaction();
+            session.createFile(getCommittedFile(i), false);
+            xafos = session.createXAFileOutputStream(getCommittedFile(i), false);
+            xafos.write(committedContent);
+            xafos.close();
+            session.commit();
+        }
+        Thread.sleep(30 * 1000);
+        System.out.println("The compaction was not crashed.");
+        compactedSession.rollback();
+        xaFileSystem.shutdown();
+    }
+
+    private static NativeXAFileSystem bootXAFileSystem() throws InterruptedException {
+        StandaloneFileSystemConfiguration configuration = new StandaloneFileSystemConfiguration(XADiskSystemDirectory, "local");
+        configuration.setServerPort(Configuration.getNextServerPort());
+        configuration.setTransactionLogFileMaxSize(100000L);
+        configuration.setTransactionLogCompactionInterval(1);
+        //the content is repetitive; compressed, it would not fill up the logs.
+        configuration.setTransactionLogContentCodec("none");
+        NativeXAFileSystem xaFileSystem = NativeXAFileSystem.bootXAFileSystemStandAlone(configuration);
+        xaFileSystem.waitForBootup(-1L);
+        return xaFileSystem;
+    }
+
+    private static File getCommittedFile(int i) {
+        return new File(testDirectory + SEPERATOR + "committed" + i + ".txt");
+    }
+
+    private static byte[] getContent(String text, int length) {
+        byte content[] = new byte[length];
+        byte textBytes[] = text.getBytes();
+        for (int i = 0; i < length; i++) {
+            content[i] = textBytes[i % textBytes.length];
+        }
+        return content;
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * Engineering Ingegneria Informatica S.p.A.
+ *
+ * Copyright (C) 2023 Regione Emilia-Romagna
+ * <p/>
+ * This program is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU Affero General Public License as published by the Free Software Foundation,
+ * either version 3 of the License, or (at your option) any later version.
+ * <p/>
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU Affero General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.xadisk.tests.correctness;
+
+import java.io.File;
+import org.xadisk.bridge.proxies.interfaces.Session;
+import org.xadisk.bridge.proxies.interfaces.XAFileOutputStream;
+import org.xadisk.filesystem.AsynchronousCommitTracker;
+import org.xadisk.filesystem.NativeXAFileSystem;
+import org.xadisk.filesystem.standalone.StandaloneFileSystemConfiguration;
+
+/*Crashes a write-behind commit once its commit record is durable but before its redo has been
+applied to the real files, and then checks that the recovery applies the transaction.
+ */
+public class TestCrashWithPendingRedo {
+
+    private static final String SEPERATOR = File.separator;
+    private static final String topLevelTestDirectory = Configuration.getTestRootDirectory();
+    private static final String XADiskSystemDirectory = Configuration.getXADiskSystemDirectory();
+    private static final String forRunningTests = "forRunningTests";
+    private static final File testFile = new File(topLevelTestDirectory + SEPERATOR + "testCrashWithPendingRedo"
+            + SEPERATOR + "written.txt");
+    private static final byte content[] = "TextContent...".getBytes();
+
+    public static void main(String args[]) {
+        try {
+            if (args.length > 0 && args[0].equals(forRunningTests)) {
+                NativeXAFileSystem xaFileSystem = bootXAFileSystem();
+                Session session = xaFileSystem.createSessionForLocalTransaction();
+                session.createFile(testFile, false);
+                XAFileOutputStream xafos = session.createXAFileOutputStream(testFile, false);
+                xafos.write(content);
+                xafos.close();
+                session.commit();
+                System.out.println("The commit was not crashed.");
+                xaFileSystem.shutdown();
+                return;
+            }
+            TestUtility.cleanupDirectory(new File(XADiskSystemDirectory));
+            TestUtility.cleanupDirectory(new File(topLevelTestDirectory));
+            testFile.getParentFile().mkdirs();
+            System.out.println("Raising child JVM for controlled crash...");
+            Process controlledJVM = JVMCrashTrigger.powerOnJVMAsDebugeeForCrash(
+                    TestCrashWithPendingRedo.class.getName() + " " + forRunningTests,
+                    AsynchronousCommitTracker.class.getName(), "commitDurable");
+            int status = controlledJVM.waitFor();
+            if (status == 0) {
+                throw new AssertionFailedException("The child JVM did not crash.");
+            }
+            System.out.println("Crashed!! Status=" + status);
+            if (testFile.exists()) {
+                throw new AssertionFailedException("The redo was applied before the crash point.");
+            }
+
+            NativeXAFileSystem xaFileSystem = bootXAFileSystem();
+            TestUtility.checkFileContent(testFile, content);
+            xaFileSystem.shutdown();
+            System.out.println("Test passed.");
+        } catch (Throwable t) {
+            t.printStackTrace();
+        }
+    }
+
+    private static NativeXAFileSystem bootXAFileSystem() throws InterruptedException {
+        StandaloneFileSystemConfiguration configuration = new StandaloneFileSystemConfiguration(XADiskSystemDirectory, "local");
+        configuration.setServerPort(Configuration.getNextServerPort());
+        configuration.setCommitWriteBehind(true);
+        NativeXAFileSystem xaFileSystem = NativeXAFileSystem.bootXAFileSystemStandAlone(configuration);
+        xaFileSystem.waitForBootup(-1L);
+        return xaFileSystem;
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ * Engineering Ingegneria Informatica S.p.A.
+ *
+ * Copyright (C) 2023 Regione Emilia-Romagna
+ * <p/>
+ * This program is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU Affero General Public License as published by the Free Software Foundation,
+ * either version 3 of the License, or (at your option) any later version.
+ * <p/>
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU Affero General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.xadisk.tests.correctness;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import org.xadisk.bridge.proxies.interfaces.Session;
+import org.xadisk.bridge.proxies.interfaces.XAFileOutputStream;
+import org.xadisk.filesystem.AsynchronousCommitTracker;
+import org.xadisk.filesystem.NativeXAFileSystem;
+import org.xadisk.filesystem.TransactionLogEntry;
+import org.xadisk.filesystem.standalone.StandaloneFileSystemConfiguration;
+import org.xadisk.filesystem.utilities.FileIOUtility;
+
+/*Crashes a write-behind commit once its commit record is durable, and then leaves behind its log
+entries an unversioned (version 0) copy of its file append entry with other content, followed by a
+torn entry. Checks that the recovery stops at the last valid entry and applies the transaction with
+its own content only.
+ */
+public class TestTornLogTail {
+
+    private static final String SEPERATOR = File.separator;
+    private static final String topLevelTestDirectory = Configuration.getTestRootDirectory();
+    private static final String XADiskSystemDirectory = Configuration.getXADiskSystemDirectory();
+    private static final String forRunningTests = "forRunningTests";
+    private static final File testFile = new File(topLevelTestDirectory + SEPERATOR + "testTornLogTail"
+            + SEPERATOR + "written.txt");
+    private static final byte content[] = "TextContent...".getBytes();
+    private static final byte otherContent[] = "OtherContent..".getBytes();
+    //the frame version is kept in the bits 24 to 27 of the first int of a log entry.
+    private static final int FRAME_VERSION_BITS = 0xF << 24;
+
+    public static void main(String args[]) {
+        try {
+            if (args.length > 0 && args[0].equals(forRunningTests)) {
+                NativeXAFileSystem xaFileSystem = bootXAFileSystem();
+                Session session = xaFileSystem.createSessionForLocalTransaction();
+                session.createFile(testFile, false);
+                XAFileOutputStream xafos = session.createXAFileOutputStream(testFile, false);
+                xafos.write(content);
+                xafos.close();
+                session.commit();
+                System.out.println("The commit was not crashed.");
+                xaFileSystem.shutdown();
+                return;
+            }
+            TestUtility.cleanupDirectory(new File(XADiskSystemDirectory));
+            TestUtility.cleanupDirectory(new File(topLevelTestDirectory));
+            testFile.getParentFile().mkdirs();
+            System.out.println("Raising child JVM for controlled crash...");
+            Process controlledJVM = JVMCrashTrigger.powerOnJVMAsDebugeeForCrash(
+                    TestTornLogTail.class.getName() + " " + forRunningTests,
+                    AsynchronousCommitTracker.class.getName(), "commitDurable");
+            int status = controlledJVM.waitFor();
+            if (status == 0) {
+                throw new AssertionFailedException("The child JVM did not crash.");
+            }
+            System.out.println("Crashed!! Status=" + status);
+            if (testFile.exists()) {
+                throw new AssertionFailedException("The redo was applied before the crash point.");
+            }
+            appendInvalidTail(getLatestTransactionLog());
+
+            NativeXAFileSystem xaFileSystem = bootXAFileSystem();
+            TestUtility.checkFileContent(testFile, content);
+            xaFileSystem.shutdown();
+            System.out.println("Test passed.");
+        } catch (Throwable t) {
+            t.printStackTrace();
+        }
+    }
+
+    private static File getLatestTransactionLog() throws AssertionFailedException {
+        File transactionLogsDir = new File(XADiskSystemDirectory, "txnlogs");
+        File latest = null;
+        int latestIndex = -1;
+        String names[] = transactionLogsDir.list();
+        for (int i = 0; names != null && i < names.length; i++) {
+            if (!names[i].startsWith("xadisk.log_")) {
+                continue;
+            }
+            int index = Integer.parseInt(names[i].substring("xadisk.log_".length()));
+            if (index > latestIndex) {
+                latestIndex = index;
+                latest = new File(transactionLogsDir, names[i]);
+            }
+        }
+        if (latest == null) {
+            throw new AssertionFailedException("No transaction log was found.");
+        }
+        return latest;
+    }
+
+    /*
+     * Writes, just after the valid entries of the log, a version 0 copy of the file append entry with
+     * the other content, and then the first half of the original entry.
+     */
+    private static void appendInvalidTail(File transactionLog) throws Exception {
+        FileChannel logChannel = new RandomAccessFile(transactionLog, "rw").getChannel();
+        try {
+            ByteBuffer headerBuffer = ByteBuffer.allocate(1000);
+            ByteBuffer chunkBuffer = TransactionLogEntry.allocateChecksumChunk();
+            long logSize = logChannel.size();
+            long position = 0;
+            long appendEntryPosition = -1;
+            int appendEntryLength = 0;
+            while (true) {
+                TransactionLogEntry logEntry;
+                try {
+                    logEntry = TransactionLogEntry.getNextVerifiedTransactionLogEntry(logChannel, position, logSize,
+                            false, headerBuffer, chunkBuffer);
+                } catch (EOFException eofe) {
+                    break;
+                }
+                int length = logEntry.getHeaderLength() + logEntry.getFileContentLength();
+                if (logEntry.getOperationType() == TransactionLogEntry.FILE_APPEND) {
+                    appendEntryPosition = position;
+                    appendEntryLength = length;
+                }
+                position += length;
+            }
+            if (appendEntryPosition == -1) {
+                throw new AssertionFailedException("The file append entry was not found in the log.");
+            }
+            ByteBuffer appendEntry = ByteBuffer.allocate(appendEntryLength);
+            FileIOUtility.readFromChannel(logChannel, appendEntryPosition, appendEntry, 0, appendEntryLength);
+
+            ByteBuffer unversionedCopy = ByteBuffer.allocate(appendEntryLength);
+            unversionedCopy.put(appendEntry.array());
+            unversionedCopy.putInt(0, unversionedCopy.getInt(0) & ~FRAME_VERSION_BITS);
+            unversionedCopy.position(appendEntryLength - content.length);
+            unversionedCopy.put(otherContent);
+            unversionedCopy.flip();
+            ByteBuffer tornEntry = ByteBuffer.wrap(appendEntry.array(), 0, appendEntryLength / 2);
+
+            while (unversionedCopy.hasRemaining()) {
+                position += logChannel.write(unversionedCopy, position);
+            }
+            while (tornEntry.hasRemaining()) {
+                position += logChannel.write(tornEntry, position);
+            }
+            logChannel.force(true);
+        } finally {
+            logChannel.close();
+        }
+    }
+
+    private static NativeXAFileSystem bootXAFileSystem() throws InterruptedException {
+        StandaloneFileSystemConfiguration configuration = new StandaloneFileSystemConfiguration(XADiskSystemDirectory, "local");
+        configuration.setServerPort(Configuration.getNextServerPort());
+        configuration.setCommitWriteBehind(true);
+        NativeXAFileSystem xaFileSystem = NativeXAFileSystem.bootXAFileSystemStandAlone(configuration);
+        xaFileSystem.waitForBootup(-1L);
+        return xaFileSystem;
+    }
+}
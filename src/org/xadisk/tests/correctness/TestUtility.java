@@ -225,6 +225,20 @@ public class TestUtility {
         return new File(root + File.separator + relativePath);
     }
 
+    public static void checkFileContent(File f, byte expected[]) throws IOException, AssertionFailedException {
+        byte actual[] = new byte[expected.length + 1];
+        FileInputStream fis = new FileInputStream(f);
+        int total = 0;
+        int read;
+        while ((read = fis.read(actual, total, actual.length - total)) > 0) {
+            total += read;
+        }
+        fis.close();
+        if (total != expected.length || !new String(actual, 0, total).equals(new String(expected))) {
+            throw new AssertionFailedException("Unexpected content in " + f + " : " + new String(actual, 0, total));
+        }
+    }
+
     public static void waitForAllAtHeaven(ArrayList<Thread> threads) {
         for (Thread t : threads) {
             while (t.isAlive()) {
@@ -0,0 +1,231 @@
+/*
+ * Engineering Ingegneria Informatica S.p.A.
+ *
+ * Copyright (C) 2023 Regione Emilia-Romagna
+ * <p/>
+ * This program is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU Affero General Public License as published by the Free Software Foundation,
+ * either version 3 of the License, or (at your option) any later version.
+ * <p/>
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU Affero General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.xadisk.tests.performance;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.xadisk.filesystem.pools.BufferPool;
+import org.xadisk.filesystem.pools.PooledBuffer;
+
+/**
+ * Compares, under a bursty load, the buffer pool (whose free lists are stacks) against a pool
+ * whose free list is a queue, as the buffer pool had before. A few bursts, where many threads check
+ * out many direct buffers at once, are followed by a quiet period, where a single thread keeps
+ * checking out one buffer at a time while the idle buffers are freed.
+ * <p> It reports the mean time of a check-out during the bursts (but the first, which allocates the
+ * buffers) and, after the quiet period, the number of buffers still pooled and the resident set size
+ * of the process (from /proc, where available). With a queue, the quiet thread goes round all the buffers, none of which ever becomes
+ * idle; with a stack, it keeps reusing the same buffer, and the rest get freed.
+ * <p> Run it once for each pool, "stack" and "queue", in separate JVMs so that the resident sizes
+ * do not mix, e.g. with -XX:MaxDirectMemorySize=256m.
+ */
+public class BufferPoolAppraiser {
+
+    private static final int BUFFER_SIZE = 65536;
+    private static final int POOL_SIZE = 1024;
+    private static final int IDLE_TIME = 1;
+    private static final int THREADS = 8;
+    private static final int BURSTS = 20;
+    private static final int BUFFERS_PER_BURST = 64;
+    private static final int QUIET_MILLIS = 4000;
+    private static final int PAGE_SIZE = 4096;
+
+    public static void main(String args[]) {
+        try {
+            boolean useStack = args.length == 0 || !args[0].equals("queue");
+            final AppraisedPool pool = useStack ? new StackPool() : new QueuePool();
+            final AtomicLong checkOutNanos = new AtomicLong(0);
+            final AtomicInteger checkOuts = new AtomicInteger(0);
+            Thread threads[] = new Thread[THREADS];
+            for (int t = 0; t < THREADS; t++) {
+                threads[t] = new Thread() {
+
+                    @Override
+                    public void run() {
+                        Object held[] = new Object[BUFFERS_PER_BURST];
+                        for (int burst = 0; burst < BURSTS; burst++) {
+                            long start = System.nanoTime();
+                            for (int i = 0; i < held.length; i++) {
+                                held[i] = pool.checkOut();
+                            }
+                            if (burst > 0) {
+                                //the first burst allocates the buffers; the later ones reuse them.
+                                checkOutNanos.addAndGet(System.nanoTime() - start);
+                                checkOuts.addAndGet(held.length);
+                            }
+                            for (int i = 0; i < held.length; i++) {
+                                touch(pool.getBuffer(held[i]));
+                            }
+                            for (int i = 0; i < held.length; i++) {
+                                pool.checkIn(held[i]);
+                            }
+                        }
+                    }
+                };
+                threads[t].start();
+            }
+            for (int t = 0; t < THREADS; t++) {
+                threads[t].join();
+            }
+            long rssAfterBursts = getResidentSetSize();
+            long quietEnd = System.currentTimeMillis() + QUIET_MILLIS;
+            long nextFreeing = 0;
+            while (System.currentTimeMillis() < quietEnd) {
+                Object buffer = pool.checkOut();
+                touch(pool.getBuffer(buffer));
+                pool.checkIn(buffer);
+                if (System.currentTimeMillis() >= nextFreeing) {
+                    pool.freeIdleMembers();
+                    nextFreeing = System.currentTimeMillis() + 100;
+                }
+                Thread.sleep(1);
+            }
+            System.gc();
+            Thread.sleep(500);
+            System.out.println("pool\tcheckout-ns\tpooled\trss-MB(bursts)\trss-MB(quiet)");
+            System.out.println((useStack ? "stack" : "queue") + "\t" + checkOutNanos.get() / checkOuts.get()
+                    + "\t" + pool.getPooledCount()
+                    + "\t" + rssAfterBursts + "\t" + getResidentSetSize());
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static void touch(ByteBuffer buffer) {
+        for (int position = 0; position < buffer.capacity(); position += PAGE_SIZE) {
+            buffer.put(position, (byte) 1);
+        }
+    }
+
+    private static long getResidentSetSize() {
+        try {
+            BufferedReader reader = new BufferedReader(new FileReader("/proc/self/status"));
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (line.startsWith("VmRSS:")) {
+                        return Long.parseLong(line.substring(6).trim().split("\\s+")[0]) / 1024;
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (IOException ioe) {
+            //not available on this platform.
+        }
+        return -1;
+    }
+
+    private interface AppraisedPool {
+
+        Object checkOut();
+
+        ByteBuffer getBuffer(Object buffer);
+
+        void checkIn(Object buffer);
+
+        void freeIdleMembers();
+
+        int getPooledCount();
+    }
+
+    private static class StackPool implements AppraisedPool {
+
+        private final BufferPool pool = new BufferPool(POOL_SIZE, 0, BUFFER_SIZE, BUFFER_SIZE, IDLE_TIME, IDLE_TIME,
+                null);
+
+        public Object checkOut() {
+            return pool.checkOut();
+        }
+
+        public ByteBuffer getBuffer(Object buffer) {
+            return ((PooledBuffer) buffer).getBuffer();
+        }
+
+        public void checkIn(Object buffer) {
+            pool.checkIn((PooledBuffer) buffer);
+        }
+
+        public void freeIdleMembers() {
+            pool.freeIdleMembers();
+        }
+
+        public int getPooledCount() {
+            return pool.getCurrentDirectPoolSize();
+        }
+    }
+
+    private static class QueuePool implements AppraisedPool {
+
+        private final ConcurrentLinkedQueue<QueuedBuffer> freeBuffers = new ConcurrentLinkedQueue<QueuedBuffer>();
+        private final AtomicInteger poolSize = new AtomicInteger(0);
+
+        public Object checkOut() {
+            QueuedBuffer buffer = freeBuffers.poll();
+            if (buffer != null) {
+                return buffer;
+            }
+            if (poolSize.incrementAndGet() > POOL_SIZE) {
+                poolSize.decrementAndGet();
+                return null;
+            }
+            return new QueuedBuffer();
+        }
+
+        public ByteBuffer getBuffer(Object buffer) {
+            return ((QueuedBuffer) buffer).buffer;
+        }
+
+        public void checkIn(Object buffer) {
+            ((QueuedBuffer) buffer).lastFreed = System.currentTimeMillis() / 1000;
+            freeBuffers.offer((QueuedBuffer) buffer);
+        }
+
+        public void freeIdleMembers() {
+            long now = System.currentTimeMillis() / 1000;
+            while (true) {
+                QueuedBuffer buffer = freeBuffers.peek();
+                if (buffer == null) {
+                    break;
+                }
+                if (now - buffer.lastFreed > IDLE_TIME) {
+                    if (freeBuffers.remove(buffer)) {
+                        poolSize.decrementAndGet();
+                    }
+                } else {
+                    break;
+                }
+            }
+        }
+
+        public int getPooledCount() {
+            return poolSize.get();
+        }
+    }
+
+    private static class QueuedBuffer {
+
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        private volatile long lastFreed = -1;
+    }
+}
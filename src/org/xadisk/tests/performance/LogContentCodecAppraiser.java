@@ -0,0 +1,116 @@
+/*
+ * Engineering Ingegneria Informatica S.p.A.
+ *
+ * Copyright (C) 2023 Regione Emilia-Romagna
+ * <p/>
+ * This program is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU Affero General Public License as published by the Free Software Foundation,
+ * either version 3 of the License, or (at your option) any later version.
+ * <p/>
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU Affero General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.xadisk.tests.performance;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Random;
+import org.xadisk.filesystem.TransactionLogEntry;
+import org.xadisk.filesystem.utilities.DeflaterLogContentCodec;
+import org.xadisk.filesystem.utilities.LogContentCodec;
+
+/**
+ * Compares, for content of varying compressibility, the time to log the file append entries as
+ * they are against the time to compress and then log them. The content is made of a mix of
+ * repetitive text and random bytes; the compressibility goes down as the random part goes up.
+ * The break-even point is where the two times become equal.
+ */
+public class LogContentCodecAppraiser {
+
+    private static final int ENTRY_CONTENT_SIZE = 4096;
+    private static final int ENTRIES_PER_FORCE = 64;
+    private static final int TOTAL_ENTRIES = 8192;
+
+    public static void main(String args[]) {
+        try {
+            File logFile = new File(args.length > 0 ? args[0] : "C:\\xadiskPerformance\\codec.log");
+            LogContentCodec codec = new DeflaterLogContentCodec();
+            System.out.println("random%\tratio\traw-ms\tencoded-ms");
+            for (int randomPercent = 0; randomPercent <= 100; randomPercent += 10) {
+                ByteBuffer entries[] = createLogEntries(randomPercent);
+                long rawTime = logEntries(logFile, entries, null);
+                long encodedTime = logEntries(logFile, entries, codec);
+                long rawBytes = 0;
+                long encodedBytes = 0;
+                for (int i = 0; i < entries.length; i++) {
+                    ByteBuffer encoded = TransactionLogEntry.encodeContent(entries[i], codec);
+                    rawBytes += entries[i].remaining();
+                    encodedBytes += encoded == null ? entries[i].remaining() : encoded.remaining();
+                }
+                System.out.println(randomPercent + "\t" + (encodedBytes * 100 / rawBytes) + "%\t"
+                        + rawTime / 1000000 + "\t" + encodedTime / 1000000);
+            }
+            logFile.delete();
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static ByteBuffer[] createLogEntries(int randomPercent) {
+        Random random = new Random(randomPercent);
+        byte xidBytes[] = new byte[20];
+        byte filePathBytes[] = TransactionLogEntry.getUTF8Bytes("/archive/2023/06/15/package/document.xml");
+        byte content[] = new byte[ENTRY_CONTENT_SIZE];
+        byte text[] = TransactionLogEntry.getUTF8Bytes("<element attribute=\"value\">some text content</element>\n");
+        ByteBuffer entries[] = new ByteBuffer[TOTAL_ENTRIES / 16];
+        for (int i = 0; i < entries.length; i++) {
+            for (int j = 0; j < content.length; j++) {
+                content[j] = random.nextInt(100) < randomPercent ? (byte) random.nextInt() : text[j % text.length];
+            }
+            entries[i] = ByteBuffer.allocate(TransactionLogEntry.getLogEntryLength(xidBytes, filePathBytes, true)
+                    + content.length);
+            TransactionLogEntry.putLogEntry(entries[i], xidBytes, filePathBytes, 0L, content.length,
+                    TransactionLogEntry.FILE_APPEND);
+            entries[i].put(content);
+            entries[i].flip();
+        }
+        return entries;
+    }
+
+    private static long logEntries(File logFile, ByteBuffer entries[], LogContentCodec codec) throws Exception {
+        logFile.delete();
+        RandomAccessFile raf = new RandomAccessFile(logFile, "rw");
+        try {
+            FileChannel logChannel = raf.getChannel();
+            long start = System.nanoTime();
+            for (int i = 0; i < TOTAL_ENTRIES; i++) {
+                ByteBuffer entry = entries[i % entries.length].duplicate();
+                if (codec != null) {
+                    ByteBuffer encoded = TransactionLogEntry.encodeContent(entry, codec);
+                    if (encoded != null) {
+                        entry = encoded;
+                    }
+                } else {
+                    TransactionLogEntry.sealLogEntry(entry);
+                }
+                while (entry.hasRemaining()) {
+                    logChannel.write(entry);
+                }
+                if (i % ENTRIES_PER_FORCE == ENTRIES_PER_FORCE - 1) {
+                    logChannel.force(false);
+                }
+            }
+            logChannel.force(false);
+            return System.nanoTime() - start;
+        } finally {
+            raf.close();
+        }
+    }
+}